@@ -44,6 +44,56 @@ tasks.withType(JavaCompile::class) {
     options.isDeprecation = true
 }
 
+// === TOOLS =======================================================================================
+
+// e.g. ./gradlew batch --args="-j 8 examples"
+tasks.register<JavaExec>("batch") {
+    description = "Runs Sigh scripts concurrently (see norswap.sigh.batch.BatchRunner)."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("norswap.sigh.batch.BatchRunner")
+}
+
+// e.g. ./gradlew daemon --args="--tiered"
+tasks.register<JavaExec>("daemon") {
+    description = "Starts a resident Sigh daemon (see norswap.sigh.daemon.SighDaemon)."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("norswap.sigh.daemon.SighDaemon")
+}
+
+// e.g. ./gradlew differential --args="--save timings.tsv examples"
+tasks.register<JavaExec>("differential") {
+    description = "Compares the interpreter and the bytecode compiler " +
+        "(see norswap.sigh.differential.DifferentialHarness)."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("norswap.sigh.differential.DifferentialHarness")
+}
+
+// e.g. ./gradlew generate --args="--scale 1000 large.si"
+tasks.register<JavaExec>("generate") {
+    description = "Generates a large Sigh program (see norswap.sigh.generator.ProgramGenerator)."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("norswap.sigh.generator.ProgramGenerator")
+}
+
+// === BENCHMARKS ==================================================================================
+
+// JMH benchmarks, in the jmh directory (see norswap.sigh.benchmarks).
+val jmh: SourceSet by sourceSets.creating {
+    java.srcDir("jmh")
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[jmh.implementationConfigurationName]
+    .extendsFrom(configurations.implementation.get())
+
+// e.g. ./gradlew jmh --args="ParserBenchmark -p workload=kitchensink -prof gc"
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks (see norswap.sigh.benchmarks)."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+}
+
 // === IDE =========================================================================================
 
 idea.module {
@@ -69,6 +119,8 @@ dependencies {
     implementation("org.ow2.asm:asm-all:5.2")
     testImplementation("org.testng:testng:7.5")
     testImplementation("org.slf4j:slf4j-simple:1.7.36")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 // =================================================================================================
\ No newline at end of file
@@ -0,0 +1,53 @@
+package norswap.sigh.benchmarks;
+
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighRunner;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.SighNode;
+import norswap.uranium.Reactor;
+import norswap.utils.visitors.Walker;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the semantic analysis of a parsed tree: walking the tree with the {@link
+ * SemanticAnalysis} walker, which registers the rules, and running the {@link Reactor}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalysisBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({"fizzbuzz", "kitchensink", "recursion", "broadcast", "structs", "strings"})
+    public String workload;
+
+    private RootNode root;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup
+    public void setup () {
+        root = new SighRunner().parse(Workloads.source(workload));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public Reactor analyze ()
+    {
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(root);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+        return reactor;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
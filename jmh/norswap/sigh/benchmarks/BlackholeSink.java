@@ -0,0 +1,33 @@
+package norswap.sigh.benchmarks;
+
+import norswap.sigh.output.OutputSink;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * An output sink that discards the printed lines, by consuming them in a JMH blackhole so that
+ * their computation is not eliminated.
+ */
+final class BlackholeSink implements OutputSink
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final Blackhole blackhole;
+
+    // ---------------------------------------------------------------------------------------------
+
+    BlackholeSink (Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void println (CharSequence line) {
+        blackhole.consume(line);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void flush () {}
+
+    // ---------------------------------------------------------------------------------------------
+}
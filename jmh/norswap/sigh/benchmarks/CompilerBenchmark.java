@@ -0,0 +1,73 @@
+package norswap.sigh.benchmarks;
+
+import norswap.sigh.SighRunner;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.output.Output;
+import norswap.sigh.output.OutputSink;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link BytecodeCompiler}: compiling an analyzed program to JVM classes, and
+ * compiling, loading and running it (which includes the cost of class loading and of running the
+ * code before the JIT kicks in, as for a script that is run once).
+ *
+ * <p>The examples and the broadcast workload are left out, as they use features that the compiler
+ * does not support.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({"recursion", "structs", "strings"})
+    public String workload;
+
+    private CompiledProgram program;
+    private OutputSink previousSink;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup
+    public void setup (Blackhole blackhole)
+    {
+        program = new SighRunner().compile(Workloads.source(workload), workload);
+        previousSink = Output.install(new BlackholeSink(blackhole));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @TearDown
+    public void tearDown () {
+        Output.install(previousSink);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public CompilationResult compile () {
+        return new BytecodeCompiler(program.reactor).compile("CompilerBenchmarkRun", program.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public Class<?> compileAndRun ()
+    {
+        // a new loader for each run, so that the class can be defined again
+        Class<?> mainClass = compile().load(new ByteArrayClassLoader());
+        CompilationResult.callMain(mainClass);
+        return mainClass;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
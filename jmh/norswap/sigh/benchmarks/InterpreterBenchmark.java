@@ -0,0 +1,54 @@
+package norswap.sigh.benchmarks;
+
+import norswap.sigh.SighRunner;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.interpreter.InterpreterOptions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the execution of analyzed programs by the {@link norswap.sigh.interpreter.Interpreter},
+ * either purely tree-walking or with tiered execution (in which case the steady state runs the
+ * hot functions as compiled code).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({"fizzbuzz", "kitchensink", "recursion", "broadcast", "structs", "strings"})
+    public String workload;
+
+    @Param({"false", "true"})
+    public boolean tiered;
+
+    private CompiledProgram program;
+    private BlackholeSink sink;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup
+    public void setup (Blackhole blackhole)
+    {
+        InterpreterOptions options = tiered
+            ? InterpreterOptions.builder().tiered().backgroundCompilation(false).get()
+            : InterpreterOptions.DEFAULT;
+        program = new SighRunner(options).compile(Workloads.source(workload), workload);
+        sink = new BlackholeSink(blackhole);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public Object interpret () {
+        return program.execute(sink);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
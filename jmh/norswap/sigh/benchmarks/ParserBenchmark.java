@@ -0,0 +1,63 @@
+package norswap.sigh.benchmarks;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.parser.SighParser;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing throughput of {@link SighGrammar} and of the token-based {@link
+ * SighParser}: the number of parses per second, from which the throughput in bytes per second can
+ * be derived using the workload's length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({"fizzbuzz", "kitchensink", "recursion", "broadcast", "structs", "strings"})
+    public String workload;
+
+    private final SighGrammar grammar = new SighGrammar();
+
+    private final ParseOptions options = ParseOptions.builder()
+        .wellFormednessCheck(false)
+        .get();
+
+    private String source;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup
+    public void setup () {
+        source = Workloads.source(workload);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public Object parse ()
+    {
+        ParseResult result = Autumn.parse(grammar.root, source, options);
+        if (!result.fullMatch) throw new AssertionError(result.toString());
+        return result.topValue();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public RootNode parseTokens () {
+        return SighParser.parse(source);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
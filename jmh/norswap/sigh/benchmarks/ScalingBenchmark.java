@@ -0,0 +1,146 @@
+package norswap.sigh.benchmarks;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.SighRunner;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.parser.IncrementalParser;
+import norswap.sigh.parser.SighParser;
+import norswap.uranium.Reactor;
+import norswap.utils.visitors.Walker;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how parsing, semantic analysis and bytecode compilation scale with the size of the
+ * program, using programs of increasing size generated by the {@link
+ * norswap.sigh.generator.ProgramGenerator}. The time per operation should grow linearly with the
+ * scale: superlinear growth points to a scalability problem. Incremental reparsing ({@link
+ * #reparse}) should grow much slower than parsing.
+ *
+ * <p>An edit near the start of the program ({@link #reparseTop}) shifts the spans of almost all
+ * statements. The {@link IncrementalParser} only copies them when they are retrieved, so this
+ * should cost about as much as an edit that doesn't shift anything ({@link
+ * #reparseTopSameLength}): both grow linearly, but remain a small fraction of {@link
+ * #parseTokens}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScalingBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({"100", "1000", "10000"})
+    public int scale;
+
+    private final SighGrammar grammar = new SighGrammar();
+
+    private final ParseOptions options = ParseOptions.builder()
+        .wellFormednessCheck(false)
+        .get();
+
+    private String source;
+    private RootNode root;
+    private CompiledProgram program;
+
+    /** Offset of the edit simulated by {@link #reparse}, in the middle of the program. */
+    private int editOffset;
+
+    /** Offset of the edits simulated by {@link #reparseTop}, in the first statements. */
+    private int topEditOffset;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup
+    public void setup ()
+    {
+        source = Workloads.generated(scale);
+        SighRunner runner = new SighRunner();
+        root = runner.parse(source);
+        program = runner.analyze(runner.parse(source));
+        editOffset = source.indexOf(" = ", source.length() / 2) + 1;
+        topEditOffset = source.indexOf(" = ") + 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public Object parse ()
+    {
+        ParseResult result = Autumn.parse(grammar.root, source, options);
+        if (!result.fullMatch) throw new AssertionError(result.toString());
+        return result.topValue();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public RootNode parseTokens () {
+        return SighParser.parse(source);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Simulates a keystroke in the middle of the program: inserts a space and updates the tree
+     * with the {@link IncrementalParser}.
+     */
+    @Benchmark
+    public RootNode reparse () {
+        return IncrementalParser.reparse(root, source, editOffset, editOffset, " ");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Simulates a keystroke near the start of the program: inserts a space, which shifts the
+     * spans of (almost) all the statements.
+     */
+    @Benchmark
+    public RootNode reparseTop () {
+        return IncrementalParser.reparse(root, source, topEditOffset, topEditOffset, " ");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #reparseTop}, but overwrites a space instead of inserting one, so that no
+     * statement needs to be copied.
+     */
+    @Benchmark
+    public RootNode reparseTopSameLength () {
+        return IncrementalParser.reparse(root, source, topEditOffset - 1, topEditOffset, " ");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public Reactor analyze ()
+    {
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(root);
+        reactor.run();
+        return reactor;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark
+    public CompilationResult compile () {
+        return new BytecodeCompiler(program.reactor).compile("ScalingBenchmarkRun", program.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
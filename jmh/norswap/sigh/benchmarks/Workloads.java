@@ -0,0 +1,125 @@
+package norswap.sigh.benchmarks;
+
+import norswap.sigh.generator.ProgramGenerator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The Sigh programs measured by the benchmarks, identified by name (the values of the {@code
+ * workload} parameters): the scripts from the {@code examples} directory, representative workloads
+ * defined here, and large programs generated by the {@link ProgramGenerator}.
+ *
+ * <p>The examples are read relative to the working directory, which is the project directory when
+ * running {@code ./gradlew jmh}. Set the {@code sigh.examples} system property to read them from
+ * elsewhere.
+ */
+public final class Workloads
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private Workloads () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String GENERATED = "generated-";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Deep recursion: dominated by function calls. */
+    public static final String RECURSION =
+        "fun fib (n: Int): Int {\n" +
+        "    if (n < 2) return n\n" +
+        "    return fib(n - 1) + fib(n - 2)\n" +
+        "}\n" +
+        "return fib(20)\n";
+
+    /** Arithmetic broadcast over (nested) arrays. */
+    public static final String BROADCAST =
+        "var a: Int[] = (0:1000)\n" +
+        "var b: Int[] = (1000:2000)\n" +
+        "var c: Int[] = a\n" +
+        "var i: Int = 0\n" +
+        "while (i < 50) {\n" +
+        "    c = c + b - a * 2\n" +
+        "    i = i + 1\n" +
+        "}\n" +
+        "var grid: Int[][] = [a, b, c] * 3 + a\n" +
+        "return grid[2][999]\n";
+
+    /** Creation of many small structures, and accesses to their fields. */
+    public static final String STRUCTS =
+        "struct Point {\n" +
+        "    var x: Int\n" +
+        "    var y: Int\n" +
+        "}\n" +
+        "fun add (a: Point, b: Point): Point {\n" +
+        "    return $Point(a.x + b.x, a.y + b.y)\n" +
+        "}\n" +
+        "var sum: Point = $Point(0, 0)\n" +
+        "var i: Int = 0\n" +
+        "while (i < 2000) {\n" +
+        "    sum = add(sum, $Point(i, 1))\n" +
+        "    sum.y = sum.y + 1\n" +
+        "    i = i + 1\n" +
+        "}\n" +
+        "return sum.x + sum.y\n";
+
+    /** Building a long string by repeated concatenation. */
+    public static final String STRINGS =
+        "var s: String = \"\"\n" +
+        "var i: Int = 0\n" +
+        "while (i < 1000) {\n" +
+        "    s = s + i + \",\"\n" +
+        "    i = i + 1\n" +
+        "}\n" +
+        "return s\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the source of the workload with the given name: "recursion", "broadcast", "structs",
+     * "strings", "generated-{@code <scale>}" (cf. {@link ProgramGenerator#scale}) or the name of a
+     * script from the examples directory, without extension.
+     */
+    public static String source (String name)
+    {
+        if (name.startsWith(GENERATED))
+            return generated(Integer.parseInt(name.substring(GENERATED.length())));
+
+        switch (name) {
+            case "recursion": return RECURSION;
+            case "broadcast": return BROADCAST;
+            case "structs":   return STRUCTS;
+            case "strings":   return STRINGS;
+            default:          return example(name);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a program generated by the {@link ProgramGenerator}, whose size is proportional to
+     * {@code scale} (a scale of 1000 yields about 30k lines).
+     */
+    public static String generated (int scale) {
+        return new ProgramGenerator().scale(scale).generate();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String example (String name)
+    {
+        Path path = Paths.get(System.getProperty("sigh.examples", "examples"), name + ".si");
+        try {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read workload " + name + " from " + path, e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -80,6 +80,9 @@ public final class SemanticAnalysis
 
     private final Reactor R;
 
+    /** Called whenever a rule is instantiated. */
+    private final Runnable onRule;
+
     /** Current scope. */
     private Scope scope;
 
@@ -91,8 +94,9 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
-    private SemanticAnalysis(Reactor reactor) {
+    private SemanticAnalysis(Reactor reactor, Runnable onRule) {
         this.R = reactor;
+        this.onRule = onRule;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -101,12 +105,22 @@ public final class SemanticAnalysis
      * Call this method to create a tree walker that will instantiate the typing rules defined
      * in this class when used on an AST, using the given {@code reactor}.
      */
-    public static Walker<SighNode> createWalker (Reactor reactor)
+    public static Walker<SighNode> createWalker (Reactor reactor) {
+        return createWalker(reactor, () -> {});
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #createWalker(Reactor)}, but calls {@code onRule} whenever a rule is
+     * instantiated, e.g. to count them.
+     */
+    public static Walker<SighNode> createWalker (Reactor reactor, Runnable onRule)
     {
         ReflectiveFieldWalker<SighNode> walker = new ReflectiveFieldWalker<>(
             SighNode.class, PRE_VISIT, POST_VISIT);
 
-        SemanticAnalysis analysis = new SemanticAnalysis(reactor);
+        SemanticAnalysis analysis = new SemanticAnalysis(reactor, onRule);
 
         // expressions
         walker.register(IntLiteralNode.class,           PRE_VISIT,  analysis::intLiteral);
@@ -155,6 +169,22 @@ public final class SemanticAnalysis
         return walker;
     }
 
+    // ---------------------------------------------------------------------------------------------
+
+    private Rule rule (Attribute... exports) {
+        onRule.run();
+        return R.rule(exports);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Rule rule (Object node, String attribute) {
+        onRule.run();
+        return R.rule(node, attribute);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     // endregion
     // =============================================================================================
     // region [Expressions]
@@ -191,14 +221,14 @@ public final class SemanticAnalysis
             R.set(node, "decl",  maybeCtx.declaration);
             R.set(node, "scope", maybeCtx.scope);
 
-            R.rule(node, "type")
+            rule(node, "type")
             .using(maybeCtx.declaration, "type")
             .by(Rule::copyFirst);
             return;
         }
 
         // Re-lookup after the scopes have been built.
-        R.rule(node.attr("decl"), node.attr("scope"))
+        rule(node.attr("decl"), node.attr("scope"))
         .by(r -> {
             DeclarationContext ctx = scope.lookup(node.name);
             DeclarationNode decl = ctx == null ? null : ctx.declaration;
@@ -215,7 +245,7 @@ public final class SemanticAnalysis
                     r.errorFor("Variable used before declaration: " + node.name,
                         node, node.attr("type"));
                 else
-                    R.rule(node, "type")
+                    rule(node, "type")
                     .using(decl, "type")
                     .by(Rule::copyFirst);
             }
@@ -226,7 +256,7 @@ public final class SemanticAnalysis
 
     private void constructor (ConstructorNode node)
     {
-        R.rule()
+        rule()
         .using(node.ref, "decl")
         .by(r -> {
             DeclarationNode decl = r.get(0);
@@ -246,7 +276,7 @@ public final class SemanticAnalysis
             forEachIndexed(structDecl.fields, (i, field) ->
                 dependencies[i + 1] = field.attr("type"));
 
-            R.rule(node, "type")
+            rule(node, "type")
             .using(dependencies)
             .by(rr -> {
                 Type structType = rr.get(0);
@@ -267,11 +297,11 @@ public final class SemanticAnalysis
             final SighNode context = this.inferenceContext;
 
             if (context instanceof VarDeclarationNode)
-                R.rule(node, "type")
+                rule(node, "type")
                 .using(context, "type")
                 .by(Rule::copyFirst);
             else if (context instanceof FunCallNode) {
-                R.rule(node, "type")
+                rule(node, "type")
                 .using(((FunCallNode) context).function.attr("type"), node.attr("index"))
                 .by(r -> {
                     FunType funType = r.get(0);
@@ -279,7 +309,7 @@ public final class SemanticAnalysis
                 });
             }
             else if (context instanceof ForEachNode) {
-                R.rule(node, "type")
+                rule(node, "type")
                 .by(r -> {
                     r.error("For loop cannot iterate over an empty array", node);
                 });
@@ -290,7 +320,7 @@ public final class SemanticAnalysis
         Attribute[] dependencies =
             node.components.stream().map(it -> it.attr("type")).toArray(Attribute[]::new);
 
-        R.rule(node, "type")
+        rule(node, "type")
         .using(dependencies)
         .by(r -> {
             Type[] types = IntStream.range(0, dependencies.length).<Type>mapToObj(r::get)
@@ -327,7 +357,7 @@ public final class SemanticAnalysis
 
     private void parenthesized (ParenthesizedNode node)
     {
-        R.rule(node, "type")
+        rule(node, "type")
         .using(node.expression, "type")
         .by(Rule::copyFirst);
     }
@@ -336,14 +366,14 @@ public final class SemanticAnalysis
 
     private void fieldAccess (FieldAccessNode node)
     {
-        R.rule()
+        rule()
         .using(node.stem, "type")
         .by(r -> {
             Type type = r.get(0);
 
             if (type instanceof ArrayType) {
                 if (node.fieldName.equals("length"))
-                    R.rule(node, "type")
+                    rule(node, "type")
                     .by(rr -> rr.set(0, IntType.INSTANCE));
                 else
                     r.errorFor("Trying to access a non-length field on an array", node,
@@ -364,7 +394,7 @@ public final class SemanticAnalysis
             {
                 if (!field.name().equals(node.fieldName)) continue;
 
-                R.rule(node, "type")
+                rule(node, "type")
                 .using(field, "type")
                 .by(Rule::copyFirst);
 
@@ -381,7 +411,7 @@ public final class SemanticAnalysis
 
     private void arrayAccess (ArrayAccessNode node)
     {
-        R.rule()
+        rule()
         .using(node.index, "type")
         .by(r -> {
             Type type = r.get(0);
@@ -395,7 +425,7 @@ public final class SemanticAnalysis
             }
         });
 
-        R.rule(node, "type")
+        rule(node, "type")
         .using(node.array.attr("type"), node.index.attr("type"))
         .by(r -> {
             Type type = r.get(0);
@@ -424,7 +454,7 @@ public final class SemanticAnalysis
             R.set(arg, "index", i);
         });
 
-        R.rule(node, "type")
+        rule(node, "type")
         .using(dependencies)
         .by(r -> {
             Type maybeFunType = r.get(0);
@@ -466,7 +496,7 @@ public final class SemanticAnalysis
         assert node.operator == UnaryOperator.NOT; // only one for now
         R.set(node, "type", BoolType.INSTANCE);
 
-        R.rule()
+        rule()
         .using(node.operand, "type")
         .by(r -> {
             Type opType = r.get(0);
@@ -482,7 +512,7 @@ public final class SemanticAnalysis
 
     private void binaryExpression (BinaryExpressionNode node)
     {
-        R.rule(node, "type")
+        rule(node, "type")
         .using(node.left.attr("type"), node.right.attr("type"))
         .by(r -> {
             Type left  = r.get(0);
@@ -661,7 +691,7 @@ public final class SemanticAnalysis
         R.set(node, "type", new ArrayType(IntType.INSTANCE));
 
         // -- check left operand type --
-        R.rule()
+        rule()
         .using(node.left, "type")
         .by(r -> {
             Type type = r.get(0);
@@ -670,7 +700,7 @@ public final class SemanticAnalysis
                     node.left);
         });
         // -- check right operand type --
-        R.rule()
+        rule()
         .using(node.right, "type")
         .by(r -> {
             Type type = r.get(0);
@@ -684,7 +714,7 @@ public final class SemanticAnalysis
 
     private void assignment (AssignmentNode node)
     {
-        R.rule(node, "type")
+        rule(node, "type")
         .using(node.left.attr("type"), node.right.attr("type"))
         .by(r -> {
             Type left  = r.get(0);
@@ -712,7 +742,7 @@ public final class SemanticAnalysis
     {
         final Scope scope = this.scope;
 
-        R.rule()
+        rule()
         .by(r -> {
             // type declarations may occur after use
             DeclarationContext ctx = scope.lookup(node.name);
@@ -731,7 +761,7 @@ public final class SemanticAnalysis
                     node.attr("value"));
 
             else
-                R.rule(node, "value")
+                rule(node, "value")
                 .using(decl, "declared")
                 .by(Rule::copyFirst);
         });
@@ -741,13 +771,13 @@ public final class SemanticAnalysis
 
     private void arrayType (ArrayTypeNode node)
     {
-        R.rule(node, "value")
+        rule(node, "value")
         .using(node.componentType, "value")
         .by(r -> r.set(0, new ArrayType(r.get(0))));
 
         // -- check lengthHint type --
         if(node.lengthHint != null) {
-            R.rule()
+            rule()
             .using(node.lengthHint, "type")
             .by(r -> {
                 Type type = r.get(0);
@@ -847,7 +877,7 @@ public final class SemanticAnalysis
         R.set(node, "scope", scope);
 
         Attribute[] deps = getReturnsDependencies(node.statements);
-        R.rule(node, "returns")
+        rule(node, "returns")
         .using(deps)
         .by(r -> r.set(0, deps.length != 0 && Arrays.stream(deps).anyMatch(r::get)));
     }
@@ -861,11 +891,11 @@ public final class SemanticAnalysis
         scope.declare(node.name, node);
         R.set(node, "scope", scope);
 
-        R.rule(node, "type")
+        rule(node, "type")
         .using(node.type, "value")
         .by(Rule::copyFirst);
 
-        R.rule()
+        rule()
         .using(node.type.attr("value"), node.initializer.attr("type"))
         .by(r -> {
             Type expected = r.get(0);
@@ -886,7 +916,7 @@ public final class SemanticAnalysis
         scope.declare(node.name, node);
         R.set(node, "scope", scope);
 
-        R.rule(node, "type")
+        rule(node, "type")
         .using(node.type, "value")
         .by(Rule::copyFirst);
     }
@@ -895,7 +925,7 @@ public final class SemanticAnalysis
 
     private void fieldDecl (FieldDeclarationNode node)
     {
-        R.rule(node, "type")
+        rule(node, "type")
         .using(node.type, "value")
         .by(Rule::copyFirst);
     }
@@ -907,7 +937,7 @@ public final class SemanticAnalysis
         R.set(node, "scope", scope);
         scope.declare(node.name, node); // scope pushed by FunDeclarationNode
 
-        R.rule(node, "type")
+        rule(node, "type")
         .using(node.type, "value")
         .by(Rule::copyFirst);
     }
@@ -925,7 +955,7 @@ public final class SemanticAnalysis
         forEachIndexed(node.parameters, (i, param) ->
             dependencies[i + 1] = param.attr("type"));
 
-        R.rule(node, "type")
+        rule(node, "type")
         .using(dependencies)
         .by (r -> {
             Type[] paramTypes = new Type[node.parameters.size()];
@@ -934,7 +964,7 @@ public final class SemanticAnalysis
             r.set(0, new FunType(r.get(0), paramTypes));
         });
 
-        R.rule()
+        rule()
         .using(node.block.attr("returns"), node.returnType.attr("value"))
         .by(r -> {
             boolean returns = r.get(0);
@@ -959,7 +989,7 @@ public final class SemanticAnalysis
     // =============================================================================================
 
     private void ifStmt (IfNode node) {
-        R.rule()
+        rule()
         .using(node.condition, "type")
         .by(r -> {
             Type type = r.get(0);
@@ -970,7 +1000,7 @@ public final class SemanticAnalysis
         });
 
         Attribute[] deps = getReturnsDependencies(list(node.trueStatement, node.falseStatement));
-        R.rule(node, "returns")
+        rule(node, "returns")
         .using(deps)
         .by(r -> r.set(0, deps.length == 2 && Arrays.stream(deps).allMatch(r::get)));
     }
@@ -978,7 +1008,7 @@ public final class SemanticAnalysis
     // ---------------------------------------------------------------------------------------------
 
     private void whileStmt (WhileNode node) {
-        R.rule()
+        rule()
         .using(node.condition, "type")
         .by(r -> {
             Type type = r.get(0);
@@ -994,7 +1024,7 @@ public final class SemanticAnalysis
     private void forStmt (ForNode node)
     {
         // check whether the condition is boolean typed
-        R.rule()
+        rule()
         .using(node.condition, "type")
         .by(r -> {
             Type type = r.get(0);
@@ -1004,7 +1034,7 @@ public final class SemanticAnalysis
             }
         });
         // check whether the node.iterationRule is of the same type then node.iterator
-        R.rule()
+        rule()
         .using(node.iterator.attr("type"), node.iterationRule.attr("type"))
         .by(r -> {
             Type expected = r.get(0);
@@ -1025,7 +1055,7 @@ public final class SemanticAnalysis
         this.inferenceContext = node;
 
         // check if the node.iterated is iterable
-        R.rule()
+        rule()
         .using(node.iterator.attr("type"), node.iterated.attr("type"))
         .by( r -> {
             Type iterType = r.get(0);
@@ -1056,7 +1086,7 @@ public final class SemanticAnalysis
         R.set(node, "type", function.returnType); // needed to check length hinting of return type
 
         if (node.expression == null)
-            R.rule()
+            rule()
             .using(function.returnType, "value")
             .by(r -> {
                Type returnType = r.get(0);
@@ -1064,7 +1094,7 @@ public final class SemanticAnalysis
                    r.error("Return without value in a function with a return type.", node);
             });
         else
-            R.rule()
+            rule()
             .using(function.returnType.attr("value"), node.expression.attr("type"))
             .by(r -> {
                 Type formal = r.get(0);
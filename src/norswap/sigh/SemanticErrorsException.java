@@ -0,0 +1,26 @@
+package norswap.sigh;
+
+import norswap.sigh.ast.RootNode;
+import norswap.uranium.Reactor;
+import norswap.uranium.SemanticError;
+import java.util.Set;
+
+/**
+ * Thrown by {@link SighRunner} (excepted {@link SighRunner#run}) when the semantic analysis of a
+ * program reports errors.
+ */
+public final class SemanticErrorsException extends RuntimeException
+{
+    public final Set<SemanticError> errors;
+
+    /** The analyzed tree and reactor, to print the attribute tree (cf. {@link SighRunner#run}). */
+    final transient RootNode root;
+    final transient Reactor reactor;
+
+    SemanticErrorsException (RootNode root, Reactor reactor) {
+        super(reactor.reportErrors(Object::toString));
+        this.errors = reactor.errors();
+        this.root = root;
+        this.reactor = reactor;
+    }
+}
@@ -77,6 +77,15 @@ public class SighGrammar extends Grammar
         .push($ -> new FloatLiteralNode($.span(), Double.parseDouble($.str())))
         .word();
 
+    // Matches integers and floats in a single pass, instead of trying floating then backtracking
+    // to integer.
+    public rule number_literal =
+        seq(number, opt(seq('.', digit.at_least(1))))
+        .push($ -> $.str().indexOf('.') < 0
+            ? new IntLiteralNode($.span(), Long.parseLong($.str()))
+            : new FloatLiteralNode($.span(), Double.parseDouble($.str())))
+        .word();
+
     public rule string_char = choice(
         seq(set('"', '\\').not(), any),
         seq('\\', set("\\nrt")));
@@ -123,8 +132,7 @@ public class SighGrammar extends Grammar
     public rule basic_expression = choice(
         constructor,
         reference,
-        floating,
-        integer,
+        number_literal,
         string,
         paren_expression,
         array);
@@ -217,7 +225,14 @@ public class SighGrammar extends Grammar
     public rule type =
         seq(array_type);
 
+    // Tokens that start a block or a statement introduced by a keyword.
+    public rule statement_keyword =
+        choice(_var, _fun, _struct, _if, _while, _for, _return, LBRACE);
+
+    // A statement that doesn't start with one of these tokens can only be an expression statement,
+    // so the other alternatives are skipped, and they don't need to be followed by it.
     public rule statement = lazy(() -> choice(
+        seq(not(statement_keyword), this.expression_stmt),
         this.block,
         this.var_decl,
         this.fun_decl,
@@ -225,8 +240,7 @@ public class SighGrammar extends Grammar
         this.if_stmt,
         this.while_stmt,
         this.for_stmt, // new
-        this.return_stmt,
-        this.expression_stmt));
+        this.return_stmt));
 
     public rule statements =
         statement.at_least(0)
@@ -3,9 +3,18 @@ package norswap.sigh;
 import norswap.autumn.Autumn;
 import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
+import norswap.autumn.positions.LineMap;
+import norswap.autumn.positions.LineMapString;
 import norswap.sigh.ast.SighNode;
 import norswap.sigh.ast.RootNode;
-import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.jfr.AnalysisEvent;
+import norswap.sigh.jfr.Jfr;
+import norswap.sigh.jfr.ParseEvent;
+import norswap.sigh.metrics.MetricsListener;
+import norswap.sigh.metrics.Phase;
+import norswap.sigh.metrics.RunMetrics;
 import norswap.uranium.AttributeTreeFormatter;
 import norswap.uranium.Reactor;
 import norswap.uranium.SemanticError;
@@ -13,6 +22,7 @@ import norswap.utils.visitors.ReflectiveFieldWalker;
 import norswap.utils.visitors.Walker;
 import java.text.ParseException;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import static norswap.utils.visitors.WalkVisitType.POST_VISIT;
 import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
@@ -27,41 +37,292 @@ public final class SighRunner
             .wellFormednessCheck(false)
             .get();
 
+    private final InterpreterOptions interpreterOptions;
+
+    /** Null if the runs are not measured (unless requested via {@link #measure}). */
+    private final MetricsListener listener;
+
     // ---------------------------------------------------------------------------------------------
 
-    public Object run(String input) {
-        Reactor reactor = new Reactor();
-        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
-        Interpreter interpreter = new Interpreter(reactor);
+    public SighRunner() {
+        this(InterpreterOptions.DEFAULT);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a runner whose interpreter uses the given options, e.g. {@code
+     * InterpreterOptions.builder().tiered().get()} for tiered execution.
+     */
+    public SighRunner (InterpreterOptions interpreterOptions) {
+        this(interpreterOptions, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a runner that measures every run and compilation (cf. {@link RunMetrics}) and
+     * reports the metrics to the given listener (if non-null).
+     */
+    public SighRunner (InterpreterOptions interpreterOptions, MetricsListener listener) {
+        this.interpreterOptions = interpreterOptions;
+        this.listener = listener;
+    }
 
-        ParseResult result = Autumn.parse(grammar.root, input, parseOptions);
-        if (!result.fullMatch) {
-            // TODO improve
-            throw new RuntimeException(new ParseException(result.toString(), result.errorOffset));
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses, analyzes and executes the program, returning the value it returns.
+     *
+     * <p>If the semantic analysis reports errors, prints them and the attribute tree to the
+     * standard error, and throws an {@link AssertionError} (whose cause is a {@link
+     * SemanticErrorsException}). The other methods throw the {@link SemanticErrorsException}
+     * directly and print nothing.
+     */
+    public Object run(String input)
+    {
+        try {
+            return listener == null
+                ? compile(input).execute()
+                : measure(input).result();
+        } catch (SemanticErrorsException e) {
+            for (SemanticError error: e.errors)
+                System.err.println(error);
+            String tree = AttributeTreeFormatter.format(e.root, e.reactor,
+                new ReflectiveFieldWalker<>(SighNode.class, PRE_VISIT, POST_VISIT));
+            System.err.println(tree);
+            throw new AssertionError("semantic errors", e);
         }
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
-        Object top = result.topValue();
-        if (!(top instanceof RootNode)) {
-            throw new Error("parsing produced unexpected value: " + top);
+    /**
+     * Parses, analyzes and executes the program, measuring each phase. The value returned by the
+     * program is available via {@link RunMetrics#result()}.
+     *
+     * <p>Errors are thrown like in {@link #compile(String)}, but the listener (if any) is notified
+     * with the metrics collected up to the failure beforehand.
+     */
+    public RunMetrics measure (String input)
+    {
+        RunMetrics metrics = new RunMetrics();
+        try {
+            CompiledProgram program = compile(input, anonymousName(input), metrics);
+            metrics.recordResult(measure(metrics, Phase.EXECUTION, program::execute));
+            return metrics;
+        } finally {
+            if (listener != null) listener.runCompleted(metrics);
         }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses and analyzes the program, returning a {@link CompiledProgram} that can then be
+     * executed any number of times, possibly concurrently. Throws a {@link
+     * SemanticErrorsException} if the semantic analysis reports errors.
+     *
+     * <p>This method can be called by multiple threads at once.
+     */
+    public CompiledProgram compile (String input) {
+        return compile(input, anonymousName(input));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #compile(String)}, but identifies the program by the given name (e.g. its path)
+     * in the recorded events (cf. {@link norswap.sigh.jfr}) and in {@link CompiledProgram#script}.
+     */
+    public CompiledProgram compile (String input, String script)
+    {
+        if (listener == null)
+            return analyze(parse(input, script), script, lineMap(input, script));
+
+        RunMetrics metrics = new RunMetrics();
+        try {
+            return compile(input, script, metrics);
+        } finally {
+            listener.runCompleted(metrics);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompiledProgram compile (String input, String script, RunMetrics metrics) {
+        RootNode root = measure(metrics, Phase.PARSE, () -> parse(input, script));
+        return analyze(root, script, lineMap(input, script), metrics);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the line map used to emit debug information in the code compiled by tiered
+     * execution, or null if tiered execution is disabled.
+     */
+    private LineMap lineMap (String input, String script) {
+        return interpreterOptions.tieringThreshold == 0
+            ? null
+            : new LineMapString(script, input);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the phase, measuring it and notifying the listener (if any) when it completes.
+     */
+    private <T> T measure (RunMetrics metrics, Phase phase, Supplier<T> body)
+    {
+        T value = metrics.measure(phase, body);
+        if (listener != null) listener.phaseCompleted(phase, metrics);
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Name identifying programs compiled without a name, derived from their source.
+     */
+    private static String anonymousName (String input) {
+        return "source@" + Integer.toHexString(input.hashCode());
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
-        RootNode root = result.topValue();
+    /**
+     * Parses the program, throwing a runtime exception wrapping a {@link ParseException} if it is
+     * not well-formed.
+     */
+    public RootNode parse (String input) {
+        return parse(input, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #parse(String)}, but identifies the program by the given name (may be null) in
+     * the recorded events.
+     */
+    public RootNode parse (String input, String script)
+    {
+        ParseEvent event = Jfr.AVAILABLE ? new ParseEvent() : null;
+        if (event != null) event.begin();
+        try {
+            ParseResult result = Autumn.parse(grammar.root, input, parseOptions);
+            if (!result.fullMatch) {
+                // TODO improve
+                throw new RuntimeException(
+                    new ParseException(result.toString(), result.errorOffset));
+            }
+
+            Object top = result.topValue();
+            if (!(top instanceof RootNode)) {
+                throw new Error("parsing produced unexpected value: " + top);
+            }
+
+            if (event != null) event.succeeded = true;
+            return result.topValue();
+        } finally {
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.script = script;
+                    event.sourceLength = input.length();
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the semantic analysis on a freshly parsed tree, throwing a {@link
+     * SemanticErrorsException} if it reports errors.
+     */
+    public CompiledProgram analyze (RootNode root) {
+        return analyze(root, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #analyze(RootNode)}, but identifies the program by the given name (may be null)
+     * in the recorded events and in {@link CompiledProgram#script}.
+     */
+    public CompiledProgram analyze (RootNode root, String script) {
+        return analyze(root, script, (LineMap) null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompiledProgram analyze (RootNode root, String script, LineMap lineMap)
+    {
+        Reactor reactor = new Reactor();
+        AnalysisEvent event = Jfr.AVAILABLE ? new AnalysisEvent() : null;
+        if (event != null) event.begin();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
         walker.walk(root);
         reactor.run();
-        Set<SemanticError> errors = reactor.errors();
+        commit(event, script, reactor);
+        return program(root, reactor, script, lineMap);
+    }
 
-        if (!errors.isEmpty()) {
-            // TODO improve
-            for (SemanticError error: errors) {
-                System.err.println(error);
-            }
-            String tree = AttributeTreeFormatter.format(root, reactor,
-                    new ReflectiveFieldWalker<>(SighNode.class, PRE_VISIT, POST_VISIT));
-            System.err.println(tree);
-            throw new AssertionError("semantic errors");
+    // ---------------------------------------------------------------------------------------------
+
+    private CompiledProgram analyze
+            (RootNode root, String script, LineMap lineMap, RunMetrics metrics)
+    {
+        Reactor reactor = new Reactor();
+        int[] rules = { 0 };
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor, () -> ++rules[0]);
+
+        AnalysisEvent event = Jfr.AVAILABLE ? new AnalysisEvent() : null;
+        if (event != null) event.begin();
+        measure(metrics, Phase.WALK, () -> { walker.walk(root); return null; });
+        measure(metrics, Phase.REACTOR, () -> { reactor.run(); return null; });
+        commit(event, script, reactor);
+        metrics.recordAnalysis(countNodes(root), rules[0], reactor.errors().size());
+        return program(root, reactor, script, lineMap);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void commit (AnalysisEvent event, String script, Reactor reactor)
+    {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.script = script;
+            event.errors = reactor.errors().size();
+            event.commit();
         }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompiledProgram program
+            (RootNode root, Reactor reactor, String script, LineMap lineMap)
+    {
+        Set<SemanticError> errors = reactor.errors();
 
-        return interpreter.interpret(root);
+        if (!errors.isEmpty())
+            throw new SemanticErrorsException(root, reactor);
+
+        return new CompiledProgram(root, reactor, interpreterOptions, script, lineMap);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int countNodes (SighNode root)
+    {
+        int[] count = { 0 };
+        ReflectiveFieldWalker<SighNode> walker =
+            new ReflectiveFieldWalker<>(SighNode.class, PRE_VISIT);
+        walker.registerFallback(PRE_VISIT, node -> ++count[0]);
+        walker.walk(root);
+        return count[0];
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,249 @@
+package norswap.sigh.batch;
+
+import norswap.sigh.SighRunner;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.output.ChannelOutputSink;
+import norswap.sigh.output.FlushPolicy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs many Sigh scripts concurrently on a fixed-size pool of worker threads.
+ *
+ * <p>Each script is parsed, analyzed and executed on a single worker thread. All workers share the
+ * same {@link SighRunner} (and hence the same grammar). The output of each script is captured
+ * separately, and reported along with its result, error and per-phase timings in a {@link
+ * ScriptResult}.
+ *
+ * <p>{@link #main} provides a command line interface, see {@link #USAGE}.
+ */
+public final class BatchRunner
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static final String USAGE =
+        "usage: BatchRunner [-j <threads>] [-v] [--tiered] <script or directory>...\n" +
+        "  Runs the given .si scripts, and the .si scripts found (recursively) in the given\n" +
+        "  directories.\n" +
+        "  -j <threads>  number of worker threads (default: number of processors)\n" +
+        "  -v            print the output of every script\n" +
+        "  --tiered      enable tiered execution";
+
+    /** Scripts usually print little: no need for the default 64K buffer. */
+    private static final int OUTPUT_BUFFER_SIZE = 4 * 1024;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighRunner runner;
+    private final int threads;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a runner with one worker thread per processor.
+     */
+    public BatchRunner (InterpreterOptions options) {
+        this(options, Runtime.getRuntime().availableProcessors());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public BatchRunner (InterpreterOptions options, int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("invalid thread count: " + threads);
+        this.runner = new SighRunner(options);
+        this.threads = threads;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the given files, with directories replaced by the {@code .si} files they contain
+     * (recursively), in lexicographic order.
+     */
+    public static List<Path> collect (List<Path> paths) throws IOException
+    {
+        List<Path> scripts = new ArrayList<>();
+        for (Path path: paths) {
+            if (!Files.isDirectory(path)) {
+                scripts.add(path);
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(path)) {
+                scripts.addAll(files
+                    .filter(file -> file.toString().endsWith(".si") && Files.isRegularFile(file))
+                    .sorted()
+                    .collect(Collectors.toList()));
+            }
+        }
+        return scripts;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the scripts, returning their results in the same order.
+     */
+    public List<ScriptResult> run (List<Path> scripts) throws InterruptedException {
+        return run(scripts, result -> {});
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the scripts, returning their results in the same order. In addition, {@code listener}
+     * is called with each result as soon as it is available, on the worker thread that ran the
+     * script.
+     */
+    public List<ScriptResult> run (List<Path> scripts, Consumer<ScriptResult> listener)
+            throws InterruptedException
+    {
+        AtomicInteger workerCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "sigh-batch-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<ScriptResult>> futures = new ArrayList<>(scripts.size());
+            for (Path script: scripts)
+                futures.add(executor.submit(() -> {
+                    ScriptResult result = runScript(script);
+                    listener.accept(result);
+                    return result;
+                }));
+
+            List<ScriptResult> results = new ArrayList<>(scripts.size());
+            for (Future<ScriptResult> future: futures)
+                results.add(future.get());
+            return results;
+        } catch (ExecutionException e) {
+            // runScript records script failures, except for JVM errors (e.g. out of memory)
+            if (e.getCause() instanceof VirtualMachineError)
+                throw (VirtualMachineError) e.getCause();
+            throw new RuntimeException("batch listener failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs a single script on the calling thread.
+     */
+    public ScriptResult runScript (Path path)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ChannelOutputSink sink = new ChannelOutputSink(
+            Channels.newChannel(bytes), OUTPUT_BUFFER_SIZE, FlushPolicy.ON_DEMAND);
+
+        long parse = 0, analysis = 0, execution = 0;
+        Object result = null;
+        Throwable error = null;
+        long start = 0;
+
+        try {
+            String source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            start = System.nanoTime();
+            RootNode root = runner.parse(source, path.toString());
+            parse = System.nanoTime() - start;
+            start += parse;
+            CompiledProgram program = runner.analyze(root, path.toString());
+            analysis = System.nanoTime() - start;
+            start += analysis;
+            result = program.execute(sink);
+            execution = System.nanoTime() - start;
+        } catch (IOException | RuntimeException | Error e) {
+            // e.g. assertion errors, or the errors the interpreter throws for unexpected cases,
+            // but the JVM may not be able to keep running after the other virtual machine errors
+            if (e instanceof VirtualMachineError && !(e instanceof StackOverflowError))
+                throw (VirtualMachineError) e;
+            error = e;
+            // charge the elapsed time to the phase that failed
+            long elapsed = start == 0 ? 0 : System.nanoTime() - start;
+            if (parse == 0) parse = elapsed;
+            else if (analysis == 0) analysis = elapsed;
+            else execution = elapsed;
+        }
+
+        sink.flush();
+        String output = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        return new ScriptResult(path, output, result, error, parse, analysis, execution);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args) throws IOException, InterruptedException
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean verbose = false;
+        InterpreterOptions options = InterpreterOptions.DEFAULT;
+        List<Path> paths = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "-j":       threads = Integer.parseInt(args[++i]); break;
+                    case "-v":       verbose = true; break;
+                    case "--tiered": options = InterpreterOptions.builder().tiered().get(); break;
+                    default:         paths.add(Paths.get(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            paths.clear();
+        }
+
+        if (paths.isEmpty() || threads < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        boolean printOutput = verbose;
+        long start = System.nanoTime();
+        List<ScriptResult> results = new BatchRunner(options, threads).run(collect(paths), result -> {
+            synchronized (System.out) {
+                System.out.println(result);
+                if ((printOutput || !result.succeeded()) && !result.output.isEmpty())
+                    System.out.print(result.output);
+            }
+        });
+        long wall = System.nanoTime() - start;
+
+        long failed = 0, parse = 0, analysis = 0, execution = 0;
+        for (ScriptResult result: results) {
+            if (!result.succeeded()) ++failed;
+            parse += result.parseNanos;
+            analysis += result.analysisNanos;
+            execution += result.executionNanos;
+        }
+
+        System.out.printf(
+            "%d scripts, %d failed, %d threads, %.1f ms (total parse %.1f ms, analysis %.1f ms, "
+                + "execution %.1f ms)%n",
+            results.size(), failed, threads, wall / 1e6, parse / 1e6, analysis / 1e6,
+            execution / 1e6);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
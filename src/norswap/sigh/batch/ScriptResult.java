@@ -0,0 +1,71 @@
+package norswap.sigh.batch;
+
+import java.nio.file.Path;
+
+/**
+ * The outcome of running a script with the {@link BatchRunner}.
+ *
+ * <p>The timings of the phases that didn't run (because an earlier phase failed) are 0.
+ */
+public final class ScriptResult
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public final Path path;
+
+    /** What the script printed, including before it failed. */
+    public final String output;
+
+    /** The value returned by the script, or null if it failed. */
+    public final Object result;
+
+    /**
+     * Null if the script succeeded, otherwise the exception that caused it to fail: an I/O error,
+     * a parse error (a runtime exception wrapping a {@link java.text.ParseException}), a {@link
+     * norswap.sigh.SemanticErrorsException}, or the exception or error (e.g. a stack overflow or a
+     * failed assertion) thrown by the execution.
+     */
+    public final Throwable error;
+
+    public final long parseNanos;
+    public final long analysisNanos;
+    public final long executionNanos;
+
+    // ---------------------------------------------------------------------------------------------
+
+    ScriptResult (Path path, String output, Object result, Throwable error,
+                  long parseNanos, long analysisNanos, long executionNanos)
+    {
+        this.path = path;
+        this.output = output;
+        this.result = result;
+        this.error = error;
+        this.parseNanos = parseNanos;
+        this.analysisNanos = analysisNanos;
+        this.executionNanos = executionNanos;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public boolean succeeded() {
+        return error == null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public long totalNanos() {
+        return parseNanos + analysisNanos + executionNanos;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        return String.format("%s %s (parse %.3f ms, analysis %.3f ms, execution %.3f ms)%s",
+            succeeded() ? "PASS" : "FAIL", path,
+            parseNanos / 1e6, analysisNanos / 1e6, executionNanos / 1e6,
+            succeeded() ? "" : ": " + error);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,17 @@
+package norswap.sigh.budget;
+
+/**
+ * Thrown to abort an execution that exceeded its {@link ExecutionBudget}.
+ */
+public final class BudgetExceededException extends RuntimeException
+{
+    /** The limits of an {@link ExecutionBudget}. */
+    public enum Limit { STEPS, TIME, ARRAY_LENGTH, ALLOCATION }
+
+    public final Limit limit;
+
+    public BudgetExceededException (Limit limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+}
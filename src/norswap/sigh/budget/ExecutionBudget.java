@@ -0,0 +1,114 @@
+package norswap.sigh.budget;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the resources a single execution of a Sigh program may use, to safely run untrusted
+ * scripts. Create instances using {@link #builder()}: all limits are disabled by default.
+ *
+ * <p>The interpreter enforces the budget given in {@link
+ * norswap.sigh.interpreter.InterpreterOptions#budget}, and the {@link
+ * norswap.sigh.bytecode.BytecodeCompiler} emits the checks in the generated code when it is given a
+ * budget. In both cases, each execution gets its own {@link ExecutionMeter}, and an execution that
+ * exceeds its budget is aborted with a {@link BudgetExceededException}. Without a budget, no checks
+ * are performed at all.
+ */
+public final class ExecutionBudget
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maximum number of steps: loop iterations (back edges) and function calls.
+     */
+    public final long maxSteps;
+
+    /**
+     * Maximum wall-clock duration of the execution, in nanoseconds. The deadline is checked at
+     * steps, every {@link ExecutionMeter#CLOCK_INTERVAL} steps.
+     */
+    public final long timeoutNanos;
+
+    /**
+     * Maximum length of an array created by the program (array literals, ranges, operations on
+     * arrays, ...).
+     */
+    public final long maxArrayLength;
+
+    /**
+     * Maximum total number of array elements allocated over the execution, which bounds the
+     * memory used by arrays.
+     */
+    public final long maxAllocatedElements;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExecutionBudget (Builder builder) {
+        this.maxSteps = builder.maxSteps;
+        this.timeoutNanos = builder.timeoutNanos;
+        this.maxArrayLength = builder.maxArrayLength;
+        this.maxAllocatedElements = builder.maxAllocatedElements;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a meter for a new execution, starting the clock for the timeout.
+     */
+    public ExecutionMeter start() {
+        return new ExecutionMeter(this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class Builder
+    {
+        private long maxSteps = Long.MAX_VALUE;
+        private long timeoutNanos = Long.MAX_VALUE;
+        private long maxArrayLength = Long.MAX_VALUE;
+        private long maxAllocatedElements = Long.MAX_VALUE;
+
+        private Builder() {}
+
+        /** See {@link ExecutionBudget#maxSteps}. */
+        public Builder maxSteps (long maxSteps) {
+            this.maxSteps = positive(maxSteps);
+            return this;
+        }
+
+        /** See {@link ExecutionBudget#timeoutNanos}. */
+        public Builder timeout (long timeout, TimeUnit unit) {
+            this.timeoutNanos = unit.toNanos(positive(timeout));
+            return this;
+        }
+
+        /** See {@link ExecutionBudget#maxArrayLength}. */
+        public Builder maxArrayLength (long maxArrayLength) {
+            this.maxArrayLength = positive(maxArrayLength);
+            return this;
+        }
+
+        /** See {@link ExecutionBudget#maxAllocatedElements}. */
+        public Builder maxAllocatedElements (long maxAllocatedElements) {
+            this.maxAllocatedElements = positive(maxAllocatedElements);
+            return this;
+        }
+
+        private static long positive (long limit) {
+            if (limit <= 0)
+                throw new IllegalArgumentException("limit must be positive: " + limit);
+            return limit;
+        }
+
+        public ExecutionBudget get() {
+            return new ExecutionBudget(this);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
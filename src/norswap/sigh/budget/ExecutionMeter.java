@@ -0,0 +1,123 @@
+package norswap.sigh.budget;
+
+import norswap.sigh.budget.BudgetExceededException.Limit;
+
+/**
+ * Tracks the resources used by an execution against its {@link ExecutionBudget}.
+ *
+ * <p>Meters are not thread-safe: an execution runs on a single thread. Each thread has a current
+ * meter (or none), installed with {@link #install}, which is used by compiled code (cf. {@link
+ * norswap.sigh.bytecode.SighRuntime}). The interpreter installs its meter for the duration of an
+ * execution, so that code compiled by tiered execution is metered too.
+ */
+public final class ExecutionMeter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The clock is read every this many steps: reading it at every step would be slower than many
+     * loop bodies.
+     */
+    public static final int CLOCK_INTERVAL = 1024;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final ThreadLocal<ExecutionMeter> installed = new ThreadLocal<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ExecutionBudget budget;
+    private final long start;
+    private long steps;
+    private int clockCountdown = CLOCK_INTERVAL;
+    private long allocated;
+
+    // ---------------------------------------------------------------------------------------------
+
+    ExecutionMeter (ExecutionBudget budget) {
+        this.budget = budget;
+        this.start = System.nanoTime();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the meter of the current thread, or null.
+     */
+    public static ExecutionMeter current() {
+        return installed.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes {@code meter} (may be null) the meter of the current thread, returning the previous
+     * one, so that it can be restored afterwards.
+     */
+    public static ExecutionMeter install (ExecutionMeter meter) {
+        ExecutionMeter previous = installed.get();
+        installed.set(meter);
+        return previous;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records a step (a loop iteration or a function call).
+     */
+    public void step ()
+    {
+        if (++steps > budget.maxSteps)
+            throw new BudgetExceededException(Limit.STEPS,
+                "exceeded the maximum number of steps (" + budget.maxSteps + ")");
+        if (--clockCountdown == 0) {
+            clockCountdown = CLOCK_INTERVAL;
+            checkDeadline();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Aborts the execution if its deadline has passed.
+     */
+    public void checkDeadline ()
+    {
+        if (budget.timeoutNanos != Long.MAX_VALUE && System.nanoTime() - start > budget.timeoutNanos)
+            throw new BudgetExceededException(Limit.TIME,
+                "exceeded the time limit (" + budget.timeoutNanos / 1_000_000 + " ms)");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the allocation of an array of the given length, to be called before the allocation.
+     */
+    public void allocate (long length)
+    {
+        if (length > budget.maxArrayLength)
+            throw new BudgetExceededException(Limit.ARRAY_LENGTH, "array of length " + length
+                + " exceeds the maximum length (" + budget.maxArrayLength + ")");
+        allocated += length;
+        if (allocated > budget.maxAllocatedElements)
+            throw new BudgetExceededException(Limit.ALLOCATION,
+                "exceeded the maximum number of allocated array elements ("
+                    + budget.maxAllocatedElements + ")");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of steps recorded so far. */
+    public long steps() {
+        return steps;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of array elements allocated so far. */
+    public long allocatedElements() {
+        return allocated;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,5 +1,8 @@
 package norswap.sigh.bytecode;
 
+import norswap.sigh.jfr.ClassLoadEvent;
+import norswap.sigh.jfr.Jfr;
+
 /**
  * A class loader with the ability to load class from bytecode arrays.
  */
@@ -24,8 +27,20 @@ public final class ByteArrayClassLoader extends ClassLoader
      * Given a class' (dot-separated) binary name and the bytecode array, load the class
      * and return the corresponding {@link Class} object.
      */
-    public Class<?> defineClass (String binaryName, byte[] bytecode) {
-        return defineClass(binaryName, bytecode, 0, bytecode.length);
+    public Class<?> defineClass (String binaryName, byte[] bytecode)
+    {
+        ClassLoadEvent event = Jfr.AVAILABLE ? new ClassLoadEvent() : null;
+        if (event == null)
+            return defineClass(binaryName, bytecode, 0, bytecode.length);
+        event.begin();
+        Class<?> klass = defineClass(binaryName, bytecode, 0, bytecode.length);
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = binaryName;
+            event.bytecodeSize = bytecode.length;
+            event.commit();
+        }
+        return klass;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -1,7 +1,13 @@
 package norswap.sigh.bytecode;
 
+import norswap.autumn.positions.LineMap;
 import norswap.sigh.ast.*;
+import norswap.sigh.budget.ExecutionBudget;
+import norswap.sigh.budget.ExecutionMeter;
 import norswap.sigh.interpreter.Constructor;
+import norswap.sigh.jfr.CompilationEvent;
+import norswap.sigh.jfr.Jfr;
+import norswap.sigh.profile.ExecutionProfile;
 import norswap.sigh.scopes.Scope;
 import norswap.sigh.scopes.SyntheticDeclarationNode;
 import norswap.sigh.types.*;
@@ -13,9 +19,11 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.MethodNode;
 import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -61,11 +69,8 @@ import static org.objectweb.asm.Opcodes.*;
  */
 public class BytecodeCompiler
 {
-    // TODO: test with the interpreter tests (merge)
-    //       test getting actual return value from run
     // TODO: reference resolution test
     // TODO: check that a string variable is equal to itself
-    // TODO: test with existing example source files
     // TODO: inner methods should have name mangling
     // TODO: complete documentation (null, runtime, ...)
     // TODO: check (type) utils for ASM & GeneratorAdapter
@@ -77,13 +82,68 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /** Minimum average trip count for a while loop to be unrolled. */
+    private static final double UNROLL_TRIP_COUNT = 8;
+
+    /** Maximum size (in source characters) of the body of an unrolled while loop. */
+    private static final int UNROLL_MAX_BODY_SIZE = 200;
+
+    /** Expected length of the string representation of a non-literal concatenation operand. */
+    private static final int CONCAT_OPERAND_SIZE = 16;
+
+    // ---------------------------------------------------------------------------------------------
+
     private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
     private final Reactor reactor;
 
+    /** Null if compiling without a profile. */
+    private final ExecutionProfile profile;
+
+    private final InliningPolicy inlining;
+
+    /** Null if compiling without a budget. */
+    private final ExecutionBudget budget;
+
+    /** Null if unknown, see {@link #sourceInfo}. */
+    private String sourceFile;
+
+    /** Null if compiling without debug information, see {@link #sourceInfo}. */
+    private LineMap lineMap;
+
     // ---------------------------------------------------------------------------------------------
 
     public BytecodeCompiler (Reactor reactor) {
+        this(reactor, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a compiler that uses the given profile (recorded by the interpreter on the same
+     * source, may be null) to guide the code layout: the most frequent branch of if statements
+     * falls through, hot while loops with small bodies are unrolled once, and hot functions get a
+     * larger inlining budget.
+     */
+    public BytecodeCompiler (Reactor reactor, ExecutionProfile profile) {
+        this(reactor, profile, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a compiler that may use a profile (see {@link #BytecodeCompiler(Reactor,
+     * ExecutionProfile)}) and whose generated code enforces the given budget (may be null).
+     *
+     * <p>The generated code counts loop iterations and function calls, and checks array
+     * allocations, using the meter of the running thread (cf. {@link ExecutionMeter}). The {@code
+     * run} method of the generated class (which {@code main} calls) installs a meter for the
+     * budget. Without a budget, no such code is emitted.
+     */
+    public BytecodeCompiler (Reactor reactor, ExecutionProfile profile, ExecutionBudget budget) {
         this.reactor = reactor;
+        this.profile = profile;
+        this.budget = budget;
+        this.inlining = new InliningPolicy(reactor, profile);
 
         // expressions
         visitor.register(IntLiteralNode.class,           this::intLiteral);
@@ -118,6 +178,25 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Makes the compiler emit debug information, using the line map of the compiled source: a
+     * {@code LineNumberTable} mapping the code of each statement to its line, and a {@code
+     * LocalVariableTable} describing the Sigh variables. If {@code sourceFile} is non-null, the
+     * generated classes also get a {@code SourceFile} attribute.
+     *
+     * <p>With this information, stack traces, debuggers and JVM profilers (JFR, async-profiler)
+     * attribute the execution of compiled code to Sigh source lines.
+     *
+     * <p>Must be called before compiling. Returns this compiler.
+     */
+    public BytecodeCompiler sourceInfo (String sourceFile, LineMap lineMap) {
+        this.sourceFile = sourceFile;
+        this.lineMap = lineMap;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /* Slash-separated binary class name for the class containing the emitted bytecode for the source
      * unit. */
     private String containerName;
@@ -144,6 +223,53 @@ public class BytecodeCompiler
     /** Whether we are in top-level code. */
     private boolean topLevel;
 
+    /**
+     * Where top-level returns jump to after storing their value in local {@link #runResult}, to
+     * run the exit code of the {@code run} method (cf. {@link #exitRun}).
+     */
+    private Label runExit;
+    private int runResult;
+
+    /** With a budget, the local holding the meter to restore when the {@code run} method exits. */
+    private int runMeter;
+
+    /** Line of the last line number entry emitted in the current method, or -1. */
+    private int currentLine = -1;
+
+    /** Local variables declared in the current method, when emitting debug information. */
+    private ArrayList<LocalVariable> locals = new ArrayList<>();
+
+    /** The call whose callee's body is currently being inlined, or null. */
+    private InlinedCall inlinedCall;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class InlinedCall {
+        /** Label marking the end of the inlined body, where returns jump. */
+        final Label end = new Label();
+        final Type returnType;
+
+        InlinedCall (Type returnType) {
+            this.returnType = returnType;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class LocalVariable {
+        final String name;
+        final String descriptor;
+        final Label start;
+        final int index;
+
+        LocalVariable (String name, String descriptor, Label start, int index) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.start = start;
+            this.index = index;
+        }
+    }
+
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -152,6 +278,8 @@ public class BytecodeCompiler
      */
     public CompilationResult compile (String binaryName, SighNode root)
     {
+        CompilationEvent event = Jfr.AVAILABLE ? new CompilationEvent() : null;
+        if (event != null) event.begin();
         this.containerName = binaryName.replace('.', '/');
         run(root);
         GeneratedClass mainClass = new GeneratedClass(containerName, container.toByteArray());
@@ -159,34 +287,150 @@ public class BytecodeCompiler
             .map(it -> new GeneratedClass(it.a, it.b.toByteArray()))
             .collect(Collectors.toList());
 
-        return new CompilationResult(mainClass, structClasses);
+        CompilationResult result = new CompilationResult(mainClass, structClasses);
+        commit(event, binaryName, -1, result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compile the given functions into static methods (named after the functions) of a class whose
+     * (dot-separated) binary name is {@code binaryName}, without any top-level code.
+     *
+     * <p>Calls to functions are compiled to calls to methods of the same class, hence the given
+     * functions must include all the functions they call. They should not use structures, as no
+     * classes are generated for them.
+     *
+     * <p>This is used by {@link norswap.sigh.interpreter.TieredExecution} to compile hot functions.
+     */
+    public CompilationResult compileFunctions
+            (String binaryName, Collection<FunDeclarationNode> functions)
+    {
+        CompilationEvent event = Jfr.AVAILABLE ? new CompilationEvent() : null;
+        if (event != null) event.begin();
+        this.containerName = binaryName.replace('.', '/');
+        container = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        container.visit(V1_8, ACC_PUBLIC, containerName, null, "java/lang/Object", null);
+        if (sourceFile != null)
+            container.visitSource(sourceFile, null);
+        topLevel = false;
+        functions.forEach(this::run);
+        container.visitEnd();
+        GeneratedClass mainClass = new GeneratedClass(containerName, container.toByteArray());
+        CompilationResult result = new CompilationResult(mainClass, Collections.emptyList());
+        commit(event, binaryName, functions.size(), result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void commit
+            (CompilationEvent event, String binaryName, int functions, CompilationResult result)
+    {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.className = binaryName;
+        event.functions = functions;
+        event.classes = 1 + result.structures.size();
+        event.bytecodeSize = result.mainClass.bytes().length;
+        for (GeneratedClass struct: result.structures)
+            event.bytecodeSize += struct.bytes().length;
+        event.commit();
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object run (SighNode node) {
+    private Object run (SighNode node)
+    {
+        if (lineMap != null && method != null && node instanceof StatementNode
+                && !(node instanceof FunDeclarationNode
+                    || node instanceof StructDeclarationNode
+                    || node instanceof FieldDeclarationNode))
+            lineNumber(node);
         return visitor.apply(node);
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits a line number entry for the code of the node, unless it is on the same line as the
+     * preceding code.
+     */
+    private void lineNumber (SighNode node)
+    {
+        int line = lineMap.lineFromOffset(node.span.start);
+        if (line == currentLine) return;
+        currentLine = line;
+        Label label = new Label();
+        method.visitLabel(label);
+        method.visitLineNumber(line, label);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * When emitting debug information, records a local variable whose scope starts at the current
+     * position, for the {@code LocalVariableTable}.
+     */
+    private void localVariable (String name, org.objectweb.asm.Type type, int index)
+    {
+        if (lineMap == null) return;
+        Label start = new Label();
+        method.visitLabel(start);
+        locals.add(new LocalVariable(name, type.getDescriptor(), start, index));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object root (RootNode node)
     {
         container = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         container.visit(V1_8, ACC_PUBLIC, containerName, null, "java/lang/Object", null);
+        if (sourceFile != null)
+            container.visitSource(sourceFile, null);
 
         // Top-level code belongs in the run method.
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, "run",
-            "([Ljava/lang/String;)Ljava/lang/Object;", null, null);
-        method.visitCode();
+        // With a budget, it first installs a meter for the execution. Whether it returns or
+        // throws, it then restores the previous meter and flushes the output, as in Java's
+        // try/finally: returns store their value in a local and jump to the exit code.
+        MethodNode run = startMethod(ACC_PUBLIC | ACC_STATIC, "run",
+            "([Ljava/lang/String;)Ljava/lang/Object;");
+        method = run;
         topLevel = true;
+        currentLine = -1;
+        locals = new ArrayList<>();
+        runExit = new Label();
+        runResult = variableCounter++;
+        if (budget != null) {
+            runMeter = variableCounter++;
+            method.visitLdcInsn(budget.maxSteps);
+            method.visitLdcInsn(budget.timeoutNanos);
+            method.visitLdcInsn(budget.maxArrayLength);
+            method.visitLdcInsn(budget.maxAllocatedElements);
+            invokeStatic(method, SighRuntime.class, "startBudget",
+                long.class, long.class, long.class, long.class);
+            method.visitVarInsn(ASTORE, runMeter);
+        }
+        Label tryStart = new Label();
+        Label tryEnd = new Label();
+        Label handler = new Label();
+        method.visitTryCatchBlock(tryStart, tryEnd, handler, null);
+        method.visitLabel(tryStart);
         node.statements.forEach(this::run);
         // append "return null;" since we do not know if top-level code always returns
         loadConstant(method, null);
+        method.visitVarInsn(ASTORE, runResult);
+        method.visitLabel(tryEnd);
+        method.visitLabel(runExit);
+        exitRun();
+        method.visitVarInsn(ALOAD, runResult);
         method.visitInsn(ARETURN);
-        method.visitEnd();
-        method.visitMaxs(-1, -1);
-        container.visitEnd();
+        method.visitLabel(handler);
+        exitRun();
+        method.visitInsn(ATHROW);
+        endMethod(run);
 
         // Traditional java main method to run standalone.
         // This just calls run, ignoring its return value.
@@ -206,19 +450,50 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits the code that runs when the {@code run} method exits, normally or not: restoring the
+     * previous meter (with a budget) and flushing the output, so that callers of {@code run} see
+     * it (cf. {@link CompilationResult#callRun}).
+     */
+    private void exitRun ()
+    {
+        if (budget != null) {
+            method.visitVarInsn(ALOAD, runMeter);
+            invokeStatic(method, SighRuntime.class, "endBudget", ExecutionMeter.class);
+        }
+        invokeStatic(method, SighRuntime.class, "flush");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * With a budget, emits the code recording a step (loop iteration or function call).
+     */
+    private void step () {
+        if (budget != null)
+            invokeStatic(method, SighRuntime.class, "step");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object funDecl (FunDeclarationNode node)
     {
         int surroundingVariableCounter = variableCounter;
         MethodVisitor surroundingMethod = method;
         boolean surroundingIsTopLevel = topLevel;
+        int surroundingLine = currentLine;
+        ArrayList<LocalVariable> surroundingLocals = locals;
 
         variableCounter = 0;
         topLevel = false;
-        node.parameters.forEach(this::run);
+        currentLine = -1;
+        locals = new ArrayList<>();
 
         String descriptor = methodDescriptor(reactor.get(node, "type"));
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, node.name, descriptor, null, null);
-        method.visitCode();
+        MethodNode function = startMethod(ACC_PUBLIC | ACC_STATIC, node.name, descriptor);
+        method = function;
+        node.parameters.forEach(this::run); // no code, but their line starts the method
+        step();
         run(node.block);
 
         // NOTE: The current semantic analysis check guarantee that there is we unconditionally
@@ -229,17 +504,50 @@ public class BytecodeCompiler
         if (descriptor.endsWith("V"))
             method.visitInsn(RETURN);
 
-        method.visitEnd();
-        method.visitMaxs(-1, -1);
+        endMethod(function);
 
         method = surroundingMethod;
         variableCounter = surroundingVariableCounter;
         topLevel = surroundingIsTopLevel;
+        currentLine = surroundingLine;
+        locals = surroundingLocals;
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Starts a method of the container class. Its code is buffered in the returned node until
+     * {@link #endMethod} is called, so that it can be optimized.
+     */
+    private MethodNode startMethod (int access, String name, String descriptor) {
+        MethodNode node = new MethodNode(ASM5, access, name, descriptor, null, null);
+        node.visitCode();
+        return node;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the {@link PeepholeOptimizer} on the method and emits it in the container class.
+     */
+    private void endMethod (MethodNode node)
+    {
+        if (lineMap != null) {
+            Label end = new Label();
+            node.visitLabel(end);
+            for (LocalVariable local: locals)
+                node.visitLocalVariable(
+                    local.name, local.descriptor, null, local.start, end, local.index);
+        }
+        node.visitMaxs(-1, -1); // computed by the class writer
+        node.visitEnd();
+        PeepholeOptimizer.optimize(node);
+        node.accept(container);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object intLiteral (IntLiteralNode node) {
         method.visitLdcInsn(node.value);
         return null;
@@ -268,6 +576,10 @@ public class BytecodeCompiler
         ArrayType type = reactor.get(node, "type");
         Type compType = type.componentType;
 
+        if (budget != null) {
+            loadConstant(method, node.components.size());
+            invokeStatic(method, SighRuntime.class, "allocate", int.class);
+        }
         method.visitLdcInsn(node.components.size());
         int storeOpcode = AASTORE;
 
@@ -314,6 +626,9 @@ public class BytecodeCompiler
         if (isShortCircuit(node.operator))
             return shortCircuit(node);
 
+        if (isConcatenation(node))
+            return concatenation(node);
+
         run(node.left);
 
         Type left  = reactor.get(node.left, "type");
@@ -323,24 +638,10 @@ public class BytecodeCompiler
         if (enablesPromotion(node.operator) && left instanceof IntType && right instanceof FloatType)
             method.visitInsn(L2D);
 
-        // string concatenation: convert value to string
-        if (node.operator == ADD && right instanceof StringType)
-            convertToString(left);
-
         run(node.right);
 
         switch (node.operator) {
-            case ADD:
-                if (left instanceof StringType) {
-                    convertToString(right);
-                    invokeStatic(method, SighRuntime.class, "concat", String.class, String.class);
-                } else if (right instanceof StringType) {
-                    // left already converted to string in this case
-                    invokeStatic(method, SighRuntime.class, "concat", String.class, String.class);
-                } else {
-                    numOperation(LADD, DADD, left, right);
-                } break;
-
+            case ADD:       numOperation(LADD, DADD, left, right); break;
             case MULTIPLY:  numOperation(LMUL, DMUL, left, right); break;
             case DIVIDE:    numOperation(LDIV, DDIV, left, right); break;
             case REMAINDER: numOperation(LREM, DREM, left, right); break;
@@ -389,6 +690,138 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    private boolean isConcatenation (ExpressionNode node)
+    {
+        if (node instanceof ParenthesizedNode)
+            return isConcatenation(((ParenthesizedNode) node).expression);
+        if (!(node instanceof BinaryExpressionNode))
+            return false;
+        BinaryExpressionNode binary = (BinaryExpressionNode) node;
+        return binary.operator == ADD
+            && (reactor.get(binary.left, "type") instanceof StringType
+                || reactor.get(binary.right, "type") instanceof StringType);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a string concatenation. A chain of concatenations (e.g. {@code "a" + x + "b" + y}) is
+     * flattened: adjacent string literals are merged, then the operands are appended to a single
+     * pre-sized {@link StringBuilder}, instead of creating an intermediate string per operator.
+     */
+    private Object concatenation (BinaryExpressionNode node)
+    {
+        List<ExpressionNode> operands = new ArrayList<>();
+        collectConcatenated(node, operands);
+
+        // merge adjacent literals
+        List<Object> parts = new ArrayList<>(); // String for literals, ExpressionNode otherwise
+        for (ExpressionNode operand: operands) {
+            int last = parts.size() - 1;
+            if (operand instanceof StringLiteralNode && last >= 0 && parts.get(last) instanceof String)
+                parts.set(last, parts.get(last) + ((StringLiteralNode) operand).value);
+            else
+                parts.add(operand instanceof StringLiteralNode
+                    ? ((StringLiteralNode) operand).value
+                    : operand);
+        }
+
+        if (parts.size() == 1) {
+            method.visitLdcInsn(parts.get(0));
+            return null;
+        }
+
+        if (parts.size() == 2) {
+            parts.forEach(this::emitStringPart);
+            invokeStatic(method, SighRuntime.class, "concat", String.class, String.class);
+            return null;
+        }
+
+        int capacity = 0;
+        for (Object part: parts)
+            capacity += part instanceof String ? ((String) part).length() : CONCAT_OPERAND_SIZE;
+
+        method.visitTypeInsn(NEW, "java/lang/StringBuilder");
+        method.visitInsn(DUP);
+        method.visitLdcInsn(capacity);
+        method.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(I)V", false);
+        for (Object part: parts) {
+            if (part instanceof String) {
+                method.visitLdcInsn(part);
+                appendToBuilder("Ljava/lang/String;");
+                continue;
+            }
+            ExpressionNode operand = (ExpressionNode) part;
+            Type type = reactor.get(operand, "type");
+            if (type instanceof ArrayType) {
+                // render the array directly into the builder
+                method.visitInsn(DUP);
+                run(operand);
+                method.visitMethodInsn(INVOKESTATIC, "norswap/sigh/output/ValueFormatter",
+                    "append", "(Ljava/lang/StringBuilder;Ljava/lang/Object;)V", false);
+                continue;
+            }
+            run(operand);
+            if (type instanceof IntType)
+                appendToBuilder("J");
+            else if (type instanceof FloatType)
+                appendToBuilder("D");
+            else if (type instanceof BoolType)
+                appendToBuilder("Z");
+            else {
+                convertToString(type);
+                appendToBuilder("Ljava/lang/String;");
+            }
+        }
+        method.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString",
+            "()Ljava/lang/String;", false);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the operands of the (possibly nested) concatenation to {@code operands}, from left to
+     * right.
+     */
+    private void collectConcatenated (ExpressionNode node, List<ExpressionNode> operands)
+    {
+        if (!isConcatenation(node)) {
+            operands.add(node);
+            return;
+        }
+        while (node instanceof ParenthesizedNode)
+            node = ((ParenthesizedNode) node).expression;
+        BinaryExpressionNode binary = (BinaryExpressionNode) node;
+        collectConcatenated(binary.left, operands);
+        collectConcatenated(binary.right, operands);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Pushes a part of a concatenation (see {@link #concatenation}) as a string.
+     */
+    private void emitStringPart (Object part)
+    {
+        if (part instanceof String) {
+            method.visitLdcInsn(part);
+            return;
+        }
+        ExpressionNode operand = (ExpressionNode) part;
+        run(operand);
+        convertToString(reactor.get(operand, "type"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void appendToBuilder (String descriptor) {
+        method.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+            "(" + descriptor + ")Ljava/lang/StringBuilder;", false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object shortCircuit (BinaryExpressionNode node)
     {
         int opcode = node.operator == AND ? IFEQ /* if 0 */ : /* OR */ IFNE /* if 1 */;
@@ -419,11 +852,7 @@ public class BytecodeCompiler
             method.visitInsn(POP);
             method.visitLdcInsn("null");
         } else if (type instanceof ArrayType) {
-            Type component = ((ArrayType) type).componentType;
-            if (component.isPrimitive())
-                invokeStatic(method, Arrays.class, "toString", javaArrayClass(component));
-            else
-                invokeStatic(method, Arrays.class, "deepToString", Object[].class);
+            invokeStatic(method, SighRuntime.class, "arrayToString", Object.class);
         } else if (type instanceof TypeType) {
             // String.valueOf -> Type#toString -> Type#name
             invokeStatic(method, String.class, "valueOf", Object.class);
@@ -538,6 +967,9 @@ public class BytecodeCompiler
             if (decl instanceof SyntheticDeclarationNode) {
                 return builtin(funType, decl.name(), node.arguments);
             }
+            else if (decl instanceof FunDeclarationNode && inlining.shouldInline((FunDeclarationNode) decl)) {
+                inline((FunDeclarationNode) decl, funType, node.arguments);
+            }
             else if (decl instanceof FunDeclarationNode) {
                 runArguments(funType, node.arguments);
                 method.visitMethodInsn(INVOKESTATIC, containerName,
@@ -564,15 +996,46 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits the body of the function in place of a call to it (see {@link InliningPolicy}). The
+     * arguments are stored in fresh local variables, and returns jump to the end of the inlined
+     * body, leaving the returned value (if any) on the stack.
+     */
+    private void inline (FunDeclarationNode decl, FunType funType, List<ExpressionNode> arguments)
+    {
+        runArguments(funType, arguments);
+        int[] indices = new int[decl.parameters.size()];
+        for (int i = 0; i < indices.length; ++i)
+            indices[i] = registerVariable(decl.parameters.get(i));
+        for (int i = indices.length - 1; i >= 0; --i)
+            method.visitVarInsn(nodeAsmType(decl.parameters.get(i)).getOpcode(ISTORE), indices[i]);
+        for (int i = 0; i < indices.length; ++i) {
+            ParameterNode parameter = decl.parameters.get(i);
+            localVariable(parameter.name, nodeAsmType(parameter), indices[i]);
+        }
+
+        InlinedCall surroundingCall = inlinedCall;
+        inlinedCall = new InlinedCall(funType.returnType);
+        int callerLine = currentLine;
+        step(); // the call still counts
+        run(decl.block);
+        method.visitLabel(inlinedCall.end);
+        if (lineMap != null && callerLine >= 0 && callerLine != currentLine) {
+            // the rest of the calling statement is on the caller's line
+            currentLine = callerLine;
+            method.visitLineNumber(callerLine, inlinedCall.end);
+        }
+        inlinedCall = surroundingCall;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object builtin (FunType funType, String name, List<ExpressionNode> arguments)
     {
         assert name.equals("print"); // only one at the moment
-        method.visitFieldInsn(GETSTATIC, "java/lang/System", "out",
-            "Ljava/io/PrintStream;");
         runArguments(funType, arguments);
-        method.visitInsn(DUP_X1); // we return the printed string!
-        method.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println",
-            "(Ljava/lang/String;)V", false);
+        // prints to the current output sink and returns the printed string
+        invokeStatic(method, SighRuntime.class, "print", String.class);
         return null;
     }
 
@@ -606,10 +1069,19 @@ public class BytecodeCompiler
     // ---------------------------------------------------------------------------------------------
 
     private Object returnStmt (ReturnNode node) {
+        if (inlinedCall != null) {
+            if (node.expression != null) {
+                run(node.expression);
+                implicitConversion(inlinedCall.returnType, reactor.get(node.expression, "type"));
+            }
+            method.visitJumpInsn(GOTO, inlinedCall.end);
+            return null;
+        }
+
         if (node.expression == null) {
             if (topLevel) {
                 loadConstant(method, null);
-                method.visitInsn(ARETURN);
+                returnFromRun();
             } else {
                 method.visitInsn(RETURN);
             }
@@ -626,7 +1098,7 @@ public class BytecodeCompiler
                 invokeStatic(method, Double.class, "valueOf", double.class);
             else if (type instanceof BoolType)
                 invokeStatic(method, Boolean.class, "valueOf", boolean.class);
-            method.visitInsn(ARETURN);
+            returnFromRun();
         } else {
             method.visitInsn(nodeAsmType(node.expression).getOpcode(IRETURN));
         }
@@ -636,6 +1108,17 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the value on top of the stack from the {@code run} method, going through its exit
+     * code.
+     */
+    private void returnFromRun () {
+        method.visitVarInsn(ASTORE, runResult);
+        method.visitJumpInsn(GOTO, runExit);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object block (BlockNode node) {
         node.statements.forEach(this::run);
         return null;
@@ -648,6 +1131,19 @@ public class BytecodeCompiler
         Label elseLabel = new Label();
         Label endLabel = new Label();
         boolean hasElse = node.falseStatement != null;
+
+        // make the most frequent branch the fallthrough
+        if (hasElse && profile != null && profile.takenProbability(node) < 0.5) {
+            run(node.condition);
+            method.visitJumpInsn(IFNE, elseLabel);
+            run(node.falseStatement);
+            method.visitJumpInsn(GOTO, endLabel);
+            method.visitLabel(elseLabel);
+            run(node.trueStatement);
+            method.visitLabel(endLabel);
+            return null;
+        }
+
         run(node.condition);
         method.visitJumpInsn(IFEQ, hasElse ? elseLabel : endLabel);
         run(node.trueStatement);
@@ -670,6 +1166,14 @@ public class BytecodeCompiler
         run(node.condition);
         method.visitJumpInsn(IFEQ, endLabel);
         run(node.body);
+        if (shouldUnroll(node)) {
+            // second copy of the body, halving the number of back edges
+            step();
+            run(node.condition);
+            method.visitJumpInsn(IFEQ, endLabel);
+            run(node.body);
+        }
+        step();
         method.visitJumpInsn(GOTO, startLabel);
         method.visitLabel(endLabel);
         return null;
@@ -677,6 +1181,39 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    private boolean shouldUnroll (WhileNode node)
+    {
+        return profile != null
+            && profile.averageTripCount(node) >= UNROLL_TRIP_COUNT
+            && node.body.span.end - node.body.span.start <= UNROLL_MAX_BODY_SIZE
+            && !containsDeclaration(node.body);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the statement contains a function or structure declaration, which can't be emitted
+     * twice.
+     */
+    private static boolean containsDeclaration (StatementNode node)
+    {
+        if (node instanceof FunDeclarationNode || node instanceof StructDeclarationNode)
+            return true;
+        if (node instanceof BlockNode)
+            return ((BlockNode) node).statements.stream()
+                .anyMatch(BytecodeCompiler::containsDeclaration);
+        if (node instanceof IfNode) {
+            IfNode ifNode = (IfNode) node;
+            return containsDeclaration(ifNode.trueStatement)
+                || ifNode.falseStatement != null && containsDeclaration(ifNode.falseStatement);
+        }
+        if (node instanceof WhileNode)
+            return containsDeclaration(((WhileNode) node).body);
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object reference (ReferenceNode node)
     {
         DeclarationNode decl = reactor.get(node, "decl");
@@ -744,15 +1281,16 @@ public class BytecodeCompiler
         run(node.initializer);
         implicitConversion(node, node.initializer);
         method.visitVarInsn(type.getOpcode(ISTORE), index);
-        // LATER: method.visitLocalVariable for debug information
-        // https://stackoverflow.com/questions/28633731
+        localVariable(node.name, type, index);
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object parameter (ParameterNode node) {
-        registerVariable(node);
+    private Object parameter (ParameterNode node)
+    {
+        org.objectweb.asm.Type type = nodeAsmType(node);
+        localVariable(node.name, type, registerVariable(node, type));
         return null;
     }
 
@@ -798,6 +1336,8 @@ public class BytecodeCompiler
         String binaryName = node.name;
         struct = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         struct.visit(V1_8, ACC_PUBLIC, binaryName, null, "java/lang/Object", null);
+        if (sourceFile != null)
+            struct.visitSource(sourceFile, null);
         node.fields.forEach(this::run);
 
         // generate constructor
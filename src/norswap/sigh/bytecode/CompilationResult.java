@@ -61,6 +61,9 @@ public final class CompilationResult
      *
      * <p>Unlike the {@code main} method, the {@code run} method is able to return a value!
      * The {@code main} method just calls the {@code run} method and ignores its return value.
+     *
+     * <p>The {@code run} method flushes the output when it exits, so everything the program printed
+     * has reached the output sink when this returns or throws.
      */
     public static Object callRun (Class<?> mainClass, String... args) {
         try {
@@ -76,8 +79,8 @@ public final class CompilationResult
     /**
      * Call the {@code run} method of the given class, see {@link #callRun}.
      */
-    public static void callRun (Class<?> mainClass) {
-        callMain(mainClass, new String[0]);
+    public static Object callRun (Class<?> mainClass) {
+        return callRun(mainClass, new String[0]);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,214 @@
+package norswap.sigh.bytecode;
+
+import norswap.sigh.ast.*;
+import norswap.sigh.profile.ExecutionProfile;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.uranium.Reactor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which functions the {@link BytecodeCompiler} inlines at their call sites.
+ *
+ * <p>A function is inlined if it is small (measured in AST nodes), is not (directly or indirectly)
+ * recursive, and only uses its own parameters and local variables. Its body must also be made of
+ * constructs that can be emitted more than once: no nested function or structure declarations.
+ *
+ * <p>Functions that the {@link ExecutionProfile} (if any) reports as hot get a larger size budget.
+ */
+final class InliningPolicy
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum size (in AST nodes) of an inlined function. */
+    static final int MAX_SIZE = 40;
+
+    /** Maximum size (in AST nodes) of an inlined function that the profile reports as hot. */
+    static final int HOT_MAX_SIZE = 120;
+
+    /** Number of profiled calls from which a function is considered hot. */
+    static final long HOT_CALL_COUNT = 1_000;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Reactor reactor;
+    private final ExecutionProfile profile;
+
+    /** Size and callees of analyzed functions (size is -1 if the function can't be inlined). */
+    private final IdentityHashMap<FunDeclarationNode, Summary> summaries = new IdentityHashMap<>();
+
+    private final IdentityHashMap<FunDeclarationNode, Boolean> decisions = new IdentityHashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Summary {
+        int size;
+        final List<FunDeclarationNode> callees = new ArrayList<>();
+        final Set<DeclarationNode> locals = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    InliningPolicy (Reactor reactor, ExecutionProfile profile) {
+        this.reactor = reactor;
+        this.profile = profile;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether calls to the given function should be inlined.
+     */
+    boolean shouldInline (FunDeclarationNode node) {
+        return decisions.computeIfAbsent(node, this::decide);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean decide (FunDeclarationNode node)
+    {
+        int size = summary(node).size;
+        int budget = profile != null && profile.callCount(node) >= HOT_CALL_COUNT
+            ? HOT_MAX_SIZE
+            : MAX_SIZE;
+        return size >= 0
+            && size <= budget
+            && !reaches(node, node, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code target} can be called (directly or not) from {@code from}.
+     */
+    private boolean reaches (FunDeclarationNode from, FunDeclarationNode target,
+                             Set<FunDeclarationNode> visited)
+    {
+        for (FunDeclarationNode callee: summary(from).callees)
+            if (callee == target || visited.add(callee) && reaches(callee, target, visited))
+                return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Summary summary (FunDeclarationNode node)
+    {
+        Summary summary = summaries.get(node);
+        if (summary != null) return summary;
+
+        summary = new Summary();
+        summaries.put(node, summary);
+        summary.locals.addAll(node.parameters);
+        summary.size = statement(node.block, summary) ? summary.size : -1;
+        return summary;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the size of the statement to the summary, returning false if it can't be inlined.
+     */
+    private boolean statement (StatementNode node, Summary summary)
+    {
+        ++summary.size;
+
+        if (node instanceof BlockNode) {
+            for (StatementNode statement: ((BlockNode) node).statements)
+                if (!statement(statement, summary))
+                    return false;
+            return true;
+        }
+        if (node instanceof VarDeclarationNode) {
+            VarDeclarationNode decl = (VarDeclarationNode) node;
+            summary.locals.add(decl);
+            return expression(decl.initializer, summary);
+        }
+        if (node instanceof ExpressionStatementNode)
+            return expression(((ExpressionStatementNode) node).expression, summary);
+        if (node instanceof IfNode) {
+            IfNode ifNode = (IfNode) node;
+            return expression(ifNode.condition, summary)
+                && statement(ifNode.trueStatement, summary)
+                && (ifNode.falseStatement == null || statement(ifNode.falseStatement, summary));
+        }
+        if (node instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) node;
+            return expression(whileNode.condition, summary)
+                && statement(whileNode.body, summary);
+        }
+        if (node instanceof ReturnNode) {
+            ExpressionNode expression = ((ReturnNode) node).expression;
+            return expression == null || expression(expression, summary);
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the size of the expression to the summary, returning false if it can't be inlined.
+     */
+    private boolean expression (ExpressionNode node, Summary summary)
+    {
+        ++summary.size;
+
+        if (node instanceof IntLiteralNode
+                || node instanceof FloatLiteralNode
+                || node instanceof StringLiteralNode
+                || node instanceof ConstructorNode)
+            return true;
+        if (node instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node, "decl");
+            return summary.locals.contains(decl)
+                || decl instanceof SyntheticDeclarationNode
+                || decl instanceof StructDeclarationNode;
+        }
+        if (node instanceof ParenthesizedNode)
+            return expression(((ParenthesizedNode) node).expression, summary);
+        if (node instanceof UnaryExpressionNode)
+            return expression(((UnaryExpressionNode) node).operand, summary);
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            return expression(binary.left, summary) && expression(binary.right, summary);
+        }
+        if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            return expression(assignment.left, summary) && expression(assignment.right, summary);
+        }
+        if (node instanceof ArrayLiteralNode) {
+            for (ExpressionNode component: ((ArrayLiteralNode) node).components)
+                if (!expression(component, summary))
+                    return false;
+            return true;
+        }
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            return expression(access.array, summary) && expression(access.index, summary);
+        }
+        if (node instanceof FieldAccessNode)
+            return expression(((FieldAccessNode) node).stem, summary);
+        if (node instanceof FunCallNode) {
+            FunCallNode call = (FunCallNode) node;
+            if (call.function instanceof ReferenceNode) {
+                DeclarationNode decl = reactor.get(call.function, "decl");
+                if (decl instanceof FunDeclarationNode)
+                    summary.callees.add((FunDeclarationNode) decl);
+                else if (!(decl instanceof SyntheticDeclarationNode))
+                    return false;
+            }
+            else if (!(call.function instanceof ConstructorNode))
+                return false;
+            for (ExpressionNode arg: call.arguments)
+                if (!expression(arg, summary))
+                    return false;
+            return true;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,346 @@
+package norswap.sigh.bytecode;
+
+import org.objectweb.asm.tree.*;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A peephole optimizer that cleans up the simple stack code emitted by the {@link
+ * BytecodeCompiler}, so that the generated methods are smaller and fit better within the JIT's
+ * inlining budgets.
+ *
+ * <p>The following rewrites are applied until none applies anymore:
+ * <ul>
+ *     <li>{@code DUP; xSTORE n; POP} (an assignment used as a statement) becomes {@code xSTORE n},
+ *     and {@code DUP; POP} disappears.</li>
+ *     <li>{@code xSTORE n; xLOAD n} becomes {@code DUP; xSTORE n}.</li>
+ *     <li>{@code L2D} applied to a long constant is folded into a double constant.</li>
+ *     <li>A jump to a {@code GOTO} jumps directly to the target of the {@code GOTO}, and a boolean
+ *     constant followed by a conditional jump (as produced by a comparison used as condition)
+ *     becomes a {@code GOTO} or disappears.</li>
+ *     <li>{@code IFxx L1; GOTO L2; L1:} becomes {@code IF!xx L2; L1:}, and a {@code GOTO} to the
+ *     next instruction disappears.</li>
+ *     <li>Unreachable code after returns, {@code ATHROW} and {@code GOTO} is removed.</li>
+ * </ul>
+ *
+ * <p>Frames and maximum stack sizes are not maintained: the class writer must compute them.
+ */
+public final class PeepholeOptimizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private PeepholeOptimizer () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Optimizes the given method in place.
+     */
+    public static void optimize (MethodNode method)
+    {
+        InsnList insns = method.instructions;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // Rewrites add the labels they make into targets, but don't remove those that stop
+            // being targets, which is conservative until the next pass.
+            Set<LabelNode> targets = jumpTargets(method);
+            AbstractInsnNode insn = insns.getFirst();
+            while (insn != null) {
+                // rewrites never remove instructions before insn
+                AbstractInsnNode previous = insn.getPrevious();
+                if (rewrite(insns, insn, targets)) {
+                    changed = true;
+                    insn = previous == null ? insns.getFirst() : previous.getNext();
+                }
+                else
+                    insn = insn.getNext();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Tries to apply a rewrite starting at {@code insn}, returning true if successful.
+     */
+    private static boolean rewrite (InsnList insns, AbstractInsnNode insn, Set<LabelNode> targets)
+    {
+        int opcode = insn.getOpcode();
+        if (opcode < 0) return false; // label, line number or frame
+
+        if (isUnconditionalExit(opcode) && removeUnreachable(insns, insn, targets))
+            return true;
+
+        AbstractInsnNode next = next(insn, targets);
+        int nextOpcode = next == null ? -1 : next.getOpcode();
+
+        if (insn instanceof JumpInsnNode) {
+            JumpInsnNode jump = (JumpInsnNode) insn;
+
+            // jump to GOTO L -> jump to L
+            LabelNode label = finalTarget(jump.label);
+            if (label != null && label != jump.label) {
+                jump.label = label;
+                targets.add(label);
+                return true;
+            }
+
+            // GOTO L; L: -> L:
+            if (opcode == GOTO && real(jump.label) == real(insn.getNext())
+                    && precedes(insn, jump.label)) {
+                insns.remove(insn);
+                return true;
+            }
+
+            // IFxx L1; GOTO L2; L1: -> IF!xx L2; L1:
+            if (opcode != GOTO && opcode != JSR && nextOpcode == GOTO
+                    && real(jump.label) == real(next.getNext()) && precedes(next, jump.label)) {
+                insns.set(insn, new JumpInsnNode(invert(opcode), ((JumpInsnNode) next).label));
+                insns.remove(next);
+                return true;
+            }
+        }
+
+        if (next == null) return false;
+
+        // DUP; POP -> nothing
+        if (opcode == DUP && nextOpcode == POP || opcode == DUP2 && nextOpcode == POP2) {
+            insns.remove(insn);
+            insns.remove(next);
+            return true;
+        }
+
+        // DUP; xSTORE n; POP -> xSTORE n
+        if ((opcode == DUP || opcode == DUP2) && isStore(nextOpcode)
+                && (opcode == DUP2) == (nextOpcode == LSTORE || nextOpcode == DSTORE)) {
+            AbstractInsnNode pop = next(next, targets);
+            if (pop != null && pop.getOpcode() == (opcode == DUP ? POP : POP2)) {
+                insns.remove(insn);
+                insns.remove(pop);
+                return true;
+            }
+        }
+
+        // xSTORE n; xLOAD n -> DUP; xSTORE n
+        if (isStore(opcode) && nextOpcode == opcode - ISTORE + ILOAD
+                && ((VarInsnNode) insn).var == ((VarInsnNode) next).var) {
+            insns.insertBefore(insn, new InsnNode(opcode == LSTORE || opcode == DSTORE ? DUP2 : DUP));
+            insns.remove(next);
+            return true;
+        }
+
+        // constant long; L2D -> constant double
+        if (nextOpcode == L2D) {
+            Long value = longConstant(insn);
+            if (value != null) {
+                insns.set(insn, doubleConstant(value));
+                insns.remove(next);
+                return true;
+            }
+        }
+
+        // boolean constant; IFEQ/IFNE L -> GOTO L or nothing
+        if ((opcode == ICONST_0 || opcode == ICONST_1) && (nextOpcode == IFEQ || nextOpcode == IFNE)) {
+            boolean jumps = (opcode == ICONST_0) == (nextOpcode == IFEQ);
+            insns.remove(insn);
+            if (jumps)
+                insns.set(next, new JumpInsnNode(GOTO, ((JumpInsnNode) next).label));
+            else
+                insns.remove(next);
+            return true;
+        }
+
+        // boolean constant; GOTO L; ... L: IFEQ/IFNE L2 -> GOTO L2 or GOTO after the jump
+        if ((opcode == ICONST_0 || opcode == ICONST_1) && nextOpcode == GOTO) {
+            AbstractInsnNode target = real(((JumpInsnNode) next).label);
+            int targetOpcode = target == null ? -1 : target.getOpcode();
+            if (targetOpcode == IFEQ || targetOpcode == IFNE) {
+                boolean jumps = (opcode == ICONST_0) == (targetOpcode == IFEQ);
+                LabelNode label = jumps ? ((JumpInsnNode) target).label : labelAfter(insns, target);
+                insns.remove(insn);
+                ((JumpInsnNode) next).label = label;
+                targets.add(label);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Removes the instructions following {@code insn} up to the next jump target, returning true if
+     * any was removed.
+     */
+    private static boolean removeUnreachable (InsnList insns, AbstractInsnNode insn,
+                                              Set<LabelNode> targets)
+    {
+        boolean removed = false;
+        AbstractInsnNode current = insn.getNext();
+        while (current != null && !targets.contains(current)) {
+            AbstractInsnNode next = current.getNext();
+            if (current.getOpcode() >= 0) { // keep labels, line numbers and frames
+                insns.remove(current);
+                removed = true;
+            }
+            current = next;
+        }
+        return removed;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the labels that are the target of jumps, switches or exception handlers.
+     */
+    private static Set<LabelNode> jumpTargets (MethodNode method)
+    {
+        Set<LabelNode> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof JumpInsnNode)
+                targets.add(((JumpInsnNode) insn).label);
+            else if (insn instanceof TableSwitchInsnNode) {
+                targets.add(((TableSwitchInsnNode) insn).dflt);
+                targets.addAll(((TableSwitchInsnNode) insn).labels);
+            }
+            else if (insn instanceof LookupSwitchInsnNode) {
+                targets.add(((LookupSwitchInsnNode) insn).dflt);
+                targets.addAll(((LookupSwitchInsnNode) insn).labels);
+            }
+        }
+        if (method.tryCatchBlocks != null)
+            for (TryCatchBlockNode block: method.tryCatchBlocks) {
+                targets.add(block.start);
+                targets.add(block.end);
+                targets.add(block.handler);
+            }
+        return targets;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the next real instruction after {@code insn}, if it can only be reached from {@code
+     * insn} (i.e. there is no jump target in between), or null.
+     */
+    private static AbstractInsnNode next (AbstractInsnNode insn, Set<LabelNode> targets)
+    {
+        for (AbstractInsnNode next = insn.getNext(); next != null; next = next.getNext()) {
+            if (targets.contains(next)) return null;
+            if (next.getOpcode() >= 0) return next;
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Follows the chain of {@code GOTO} starting at {@code label} and returns the label where it
+     * ends, or null if the chain loops.
+     */
+    private static LabelNode finalTarget (LabelNode label)
+    {
+        Set<LabelNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        AbstractInsnNode target;
+        while ((target = real(label)) != null && target.getOpcode() == GOTO) {
+            if (!visited.add(label)) return null;
+            label = ((JumpInsnNode) target).label;
+        }
+        return label;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the first real instruction at or after {@code insn}, or null.
+     */
+    private static AbstractInsnNode real (AbstractInsnNode insn)
+    {
+        while (insn != null && insn.getOpcode() < 0)
+            insn = insn.getNext();
+        return insn;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code label} follows {@code insn} with only labels, line numbers and frames in
+     * between.
+     */
+    private static boolean precedes (AbstractInsnNode insn, LabelNode label)
+    {
+        for (AbstractInsnNode next = insn.getNext(); next != null && next.getOpcode() < 0;
+                next = next.getNext())
+            if (next == label) return true;
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a label directly following {@code insn}, inserting one if necessary.
+     */
+    private static LabelNode labelAfter (InsnList insns, AbstractInsnNode insn)
+    {
+        if (insn.getNext() instanceof LabelNode)
+            return (LabelNode) insn.getNext();
+        LabelNode label = new LabelNode();
+        insns.insert(insn, label);
+        return label;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isUnconditionalExit (int opcode) {
+        return opcode >= IRETURN && opcode <= RETURN || opcode == ATHROW || opcode == GOTO;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isStore (int opcode) {
+        return opcode >= ISTORE && opcode <= ASTORE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Long longConstant (AbstractInsnNode insn)
+    {
+        if (insn.getOpcode() == LCONST_0) return 0L;
+        if (insn.getOpcode() == LCONST_1) return 1L;
+        if (insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof Long)
+            return (Long) ((LdcInsnNode) insn).cst;
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static AbstractInsnNode doubleConstant (long value)
+    {
+        if (value == 0) return new InsnNode(DCONST_0);
+        if (value == 1) return new InsnNode(DCONST_1);
+        return new LdcInsnNode((double) value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the conditional jump opcode with the opposite condition.
+     */
+    private static int invert (int opcode)
+    {
+        switch (opcode) {
+            case IFNULL:    return IFNONNULL;
+            case IFNONNULL: return IFNULL;
+            default:
+                // IFEQ .. IF_ACMPNE come in (condition, negation) pairs
+                return (opcode - IFEQ) % 2 == 0 ? opcode + 1 : opcode - 1;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,5 +1,11 @@
 package norswap.sigh.bytecode;
 
+import norswap.sigh.budget.ExecutionBudget;
+import norswap.sigh.budget.ExecutionMeter;
+import norswap.sigh.output.Output;
+import norswap.sigh.output.ValueFormatter;
+import java.util.concurrent.TimeUnit;
+
 public final class SighRuntime
 {
     /**
@@ -12,14 +18,69 @@ public final class SighRuntime
     }
 
     /**
-     * Implementation of the Sigh {@code print} method, which prints the string to standard output
-     * then returns it.
-     *
-     * <p>For now, only used to get a method handle for when {@code print} is used as a value,
-     * but not actually used in method calls. Might change that in the future?
+     * Implementation of the Sigh {@code print} method, which prints the string to the current
+     * output sink (see {@link Output}) then returns it.
      */
     public static String print(String string) {
-        System.out.println(string);
+        Output.current().println(string);
         return string;
     }
+
+    /**
+     * Converts an array (of any representation) to a string, without creating a string per
+     * element.
+     */
+    public static String arrayToString(Object array) {
+        StringBuilder builder = new StringBuilder();
+        ValueFormatter.append(builder, array);
+        return builder.toString();
+    }
+
+    /**
+     * Records a step (loop iteration or function call) on the current meter, if any. Only called
+     * by code compiled with a budget.
+     */
+    public static void step() {
+        ExecutionMeter meter = ExecutionMeter.current();
+        if (meter != null) meter.step();
+    }
+
+    /**
+     * Records the allocation of an array on the current meter, if any. Only called by code
+     * compiled with a budget.
+     */
+    public static void allocate(int length) {
+        ExecutionMeter meter = ExecutionMeter.current();
+        if (meter != null) meter.allocate(length);
+    }
+
+    /**
+     * Installs a meter for a budget with the given limits, returning the previously installed
+     * meter. Called when the {@code run} method of classes compiled with a budget starts.
+     */
+    public static ExecutionMeter startBudget(long maxSteps, long timeoutNanos, long maxArrayLength,
+                                             long maxAllocatedElements) {
+        ExecutionBudget budget = ExecutionBudget.builder()
+            .maxSteps(maxSteps)
+            .timeout(timeoutNanos, TimeUnit.NANOSECONDS)
+            .maxArrayLength(maxArrayLength)
+            .maxAllocatedElements(maxAllocatedElements)
+            .get();
+        return ExecutionMeter.install(budget.start());
+    }
+
+    /**
+     * Restores the meter that was installed before {@link #startBudget}.
+     */
+    public static void endBudget(ExecutionMeter previous) {
+        ExecutionMeter.install(previous);
+    }
+
+    /**
+     * Flushes the current output sink, called when the {@code run} method of generated classes
+     * exits (normally or not).
+     */
+    public static void flush() {
+        Output.current().flush();
+    }
 }
@@ -0,0 +1,119 @@
+package norswap.sigh.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The wire protocol between {@link SighClient} and {@link SighDaemon}.
+ *
+ * <p>Both directions exchange frames made of a type byte, a length (4 bytes, big endian) and a
+ * payload of that length. The client sends an {@link #AUTH} frame with the daemon's token (cf.
+ * below), then a single request frame ({@link #RUN_FILE} with an absolute path, {@link
+ * #RUN_SOURCE} with the source, or {@link #SHUTDOWN}). The daemon answers with any number of
+ * {@link #OUTPUT} frames (UTF-8 encoded output, sent as the script prints), followed by a single
+ * {@link #DONE} (empty) or {@link #ERROR} frame (with the error message), then closes the
+ * connection.
+ *
+ * <p>The loopback interface is reachable by all local users, so the daemon generates a random
+ * token when it starts, and writes it to a file only its owner can read (by default {@link
+ * #tokenFile(int)}). Connections that don't start with this token get an {@link #ERROR} frame and
+ * are closed, without running anything.
+ */
+final class Protocol
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private Protocol () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    static final int DEFAULT_PORT = 7465;
+
+    /** Frames larger than this are rejected. */
+    static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    /** Maximum size of the {@link #AUTH} frame, read before the client is authenticated. */
+    static final int MAX_AUTH_FRAME_SIZE = 1024;
+
+    // requests
+    static final byte RUN_FILE   = 1;
+    static final byte RUN_SOURCE = 2;
+    static final byte SHUTDOWN   = 3;
+    static final byte AUTH       = 4;
+
+    // responses
+    static final byte OUTPUT = 16;
+    static final byte DONE   = 17;
+    static final byte ERROR  = 18;
+
+    // ---------------------------------------------------------------------------------------------
+
+    static void write (DataOutputStream out, byte type, byte[] payload, int offset, int length)
+            throws IOException
+    {
+        out.writeByte(type);
+        out.writeInt(length);
+        out.write(payload, offset, length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static void write (DataOutputStream out, byte type, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        write(out, type, bytes, 0, bytes.length);
+        out.flush();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** A frame read from the wire. */
+    static final class Frame {
+        final byte type;
+        final byte[] payload;
+
+        Frame (byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the default file holding the token of the daemon listening on the given port.
+     */
+    static Path tokenFile (int port) {
+        return Paths.get(System.getProperty("user.home"), ".sigh", "daemon-" + port + ".token");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static byte[] readToken (Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim()
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static Frame read (DataInputStream in, int maxSize) throws IOException
+    {
+        byte type = in.readByte();
+        int length = in.readInt();
+        if (length < 0 || length > maxSize)
+            throw new IOException("invalid frame length: " + length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,169 @@
+package norswap.sigh.daemon;
+
+import norswap.sigh.daemon.Protocol.Frame;
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static norswap.sigh.daemon.Protocol.*;
+
+/**
+ * Client for {@link SighDaemon}: sends a script to the daemon and streams its output back.
+ *
+ * <p>The client only depends on the JDK, so that it starts quickly: its classpath only needs to
+ * contain this package.
+ *
+ * <p>{@link #main} provides a command line interface, see {@link #USAGE}.
+ */
+public final class SighClient
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static final String USAGE =
+        "usage: SighClient [--port <port>] [--token-file <file>]\n" +
+        "                  (<script> | -e <source> | --shutdown)\n" +
+        "  Runs the script (or the given source) in the daemon and prints its output.\n" +
+        "  --token-file <file>  file holding the daemon's token\n" +
+        "                       (default: ~/.sigh/daemon-<port>.token)\n" +
+        "  --shutdown           stops the daemon";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final int port;
+    private final Path tokenFile;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a client for the daemon listening on the given port, which reads the daemon's token
+     * from the default token file for that port.
+     */
+    public SighClient (int port) {
+        this(port, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #SighClient(int)}, but reads the token from the given file instead (the default
+     * if null).
+     */
+    public SighClient (int port, Path tokenFile) {
+        this.port = port;
+        this.tokenFile = tokenFile != null ? tokenFile : Protocol.tokenFile(port);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the script in the daemon, writing its output to {@code out}. Returns null if the script
+     * succeeded, or the error message otherwise.
+     */
+    public String runFile (Path script, OutputStream out) throws IOException {
+        return request(RUN_FILE, script.toAbsolutePath().toString(), out);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #runFile}, but sends the source of the script.
+     */
+    public String runSource (String source, OutputStream out) throws IOException {
+        return request(RUN_SOURCE, source, out);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stops the daemon.
+     */
+    public void shutdown () throws IOException {
+        request(SHUTDOWN, "", new ByteArrayOutputStream());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String request (byte type, String payload, OutputStream output) throws IOException
+    {
+        byte[] token = Protocol.readToken(tokenFile); // read anew: the daemon may have restarted
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in =
+                new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            Protocol.write(out, AUTH, token, 0, token.length);
+            Protocol.write(out, type, payload);
+            while (true) {
+                Frame frame = Protocol.read(in, MAX_FRAME_SIZE);
+                switch (frame.type) {
+                    case OUTPUT:
+                        output.write(frame.payload);
+                        output.flush();
+                        break;
+                    case DONE:
+                        return null;
+                    case ERROR:
+                        return frame.text();
+                    default:
+                        throw new IOException("unexpected frame type: " + frame.type);
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args) throws IOException
+    {
+        int port = DEFAULT_PORT;
+        Path tokenFile = null;
+        byte type = 0;
+        String payload = null;
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "--port":       port = Integer.parseInt(args[++i]); break;
+                    case "--token-file": tokenFile = Paths.get(args[++i]); break;
+                    case "-e":           type = RUN_SOURCE; payload = args[++i]; break;
+                    case "--shutdown":   type = SHUTDOWN; break;
+                    default:             type = RUN_FILE; payload = args[i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            type = 0;
+        }
+
+        if (type == 0) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        SighClient client = new SighClient(port, tokenFile);
+        String error;
+        try {
+            switch (type) {
+                case RUN_FILE:   error = client.runFile(Paths.get(payload), System.out); break;
+                case RUN_SOURCE: error = client.runSource(payload, System.out); break;
+                default:         client.shutdown(); error = null;
+            }
+        } catch (ConnectException | NoSuchFileException e) {
+            System.err.println("no daemon listening on port " + port + " (start SighDaemon)");
+            System.exit(2);
+            return;
+        }
+
+        if (error != null) {
+            System.err.println(error);
+            System.exit(1);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
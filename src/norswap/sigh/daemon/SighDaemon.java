@@ -0,0 +1,434 @@
+package norswap.sigh.daemon;
+
+import norswap.sigh.SighRunner;
+import norswap.sigh.daemon.Protocol.Frame;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.output.ChannelOutputSink;
+import norswap.sigh.output.FlushPolicy;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static norswap.sigh.daemon.Protocol.*;
+
+/**
+ * A resident process that runs Sigh scripts on behalf of {@link SighClient}, so that running a
+ * script doesn't pay for JVM startup, class loading and JIT warmup.
+ *
+ * <p>The daemon only listens on the loopback interface, and only serves clients that present the
+ * token it writes to its token file when it starts, which only its owner can read (cf. {@link
+ * Protocol}). Connections that don't send the token within a short delay are closed. Each
+ * connection carries a single request and is handled on a fixed-size pool of worker threads. The
+ * output of the script is streamed back to the client line by line.
+ *
+ * <p>All scripts share the same {@link SighRunner} (and hence grammar). Recently run programs are
+ * kept as {@link CompiledProgram}s, so that running an unchanged file (or the same source) again
+ * skips parsing and analysis, and reuses the code compiled by tiered execution.
+ *
+ * <p>{@link #main} provides a command line interface, see {@link #USAGE}.
+ */
+public final class SighDaemon implements Closeable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static final String USAGE =
+        "usage: SighDaemon [--port <port>] [-j <threads>] [--tiered] [--token-file <file>]\n" +
+        "  --port <port>        port to listen on, on the loopback interface (default: "
+            + DEFAULT_PORT + ")\n" +
+        "  -j <threads>         number of worker threads (default: number of processors)\n" +
+        "  --tiered             enable tiered execution\n" +
+        "  --token-file <file>  where to write the token clients must present\n" +
+        "                       (default: ~/.sigh/daemon-<port>.token)";
+
+    /** Maximum number of programs kept in the cache. */
+    private static final int CACHE_SIZE = 256;
+
+    private static final int OUTPUT_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * How long a client has to send its token after connecting. Clients send it right away: this
+     * only stops idle connections from holding a worker thread.
+     */
+    private static final int AUTH_TIMEOUT_MILLIS = 2_000;
+
+    /** Maximum delay before accepting connections again after a failure to accept one. */
+    private static final int MAX_ACCEPT_BACKOFF_MILLIS = 1_000;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighRunner runner;
+    private final ServerSocket server;
+    private final ExecutorService executor;
+
+    /** Clients must send this token before their request (cf. {@link Protocol}). */
+    private final byte[] token;
+    private final Path tokenFile;
+
+    /**
+     * LRU cache, keyed by path, modification time and size for files, or by source (cf. {@link
+     * #fileProgram} and {@link #sourceProgram}). Guarded by itself.
+     */
+    private final LinkedHashMap<String, CompiledProgram> cache =
+        new LinkedHashMap<String, CompiledProgram>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry (Map.Entry<String, CompiledProgram> e) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a daemon listening on the given port (0 to pick any free port, cf. {@link #port()}),
+     * writing its token to the default token file for that port (cf. {@link #tokenFile()}).
+     * Requests are only served once {@link #serve()} is called.
+     */
+    public SighDaemon (InterpreterOptions options, int port, int threads) throws IOException {
+        this(options, port, threads, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #SighDaemon(InterpreterOptions, int, int)}, but writes the token to the given
+     * file instead (the default if null).
+     */
+    public SighDaemon (InterpreterOptions options, int port, int threads, Path tokenFile)
+            throws IOException
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("invalid thread count: " + threads);
+        this.runner = new SighRunner(options);
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.tokenFile = tokenFile != null ? tokenFile : Protocol.tokenFile(port());
+        this.token = newToken();
+        try {
+            writeToken(this.tokenFile, token);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        AtomicInteger workerCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "sigh-daemon-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The file holding the token clients must present, deleted when the daemon is closed. */
+    public Path tokenFile() {
+        return tokenFile;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static byte[] newToken ()
+    {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder(2 * random.length);
+        for (byte b: random)
+            hex.append(String.format("%02x", b));
+        return hex.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the token to a new file that only the current user can read and write (and creates
+     * its directory, only accessible to the current user, if needed).
+     */
+    private static void writeToken (Path file, byte[] token) throws IOException
+    {
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null && !Files.isDirectory(directory)) {
+            if (posix)
+                Files.createDirectories(directory, permissions("rwx------"));
+            else
+                Files.createDirectories(directory);
+        }
+
+        // created with restricted permissions before the token is written, and fails if someone
+        // else recreated the file in the meantime
+        Files.deleteIfExists(file);
+        if (posix)
+            Files.createFile(file, permissions("rw-------"));
+        else
+            Files.createFile(file);
+        Files.write(file, token);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static FileAttribute<Set<PosixFilePermission>> permissions (String permissions) {
+        return PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Serves requests on the calling thread until the daemon is closed, either by calling {@link
+     * #close()} or by a shutdown request.
+     */
+    public void serve ()
+    {
+        int backoff = 0;
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (server.isClosed())
+                    return;
+                // e.g. the connection failed before being accepted, or too many open files:
+                // don't spin if the error persists
+                backoff = Math.min(Math.max(2 * backoff, 10), MAX_ACCEPT_BACKOFF_MILLIS);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    close();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            backoff = 0;
+            executor.execute(() -> handle(socket));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stops accepting requests and interrupts the running ones.
+     */
+    @Override public void close ()
+    {
+        try {
+            server.close();
+            Files.deleteIfExists(tokenFile);
+        } catch (IOException e) {
+            // nothing to do
+        }
+        executor.shutdownNow();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void handle (Socket socket)
+    {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true); // output is sent line by line
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            // small limit and timeout: unauthenticated clients shouldn't make us allocate much,
+            // nor hold a worker thread
+            s.setSoTimeout(AUTH_TIMEOUT_MILLIS);
+            Frame auth = Protocol.read(in, MAX_AUTH_FRAME_SIZE);
+            if (auth.type != AUTH || !MessageDigest.isEqual(auth.payload, token)) {
+                Protocol.write(out, ERROR, "unauthorized: invalid or missing token");
+                return;
+            }
+            s.setSoTimeout(0);
+
+            Frame request = Protocol.read(in, MAX_FRAME_SIZE);
+            switch (request.type) {
+                case RUN_FILE:
+                case RUN_SOURCE:
+                    run(request, out);
+                    break;
+                case SHUTDOWN:
+                    Protocol.write(out, DONE, "");
+                    close();
+                    break;
+                default:
+                    Protocol.write(out, ERROR, "unknown request type: " + request.type);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // the client went away
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void run (Frame request, DataOutputStream out) throws IOException
+    {
+        ChannelOutputSink sink = new ChannelOutputSink(
+            new OutputChannel(out), OUTPUT_BUFFER_SIZE, FlushPolicy.EVERY_LINE);
+
+        try {
+            CompiledProgram program = request.type == RUN_FILE
+                ? fileProgram(Paths.get(request.text()))
+                : sourceProgram(request.text());
+            program.execute(sink);
+        } catch (UncheckedIOException e) {
+            throw e; // failed to send the output
+        } catch (IOException | RuntimeException | StackOverflowError e) {
+            Protocol.write(out, ERROR, message(e));
+            return;
+        }
+        Protocol.write(out, DONE, "");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompiledProgram fileProgram (Path path) throws IOException
+    {
+        String key = "file:" + path + ":" + Files.getLastModifiedTime(path).toMillis() + ":"
+            + Files.size(path);
+        CompiledProgram program = cached(key);
+        if (program == null)
+            program = cache(key, runner.compile(
+                new String(Files.readAllBytes(path), StandardCharsets.UTF_8), path.toString()));
+        return program;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompiledProgram sourceProgram (String source)
+    {
+        String key = "source:" + source;
+        CompiledProgram program = cached(key);
+        if (program == null)
+            program = cache(key, runner.compile(source));
+        return program;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompiledProgram cached (String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CompiledProgram cache (String key, CompiledProgram program) {
+        synchronized (cache) {
+            cache.put(key, program);
+        }
+        return program;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a description of the error and of its causes.
+     */
+    private static String message (Throwable error)
+    {
+        StringBuilder builder = new StringBuilder(error.toString());
+        for (Throwable cause = error.getCause(); cause != null; cause = cause.getCause())
+            builder.append("\ncaused by: ").append(cause);
+        return builder.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A channel that sends what is written to it as {@link Protocol#OUTPUT} frames.
+     */
+    private static final class OutputChannel implements WritableByteChannel
+    {
+        private final DataOutputStream out;
+        private boolean open = true;
+
+        OutputChannel (DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override public int write (ByteBuffer src) throws IOException
+        {
+            int length = src.remaining();
+            if (src.hasArray()) {
+                Protocol.write(out, OUTPUT, src.array(), src.arrayOffset() + src.position(), length);
+                src.position(src.limit());
+            } else {
+                byte[] bytes = new byte[length];
+                src.get(bytes);
+                Protocol.write(out, OUTPUT, bytes, 0, length);
+            }
+            out.flush();
+            return length;
+        }
+
+        @Override public boolean isOpen() {
+            return open;
+        }
+
+        @Override public void close() {
+            open = false;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args) throws IOException
+    {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        InterpreterOptions options = InterpreterOptions.DEFAULT;
+        Path tokenFile = null;
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "--port":       port = Integer.parseInt(args[++i]); break;
+                    case "-j":           threads = Integer.parseInt(args[++i]); break;
+                    case "--tiered":
+                        options = InterpreterOptions.builder().tiered().get(); break;
+                    case "--token-file": tokenFile = Paths.get(args[++i]); break;
+                    default:             throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            threads = 0;
+        }
+
+        if (threads < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        try (SighDaemon daemon = new SighDaemon(options, port, threads, tokenFile)) {
+            System.out.println("sigh daemon listening on "
+                + InetAddress.getLoopbackAddress().getHostAddress() + ":" + daemon.port()
+                + " (token in " + daemon.tokenFile() + ")");
+            daemon.serve();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
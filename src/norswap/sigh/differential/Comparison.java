@@ -0,0 +1,146 @@
+package norswap.sigh.differential;
+
+import java.util.Objects;
+
+/**
+ * The result of running a program through both the {@link norswap.sigh.interpreter.Interpreter}
+ * and the {@link norswap.sigh.bytecode.BytecodeCompiler} with the {@link DifferentialHarness}.
+ *
+ * <p>Timings are the best (minimum) of the timed repetitions, in nanoseconds, or -1 if they could
+ * not be measured (e.g. the timings of the compiled code if the program couldn't be compiled).
+ */
+public final class Comparison
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public enum Status
+    {
+        /** Both backends printed the same output and returned the same result (or failed alike). */
+        MATCH,
+        /** The backends disagree on the output, result or failure of the program. */
+        MISMATCH,
+        /** The bytecode compiler doesn't support the program. */
+        UNSUPPORTED,
+        /** The program couldn't be parsed or analyzed. */
+        INVALID
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * What a backend did when running the program.
+     */
+    public static final class Outcome
+    {
+        /** What the program printed, including before it failed. */
+        public final String output;
+
+        /**
+         * The text representation of the returned value, if it is null, a number, a boolean, a
+         * string or an array (cf. {@link norswap.sigh.output.ValueFormatter}). Other values (e.g.
+         * structures) are not represented the same way by both backends, and are represented by
+         * their Sigh type category (e.g. "&lt;struct&gt;"). Null if the program failed.
+         */
+        public final String result;
+
+        /** The name of the class of the exception thrown by the program, or null. */
+        public final String error;
+
+        public Outcome (String output, String result, String error) {
+            this.output = output;
+            this.result = result;
+            this.error = error;
+        }
+
+        @Override public boolean equals (Object o) {
+            if (!(o instanceof Outcome)) return false;
+            Outcome other = (Outcome) o;
+            return output.equals(other.output)
+                && Objects.equals(result, other.result)
+                && Objects.equals(error, other.error);
+        }
+
+        @Override public int hashCode () {
+            return Objects.hash(output, result, error);
+        }
+
+        @Override public String toString () {
+            return error != null
+                ? "threw " + error + " after printing " + quote(output)
+                : "returned " + result + " after printing " + quote(output);
+        }
+
+        private static String quote (String output) {
+            return "\"" + output.replace("\n", "\\n") + "\"";
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public final String name;
+    public final Status status;
+
+    /** Why the program is unsupported or invalid, or null. */
+    public final String reason;
+
+    /** Null if the program is invalid. */
+    public final Outcome interpreted;
+
+    /** Null if the program is invalid or unsupported. */
+    public final Outcome compiled;
+
+    /** Time taken by an interpreted execution. */
+    public final long interpreterNanos;
+
+    /** Time taken to compile the program to bytecode. */
+    public final long compilationNanos;
+
+    /** Time taken by an execution of the compiled code (excluding compilation and loading). */
+    public final long compiledNanos;
+
+    // ---------------------------------------------------------------------------------------------
+
+    Comparison (String name, Status status, String reason, Outcome interpreted, Outcome compiled,
+                long interpreterNanos, long compilationNanos, long compiledNanos)
+    {
+        this.name = name;
+        this.status = status;
+        this.reason = reason;
+        this.interpreted = interpreted;
+        this.compiled = compiled;
+        this.interpreterNanos = interpreterNanos;
+        this.compilationNanos = compilationNanos;
+        this.compiledNanos = compiledNanos;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns how many times faster the compiled code runs than the interpreter, or NaN if either
+     * time is unknown.
+     */
+    public double speedup ()
+    {
+        return interpreterNanos <= 0 || compiledNanos <= 0
+            ? Double.NaN
+            : (double) interpreterNanos / compiledNanos;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString ()
+    {
+        switch (status) {
+            case MISMATCH:
+                return name + ": MISMATCH, interpreter " + interpreted
+                    + ", compiled code " + compiled;
+            case UNSUPPORTED:
+            case INVALID:
+                return name + ": " + status + " (" + reason + ")";
+            default:
+                return name + ": " + status;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
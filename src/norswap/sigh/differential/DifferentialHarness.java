@@ -0,0 +1,286 @@
+package norswap.sigh.differential;
+
+import norswap.sigh.SighRunner;
+import norswap.sigh.batch.BatchRunner;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.differential.Comparison.Outcome;
+import norswap.sigh.differential.Comparison.Status;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.interpreter.Null;
+import norswap.sigh.output.ChannelOutputSink;
+import norswap.sigh.output.FlushPolicy;
+import norswap.sigh.output.Output;
+import norswap.sigh.output.OutputSink;
+import norswap.sigh.output.ValueFormatter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Runs programs through both the {@link norswap.sigh.interpreter.Interpreter} and the {@link
+ * BytecodeCompiler}, checking that both backends agree on what the programs print and return (or
+ * on how they fail), and timing them side by side (cf. {@link Comparison}).
+ *
+ * <p>Each program is parsed and analyzed once. Each backend then runs it once to record its
+ * {@link Outcome}, then a number of untimed warmup runs, then a number of timed repetitions, whose
+ * best time is retained. Programs are run one at a time, on the calling thread.
+ *
+ * <p>The results are gathered in a {@link DifferentialReport}, which can be compared to the report
+ * of an earlier run to detect performance regressions. {@link #main} provides a command line
+ * interface, see {@link #USAGE}.
+ */
+public final class DifferentialHarness
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static final String USAGE =
+        "usage: DifferentialHarness [-w <warmups>] [-n <repetitions>] [--save <file>]\n" +
+        "                           [--baseline <file>] [--threshold <percent>]\n" +
+        "                           <script or directory>...\n" +
+        "  Runs the given .si scripts, and the .si scripts found (recursively) in the given\n" +
+        "  directories, with both the interpreter and the bytecode compiler, and reports\n" +
+        "  mismatches and timings. Exits with status 1 if there are mismatches.\n" +
+        "  -w <warmups>           untimed runs before timing (default: 2)\n" +
+        "  -n <repetitions>       timed runs, the best of which is reported (default: 5)\n" +
+        "  --save <file>          save the timings, for use as a later baseline\n" +
+        "  --baseline <file>      compare the timings to those saved in the file\n" +
+        "  --threshold <percent>  slowdown reported as a regression (default: 10)";
+
+    /** Name of the classes generated for the programs. */
+    private static final String CLASS_NAME = "DifferentialRun";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighRunner runner = new SighRunner();
+    private final int warmups;
+    private final int repetitions;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final ChannelOutputSink sink = new ChannelOutputSink(
+        Channels.newChannel(bytes), ChannelOutputSink.DEFAULT_BUFFER_SIZE, FlushPolicy.ON_DEMAND);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a harness with 2 warmup runs and 5 timed repetitions.
+     */
+    public DifferentialHarness () {
+        this(2, 5);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public DifferentialHarness (int warmups, int repetitions)
+    {
+        if (warmups < 0)
+            throw new IllegalArgumentException("invalid warmup count: " + warmups);
+        if (repetitions < 1)
+            throw new IllegalArgumentException("invalid repetition count: " + repetitions);
+        this.warmups = warmups;
+        this.repetitions = repetitions;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compares the backends on the given scripts, in order.
+     */
+    public List<Comparison> compare (List<Path> scripts) throws IOException
+    {
+        List<Comparison> comparisons = new ArrayList<>(scripts.size());
+        for (Path script: scripts) {
+            String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            comparisons.add(compare(script.toString(), source));
+        }
+        return comparisons;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compares the backends on a single program, identified by the given name.
+     */
+    public Comparison compare (String name, String source)
+    {
+        CompiledProgram program;
+        try {
+            program = runner.compile(source, name);
+        } catch (RuntimeException e) { // parse error or SemanticErrorsException
+            return new Comparison(name, Status.INVALID, e.toString(), null, null, -1, -1, -1);
+        }
+
+        Outcome interpreted = interpret(program);
+        long interpreterNanos = best(() -> interpret(program));
+
+        Method run;
+        long compilationNanos;
+        try {
+            CompilationResult result = compile(program);
+            compilationNanos = best(() -> compile(program));
+            run = result.load(new ByteArrayClassLoader()).getMethod("run", String[].class);
+        } catch (RuntimeException | NoSuchMethodException | LinkageError e) {
+            return new Comparison(name, Status.UNSUPPORTED, e.toString(), interpreted, null,
+                interpreterNanos, -1, -1);
+        } catch (Error e) { // the compiler signals unexpected cases with errors
+            if (e instanceof VirtualMachineError) throw e;
+            return new Comparison(name, Status.UNSUPPORTED, e.toString(), interpreted, null,
+                interpreterNanos, -1, -1);
+        }
+
+        Outcome compiled = runCompiled(run);
+        long compiledNanos = best(() -> runCompiled(run));
+
+        Status status = interpreted.equals(compiled) ? Status.MATCH : Status.MISMATCH;
+        return new Comparison(name, status, null, interpreted, compiled,
+            interpreterNanos, compilationNanos, compiledNanos);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the action {@link #warmups} times, then {@link #repetitions} times, returning the best
+     * time of the latter.
+     */
+    private long best (Supplier<?> action)
+    {
+        for (int i = 0; i < warmups; ++i)
+            action.get();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < repetitions; ++i) {
+            long start = System.nanoTime();
+            action.get();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Outcome interpret (CompiledProgram program)
+    {
+        bytes.reset();
+        Object result = null;
+        Throwable error = null;
+        try {
+            result = program.execute(sink);
+        } catch (RuntimeException | StackOverflowError e) {
+            error = e;
+        }
+        return outcome(result, error);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static CompilationResult compile (CompiledProgram program) {
+        return new BytecodeCompiler(program.reactor).compile(CLASS_NAME, program.root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Outcome runCompiled (Method run)
+    {
+        bytes.reset();
+        Object result = null;
+        Throwable error = null;
+        OutputSink previous = Output.install(sink);
+        try {
+            // Object cast: the string array is one argument in the vararg!
+            result = run.invoke(null, (Object) new String[0]);
+        } catch (InvocationTargetException e) {
+            error = e.getCause();
+        } catch (IllegalAccessException e) {
+            throw new Error(e); // the method is public
+        } finally {
+            Output.install(previous);
+        }
+        return outcome(result, error);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Outcome outcome (Object result, Throwable error)
+    {
+        sink.flush();
+        String output = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        return error != null
+            ? new Outcome(output, null, error.getClass().getName())
+            : new Outcome(output, describe(result), null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a representation of the value that is the same for both backends, see {@link
+     * Outcome#result}.
+     */
+    private static String describe (Object value)
+    {
+        if (value == null || value == Null.INSTANCE)
+            return "null";
+        if (value instanceof Number || value instanceof Boolean || value instanceof CharSequence
+                || value.getClass().isArray())
+            return new ValueFormatter().format(value);
+        return "<opaque>";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args) throws IOException
+    {
+        int warmups = 2;
+        int repetitions = 5;
+        double threshold = 0.10;
+        Path save = null;
+        Path baseline = null;
+        List<Path> paths = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "-w":          warmups = Integer.parseInt(args[++i]); break;
+                    case "-n":          repetitions = Integer.parseInt(args[++i]); break;
+                    case "--save":      save = Paths.get(args[++i]); break;
+                    case "--baseline":  baseline = Paths.get(args[++i]); break;
+                    case "--threshold": threshold = Double.parseDouble(args[++i]) / 100; break;
+                    default:            paths.add(Paths.get(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            paths.clear();
+        }
+
+        if (paths.isEmpty() || warmups < 0 || repetitions < 1 || threshold < 0) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        Map<String, long[]> baselineTimings = baseline == null
+            ? Collections.emptyMap()
+            : DifferentialReport.loadTimings(baseline);
+
+        List<Comparison> comparisons = new DifferentialHarness(warmups, repetitions)
+            .compare(BatchRunner.collect(paths));
+        DifferentialReport report =
+            new DifferentialReport(comparisons, baselineTimings, threshold);
+
+        System.out.print(report);
+        if (save != null)
+            report.saveTimings(save);
+        System.exit(report.mismatches().isEmpty() ? 0 : 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,227 @@
+package norswap.sigh.differential;
+
+import norswap.sigh.differential.Comparison.Status;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Summarizes the {@link Comparison}s produced by a {@link DifferentialHarness}: a table with the
+ * status, the timings of both backends and the speedup of the compiled code for each program,
+ * followed by the mismatches, and by the regressions with respect to a baseline.
+ *
+ * <p>The baseline consists of the timings of an earlier run, saved with {@link #saveTimings} and
+ * loaded with {@link #loadTimings}. A program regresses when one of its timings (interpreter,
+ * compilation or compiled code) grows by more than the threshold fraction of its baseline.
+ */
+public final class DifferentialReport
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public final List<Comparison> comparisons;
+
+    /** Maps program names to their baseline timings, see {@link #timings}. */
+    private final Map<String, long[]> baseline;
+
+    private final double threshold;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a report without baseline.
+     */
+    public DifferentialReport (List<Comparison> comparisons) {
+        this(comparisons, Collections.emptyMap(), 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a report that compares the timings to the {@code baseline} timings (cf. {@link
+     * #loadTimings}), reporting slowdowns larger than {@code threshold} (e.g. 0.1 for 10%).
+     */
+    public DifferentialReport
+            (List<Comparison> comparisons, Map<String, long[]> baseline, double threshold)
+    {
+        this.comparisons = Collections.unmodifiableList(new ArrayList<>(comparisons));
+        this.baseline = baseline;
+        this.threshold = threshold;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the timings of the comparison: interpreter, compilation and compiled code.
+     */
+    private static long[] timings (Comparison comparison) {
+        return new long[] {
+            comparison.interpreterNanos, comparison.compilationNanos, comparison.compiledNanos };
+    }
+
+    private static final String[] TIMING_NAMES = { "interpreter", "compilation", "compiled code" };
+
+    // ---------------------------------------------------------------------------------------------
+
+    public List<Comparison> mismatches () {
+        return comparisons.stream()
+            .filter(it -> it.status == Status.MISMATCH)
+            .collect(Collectors.toList());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a description of each timing that regressed with respect to the baseline, e.g.
+     * {@code "fib.si: compiled code 1.000 ms -> 1.500 ms (+50%)"}.
+     */
+    public List<String> regressions ()
+    {
+        List<String> regressions = new ArrayList<>();
+        for (Comparison comparison: comparisons) {
+            long[] before = baseline.get(comparison.name);
+            if (before == null) continue;
+            long[] after = timings(comparison);
+            for (int i = 0; i < after.length; ++i) {
+                double change = change(before[i], after[i]);
+                if (change > threshold)
+                    regressions.add(String.format(Locale.ROOT, "%s: %s %s -> %s (%+.0f%%)",
+                        comparison.name, TIMING_NAMES[i], millis(before[i]), millis(after[i]),
+                        change * 100));
+            }
+        }
+        return regressions;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the relative change from {@code before} to {@code after}, or NaN if either is
+     * unknown.
+     */
+    private static double change (long before, long after) {
+        return before <= 0 || after <= 0
+            ? Double.NaN
+            : (double) after / before - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String millis (long nanos) {
+        return nanos < 0
+            ? "-"
+            : String.format(Locale.ROOT, "%.3f ms", nanos / 1e6);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String changes (Comparison comparison)
+    {
+        long[] before = baseline.get(comparison.name);
+        if (before == null) return "";
+        long[] after = timings(comparison);
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < after.length; ++i) {
+            double change = change(before[i], after[i]);
+            b.append(Double.isNaN(change)
+                ? String.format("%8s", "-")
+                : String.format(Locale.ROOT, "%+7.0f%%", change * 100));
+        }
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString ()
+    {
+        int width = "program".length();
+        for (Comparison comparison: comparisons)
+            width = Math.max(width, comparison.name.length());
+
+        boolean withBaseline = !baseline.isEmpty();
+        String row = "%-" + width + "s  %-11s  %14s  %14s  %14s  %8s%s%n";
+        StringBuilder b = new StringBuilder();
+        String changeHeaders = withBaseline
+            ? String.format("%8s%8s%8s", "interp%", "compil%", "compd%")
+            : "";
+        b.append(String.format(row, "program", "status", "interpreter", "compilation", "compiled",
+            "speedup", changeHeaders));
+
+        for (Comparison comparison: comparisons) {
+            double speedup = comparison.speedup();
+            b.append(String.format(Locale.ROOT, row, comparison.name, comparison.status,
+                millis(comparison.interpreterNanos), millis(comparison.compilationNanos),
+                millis(comparison.compiledNanos),
+                Double.isNaN(speedup) ? "-" : String.format(Locale.ROOT, "%.1fx", speedup),
+                changes(comparison)));
+        }
+
+        long[] counts = new long[Status.values().length];
+        comparisons.forEach(it -> ++counts[it.status.ordinal()]);
+        b.append(String.format("%n%d programs: %d match, %d mismatch, %d unsupported, %d invalid%n",
+            comparisons.size(), counts[0], counts[1], counts[2], counts[3]));
+
+        for (Comparison comparison: comparisons)
+            if (comparison.status != Status.MATCH)
+                b.append(comparison).append(System.lineSeparator());
+
+        if (withBaseline) {
+            List<String> regressions = regressions();
+            b.append(String.format(Locale.ROOT, "%n%d regressions (threshold: %.0f%%)%n",
+                regressions.size(), threshold * 100));
+            regressions.forEach(it -> b.append(it).append(System.lineSeparator()));
+        }
+
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Saves the timings of the programs to the file (one tab-separated line per program), for use
+     * as the baseline of a later report.
+     */
+    public void saveTimings (Path path) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        for (Comparison comparison: comparisons) {
+            long[] timings = timings(comparison);
+            lines.add(comparison.name + "\t" + timings[0] + "\t" + timings[1] + "\t" + timings[2]);
+        }
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Loads timings saved with {@link #saveTimings}.
+     */
+    public static Map<String, long[]> loadTimings (Path path) throws IOException
+    {
+        Map<String, long[]> timings = new HashMap<>();
+        for (String line: Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (line.isEmpty()) continue;
+            String[] fields = line.split("\t");
+            if (fields.length != 4)
+                throw new IOException("malformed timings line in " + path + ": " + line);
+            try {
+                long[] values = new long[3];
+                for (int i = 0; i < values.length; ++i)
+                    values[i] = Long.parseLong(fields[i + 1]);
+                timings.put(fields[0], values);
+            } catch (NumberFormatException e) {
+                throw new IOException("malformed timings line in " + path + ": " + line, e);
+            }
+        }
+        return timings;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
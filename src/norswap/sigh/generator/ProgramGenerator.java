@@ -0,0 +1,330 @@
+package norswap.sigh.generator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates large, valid Sigh programs, to measure how the implementation scales with the size of
+ * its input (e.g. using the {@code generated-<scale>} workloads of the JMH benchmarks).
+ *
+ * <p>The size and shape of the programs is configurable: number of functions and structures,
+ * nesting depth of the control flow in functions, length of the expression chains and length of
+ * the array literal. Programs are generated from a seeded random generator, so that a given
+ * configuration always generates the same program.
+ *
+ * <p>The generated programs only use features supported by both the interpreter and the bytecode
+ * compiler, terminate quickly (the call depth is logarithmic in
+ * the number of functions and loops are short) and print then return a checksum of their
+ * computations.
+ */
+public final class ProgramGenerator
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String USAGE =
+        "usage: ProgramGenerator [--scale scale] [-f functions] [-s structs] [-n nesting]\n" +
+        "           [-e expression-length] [-a array-length] [--seed seed] [output-file]";
+
+    /** Modulus keeping the checksums small. */
+    private static final int MODULUS = 1000003;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int functions = 100;
+    private int structs = 10;
+    private int nesting = 4;
+    private int expressionLength = 8;
+    private int arrayLength = 100;
+    private long seed = 42;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Random random;
+    private StringBuilder out;
+    private int indent;
+    private int variables;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes the size of the program (in lines) roughly proportional to {@code scale}: {@code scale}
+     * functions, {@code scale / 10} structures and an array literal with {@code scale} elements.
+     * With the default nesting, each function is about 30 lines long.
+     */
+    public ProgramGenerator scale (int scale) {
+        return functions(scale)
+            .structs(Math.max(1, scale / 10))
+            .arrayLength(Math.max(1, scale));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of functions (default: 100). */
+    public ProgramGenerator functions (int functions) {
+        this.functions = requireAtLeast(0, functions, "functions");
+        return this;
+    }
+
+    /** Number of structure declarations (default: 10). */
+    public ProgramGenerator structs (int structs) {
+        this.structs = requireAtLeast(0, structs, "structs");
+        return this;
+    }
+
+    /** Depth of the nested if statements in each function (default: 4). */
+    public ProgramGenerator nesting (int nesting) {
+        this.nesting = requireAtLeast(0, nesting, "nesting");
+        return this;
+    }
+
+    /** Number of operands in the expression chains (default: 8). */
+    public ProgramGenerator expressionLength (int expressionLength) {
+        this.expressionLength = requireAtLeast(1, expressionLength, "expression length");
+        return this;
+    }
+
+    /** Number of elements of the array literal (default: 100). */
+    public ProgramGenerator arrayLength (int arrayLength) {
+        this.arrayLength = requireAtLeast(1, arrayLength, "array length");
+        return this;
+    }
+
+    /** Seed of the random generator (default: 42). */
+    public ProgramGenerator seed (long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int requireAtLeast (int min, int value, String name)
+    {
+        if (value < min)
+            throw new IllegalArgumentException(name + " must be at least " + min + ": " + value);
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Generates the source code of a program.
+     */
+    public String generate ()
+    {
+        random = new Random(seed);
+        out = new StringBuilder();
+        indent = 0;
+        variables = 0;
+
+        for (int i = 0; i < structs; ++i)
+            struct(i);
+        for (int i = 0; i < functions; ++i)
+            function(i);
+        main();
+
+        String program = out.toString();
+        out = null;
+        return program;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void line (String line) {
+        for (int i = 0; i < indent; ++i) out.append("    ");
+        out.append(line).append('\n');
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void open (String line) {
+        line(line + " {");
+        ++indent;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void close (String suffix) {
+        --indent;
+        line("}" + suffix);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String fresh (String prefix) {
+        return prefix + variables++;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void struct (int i)
+    {
+        open("struct S" + i);
+        line("var a: Int");
+        line("var b: Float");
+        line("var c: Int");
+        close("");
+        line("");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void function (int i)
+    {
+        open("fun f" + i + " (a: Int, b: Int): Int");
+        String x = fresh("x");
+        line("var " + x + ": Int = " + expression("a", "b"));
+
+        // short loop
+        String counter = fresh("i");
+        line("var " + counter + ": Int = 0");
+        open("while (" + counter + " < 3)");
+        line(x + " = (" + x + " + " + counter + " * " + literal() + ") % " + MODULUS);
+        line(counter + " = " + counter + " + 1");
+        close("");
+
+        nested(x, nesting);
+
+        // the call depth is logarithmic in the number of functions
+        if (i > 0)
+            line(x + " = " + x + " + f" + (i / 2) + "(" + x + " % 100, b)");
+
+        line("return " + x + " % " + MODULUS);
+        close("");
+        line("");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void nested (String x, int depth)
+    {
+        if (depth == 0) return;
+        open("if (" + x + " % " + (2 + random.nextInt(3)) + " == 0)");
+        line(x + " = " + x + " + " + expression(x, "a", "b"));
+        nested(x, depth - 1);
+        close(" else {");
+        ++indent;
+        line(x + " = " + x + " - " + literal());
+        close("");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a chain of additions, subtractions and multiplications of the given variables and of
+     * literals, some of which are parenthesized.
+     */
+    private String expression (String... names)
+    {
+        StringBuilder b = new StringBuilder(operand(names));
+        for (int i = 1; i < expressionLength; ++i) {
+            b.append(operator());
+            if (random.nextInt(4) == 0)
+                b.append('(').append(operand(names)).append(operator())
+                 .append(operand(names)).append(')');
+            else
+                b.append(operand(names));
+        }
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String operand (String[] names) {
+        return random.nextBoolean()
+            ? names[random.nextInt(names.length)]
+            : literal();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String operator () {
+        switch (random.nextInt(3)) {
+            case 0:  return " + ";
+            case 1:  return " - ";
+            default: return " * ";
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String literal () {
+        return String.valueOf(1 + random.nextInt(9));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void main ()
+    {
+        StringBuilder data = new StringBuilder("var data: Int[] = [");
+        for (int i = 0; i < arrayLength; ++i) {
+            if (i > 0) data.append(i % 16 == 0 ? ",\n    " : ", ");
+            data.append(random.nextInt(1000));
+        }
+        line(data.append(']').toString());
+        line("var total: Int = 0");
+        line("");
+
+        for (int i = 0; i < structs; ++i) {
+            String s = "s" + i;
+            String args = i + ", " + i + ".5, " + literal();
+            line("var " + s + ": S" + i + " = $S" + i + "(" + args + ")");
+            line(s + ".c = " + s + ".c + " + s + ".a");
+            line("total = (total + " + s + ".a + " + s + ".c) % " + MODULUS);
+        }
+        line("");
+
+        for (int i = 0; i < functions; ++i)
+            line("total = (total + f" + i + "(" + i + ", data[" + (i % arrayLength) + "])) % "
+                + MODULUS);
+        line("");
+
+        line("var k: Int = 0");
+        open("while (k < " + arrayLength + ")"); // the bytecode compiler doesn't support .length
+        line("total = (total + data[k]) % " + MODULUS);
+        line("k = k + 1");
+        close("");
+        line("");
+
+        line("print(\"\" + total)");
+        line("return total");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args) throws IOException
+    {
+        ProgramGenerator generator = new ProgramGenerator();
+        String output = null;
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "-f":      generator.functions(Integer.parseInt(args[++i])); break;
+                    case "-s":      generator.structs(Integer.parseInt(args[++i])); break;
+                    case "-n":      generator.nesting(Integer.parseInt(args[++i])); break;
+                    case "-e":      generator.expressionLength(Integer.parseInt(args[++i])); break;
+                    case "-a":      generator.arrayLength(Integer.parseInt(args[++i])); break;
+                    case "--seed":  generator.seed(Long.parseLong(args[++i])); break;
+                    case "--scale": generator.scale(Integer.parseInt(args[++i])); break;
+                    default:
+                        if (output != null) throw new IllegalArgumentException();
+                        output = args[i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        String program = generator.generate();
+        if (output == null)
+            System.out.print(program);
+        else
+            Files.write(Paths.get(output), program.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,128 @@
+package norswap.sigh.interpreter;
+
+import norswap.autumn.positions.LineMap;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.jfr.ExecutionEvent;
+import norswap.sigh.jfr.Jfr;
+import norswap.sigh.output.OutputSink;
+import norswap.uranium.Reactor;
+
+/**
+ * A parsed and analyzed program, ready to be executed any number of times, possibly by multiple
+ * threads at once. Create instances with {@link norswap.sigh.SighRunner#compile}.
+ *
+ * <p>Instances are immutable: the tree and its semantic attributes are only read during execution,
+ * and each execution gets its own {@link Interpreter}, which holds the state of the execution
+ * (variables, output sink, ...). When tiered execution is enabled, all executions share the same
+ * {@link TieredExecution} controller, so that hot functions are compiled once for all executions.
+ * Executions that record a profile all record into the profile from the options.
+ *
+ * <p>The tree and the reactor must not be modified after the creation of the program.
+ */
+public final class CompiledProgram
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public final RootNode root;
+    public final Reactor reactor;
+    public final InterpreterOptions options;
+
+    /** Name identifying the program (e.g. its path) in recorded events, may be null. */
+    public final String script;
+
+    /** Null if tiered execution is disabled. */
+    private final TieredExecution tiering;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a program from a tree on which the semantic analysis has been run successfully.
+     */
+    public CompiledProgram (RootNode root, Reactor reactor, InterpreterOptions options) {
+        this(root, reactor, options, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #CompiledProgram(RootNode, Reactor, InterpreterOptions)}, with the name that
+     * identifies the program in recorded events (may be null).
+     */
+    public CompiledProgram
+            (RootNode root, Reactor reactor, InterpreterOptions options, String script) {
+        this(root, reactor, options, script, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #CompiledProgram(RootNode, Reactor, InterpreterOptions, String)}, with the line
+     * map of the source (may be null), used to emit debug information in the code compiled by
+     * tiered execution (cf. {@link TieredExecution#sourceInfo}).
+     */
+    public CompiledProgram (RootNode root, Reactor reactor, InterpreterOptions options,
+                            String script, LineMap lineMap)
+    {
+        this.root = root;
+        this.reactor = reactor;
+        this.options = options;
+        this.script = script;
+        TieredExecution tiering = TieredExecution.create(reactor, options);
+        this.tiering = tiering == null || lineMap == null
+            ? tiering
+            : tiering.sourceInfo(script, lineMap);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the tiered execution controller shared by all executions, or null if tiered
+     * execution is disabled.
+     */
+    public TieredExecution tiering() {
+        return tiering;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Executes the program and returns its result (cf. {@link Interpreter#interpret}).
+     */
+    public Object execute() {
+        return execute(new Interpreter(reactor, options, tiering, script));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Executes the program, printing to the given sink instead of the one from the options.
+     */
+    public Object execute (OutputSink output)
+    {
+        InterpreterOptions executionOptions = options.toBuilder().output(output).get();
+        return execute(new Interpreter(reactor, executionOptions, tiering, script));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object execute (Interpreter interpreter)
+    {
+        ExecutionEvent event = Jfr.AVAILABLE ? new ExecutionEvent() : null;
+        if (event == null)
+            return interpreter.interpret(root);
+        event.begin();
+        try {
+            Object result = interpreter.interpret(root);
+            event.succeeded = true;
+            return result;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.script = script;
+                event.commit();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
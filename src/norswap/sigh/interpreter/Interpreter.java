@@ -1,6 +1,19 @@
 package norswap.sigh.interpreter;
 
 import norswap.sigh.ast.*;
+import norswap.sigh.budget.BudgetExceededException;
+import norswap.sigh.budget.ExecutionBudget;
+import norswap.sigh.budget.ExecutionMeter;
+import norswap.sigh.jfr.FunctionCallEvent;
+import norswap.sigh.jfr.Jfr;
+import norswap.sigh.output.Output;
+import norswap.sigh.output.OutputSink;
+import norswap.sigh.output.ValueFormatter;
+import norswap.sigh.profile.AllocationProfile;
+import norswap.sigh.profile.ExecutionProfile;
+import norswap.sigh.profile.NodeProfile;
+import norswap.sigh.profile.SamplingProfiler;
+import norswap.sigh.profile.ShadowStack;
 import norswap.sigh.scopes.DeclarationKind;
 import norswap.sigh.scopes.RootScope;
 import norswap.sigh.scopes.Scope;
@@ -15,11 +28,16 @@ import norswap.utils.Util;
 import norswap.utils.exceptions.Exceptions;
 import norswap.utils.exceptions.NoStackException;
 import norswap.utils.visitors.ValuedVisitor;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import static java.lang.String.format;
+import static norswap.sigh.profile.AllocationProfile.Kind.*;
+import static norswap.sigh.profile.AllocationProfile.arrayBytes;
+import static norswap.sigh.profile.AllocationProfile.stringBytes;
+import static norswap.sigh.profile.AllocationProfile.structBytes;
 import static norswap.utils.Util.cast;
 import static norswap.utils.Vanilla.coIterate;
 import static norswap.utils.Vanilla.map;
@@ -27,6 +45,15 @@ import static norswap.utils.Vanilla.map;
 /**
  * Implements a simple but inefficient interpreter for Sigh.
  *
+ * <p>Hot functions can optionally be compiled to bytecode, see {@link TieredExecution} and {@link
+ * InterpreterOptions#tieringThreshold}. The interpreter can also record an {@link
+ * ExecutionProfile} to guide the bytecode compiler, see {@link InterpreterOptions#profile}, and
+ * limit the resources used by executions, see {@link InterpreterOptions#budget}.
+ *
+ * <p>An interpreter holds the state of the execution, and must not be used by multiple threads at
+ * once. To execute the same program many times, possibly concurrently, use {@link
+ * CompiledProgram}.
+ *
  * <h2>Limitations</h2>
  * <ul>
  *     <li>The compiled code currently doesn't support closures (using variables in functions that
@@ -37,7 +64,9 @@ import static norswap.utils.Vanilla.map;
  * <p>Runtime value representation:
  * <ul>
  *     <li>{@code Int}, {@code Float}, {@code Bool}: {@link Long}, {@link Double}, {@link Boolean}</li>
- *     <li>{@code String}: {@link String}</li>
+ *     <li>{@code String}: {@link String}, or {@link Rope} for long concatenation results (these
+ *     are flattened when printed, and in the value returned by {@link #interpret}; array
+ *     equality compares them by content)</li>
  *     <li>{@code null}: {@link Null#INSTANCE}</li>
  *     <li>Arrays: {@code Object[]}</li>
  *     <li>Structs: {@code HashMap<String, Object>}</li>
@@ -57,52 +86,201 @@ public final class Interpreter
     private RootScope rootScope;
     private ScopeStorage rootStorage;
 
+    /** Null if tiered execution is disabled. */
+    private final TieredExecution tiering;
+
+    /** Null if profiling is disabled. */
+    private final ExecutionProfile.Recorder profile;
+
+    private final ValueFormatter formatter = new ValueFormatter();
+
+    /** Null if executions are not limited. */
+    private final ExecutionBudget budget;
+
+    /** The meter of the ongoing execution, null if executions are not limited. */
+    private ExecutionMeter meter;
+
+    /** The sink from the options, or null to use the current sink (cf. {@link Output}). */
+    private final OutputSink outputOption;
+
+    /** The sink used by the ongoing execution. */
+    private OutputSink output;
+
+    /** The function whose body is being executed, null for top-level code. */
+    private FunDeclarationNode currentFunction = null;
+
+    /** Name identifying the program in recorded events, may be null. */
+    private final String script;
+
+    /** See {@link InterpreterOptions#callEventSampling}. */
+    private final int callEventSampling;
+
+    /** Number of function calls before the next one emits an event. */
+    private int callsUntilEvent;
+
+    /** Null if executions are not sampled. */
+    private final SamplingProfiler sampler;
+
+    /** The shadow stack of the ongoing execution, null if executions are not sampled. */
+    private ShadowStack shadowStack;
+
+    /** Null if nodes are not instrumented (cf. {@link InterpreterOptions#nodeProfile}). */
+    private final NodeProfile.Recorder nodeRecorder;
+
+    /** Time spent in the children of the node being executed, when nodes are instrumented. */
+    private long childNanos;
+
+    /** Null if allocations are not recorded (cf. {@link InterpreterOptions#allocationProfile}). */
+    private final AllocationProfile.Recorder allocations;
+
     // ---------------------------------------------------------------------------------------------
 
     public Interpreter (Reactor reactor) {
+        this(reactor, InterpreterOptions.DEFAULT);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Interpreter (Reactor reactor, InterpreterOptions options) {
+        this(reactor, options, TieredExecution.create(reactor, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an interpreter using the given tiered execution controller (null to disable tiering),
+     * which may be shared with other interpreters (cf. {@link CompiledProgram}).
+     */
+    Interpreter (Reactor reactor, InterpreterOptions options, TieredExecution tiering) {
+        this(reactor, options, tiering, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #Interpreter(Reactor, InterpreterOptions, TieredExecution)}, with the name that
+     * identifies the program in recorded events (may be null).
+     */
+    Interpreter (Reactor reactor, InterpreterOptions options, TieredExecution tiering,
+                 String script)
+    {
         this.reactor = reactor;
+        this.tiering = tiering;
+        this.profile = options.profile == null ? null : options.profile.recorder();
+        this.outputOption = options.output;
+        this.budget = options.budget;
+        this.script = script;
+        this.callEventSampling = options.callEventSampling;
+        this.callsUntilEvent = options.callEventSampling;
+        this.sampler = options.sampler;
+        this.nodeRecorder = options.nodeProfile == null ? null : options.nodeProfile.recorder();
+        this.allocations = options.allocationProfile == null
+            ? null
+            : options.allocationProfile.recorder();
 
         // expressions
-        visitor.register(IntLiteralNode.class,           this::intLiteral);
-        visitor.register(FloatLiteralNode.class,         this::floatLiteral);
-        visitor.register(StringLiteralNode.class,        this::stringLiteral);
-        visitor.register(ReferenceNode.class,            this::reference);
-        visitor.register(ConstructorNode.class,          this::constructor);
-        visitor.register(ArrayLiteralNode.class,         this::arrayLiteral);
-        visitor.register(ParenthesizedNode.class,        this::parenthesized);
-        visitor.register(FieldAccessNode.class,          this::fieldAccess);
-        visitor.register(ArrayAccessNode.class,          this::arrayAccess);
-        visitor.register(FunCallNode.class,              this::funCall);
-        visitor.register(UnaryExpressionNode.class,      this::unaryExpression);
-        visitor.register(BinaryExpressionNode.class,     this::binaryExpression);
-        visitor.register(RangeExpressionNode.class,      this::rangeExpression);
-        visitor.register(AssignmentNode.class,           this::assignment);
+        register(IntLiteralNode.class,           this::intLiteral);
+        register(FloatLiteralNode.class,         this::floatLiteral);
+        register(StringLiteralNode.class,        this::stringLiteral);
+        register(ReferenceNode.class,            this::reference);
+        register(ConstructorNode.class,          this::constructor);
+        register(ArrayLiteralNode.class,         this::arrayLiteral);
+        register(ParenthesizedNode.class,        this::parenthesized);
+        register(FieldAccessNode.class,          this::fieldAccess);
+        register(ArrayAccessNode.class,          this::arrayAccess);
+        register(FunCallNode.class,              this::funCall);
+        register(UnaryExpressionNode.class,      this::unaryExpression);
+        register(BinaryExpressionNode.class,     this::binaryExpression);
+        register(RangeExpressionNode.class,      this::rangeExpression);
+        register(AssignmentNode.class,           this::assignment);
 
         // statement groups & declarations
-        visitor.register(RootNode.class,                 this::root);
-        visitor.register(BlockNode.class,                this::block);
-        visitor.register(VarDeclarationNode.class,       this::varDecl);
+        register(RootNode.class,                 this::root);
+        register(BlockNode.class,                this::block);
+        register(VarDeclarationNode.class,       this::varDecl);
         // no need to visitor other declarations! (use fallback)
 
         // statements
-        visitor.register(ExpressionStatementNode.class,  this::expressionStmt);
-        visitor.register(IfNode.class,                   this::ifStmt);
-        visitor.register(WhileNode.class,                this::whileStmt);
-        visitor.register(ForNode.class,                  this::forStmt);
-        visitor.register(ForEachVarNode.class,           this::forEachVarDecl);
-        visitor.register(ForEachNode.class,              this::forEachStmt);
-        visitor.register(ReturnNode.class,               this::returnStmt);
+        register(ExpressionStatementNode.class,  this::expressionStmt);
+        register(IfNode.class,                   this::ifStmt);
+        register(WhileNode.class,                this::whileStmt);
+        register(ForNode.class,                  this::forStmt);
+        register(ForEachVarNode.class,           this::forEachVarDecl);
+        register(ForEachNode.class,              this::forEachStmt);
+        register(ReturnNode.class,               this::returnStmt);
 
         visitor.registerFallback(node -> null);
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    public Object interpret (SighNode root) {
+    /**
+     * Registers the visitor function for the node class, instrumented if nodes are profiled.
+     */
+    private <N extends SighNode> void register (Class<N> klass, Function<N, Object> function)
+    {
+        if (nodeRecorder == null)
+            visitor.register(klass, function);
+        else
+            visitor.register(klass, node -> instrumented(node, function));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private <N extends SighNode> Object instrumented (N node, Function<N, Object> function)
+    {
+        long outerChildNanos = childNanos;
+        childNanos = 0;
+        long start = System.nanoTime();
+        try {
+            return function.apply(node);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            nodeRecorder.record(node, elapsed, elapsed - childNanos);
+            childNanos = outerChildNanos + elapsed;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the tiered execution controller, or null if tiered execution is disabled.
+     */
+    public TieredExecution tiering() {
+        return tiering;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Object interpret (SighNode root)
+    {
+        output = outputOption != null ? outputOption : Output.current();
+        // compiled code (cf. tiered execution) prints to the current sink
+        OutputSink previous = Output.install(output);
+        // compiled code also uses the current meter
+        meter = budget == null ? null : budget.start();
+        ExecutionMeter previousMeter = budget == null ? null : ExecutionMeter.install(meter);
+        if (sampler != null) {
+            shadowStack = new ShadowStack();
+            sampler.attach(shadowStack);
+        }
         try {
-            return run(root);
+            return Rope.flatten(run(root));
         } catch (PassthroughException e) {
             throw Exceptions.runtime(e.getCause());
+        } finally {
+            output.flush();
+            Output.install(previous);
+            if (budget != null)
+                ExecutionMeter.install(previousMeter);
+            if (sampler != null)
+                sampler.detach(shadowStack);
+            if (nodeRecorder != null)
+                nodeRecorder.flush();
+            if (allocations != null)
+                allocations.flush();
+            if (profile != null)
+                profile.flush();
         }
     }
 
@@ -111,7 +289,7 @@ public final class Interpreter
     private Object run (SighNode node) {
         try {
             return visitor.apply(node);
-        } catch (InterpreterException | Return | PassthroughException e) {
+        } catch (InterpreterException | Return | PassthroughException | BudgetExceededException e) {
             throw e;
         } catch (RuntimeException e) {
             throw new InterpreterException("exception while executing " + node, e);
@@ -159,6 +337,10 @@ public final class Interpreter
     // ---------------------------------------------------------------------------------------------
 
     private Object[] arrayLiteral (ArrayLiteralNode node) {
+        if (meter != null)
+            meter.allocate(node.components.size());
+        if (allocations != null)
+            allocations.record(node, ARRAY, arrayBytes(node.components.size()));
         return map(node.components, new Object[0], visitor);
     }
 
@@ -179,8 +361,13 @@ public final class Interpreter
         Object right = get(node.right);
 
         if (node.operator == BinaryOperator.ADD
-                && (leftType instanceof StringType || rightType instanceof StringType))
-            return convertToString(left) + convertToString(right);
+                && (leftType instanceof StringType || rightType instanceof StringType)) {
+            Object result = concatenate(node, left, right);
+            // ropes are charged for their characters when flattened (cf. Rope)
+            if (allocations != null && result != left && result != right)
+                allocations.record(node, STRING, stringBytes((CharSequence) result));
+            return result;
+        }
 
         // -- Array operation handeler --
         if(reactor.get(node,"type") instanceof ArrayType){
@@ -220,9 +407,9 @@ public final class Interpreter
             Object[] arrayRight = (Object[]) right;
             switch (node.operator) {
                 case EQUALITY:
-                    return Arrays.equals(arrayLeft,arrayRight);
+                    return Rope.arrayEquals(arrayLeft, arrayRight);
                 case NOT_EQUALS:
-                    return !Arrays.equals(arrayLeft,arrayRight);
+                    return !Rope.arrayEquals(arrayLeft, arrayRight);
             }
         }
 
@@ -269,6 +456,10 @@ public final class Interpreter
             if(l.length == 0)
                 throw new PassthroughException(new ArithmeticException("Attempting to perform an operation using empty arrays"));
 
+            if (meter != null)
+                meter.allocate(l.length);
+            if (allocations != null)
+                allocations.record(node, ARRAY, arrayBytes(l.length));
             Object[] res = new Object[l.length];
             for(int i = 0; i < res.length; i++)
                 res[i] = arrayArrayFact(node, floating, loopAA-1, loopAP, l[i], r[i]);
@@ -297,6 +488,10 @@ public final class Interpreter
             if(l.length == 0)
                 throw new PassthroughException(new ArithmeticException("Attempting to perform an operation using empty arrays"));
 
+            if (meter != null)
+                meter.allocate(l.length);
+            if (allocations != null)
+                allocations.record(node, ARRAY, arrayBytes(l.length));
             Object[] res = new Object[l.length];
             for(int i = 0; i < res.length; i++)
                 res[i] = arrayArrayFactMirror(node, floating, loopAA-1, loopAP, l[i], r[i]);
@@ -318,6 +513,10 @@ public final class Interpreter
             Object[] l = (Object[]) left;
             if(l.length == 0)
                 throw new PassthroughException(new ArithmeticException("Attempting to perform an operation using an empty array"));
+            if (meter != null)
+                meter.allocate(l.length);
+            if (allocations != null)
+                allocations.record(node, ARRAY, arrayBytes(l.length));
             Object[] res = new Object[l.length];
             for(int i = 0; i < res.length; i++)
                 res[i] = arrayPrimitiveFact(node, floating, loopAP-1, l[i], right);
@@ -339,6 +538,10 @@ public final class Interpreter
             Object[] r = (Object[]) right;
             if(r.length == 0)
                 throw new PassthroughException(new ArithmeticException("Attempting to perform an operation using an empty array"));
+            if (meter != null)
+                meter.allocate(r.length);
+            if (allocations != null)
+                allocations.record(node, ARRAY, arrayBytes(r.length));
             Object[] res = new Object[r.length];
             for(int i = 0; i < res.length; i++)
                 res[i] = arrayPrimitiveFactMirror(node, floating, loopAP-1, left, r[i]);
@@ -351,6 +554,17 @@ public final class Interpreter
 
     private Object numericOp
             (BinaryExpressionNode node, boolean floating, Number left, Number right)
+    {
+        Object result = numericValue(node, floating, left, right);
+        if (allocations != null)
+            allocations.recordBoxed(node, result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object numericValue
+            (BinaryExpressionNode node, boolean floating, Number left, Number right)
     {
         long ileft, iright;
         double fleft, fright;
@@ -406,6 +620,8 @@ public final class Interpreter
     {
         long left = get(node.left);
         long right = get(node.right);
+        if (meter != null && right > left)
+            meter.allocate(right - left);
         int size = (int) (right - left);
         if(size <= 0)
             return new Object[0]; // empty selection
@@ -414,6 +630,12 @@ public final class Interpreter
         for(int iter = 0; iter < size; iter++)
             range[iter] = left + iter;
 
+        if (allocations != null) {
+            allocations.record(node, ARRAY, arrayBytes(size));
+            for (Object element: range)
+                allocations.recordBoxed(node, element);
+        }
+
         return range;
     }
 
@@ -548,6 +770,10 @@ public final class Interpreter
 
         /* Multiple Array Access */
         int[] indexes = getIndexes(node.index);
+        if (meter != null)
+            meter.allocate(indexes.length);
+        if (allocations != null)
+            allocations.record(node, ARRAY, arrayBytes(indexes.length));
         Object[] res = new Object[indexes.length];
         try {
             for(int iter = 0; iter < indexes.length; iter++)
@@ -568,7 +794,7 @@ public final class Interpreter
         storage.initRoot(rootScope);
 
         try {
-            node.statements.forEach(this::run);
+            statements(node.statements);
         } catch (Return r) {
             return r.value;
             // allow returning from the main script
@@ -583,13 +809,27 @@ public final class Interpreter
     private Void block (BlockNode node) {
         Scope scope = reactor.get(node, "scope");
         storage = new ScopeStorage(scope, storage);
-        node.statements.forEach(this::run);
+        statements(node.statements);
         storage = storage.parent;
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    private void statements (List<StatementNode> statements)
+    {
+        if (shadowStack == null) {
+            statements.forEach(this::run);
+            return;
+        }
+        for (StatementNode statement: statements) {
+            shadowStack.at(statement.span.start);
+            run(statement);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Constructor constructor (ConstructorNode node) {
         // guaranteed safe by semantic analysis
         return new Constructor(get(node.ref));
@@ -625,17 +865,90 @@ public final class Interpreter
         if (decl == Null.INSTANCE)
             throw new PassthroughException(new NullPointerException("calling a null function"));
 
-        if (decl instanceof SyntheticDeclarationNode)
-            return builtin(((SyntheticDeclarationNode) decl).name(), args);
+        if (decl instanceof SyntheticDeclarationNode) {
+            Object result = builtin(((SyntheticDeclarationNode) decl).name(), args);
+            if (allocations != null)
+                allocations.record(node, STRING, stringBytes((String) result));
+            return result;
+        }
+
+        if (decl instanceof Constructor) {
+            StructDeclarationNode struct = ((Constructor) decl).declaration;
+            if (allocations != null)
+                allocations.record(node, STRUCT, structBytes(struct.fields.size()));
+            return buildStruct(struct, args);
+        }
+
+        FunDeclarationNode funDecl = (FunDeclarationNode) decl;
+
+        if (callEventSampling > 0 && --callsUntilEvent == 0 && Jfr.AVAILABLE) {
+            callsUntilEvent = callEventSampling;
+            return sampledCall(funDecl, args);
+        }
+
+        return call(funDecl, args);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Performs the call, emitting a {@link FunctionCallEvent} for it.
+     */
+    private Object sampledCall (FunDeclarationNode funDecl, Object[] args)
+    {
+        FunctionCallEvent event = new FunctionCallEvent();
+        event.begin();
+        try {
+            return call(funDecl, args);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.script = script;
+                event.function = funDecl.name;
+                event.spanStart = funDecl.span.start;
+                event.spanEnd = funDecl.span.end;
+                event.commit();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object call (FunDeclarationNode funDecl, Object[] args)
+    {
+        if (shadowStack == null)
+            return invoke(funDecl, args);
 
-        if (decl instanceof Constructor)
-            return buildStruct(((Constructor) decl).declaration, args);
+        shadowStack.push(funDecl);
+        try {
+            return invoke(funDecl, args);
+        } finally {
+            shadowStack.pop();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object invoke (FunDeclarationNode funDecl, Object[] args)
+    {
+        if (profile != null)
+            profile.recordCall(funDecl);
+
+        if (tiering != null) {
+            Object result = tiering.call(funDecl, args);
+            if (result != TieredExecution.INTERPRET)
+                return result;
+        }
+
+        if (meter != null)
+            meter.step(); // compiled functions count their own calls
 
         ScopeStorage oldStorage = storage;
-        Scope scope = reactor.get(decl, "scope");
+        FunDeclarationNode oldFunction = currentFunction;
+        Scope scope = reactor.get(funDecl, "scope");
         storage = new ScopeStorage(scope, storage);
+        currentFunction = funDecl;
 
-        FunDeclarationNode funDecl = (FunDeclarationNode) decl;
         coIterate(args, funDecl.parameters,
                 (arg, param) -> { if(param.type instanceof ArrayTypeNode)
                                       checkLength((ArrayTypeNode) param.type, arg);
@@ -648,6 +961,7 @@ public final class Interpreter
             return r.value;
         } finally {
             storage = oldStorage;
+            currentFunction = oldFunction;
         }
         return null;
     }
@@ -658,7 +972,7 @@ public final class Interpreter
     {
         assert name.equals("print"); // only one at the moment
         String out = convertToString(args[0]);
-        System.out.println(out);
+        output.println(out);
         return out;
     }
 
@@ -668,8 +982,6 @@ public final class Interpreter
     {
         if (arg == Null.INSTANCE)
             return "null";
-        else if (arg instanceof Object[])
-            return Arrays.deepToString((Object[]) arg);
         else if (arg instanceof FunDeclarationNode)
             return ((FunDeclarationNode) arg).name;
         else if (arg instanceof StructDeclarationNode)
@@ -677,7 +989,45 @@ public final class Interpreter
         else if (arg instanceof Constructor)
             return "$" + ((Constructor) arg).declaration.name;
         else
-            return arg.toString();
+            return formatter.format(arg);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements string concatenation. Long strings are concatenated as ropes, otherwise the
+     * operands are formatted directly into the result.
+     */
+    private Object concatenate (BinaryExpressionNode node, Object left, Object right)
+    {
+        if (isLongString(left) || isLongString(right))
+            return Rope.concat(toCharSequence(left), toCharSequence(right), allocations, node);
+        if (isScalar(left) && isScalar(right))
+            return formatter.concat(left, right);
+        return toCharSequence(left).toString() + toCharSequence(right);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isLongString (Object value) {
+        return value instanceof CharSequence && ((CharSequence) value).length() >= Rope.THRESHOLD;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the value is formatted the same by {@link #convertToString} and the formatter. */
+    private static boolean isScalar (Object value) {
+        return value instanceof String || value instanceof Long || value instanceof Double
+            || value instanceof Boolean || value instanceof Object[];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #convertToString}, but doesn't flatten ropes.
+     */
+    private CharSequence toCharSequence (Object arg) {
+        return arg instanceof Rope ? (Rope) arg : convertToString(arg);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -694,7 +1044,11 @@ public final class Interpreter
 
     private Void ifStmt (IfNode node)
     {
-        if (get(node.condition))
+        boolean condition = get(node.condition);
+        if (profile != null)
+            profile.recordBranch(node, condition);
+
+        if (condition)
             get(node.trueStatement);
         else if (node.falseStatement != null)
             get(node.falseStatement);
@@ -705,8 +1059,17 @@ public final class Interpreter
 
     private Void whileStmt (WhileNode node)
     {
-        while (get(node.condition))
-            get(node.body);
+        long iterations = 0;
+        try {
+            while (get(node.condition)) {
+                get(node.body);
+                ++iterations;
+                backEdge();
+            }
+        } finally {
+            if (profile != null)
+                profile.recordLoop(node, iterations);
+        }
         return null;
     }
 
@@ -720,12 +1083,20 @@ public final class Interpreter
         // declare&init iterator
         get(node.iterator);
 
-        while (!(boolean) get(node.condition)){
-            // execute body
-            get(node.body);
-            // update the iterator
-            Object rvalue = get(node.iterationRule);
-            assign(scope, name, rvalue, type);
+        long iterations = 0;
+        try {
+            while (!(boolean) get(node.condition)){
+                // execute body
+                get(node.body);
+                // update the iterator
+                Object rvalue = get(node.iterationRule);
+                assign(scope, name, rvalue, type);
+                ++iterations;
+                backEdge();
+            }
+        } finally {
+            if (profile != null)
+                profile.recordLoop(node, iterations);
         }
         return null;
     }
@@ -754,16 +1125,36 @@ public final class Interpreter
         if(node.iterator.type instanceof ArrayTypeNode)
             checkLength((ArrayTypeNode) node.iterator.type, array[0]);
 
-        for (Object rvalue : array) {
-            // assign iterator = iterated[iter]
-            assign(scope, name, rvalue, type);
-            // execute body
-            get(node.body);
+        long iterations = 0;
+        try {
+            for (Object rvalue : array) {
+                // assign iterator = iterated[iter]
+                assign(scope, name, rvalue, type);
+                // execute body
+                get(node.body);
+                ++iterations;
+                backEdge();
+            }
+        } finally {
+            if (profile != null)
+                profile.recordLoop(node, iterations);
         }
         return null;
     }
 
 
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called at the end of every loop iteration.
+     */
+    private void backEdge() {
+        if (meter != null)
+            meter.step();
+        if (tiering != null && currentFunction != null)
+            tiering.backEdge(currentFunction);
+    }
+
     // ---------------------------------------------------------------------------------------------
 
     private Object reference (ReferenceNode node)
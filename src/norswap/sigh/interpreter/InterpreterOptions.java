@@ -0,0 +1,206 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.budget.ExecutionBudget;
+import norswap.sigh.output.Output;
+import norswap.sigh.output.OutputSink;
+import norswap.sigh.profile.AllocationProfile;
+import norswap.sigh.profile.ExecutionProfile;
+import norswap.sigh.profile.NodeProfile;
+import norswap.sigh.profile.SamplingProfiler;
+
+/**
+ * Options for the {@link Interpreter}. Create instances using {@link #builder()}.
+ */
+public final class InterpreterOptions
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The default options: plain interpretation.
+     */
+    public static final InterpreterOptions DEFAULT = builder().get();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of invocations and loop iterations after which a function is compiled to bytecode
+     * (see {@link TieredExecution}), or 0 if functions should never be compiled.
+     */
+    public final int tieringThreshold;
+
+    /**
+     * Whether functions are compiled on a background thread (the default) or synchronously by the
+     * interpreting thread, which makes tiering deterministic.
+     */
+    public final boolean backgroundCompilation;
+
+    /**
+     * If non-null, the interpreter records its execution profile into this object (cf. {@link
+     * ExecutionProfile}), at the end of each execution. Profiles accumulate over all the executions
+     * that use them.
+     */
+    public final ExecutionProfile profile;
+
+    /**
+     * Where {@code print} writes. If null (the default), the current sink of the interpreting thread
+     * is used (cf. {@link Output}). The sink is flushed at the end of each execution.
+     */
+    public final OutputSink output;
+
+    /**
+     * If non-null, every execution is limited by this budget (cf. {@link ExecutionBudget}). When
+     * tiered execution is enabled, compiled functions enforce it too.
+     */
+    public final ExecutionBudget budget;
+
+    /**
+     * If positive, one in every {@code callEventSampling} interpreted calls to Sigh functions emits
+     * a {@link norswap.sigh.jfr.FunctionCallEvent} (when Java Flight Recorder is recording it). 0
+     * (the default) disables these events.
+     */
+    public final int callEventSampling;
+
+    /**
+     * If non-null, executions maintain a shadow stack of Sigh functions and statements that this
+     * profiler samples (cf. {@link SamplingProfiler}).
+     */
+    public final SamplingProfiler sampler;
+
+    /**
+     * If non-null, the interpreter counts the executions of each node and the time spent executing
+     * them into this profile (cf. {@link NodeProfile}). Otherwise, the nodes are not instrumented.
+     */
+    public final NodeProfile nodeProfile;
+
+    /**
+     * If non-null, the interpreter records the values it allocates into this profile (cf. {@link
+     * AllocationProfile}).
+     */
+    public final AllocationProfile allocationProfile;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private InterpreterOptions (Builder builder) {
+        this.tieringThreshold = builder.tieringThreshold;
+        this.backgroundCompilation = builder.backgroundCompilation;
+        this.profile = builder.profile;
+        this.output = builder.output;
+        this.budget = builder.budget;
+        this.callEventSampling = builder.callEventSampling;
+        this.sampler = builder.sampler;
+        this.nodeProfile = builder.nodeProfile;
+        this.allocationProfile = builder.allocationProfile;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a builder initialized with these options.
+     */
+    public Builder toBuilder()
+    {
+        Builder builder = new Builder();
+        builder.tieringThreshold = tieringThreshold;
+        builder.backgroundCompilation = backgroundCompilation;
+        builder.profile = profile;
+        builder.output = output;
+        builder.budget = budget;
+        builder.callEventSampling = callEventSampling;
+        builder.sampler = sampler;
+        builder.nodeProfile = nodeProfile;
+        builder.allocationProfile = allocationProfile;
+        return builder;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static final class Builder
+    {
+        private int tieringThreshold = 0;
+        private boolean backgroundCompilation = true;
+        private ExecutionProfile profile = null;
+        private OutputSink output = null;
+        private ExecutionBudget budget = null;
+        private int callEventSampling = 0;
+        private SamplingProfiler sampler = null;
+        private NodeProfile nodeProfile = null;
+        private AllocationProfile allocationProfile = null;
+
+        private Builder() {}
+
+        /** See {@link InterpreterOptions#tieringThreshold}. */
+        public Builder tieringThreshold (int tieringThreshold) {
+            if (tieringThreshold < 0)
+                throw new IllegalArgumentException("negative threshold: " + tieringThreshold);
+            this.tieringThreshold = tieringThreshold;
+            return this;
+        }
+
+        /** Enables tiering with {@link TieredExecution#DEFAULT_THRESHOLD}. */
+        public Builder tiered() {
+            return tieringThreshold(TieredExecution.DEFAULT_THRESHOLD);
+        }
+
+        /** See {@link InterpreterOptions#backgroundCompilation}. */
+        public Builder backgroundCompilation (boolean backgroundCompilation) {
+            this.backgroundCompilation = backgroundCompilation;
+            return this;
+        }
+
+        /** See {@link InterpreterOptions#profile}. */
+        public Builder profile (ExecutionProfile profile) {
+            this.profile = profile;
+            return this;
+        }
+
+        /** See {@link InterpreterOptions#output}. */
+        public Builder output (OutputSink output) {
+            this.output = output;
+            return this;
+        }
+
+        /** See {@link InterpreterOptions#budget}. */
+        public Builder budget (ExecutionBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        /** See {@link InterpreterOptions#callEventSampling}. */
+        public Builder callEventSampling (int callEventSampling) {
+            if (callEventSampling < 0)
+                throw new IllegalArgumentException("negative sampling: " + callEventSampling);
+            this.callEventSampling = callEventSampling;
+            return this;
+        }
+
+        /** See {@link InterpreterOptions#sampler}. */
+        public Builder sampler (SamplingProfiler sampler) {
+            this.sampler = sampler;
+            return this;
+        }
+
+        /** See {@link InterpreterOptions#nodeProfile}. */
+        public Builder nodeProfile (NodeProfile nodeProfile) {
+            this.nodeProfile = nodeProfile;
+            return this;
+        }
+
+        /** See {@link InterpreterOptions#allocationProfile}. */
+        public Builder allocationProfile (AllocationProfile allocationProfile) {
+            this.allocationProfile = allocationProfile;
+            return this;
+        }
+
+        public InterpreterOptions get() {
+            return new InterpreterOptions(this);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,176 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.profile.AllocationProfile;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static norswap.sigh.profile.AllocationProfile.Kind.STRING;
+import static norswap.sigh.profile.AllocationProfile.stringBytes;
+
+/**
+ * A lazily concatenated string, used by the {@link Interpreter} to represent the result of string
+ * concatenations whose result is long enough (cf. {@link #THRESHOLD}).
+ *
+ * <p>This makes building a string by repeated concatenation (e.g. {@code s = s + item} in a loop)
+ * linear instead of quadratic: concatenating a rope doesn't copy its contents. The rope is only
+ * flattened into a {@link String} when its contents are needed (printing, conversion via {@link
+ * #toString()}, character access); the result is cached and the children are released.
+ *
+ * <p>When allocations are recorded, the node that created the rope is charged for the string when
+ * the rope is flattened (only the rope node itself is allocated by the concatenation).
+ */
+final class Rope implements CharSequence
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Minimum length for the result of a concatenation to be represented as a rope. Shorter
+     * strings are cheaper to copy.
+     */
+    static final int THRESHOLD = 256;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private CharSequence left, right;
+    private final int length;
+    private String flat;
+
+    /** Null if allocations are not recorded. */
+    private final AllocationProfile.Recorder allocations;
+    private final SighNode node;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Rope (CharSequence left, CharSequence right,
+            AllocationProfile.Recorder allocations, SighNode node)
+    {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+        this.allocations = allocations;
+        this.node = node;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Concatenates two strings or ropes, returning a rope if the result is long enough, or a string
+     * otherwise. If the result is a new rope and {@code allocations} is not null, the string it is
+     * flattened into will be recorded as allocated by {@code node}.
+     */
+    static CharSequence concat (CharSequence left, CharSequence right,
+            AllocationProfile.Recorder allocations, SighNode node)
+    {
+        if (left.length() + right.length() < THRESHOLD)
+            return left.toString().concat(right.toString());
+        if (left.length() == 0) return right;
+        if (right.length() == 0) return left;
+        return new Rope(left, right, allocations, node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value with the ropes it contains (directly, in arrays or in struct fields)
+     * flattened into strings. Arrays and structs are modified in place.
+     */
+    static Object flatten (Object value) {
+        return flatten(value, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private static Object flatten (Object value, Set<Object> visited)
+    {
+        if (value instanceof Rope)
+            return value.toString();
+        if (value instanceof Object[] && visited.add(value)) {
+            Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; ++i)
+                array[i] = flatten(array[i], visited);
+        }
+        // structs can reference themselves
+        if (value instanceof HashMap && visited.add(value))
+            for (Map.Entry<String, Object> entry: ((HashMap<String, Object>) value).entrySet())
+                entry.setValue(flatten(entry.getValue(), visited));
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link Arrays#equals(Object[], Object[])}, but compares strings and ropes by content.
+     */
+    static boolean arrayEquals (Object[] left, Object[] right)
+    {
+        if (left == right) return true;
+        if (left.length != right.length) return false;
+        for (int i = 0; i < left.length; ++i) {
+            Object a = left[i], b = right[i];
+            boolean equal = a instanceof CharSequence && b instanceof CharSequence
+                ? a.toString().equals(b.toString())
+                : Objects.equals(a, b);
+            if (!equal) return false;
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int length () {
+        return length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public char charAt (int index) {
+        return toString().charAt(index);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public CharSequence subSequence (int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString ()
+    {
+        if (flat != null) return flat;
+
+        // iterative traversal: ropes built in loops are very deep
+        char[] chars = new char[length];
+        int position = 0;
+        ArrayDeque<CharSequence> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            CharSequence current = stack.pop();
+            if (current instanceof Rope && ((Rope) current).flat == null) {
+                Rope rope = (Rope) current;
+                stack.push(rope.right);
+                stack.push(rope.left);
+            } else {
+                String string = current.toString();
+                string.getChars(0, string.length(), chars, position);
+                position += string.length();
+            }
+        }
+
+        flat = new String(chars);
+        left = right = null;
+        if (allocations != null)
+            allocations.record(node, STRING, stringBytes(flat));
+        return flat;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,443 @@
+package norswap.sigh.interpreter;
+
+import norswap.autumn.positions.LineMap;
+import norswap.sigh.ast.*;
+import norswap.sigh.budget.ExecutionBudget;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.TypeUtils;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.sigh.types.*;
+import norswap.uranium.Reactor;
+import norswap.utils.data.wrappers.Pair;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implements tiered execution for the {@link Interpreter}: functions start out interpreted, and
+ * once a function has been invoked or has looped often enough (the sum of both must reach the
+ * threshold), it is compiled with the {@link BytecodeCompiler} and subsequent calls are routed to
+ * the compiled code.
+ *
+ * <p>Compilation happens on a background thread (unless disabled in {@link InterpreterOptions}), so
+ * the interpreter never waits for it: calls keep being interpreted until the compiled code is
+ * available. There is no on-stack replacement: a running invocation stays interpreted, only the
+ * next call will use the compiled code.
+ *
+ * <p>Only functions the bytecode compiler can handle and whose values the interpreter and the
+ * compiled code represent the same way can be compiled: their parameters, variables and
+ * expressions must be of type {@code Int}, {@code Float}, {@code Bool}, {@code String} (or {@code
+ * Void} for return types), they must not use {@code null}, arrays, structures, closures, nested
+ * functions or {@code for} loops, and all the functions they call must satisfy the same
+ * requirements. They are compiled together with these callees. Other functions stay interpreted.
+ *
+ * <p>Compiled code represents {@code Float} values as {@code double}, while the interpreter keeps
+ * integers passed to {@code Float} parameters or returned from functions returning {@code Float}
+ * as integers (which changes how they are printed). To keep tiering unobservable, functions that
+ * return an {@code Int} expression as a {@code Float}, or call a function with an {@code Int}
+ * argument for a {@code Float} parameter, are not compiled; and calls that pass an integer for a
+ * {@code Float} parameter keep being interpreted.
+ *
+ * <p>Instances are thread-safe, and can be shared by interpreters running the same program on
+ * different threads (cf. {@link CompiledProgram}), which then share the compiled code. Invocation
+ * counts are approximate under concurrency, which only affects when functions get compiled.
+ */
+public final class TieredExecution
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Default number of invocations and loop iterations after which a function is compiled.
+     */
+    public static final int DEFAULT_THRESHOLD = 1_000;
+
+    /**
+     * Returned by {@link #call} when the function must be interpreted.
+     */
+    static final Object INTERPRET = new Object();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Shared by all instances, as compiling hot functions is rare. */
+    private static final class Compiler {
+        static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "sigh-tiered-compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Used to generate unique class names. */
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Reactor reactor;
+    private final int threshold;
+    private final boolean background;
+
+    /** Enforced by the compiled code, may be null. */
+    private final ExecutionBudget budget;
+
+    /** Debug information for the compiled code, see {@link #sourceInfo}. */
+    private String sourceFile;
+    private LineMap lineMap;
+
+    /**
+     * Never modified once published: lookups are lock-free, and the map is copied under the lock
+     * of {@code this} when a function is first seen, which happens once per function.
+     */
+    private volatile Map<FunDeclarationNode, Counter> counters = new IdentityHashMap<>();
+
+    /** Compiled functions published by the compiler thread, to be installed in {@link #counters}. */
+    private final ConcurrentLinkedQueue<Pair<FunDeclarationNode, MethodHandle>> compiled
+        = new ConcurrentLinkedQueue<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Counter {
+        int count; // racy increments are fine
+        volatile boolean submitted;
+        volatile MethodHandle target;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public TieredExecution (Reactor reactor, int threshold, boolean background) {
+        this(reactor, threshold, background, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a controller whose compiled code enforces the given budget (may be null), using the
+     * meter of the interpreting thread.
+     */
+    public TieredExecution (Reactor reactor, int threshold, boolean background,
+                            ExecutionBudget budget)
+    {
+        this.reactor = reactor;
+        this.threshold = threshold;
+        this.background = background;
+        this.budget = budget;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes the compiled code carry debug information (cf. {@link BytecodeCompiler#sourceInfo}),
+     * so that JVM profilers and stack traces show Sigh source lines. Must be called before the
+     * controller is used. Returns this controller.
+     */
+    public TieredExecution sourceInfo (String sourceFile, LineMap lineMap) {
+        this.sourceFile = sourceFile;
+        this.lineMap = lineMap;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a controller configured by the options, or null if they disable tiered execution.
+     */
+    static TieredExecution create (Reactor reactor, InterpreterOptions options) {
+        return options.tieringThreshold == 0 ? null
+            : new TieredExecution(reactor, options.tieringThreshold, options.backgroundCompilation,
+                options.budget);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the given function has been compiled (and will be called in compiled form).
+     */
+    public boolean isCompiled (FunDeclarationNode node) {
+        install();
+        Counter counter = counters.get(node);
+        return counter != null && counter.target != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called by the interpreter when calling a function. Runs the compiled version of the function
+     * and returns its result if available, otherwise counts the invocation and returns {@link
+     * #INTERPRET}.
+     */
+    Object call (FunDeclarationNode node, Object[] args)
+    {
+        install();
+        Counter counter = counter(node);
+        MethodHandle target = counter.target;
+        if (target == null) {
+            count(counter, node);
+            return INTERPRET;
+        }
+
+        FunType type = reactor.get(node, "type");
+        Object[] converted = new Object[args.length];
+        for (int i = 0; i < args.length; ++i) {
+            Object arg = args[i];
+            if (arg == Null.INSTANCE)
+                return INTERPRET; // null is represented differently in compiled code
+            if (type.paramTypes[i] instanceof FloatType && !(arg instanceof Double))
+                return INTERPRET; // the compiled code would turn the integer into a float
+            converted[i] = arg instanceof Rope ? arg.toString() : arg;
+        }
+
+        try {
+            return target.invokeWithArguments(converted);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called by the interpreter for every loop iteration executed within the given function.
+     */
+    void backEdge (FunDeclarationNode node) {
+        count(counter(node), node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Counter counter (FunDeclarationNode node)
+    {
+        Counter counter = counters.get(node);
+        return counter != null ? counter : newCounter(node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private synchronized Counter newCounter (FunDeclarationNode node)
+    {
+        Counter counter = counters.get(node);
+        if (counter != null) return counter;
+        IdentityHashMap<FunDeclarationNode, Counter> copy = new IdentityHashMap<>(counters);
+        copy.put(node, counter = new Counter());
+        counters = copy;
+        return counter;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Installs the functions compiled since the last call.
+     */
+    private void install()
+    {
+        Pair<FunDeclarationNode, MethodHandle> pair;
+        while ((pair = compiled.poll()) != null) {
+            Counter counter = counter(pair.a);
+            if (counter.target == null)
+                counter.target = pair.b;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void count (Counter counter, FunDeclarationNode node)
+    {
+        if (counter.submitted || ++counter.count < threshold)
+            return;
+
+        synchronized (counter) {
+            if (counter.submitted) return;
+            counter.submitted = true;
+        }
+        if (background)
+            Compiler.EXECUTOR.execute(() -> compile(node));
+        else
+            compile(node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void compile (FunDeclarationNode node)
+    {
+        Set<FunDeclarationNode> group = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (!collect(node, group))
+            return;
+
+        // all functions in the group become methods of the same class
+        Set<String> names = new HashSet<>();
+        for (FunDeclarationNode function: group)
+            if (!names.add(function.name))
+                return;
+
+        try {
+            String binaryName = "SighTiered$" + classCounter.incrementAndGet();
+            CompilationResult result = new BytecodeCompiler(reactor, null, budget)
+                .sourceInfo(sourceFile, lineMap)
+                .compileFunctions(binaryName, group);
+            Class<?> klass = result.load();
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+            for (FunDeclarationNode function: group) {
+                String descriptor = TypeUtils.methodDescriptor(reactor.get(function, "type"));
+                MethodType methodType =
+                    MethodType.fromMethodDescriptorString(descriptor, klass.getClassLoader());
+                compiled.add(new Pair<>(function, lookup.findStatic(klass, function.name, methodType)));
+            }
+        } catch (Exception | LinkageError e) {
+            // keep interpreting the function
+        }
+    }
+
+    // =============================================================================================
+    // region [Eligibility]
+    // =============================================================================================
+
+    /**
+     * Adds the function and its (transitive) callees to {@code group}, returning false if any of
+     * them cannot be compiled.
+     */
+    private boolean collect (FunDeclarationNode node, Set<FunDeclarationNode> group)
+    {
+        if (!group.add(node))
+            return true;
+
+        FunType type = reactor.get(node, "type");
+        if (!supported(type.returnType) && !(type.returnType instanceof VoidType))
+            return false;
+        for (Type paramType: type.paramTypes)
+            if (!supported(paramType))
+                return false;
+
+        Set<DeclarationNode> locals = Collections.newSetFromMap(new IdentityHashMap<>());
+        locals.addAll(node.parameters);
+        return statement(node.block, type.returnType, locals, group);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the compiled code would turn a value of type {@code from} into a float where the
+     * interpreter keeps it as is (cf. class documentation).
+     */
+    private static boolean widensToFloat (Type from, Type to) {
+        return to instanceof FloatType && from instanceof IntType;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean statement (StatementNode node, Type returnType, Set<DeclarationNode> locals,
+                               Set<FunDeclarationNode> group)
+    {
+        if (node instanceof BlockNode) {
+            for (StatementNode statement: ((BlockNode) node).statements)
+                if (!statement(statement, returnType, locals, group))
+                    return false;
+            return true;
+        }
+        if (node instanceof VarDeclarationNode) {
+            VarDeclarationNode decl = (VarDeclarationNode) node;
+            return supported(reactor.get(decl, "type"))
+                && expression(decl.initializer, locals, group)
+                && locals.add(decl);
+        }
+        if (node instanceof ExpressionStatementNode)
+            return expression(((ExpressionStatementNode) node).expression, locals, group);
+        if (node instanceof IfNode) {
+            IfNode ifNode = (IfNode) node;
+            return expression(ifNode.condition, locals, group)
+                && statement(ifNode.trueStatement, returnType, locals, group)
+                && (ifNode.falseStatement == null
+                    || statement(ifNode.falseStatement, returnType, locals, group));
+        }
+        if (node instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) node;
+            return expression(whileNode.condition, locals, group)
+                && statement(whileNode.body, returnType, locals, group);
+        }
+        if (node instanceof ReturnNode) {
+            ExpressionNode expression = ((ReturnNode) node).expression;
+            return expression == null
+                || !widensToFloat(reactor.get(expression, "type"), returnType)
+                    && expression(expression, locals, group);
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean expression (ExpressionNode node, Set<DeclarationNode> locals,
+                                Set<FunDeclarationNode> group)
+    {
+        Type type = reactor.get(node, "type");
+        if (!supported(type) && !(type instanceof VoidType && node instanceof FunCallNode))
+            return false;
+
+        if (node instanceof IntLiteralNode
+                || node instanceof FloatLiteralNode
+                || node instanceof StringLiteralNode)
+            return true;
+        if (node instanceof ParenthesizedNode)
+            return expression(((ParenthesizedNode) node).expression, locals, group);
+        if (node instanceof UnaryExpressionNode)
+            return expression(((UnaryExpressionNode) node).operand, locals, group);
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            return expression(binary.left, locals, group)
+                && expression(binary.right, locals, group);
+        }
+        if (node instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node, "decl");
+            return locals.contains(decl)
+                || decl instanceof SyntheticDeclarationNode
+                    && (decl.name().equals("true") || decl.name().equals("false"));
+        }
+        if (node instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) node;
+            return assignment.left instanceof ReferenceNode
+                && locals.contains(reactor.get(assignment.left, "decl"))
+                && expression(assignment.right, locals, group);
+        }
+        if (node instanceof FunCallNode) {
+            FunCallNode call = (FunCallNode) node;
+            if (!(call.function instanceof ReferenceNode))
+                return false;
+            DeclarationNode decl = reactor.get(call.function, "decl");
+            boolean callee = decl instanceof SyntheticDeclarationNode
+                ? decl.name().equals("print")
+                : decl instanceof FunDeclarationNode && collect((FunDeclarationNode) decl, group);
+            if (!callee)
+                return false;
+            Type[] paramTypes = ((FunType) reactor.get(call.function, "type")).paramTypes;
+            for (int i = 0; i < call.arguments.size(); ++i) {
+                ExpressionNode arg = call.arguments.get(i);
+                if (widensToFloat(reactor.get(arg, "type"), paramTypes[i])
+                        || !expression(arg, locals, group))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean supported (Type type) {
+        return type instanceof IntType
+            || type instanceof FloatType
+            || type instanceof BoolType
+            || type instanceof StringType;
+    }
+
+    // endregion
+    // ---------------------------------------------------------------------------------------------
+}
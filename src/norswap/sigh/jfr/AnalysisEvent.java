@@ -0,0 +1,23 @@
+package norswap.sigh.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted when {@link norswap.sigh.SighRunner} runs the semantic analysis of a script.
+ */
+@Name("norswap.sigh.Analysis")
+@Label("Sigh Analysis")
+@Category("Sigh")
+@Description("Semantic analysis of a Sigh script")
+public final class AnalysisEvent extends Event
+{
+    @Label("Script")
+    public String script;
+
+    @Label("Errors")
+    public int errors;
+}
@@ -0,0 +1,26 @@
+package norswap.sigh.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted when a class generated from Sigh code is loaded by a {@link
+ * norswap.sigh.bytecode.ByteArrayClassLoader}.
+ */
+@Name("norswap.sigh.ClassLoad")
+@Label("Sigh Class Load")
+@Category("Sigh")
+@Description("Definition of a class generated from Sigh code")
+public final class ClassLoadEvent extends Event
+{
+    @Label("Class Name")
+    public String className;
+
+    @Label("Bytecode Size")
+    @DataAmount(DataAmount.BYTES)
+    public int bytecodeSize;
+}
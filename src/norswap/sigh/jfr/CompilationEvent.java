@@ -0,0 +1,33 @@
+package norswap.sigh.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted when the {@link norswap.sigh.bytecode.BytecodeCompiler} compiles a script or a set of
+ * functions (for tiered execution).
+ */
+@Name("norswap.sigh.Compilation")
+@Label("Sigh Compilation")
+@Category("Sigh")
+@Description("Compilation of Sigh code to JVM bytecode")
+public final class CompilationEvent extends Event
+{
+    @Label("Class Name")
+    public String className;
+
+    @Label("Functions")
+    @Description("Number of functions compiled, or -1 when compiling a whole script")
+    public int functions;
+
+    @Label("Classes")
+    public int classes;
+
+    @Label("Bytecode Size")
+    @DataAmount(DataAmount.BYTES)
+    public int bytecodeSize;
+}
@@ -0,0 +1,23 @@
+package norswap.sigh.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted for each execution of a {@link norswap.sigh.interpreter.CompiledProgram}.
+ */
+@Name("norswap.sigh.Execution")
+@Label("Sigh Execution")
+@Category("Sigh")
+@Description("Top-level execution of a Sigh script")
+public final class ExecutionEvent extends Event
+{
+    @Label("Script")
+    public String script;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
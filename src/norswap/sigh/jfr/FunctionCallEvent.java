@@ -0,0 +1,32 @@
+package norswap.sigh.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted for a sample of the Sigh function calls performed by the interpreter, cf. {@link
+ * norswap.sigh.interpreter.InterpreterOptions#callEventSampling}.
+ */
+@Name("norswap.sigh.FunctionCall")
+@Label("Sigh Function Call")
+@Category("Sigh")
+@Description("Sampled call of a Sigh function by the interpreter, including nested calls")
+public final class FunctionCallEvent extends Event
+{
+    @Label("Script")
+    public String script;
+
+    @Label("Function")
+    public String function;
+
+    @Label("Span Start")
+    @Description("Offset of the start of the function declaration in the source")
+    public int spanStart;
+
+    @Label("Span End")
+    @Description("Offset of the end of the function declaration in the source")
+    public int spanEnd;
+}
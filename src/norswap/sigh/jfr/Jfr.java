@@ -0,0 +1,35 @@
+package norswap.sigh.jfr;
+
+/**
+ * Tells whether the {@code jdk.jfr} API is available, i.e. whether the events of this package can
+ * be created. Sigh targets Java 8, and JDK 8 only has this API from update 272 onwards: on older
+ * runtimes, creating an event fails with a {@link NoClassDefFoundError}.
+ *
+ * <p>Event creation sites must check {@link #AVAILABLE} first, and skip the event if it is false.
+ * This class doesn't reference the API itself, so that it can be loaded in any case.
+ */
+public final class Jfr
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private Jfr () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the {@code jdk.jfr} API is available, checked once. */
+    public static final boolean AVAILABLE = available();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean available ()
+    {
+        try {
+            Class.forName("jdk.jfr.Event", false, Jfr.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,27 @@
+package norswap.sigh.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted when {@link norswap.sigh.SighRunner} parses a script.
+ */
+@Name("norswap.sigh.Parse")
+@Label("Sigh Parse")
+@Category("Sigh")
+@Description("Parsing of a Sigh script into a tree")
+public final class ParseEvent extends Event
+{
+    @Label("Script")
+    public String script;
+
+    @Label("Source Length")
+    @Description("Length of the source, in characters")
+    public int sourceLength;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
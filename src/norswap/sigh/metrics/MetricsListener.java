@@ -0,0 +1,24 @@
+package norswap.sigh.metrics;
+
+/**
+ * Receives the metrics collected by a {@link norswap.sigh.SighRunner} it has been given to, e.g. to
+ * forward them to a metrics pipeline.
+ *
+ * <p>The methods are called on the thread that runs the program, right after the measurements are
+ * made. They should return quickly, as their run time counts towards the run time of the caller
+ * (but not towards the measured phases). A listener given to a runner used by multiple threads
+ * must be thread-safe.
+ */
+public interface MetricsListener
+{
+    /**
+     * Called after each phase that completes normally, with the metrics collected so far.
+     */
+    default void phaseCompleted (Phase phase, RunMetrics metrics) {}
+
+    /**
+     * Called once at the end of each measured run, whether it succeeds or not. Phases that did not
+     * run (or did not complete) are not {@linkplain RunMetrics#measured(Phase) measured}.
+     */
+    default void runCompleted (RunMetrics metrics) {}
+}
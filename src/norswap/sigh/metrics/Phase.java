@@ -0,0 +1,19 @@
+package norswap.sigh.metrics;
+
+/**
+ * The phases measured by {@link RunMetrics}, in the order in which they run.
+ */
+public enum Phase
+{
+    /** Parsing the source text into a tree ({@code Autumn.parse}). */
+    PARSE,
+
+    /** Walking the tree to instantiate the semantic analysis rules. */
+    WALK,
+
+    /** Running the semantic analysis rules ({@code Reactor#run}). */
+    REACTOR,
+
+    /** Executing the program. */
+    EXECUTION
+}
@@ -0,0 +1,190 @@
+package norswap.sigh.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.function.Supplier;
+
+/**
+ * Metrics collected while running a program with {@link norswap.sigh.SighRunner#measure}, or
+ * while running or compiling programs with a runner that has a {@link MetricsListener}.
+ *
+ * <p>For each {@link Phase}, records its wall time and the number of bytes allocated by the
+ * thread running it (as reported by the JVM's {@link ThreadMXBean}, or -1 if the JVM does not
+ * support it). Allocations made by other threads (e.g. background compilation when using tiered
+ * execution) are not included.
+ *
+ * <p>Also records the number of nodes in the tree, the number of semantic analysis rules
+ * instantiated, and the number of semantic errors reported.
+ *
+ * <p>Instances are not thread-safe: each run gets its own.
+ */
+public final class RunMetrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /** Null if the JVM cannot measure allocations per thread. */
+    private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final long[] wallNanos = new long[PHASES.length];
+    private final long[] allocatedBytes = new long[PHASES.length];
+    private final boolean[] measured = new boolean[PHASES.length];
+
+    private int nodes = -1;
+    private int rules = -1;
+    private int errors = -1;
+    private Object result;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static com.sun.management.ThreadMXBean allocationBean()
+    {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (!threads.isThreadAllocatedMemorySupported()) return null;
+            if (!threads.isThreadAllocatedMemoryEnabled())
+                threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        } catch (RuntimeException | LinkageError e) {
+            return null; // not a HotSpot-like JVM, or not allowed to enable the measurements
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread, or -1 if it can't be
+     * measured.
+     */
+    public static long currentThreadAllocatedBytes()
+    {
+        return THREADS == null
+            ? -1
+            : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the given phase on the current thread and records its wall time and allocations. If the
+     * phase throws, the exception is propagated and nothing is recorded.
+     */
+    public <T> T measure (Phase phase, Supplier<T> body)
+    {
+        long bytes = currentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        T value = body.get();
+        long end = System.nanoTime();
+        int i = phase.ordinal();
+        wallNanos[i] = end - start;
+        allocatedBytes[i] = bytes < 0 ? -1 : currentThreadAllocatedBytes() - bytes;
+        measured[i] = true;
+        return value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Records the outcome of the semantic analysis. */
+    public void recordAnalysis (int nodes, int rules, int errors) {
+        this.nodes = nodes;
+        this.rules = rules;
+        this.errors = errors;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Records the value returned by the program. */
+    public void recordResult (Object result) {
+        this.result = result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the phase ran to completion and was measured. */
+    public boolean measured (Phase phase) {
+        return measured[phase.ordinal()];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Wall time of the phase in nanoseconds, or 0 if it wasn't measured. */
+    public long wallNanos (Phase phase) {
+        return wallNanos[phase.ordinal()];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Bytes allocated by the thread running the phase, 0 if the phase wasn't measured, or -1 if the
+     * JVM cannot measure allocations.
+     */
+    public long allocatedBytes (Phase phase) {
+        return allocatedBytes[phase.ordinal()];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Sum of the wall times of all measured phases, in nanoseconds. */
+    public long totalWallNanos()
+    {
+        long total = 0;
+        for (long nanos: wallNanos) total += nanos;
+        return total;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of nodes in the tree, or -1 if the semantic analysis didn't run. */
+    public int nodes() {
+        return nodes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of semantic analysis rules instantiated, or -1 if the semantic analysis didn't run.
+     */
+    public int rules() {
+        return rules;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of semantic errors reported, or -1 if the semantic analysis didn't run. */
+    public int errors() {
+        return errors;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** The value returned by the program, or null if it wasn't executed (or failed). */
+    public Object result() {
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        for (Phase phase: PHASES) {
+            if (!measured(phase)) continue;
+            if (b.length() > 0) b.append(", ");
+            b.append(phase.name().toLowerCase())
+             .append(String.format(" %.3f ms", wallNanos(phase) / 1e6));
+            if (allocatedBytes(phase) >= 0)
+                b.append(" / ").append(allocatedBytes(phase)).append(" B");
+        }
+        return b.append(" (nodes: ").append(nodes)
+            .append(", rules: ").append(rules)
+            .append(", errors: ").append(errors).append(")")
+            .toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,136 @@
+package norswap.sigh.output;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * An {@link OutputSink} that encodes lines in UTF-8 into a byte buffer, and writes the buffer to a
+ * {@link WritableByteChannel} when it is full, when explicitly flushed, and depending on the
+ * {@link FlushPolicy}.
+ *
+ * <p>ASCII characters are copied directly into the buffer, so printing doesn't allocate.
+ *
+ * <p>Instances are thread-safe.
+ */
+public final class ChannelOutputSink implements OutputSink
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Supplier<? extends WritableByteChannel> channel;
+    private final Runnable afterFlush;
+    private final FlushPolicy policy;
+    private final ByteBuffer buffer;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // ---------------------------------------------------------------------------------------------
+
+    public ChannelOutputSink (WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE, FlushPolicy.ON_DEMAND);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public ChannelOutputSink (WritableByteChannel channel, int bufferSize, FlushPolicy policy) {
+        this(() -> channel, () -> {}, bufferSize, policy);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ChannelOutputSink (Supplier<? extends WritableByteChannel> channel, Runnable afterFlush,
+                               int bufferSize, FlushPolicy policy)
+    {
+        if (bufferSize < 8)
+            throw new IllegalArgumentException("buffer too small: " + bufferSize);
+        this.channel = channel;
+        this.afterFlush = afterFlush;
+        this.policy = policy;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a sink that writes to {@link System#out}. The stream is looked up at each flush, so
+     * that redirections made using {@link System#setOut} are respected.
+     */
+    public static ChannelOutputSink standardOutput (int bufferSize, FlushPolicy policy) {
+        return new ChannelOutputSink(
+            () -> Channels.newChannel(System.out), () -> System.out.flush(), bufferSize, policy);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public synchronized void println (CharSequence line)
+    {
+        int length = line.length();
+        int i = 0;
+        for (; i < length; ++i) {
+            char c = line.charAt(i);
+            if (c >= 0x80) break;
+            if (!buffer.hasRemaining()) drain();
+            buffer.put((byte) c);
+        }
+        if (i < length)
+            encode(CharBuffer.wrap(line, i, length));
+
+        if (!buffer.hasRemaining()) drain();
+        buffer.put((byte) '\n');
+
+        if (policy == FlushPolicy.EVERY_LINE)
+            flush();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public synchronized void flush () {
+        drain();
+        afterFlush.run();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void encode (CharBuffer chars)
+    {
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow())
+            drain();
+        while (encoder.flush(buffer).isOverflow())
+            drain();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the buffer's contents to the channel.
+     */
+    private void drain ()
+    {
+        buffer.flip();
+        try {
+            WritableByteChannel target = channel.get();
+            while (buffer.hasRemaining())
+                target.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,14 @@
+package norswap.sigh.output;
+
+/**
+ * When a {@link ChannelOutputSink} flushes its buffer, in addition to when the buffer is full and
+ * when explicitly requested.
+ */
+public enum FlushPolicy
+{
+    /** Only flush when the buffer is full, when requested and at exit. */
+    ON_DEMAND,
+
+    /** Flush after every line, for interactive use. */
+    EVERY_LINE
+}
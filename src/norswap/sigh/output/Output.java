@@ -0,0 +1,69 @@
+package norswap.sigh.output;
+
+/**
+ * Selects the {@link OutputSink} used by {@code print}.
+ *
+ * <p>Each thread has a current sink: the one installed with {@link #install}, or the {@link
+ * #standard()} sink by default. The {@link norswap.sigh.interpreter.Interpreter} installs its sink
+ * for the duration of an execution, so that code compiled by tiered execution prints to the same
+ * sink. Code compiled by the {@link norswap.sigh.bytecode.BytecodeCompiler} prints to the current
+ * sink and flushes it when its {@code main} method exits.
+ */
+public final class Output
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private Output () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final ThreadLocal<OutputSink> installed = new ThreadLocal<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Standard {
+        static final ChannelOutputSink SINK = ChannelOutputSink.standardOutput(
+            ChannelOutputSink.DEFAULT_BUFFER_SIZE,
+            System.console() != null ? FlushPolicy.EVERY_LINE : FlushPolicy.ON_DEMAND);
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(SINK::flush, "sigh-output-flush"));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The default sink, writing to {@link System#out} through a buffer that is flushed when full,
+     * when explicitly requested, after execution and at exit. When the JVM is attached to a
+     * console, it is also flushed after every line.
+     */
+    public static OutputSink standard () {
+        return Standard.SINK;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the current sink for this thread.
+     */
+    public static OutputSink current () {
+        OutputSink sink = installed.get();
+        return sink != null ? sink : standard();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes {@code sink} the current sink for this thread (or reverts to the standard sink if null)
+     * and returns the previously installed sink (possibly null), to be reinstalled later.
+     */
+    public static OutputSink install (OutputSink sink) {
+        OutputSink previous = installed.get();
+        if (sink == null) installed.remove();
+        else installed.set(sink);
+        return previous;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,22 @@
+package norswap.sigh.output;
+
+/**
+ * Destination for the output of Sigh's {@code print} function, in all backends.
+ *
+ * <p>Sinks are usually buffered: output is only guaranteed to reach its destination after {@link
+ * #flush()}. The backends flush the sink they used at the end of the execution.
+ *
+ * <p>See {@link Output} for how the sink is selected.
+ */
+public interface OutputSink
+{
+    /**
+     * Writes the given line, followed by a newline.
+     */
+    void println (CharSequence line);
+
+    /**
+     * Writes out all buffered output.
+     */
+    void flush();
+}
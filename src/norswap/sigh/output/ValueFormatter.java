@@ -0,0 +1,187 @@
+package norswap.sigh.output;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Formats Sigh runtime values into text without intermediate strings: numbers are written directly
+ * into a reusable buffer, and (possibly nested) arrays are rendered element by element.
+ *
+ * <p>The output is identical to {@code String.valueOf} for scalars, and to {@link
+ * java.util.Arrays#deepToString} (or {@link java.util.Arrays#toString} for primitive arrays) for
+ * arrays. Values of other types are formatted using their {@code toString} method.
+ *
+ * <p>Instances reuse their buffer and are not thread-safe. The static {@code append} methods can be
+ * used with any buffer.
+ */
+public final class ValueFormatter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Buffers larger than this are not retained between uses. */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /** Integral doubles with a smaller magnitude are formatted like longs (e.g. "42.0"). */
+    private static final double PLAIN_DOUBLE_LIMIT = 1e7;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private StringBuilder buffer = new StringBuilder(64);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the text representation of the value.
+     */
+    public String format (Object value) {
+        reset();
+        append(buffer, value);
+        return buffer.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the concatenation of the text representations of both values.
+     */
+    public String concat (Object left, Object right) {
+        reset();
+        append(buffer, left);
+        append(buffer, right);
+        return buffer.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void reset ()
+    {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY)
+            buffer = new StringBuilder(64);
+        else
+            buffer.setLength(0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the text representation of the value to {@code out}.
+     */
+    public static void append (StringBuilder out, Object value)
+    {
+        if (value instanceof CharSequence)
+            out.append((CharSequence) value);
+        else if (value instanceof Long)
+            out.append((long) value);
+        else if (value instanceof Double)
+            append(out, (double) value);
+        else if (value instanceof Boolean)
+            out.append((boolean) value);
+        else if (value instanceof Object[])
+            append(out, (Object[]) value);
+        else if (value instanceof long[])
+            append(out, (long[]) value);
+        else if (value instanceof double[])
+            append(out, (double[]) value);
+        else if (value instanceof boolean[])
+            append(out, (boolean[]) value);
+        else
+            out.append(value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Appends the double like {@link Double#toString(double)} would format it. The JDK's appending
+     * does not allocate, and we skip it altogether for small integral values.
+     */
+    public static void append (StringBuilder out, double value)
+    {
+        if (value == (long) value && Math.abs(value) < PLAIN_DOUBLE_LIMIT
+                && (value != 0 || 1 / value > 0)) // not -0.0
+            out.append((long) value).append(".0");
+        else
+            out.append(value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void append (StringBuilder out, Object[] array) {
+        append(out, array, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #append(StringBuilder, Object[])}, but formats the arrays that contain {@code
+     * array} (if not null), directly or not, as {@code [...]}, like {@link
+     * java.util.Arrays#deepToString}. The set is only created when a nested array is found.
+     */
+    private static void append (StringBuilder out, Object[] array, Set<Object[]> ancestors)
+    {
+        boolean added = false;
+        out.append('[');
+        for (int i = 0; i < array.length; ++i) {
+            if (i > 0) out.append(", ");
+            Object element = array[i];
+            if (element == null) {
+                out.append("null");
+            } else if (element instanceof Object[]) {
+                if (element == array || ancestors != null && ancestors.contains(element)) {
+                    out.append("[...]");
+                    continue;
+                }
+                if (!added) {
+                    if (ancestors == null)
+                        ancestors = Collections.newSetFromMap(new IdentityHashMap<>());
+                    ancestors.add(array);
+                    added = true;
+                }
+                append(out, (Object[]) element, ancestors);
+            } else {
+                append(out, element);
+            }
+        }
+        out.append(']');
+        if (added)
+            ancestors.remove(array);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void append (StringBuilder out, long[] array)
+    {
+        out.append('[');
+        for (int i = 0; i < array.length; ++i) {
+            if (i > 0) out.append(", ");
+            out.append(array[i]);
+        }
+        out.append(']');
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void append (StringBuilder out, double[] array)
+    {
+        out.append('[');
+        for (int i = 0; i < array.length; ++i) {
+            if (i > 0) out.append(", ");
+            append(out, array[i]);
+        }
+        out.append(']');
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void append (StringBuilder out, boolean[] array)
+    {
+        out.append('[');
+        for (int i = 0; i < array.length; ++i) {
+            if (i > 0) out.append(", ");
+            out.append(array[i]);
+        }
+        out.append(']');
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
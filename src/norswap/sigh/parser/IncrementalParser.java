@@ -0,0 +1,172 @@
+package norswap.sigh.parser;
+
+import norswap.autumn.positions.Span;
+import norswap.sigh.ast.ForEachNode;
+import norswap.sigh.ast.ForNode;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.StatementNode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Updates the tree of a program after an edit to its source, by reparsing only the top-level
+ * statements affected by the edit. This is meant for editors, which need a fresh tree after every
+ * keystroke.
+ *
+ * <p>The statements before the edit are reused as is. The statements after the edit are reused
+ * too, but as spans are immutable, they must be copied with shifted spans if the edit changed the
+ * length of the source (cf. {@link SpanShifter}). These copies are made lazily, when a statement
+ * is first retrieved from the new tree (cf. {@link ShiftedStatements}), so that the cost of an
+ * edit does not depend on the size of the statements that follow it. The statements in between
+ * are lexed and parsed again with the {@link SighParser}. The result is the same tree that {@link
+ * SighParser#parse(String)} would return for the new source.
+ *
+ * <p>An edit still takes time linear in the number of top-level statements, to build the new
+ * statement list, but this is negligible compared to parsing (cf. {@code
+ * ScalingBenchmark#reparseTop} in the benchmarks).
+ *
+ * <p>The region to reparse starts and ends at the start of a top-level statement. Parsing a
+ * statement looks at the first token of the next statement, to see if it can extend the statement
+ * (e.g. with an {@code else} branch, a binary operator or a function call). The region boundaries
+ * are therefore chosen so that this token is unaffected by the edit, and cannot extend the
+ * preceding statement without also being consumed by it (which we detect, cf. {@link
+ * #isBoundary}). If the reparsed statements turn out to run past the end of the region, the
+ * region is extended to the next boundary.
+ *
+ * <p>When the new source is not well-formed, this throws a syntax error at the same position as
+ * {@link SighParser#parse(String)} would.
+ */
+public final class IncrementalParser
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private IncrementalParser () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the tree for the source obtained by replacing the characters between offsets {@code
+     * start} (inclusive) and {@code end} (exclusive) of {@code oldSource} by {@code replacement}.
+     *
+     * <p>{@code previous} must be the tree for {@code oldSource}, as produced by this class, by
+     * {@link SighParser} or by {@link norswap.sigh.SighGrammar}. It is not modified. In the last
+     * case, the reused statements keep the span ends of the grammar, which may differ from those
+     * of {@link SighParser} (cf. its documentation).
+     */
+    public static RootNode reparse
+            (RootNode previous, String oldSource, int start, int end, String replacement)
+    {
+        if (start < 0 || end < start || end > oldSource.length())
+            throw new IllegalArgumentException("invalid edit range: " + start + "-" + end);
+
+        String source =
+            oldSource.substring(0, start) + replacement + oldSource.substring(end);
+        int delta = replacement.length() - (end - start);
+        List<StatementNode> old = previous.statements;
+
+        // first reparsed statement
+        int first = lastStartingBefore(old, start);
+        if (first > 0 && start <= firstTokenEnd(oldSource, old, first) + 1)
+            --first; // the edit may change the first token of the statement
+        while (first > 0 && !isBoundary(oldSource, old, first))
+            --first;
+        first = Math.max(first, 0);
+        int from = first == 0 ? 0 : ShiftedStatements.start(old, first);
+
+        // first reused statement after the edit
+        int next = lastStartingBefore(old, end) + 1;
+        next = nextBoundary(oldSource, old, next);
+
+        // number of statements to extend the region by, doubled after each extension
+        int extension = 1;
+
+        while (true) {
+            int limit = next == old.size()
+                ? source.length()
+                : ShiftedStatements.start(old, next) + delta;
+
+            List<StatementNode> reparsed = new ArrayList<>();
+            Tokens tokens = SighLexer.tokenize(source, from, limit);
+            int stop = SighParser.parseStatements(tokens, limit, reparsed);
+
+            if (stop == limit) {
+                List<StatementNode> statements =
+                    ShiftedStatements.splice(old, first, reparsed, next, delta);
+                if (statements.isEmpty())
+                    return SighParser.parse(source); // throws the syntax error
+                return new RootNode(new Span(0, source.length()), statements);
+            }
+
+            // The reparsed statements run past the region, or their parse depends on what follows
+            // it: extend the region. Doubling the extension bounds the total work to a small
+            // multiple of the size of the final region, e.g. when an unclosed brace was typed.
+            next = nextBoundary(oldSource, old, Math.min(next + extension, old.size()));
+            extension *= 2;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the last statement that starts strictly before {@code offset}, or -1.
+     */
+    private static int lastStartingBefore (List<StatementNode> statements, int offset)
+    {
+        int low = 0, high = statements.size() - 1, result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ShiftedStatements.start(statements, mid) < offset) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the first statement at or after index {@code i} that satisfies {@link
+     * #isBoundary}, or the number of statements if there is none.
+     */
+    private static int nextBoundary (String source, List<StatementNode> statements, int i)
+    {
+        while (i < statements.size() && !isBoundary(source, statements, i))
+            ++i;
+        return i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the region to reparse can start or end at the start of the statement at index {@code
+     * i}.
+     *
+     * <p>This is not the case for statements that start with a token that a preceding statement
+     * could try to extend itself with, and then backtrack after looking further ahead: an opening
+     * parenthesis or bracket (function call, array access), a minus sign (subtraction), or a
+     * {@code !} or {@code $} (which can follow {@code return}, and need another token).
+     *
+     * <p>For loops are not boundaries either, as their span starts after the {@code for} keyword
+     * (like in {@link norswap.sigh.SighGrammar#for_stmt}).
+     */
+    private static boolean isBoundary (String source, List<StatementNode> statements, int i)
+    {
+        StatementNode statement = ShiftedStatements.unshifted(statements, i);
+        if (statement instanceof ForNode || statement instanceof ForEachNode)
+            return false;
+        char c = source.charAt(ShiftedStatements.start(statements, i));
+        return c != '(' && c != '[' && c != '-' && c != '!' && c != '$';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int firstTokenEnd (String source, List<StatementNode> statements, int i) {
+        int start = ShiftedStatements.start(statements, i);
+        return SighLexer.tokenize(source, start, start).end(0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,137 @@
+package norswap.sigh.parser;
+
+import norswap.sigh.ast.StatementNode;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The statement list of a tree produced by the {@link IncrementalParser}, whose statements may
+ * still need their spans to be shifted.
+ *
+ * <p>Each statement is stored along with the shift to apply to it. The shifted copy is only made
+ * (by the {@link SpanShifter}) when the statement is first retrieved, then cached. Building the
+ * list after an edit is therefore linear in the number of statements, but does not copy their
+ * trees. The shifts of the statements that are never retrieved accumulate across successive edits.
+ *
+ * <p>The list is unmodifiable. It can be read from multiple threads: they retrieve the same copy
+ * of each statement.
+ */
+final class ShiftedStatements extends AbstractList<StatementNode> implements RandomAccess
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** The statements, whose spans must be shifted by the corresponding {@link #deltas}. */
+    private final StatementNode[] nodes;
+
+    private final int[] deltas;
+
+    /** The shifted copies of {@link #nodes} that have been retrieved so far. */
+    private final StatementNode[] shifted;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ShiftedStatements (int size) {
+        nodes = new StatementNode[size];
+        deltas = new int[size];
+        shifted = new StatementNode[size];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the list made of the statements of {@code old} before index {@code first}, followed
+     * by {@code reparsed}, followed by the statements of {@code old} from index {@code next},
+     * shifted by {@code delta}.
+     */
+    static ShiftedStatements splice (List<StatementNode> old, int first,
+            List<StatementNode> reparsed, int next, int delta)
+    {
+        int size = first + reparsed.size() + old.size() - next;
+        ShiftedStatements result = new ShiftedStatements(size);
+        int j = 0;
+        for (int i = 0; i < first; ++i, ++j)
+            result.reuse(j, old, i, 0);
+        for (StatementNode statement: reparsed)
+            result.nodes[j++] = statement;
+        for (int i = next; i < old.size(); ++i, ++j)
+            result.reuse(j, old, i, delta);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the statement at index {@code j} to the statement at index {@code i} of {@code old},
+     * shifted by {@code delta}, without copying it.
+     */
+    private void reuse (int j, List<StatementNode> old, int i, int delta)
+    {
+        if (old instanceof ShiftedStatements) {
+            ShiftedStatements list = (ShiftedStatements) old;
+            StatementNode copy = list.shifted[i];
+            if (copy != null) {
+                nodes[j] = copy;
+            } else {
+                nodes[j] = list.nodes[i];
+                delta += list.deltas[i];
+            }
+        } else {
+            nodes[j] = old.get(i);
+        }
+        deltas[j] = delta;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the statement at index {@code i}, without shifting its spans: it has the same class
+     * as the shifted statement, but only its span start can be used, via {@link #start}.
+     */
+    static StatementNode unshifted (List<StatementNode> statements, int i)
+    {
+        return statements instanceof ShiftedStatements
+            ? ((ShiftedStatements) statements).nodes[i]
+            : statements.get(i);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the start of the (shifted) span of the statement at index {@code i}, without making
+     * a shifted copy of the statement.
+     */
+    static int start (List<StatementNode> statements, int i)
+    {
+        if (!(statements instanceof ShiftedStatements))
+            return statements.get(i).span.start;
+        ShiftedStatements list = (ShiftedStatements) statements;
+        return list.nodes[i].span.start + list.deltas[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public StatementNode get (int i)
+    {
+        if (deltas[i] == 0)
+            return nodes[i];
+        // Nodes only have final fields, so a copy read without synchronization is complete.
+        StatementNode copy = shifted[i];
+        if (copy != null)
+            return copy;
+        synchronized (this) {
+            copy = shifted[i];
+            if (copy == null)
+                shifted[i] = copy = SpanShifter.shift(nodes[i], deltas[i]);
+            return copy;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public int size () {
+        return nodes.length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
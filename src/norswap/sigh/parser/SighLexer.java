@@ -0,0 +1,253 @@
+package norswap.sigh.parser;
+
+import java.text.ParseException;
+
+import static norswap.sigh.parser.TokenType.*;
+
+/**
+ * A hand-written lexer for Sigh, which splits source text into {@link Tokens}, following the
+ * lexical rules of {@link norswap.sigh.SighGrammar}.
+ *
+ * <p>Whitespace (which includes semicolons) and comments are skipped. Numbers are lexed without
+ * sign: whether a minus sign is part of a negative literal depends on the syntactic context and is
+ * decided by the {@link SighParser}. String tokens include their quotes.
+ *
+ * <p>Lexical errors are reported by throwing a runtime exception wrapping a {@link ParseException},
+ * like {@link norswap.sigh.SighRunner#parse}.
+ */
+public final class SighLexer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private SighLexer () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static Tokens tokenize (String source) {
+        return tokenize(source, 0, Integer.MAX_VALUE);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Splits the part of the source that starts at offset {@code from} into tokens, stopping after
+     * the first token that starts at or after offset {@code limit}. The final {@link TokenType#EOF}
+     * token is positioned at the end of the source if it was reached, or at the end of the last
+     * token otherwise.
+     *
+     * <p>{@code from} must not be inside a token, a string or a comment. This is used for
+     * incremental reparsing (cf. {@link IncrementalParser}).
+     */
+    public static Tokens tokenize (String source, int from, int limit)
+    {
+        // about one token every 4 characters in typical code
+        int length = source.length();
+        Tokens tokens = new Tokens(source, (Math.min(limit, length) - from) / 4 + 16);
+        int i = skipWhitespace(source, from);
+
+        while (i < length) {
+            int start = i;
+            int type;
+            char c = source.charAt(i);
+            switch (c) {
+                case '*': type = STAR;      ++i; break;
+                case '/': type = SLASH;     ++i; break;
+                case '%': type = PERCENT;   ++i; break;
+                case '+': type = PLUS;      ++i; break;
+                case '-': type = MINUS;     ++i; break;
+                case '{': type = LBRACE;    ++i; break;
+                case '}': type = RBRACE;    ++i; break;
+                case '(': type = LPAREN;    ++i; break;
+                case ')': type = RPAREN;    ++i; break;
+                case '[': type = LSQUARE;   ++i; break;
+                case ']': type = RSQUARE;   ++i; break;
+                case ':': type = COLON;     ++i; break;
+                case '.': type = DOT;       ++i; break;
+                case '$': type = DOLLAR;    ++i; break;
+                case ',': type = COMMA;     ++i; break;
+                case '=':
+                    type = next(source, i) == '=' ? EQUALS_EQUALS : EQUALS;
+                    i += type == EQUALS ? 1 : 2;
+                    break;
+                case '!':
+                    type = next(source, i) == '=' ? BANG_EQUAL : BANG;
+                    i += type == BANG ? 1 : 2;
+                    break;
+                case '<':
+                    type = next(source, i) == '=' ? LANGLE_EQUAL : LANGLE;
+                    i += type == LANGLE ? 1 : 2;
+                    break;
+                case '>':
+                    type = next(source, i) == '=' ? RANGLE_EQUAL : RANGLE;
+                    i += type == RANGLE ? 1 : 2;
+                    break;
+                case '&':
+                    if (next(source, i) != '&') throw error(source, i, "expected \"&&\"");
+                    type = AMP_AMP;
+                    i += 2;
+                    break;
+                case '|':
+                    if (next(source, i) != '|') throw error(source, i, "expected \"||\"");
+                    type = BAR_BAR;
+                    i += 2;
+                    break;
+                case '"':
+                    type = STRING;
+                    i = string(source, i);
+                    break;
+                default:
+                    if (isDigit(c)) {
+                        // like SighGrammar#number: "0" or a digit sequence
+                        i = c == '0' ? i + 1 : digits(source, i);
+                        if (i < length && source.charAt(i) == '.' && isDigit(next(source, i))) {
+                            type = FLOAT;
+                            i = digits(source, i + 1);
+                        } else {
+                            type = INTEGER;
+                        }
+                    } else if (Character.isLetter(c) || c == '_') {
+                        do ++i;
+                        while (i < length && isIdentifierPart(source.charAt(i)));
+                        type = keyword(source, start, i - start);
+                    } else {
+                        throw error(source, i, "unexpected character '" + c + "'");
+                    }
+            }
+            tokens.add(type, start, i - start);
+            if (start >= limit) break;
+            i = skipWhitespace(source, i);
+        }
+
+        tokens.add(EOF, i, 0);
+        return tokens;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the character following index {@code i}, or 0 if there is none.
+     */
+    private static char next (String source, int i) {
+        return i + 1 < source.length() ? source.charAt(i + 1) : 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isDigit (char c) {
+        return '0' <= c && c <= '9';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isIdentifierPart (char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int digits (String source, int i)
+    {
+        while (i < source.length() && isDigit(source.charAt(i))) ++i;
+        return i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index past the whitespace and comments starting at index {@code i}.
+     */
+    private static int skipWhitespace (String source, int i)
+    {
+        int length = source.length();
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == ';') {
+                ++i;
+            } else if (c == '/' && next(source, i) == '/') {
+                int end = source.indexOf('\n', i + 2);
+                i = end < 0 ? length : end;
+            } else if (c == '/' && next(source, i) == '*') {
+                int end = source.indexOf("*/", i + 2);
+                if (end < 0) throw error(source, i, "unterminated comment");
+                i = end + 2;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index past the string literal starting at index {@code i}. As in {@link
+     * norswap.sigh.SighGrammar#string_char}, the only escape sequences are \\, \n, \r and \t.
+     */
+    private static int string (String source, int i)
+    {
+        int start = i++;
+        int length = source.length();
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '"')
+                return i + 1;
+            if (c == '\\') {
+                char escaped = next(source, i);
+                if (escaped != '\\' && escaped != 'n' && escaped != 'r' && escaped != 't')
+                    throw error(source, i, "invalid escape sequence in string");
+                i += 2;
+            } else {
+                ++i;
+            }
+        }
+        throw error(source, start, "unterminated string");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the type of the keyword spelled by the given range of the source, or {@link
+     * TokenType#IDENTIFIER} if it isn't a keyword.
+     */
+    private static int keyword (String source, int start, int length)
+    {
+        switch (source.charAt(start)) {
+            case 'd': return is(source, start, length, "do")     ? DO     : IDENTIFIER;
+            case 'e': return is(source, start, length, "else")   ? ELSE   : IDENTIFIER;
+            case 'f':
+                if (is(source, start, length, "fun")) return FUN;
+                return is(source, start, length, "for")          ? FOR    : IDENTIFIER;
+            case 'i':
+                if (is(source, start, length, "if")) return IF;
+                return is(source, start, length, "in")           ? IN     : IDENTIFIER;
+            case 'r': return is(source, start, length, "return") ? RETURN : IDENTIFIER;
+            case 's': return is(source, start, length, "struct") ? STRUCT : IDENTIFIER;
+            case 'u': return is(source, start, length, "until")  ? UNTIL  : IDENTIFIER;
+            case 'v': return is(source, start, length, "var")    ? VAR    : IDENTIFIER;
+            case 'w': return is(source, start, length, "while")  ? WHILE  : IDENTIFIER;
+            default:  return IDENTIFIER;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean is (String source, int start, int length, String keyword) {
+        return length == keyword.length() && source.startsWith(keyword, start);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static RuntimeException error (String source, int offset, String message)
+    {
+        int line = 1, lineStart = 0;
+        for (int i = 0; i < offset; ++i)
+            if (source.charAt(i) == '\n') {
+                ++line;
+                lineStart = i + 1;
+            }
+        String position = " at " + line + ":" + (offset - lineStart + 1);
+        return new RuntimeException(new ParseException(message + position, offset));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
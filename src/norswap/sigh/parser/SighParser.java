@@ -0,0 +1,729 @@
+package norswap.sigh.parser;
+
+import norswap.autumn.positions.Span;
+import norswap.sigh.ast.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static norswap.sigh.ast.UnaryOperator.NOT;
+import static norswap.sigh.parser.TokenType.*;
+
+/**
+ * A recursive descent parser for Sigh that runs on the {@link Tokens} produced by the {@link
+ * SighLexer}. It implements the same language as {@link norswap.sigh.SighGrammar} and produces
+ * trees that are equal to the grammar's (cf. {@link norswap.sigh.ast.SighNode#equals(Object)}),
+ * but much faster: whitespace, comments and keywords are only matched once by the lexer (instead
+ * of at every position where a choice is backtracked) and statements are selected by looking at
+ * their first token.
+ *
+ * <p>Like the grammar, the parser backtracks where the grammar does (optional parts, repetitions
+ * and operators whose right side fails to parse), but this only ever requires resetting the token
+ * index. Node spans start at the first character of the first token of the node and end after
+ * the last character of its last token. The only exception is the root node, which spans the
+ * whole input.
+ *
+ * <p>Spans start at the same offsets as in the trees of the grammar, but their ends may differ:
+ * in the grammar, every token also matches the whitespace and comments that follow it (cf. {@code
+ * rule#word()}), and the span of a node whose rule ends with such a token can include them. The
+ * two spans of a node are only ever separated by whitespace and comments. Code that identifies
+ * nodes by their span (e.g. {@link norswap.sigh.profile.ExecutionProfile}) must therefore not mix
+ * trees produced by the two parsers.
+ *
+ * <p>Syntax errors are reported by throwing a runtime exception wrapping a {@link ParseException},
+ * whose offset is the furthest position where the parser failed to match a token, like {@link
+ * norswap.sigh.SighRunner#parse}.
+ *
+ * <p>Instances are used for a single parse: use {@link #parse(String)}.
+ */
+public final class SighParser
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int OR = 0, AND = 1, ORDER = 2, RANGE = 3, ADD = 4, MULT = 5, PREFIX = 6;
+
+    /** Maps token types to the precedence level of the binary operator they represent, or -1. */
+    private static final int[] LEVELS = new int[COUNT];
+
+    /** Maps token types to the binary operator they represent, or null. */
+    private static final BinaryOperator[] OPERATORS = new BinaryOperator[COUNT];
+
+    /** Maps precedence levels to the token types of their operators. */
+    private static final long[] LEVEL_MASKS = new long[PREFIX];
+
+    static {
+        java.util.Arrays.fill(LEVELS, -1);
+        operator(BAR_BAR,       OR,     BinaryOperator.OR);
+        operator(AMP_AMP,       AND,    BinaryOperator.AND);
+        operator(EQUALS_EQUALS, ORDER,  BinaryOperator.EQUALITY);
+        operator(BANG_EQUAL,    ORDER,  BinaryOperator.NOT_EQUALS);
+        operator(LANGLE_EQUAL,  ORDER,  BinaryOperator.LOWER_EQUAL);
+        operator(RANGLE_EQUAL,  ORDER,  BinaryOperator.GREATER_EQUAL);
+        operator(LANGLE,        ORDER,  BinaryOperator.LOWER);
+        operator(RANGLE,        ORDER,  BinaryOperator.GREATER);
+        operator(COLON,         RANGE,  null); // RangeExpressionNode
+        operator(PLUS,          ADD,    BinaryOperator.ADD);
+        operator(MINUS,         ADD,    BinaryOperator.SUBTRACT);
+        operator(STAR,          MULT,   BinaryOperator.MULTIPLY);
+        operator(SLASH,         MULT,   BinaryOperator.DIVIDE);
+        operator(PERCENT,       MULT,   BinaryOperator.REMAINDER);
+    }
+
+    private static void operator (int type, int level, BinaryOperator operator) {
+        LEVELS[type] = level;
+        OPERATORS[type] = operator;
+        LEVEL_MASKS[level] |= 1L << type;
+    }
+
+    /** Token types that can start an expression. */
+    private static final long EXPRESSION_START =
+        mask(IDENTIFIER, INTEGER, FLOAT, STRING, MINUS, DOLLAR, LPAREN, LSQUARE, BANG);
+
+    /** Token types that can start a statement. */
+    private static final long STATEMENT_START =
+        EXPRESSION_START | mask(LBRACE, VAR, FUN, STRUCT, IF, WHILE, FOR, RETURN);
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final String source;
+    private final int[] types;
+    private final int[] starts;
+    private final int[] lengths;
+
+    /** Index of the current token. */
+    private int pos;
+
+    /** Index of the furthest token where the parser failed to match a token. */
+    private int errorPos;
+
+    /** The token types that were expected at {@link #errorPos}. */
+    private long expected;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private SighParser (Tokens tokens) {
+        this.source = tokens.source;
+        this.types = tokens.types;
+        this.starts = tokens.starts;
+        this.lengths = tokens.lengths;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the program, throwing a runtime exception wrapping a {@link ParseException} if it is
+     * not well-formed.
+     */
+    public static RootNode parse (String source) {
+        return parse(SighLexer.tokenize(source));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the program whose tokens are given, see {@link #parse(String)}.
+     */
+    public static RootNode parse (Tokens tokens) {
+        return new SighParser(tokens).root();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses top-level statements from the tokens into {@code statements}, until reaching the
+     * {@link TokenType#EOF} token or a token that starts at or after offset {@code limit}. Returns
+     * the start offset of that token.
+     *
+     * <p>The tokens may only cover a part of the source (cf. {@link SighLexer#tokenize(String,
+     * int, int)}). If a statement fails to parse, this throws a syntax error if the tokens reach
+     * the end of the source, or if the parser did not look at the final {@link TokenType#EOF}
+     * token, as the failure then does not depend on the part of the source that follows the
+     * tokens. Otherwise, it returns -1.
+     *
+     * <p>Used for incremental reparsing (cf. {@link IncrementalParser}).
+     */
+    static int parseStatements (Tokens tokens, int limit, List<StatementNode> statements)
+    {
+        SighParser parser = new SighParser(tokens);
+        while (parser.types[parser.pos] != EOF && parser.starts[parser.pos] < limit) {
+            StatementNode statement = parser.statement();
+            if (statement == null) {
+                // the parser never examines tokens past the furthest failure, except the token
+                // after a minus sign (negative literals)
+                int eof = tokens.count - 1;
+                if (parser.errorPos + 1 < eof || tokens.starts[eof] == tokens.source.length())
+                    throw parser.error();
+                return -1;
+            }
+            statements.add(statement);
+        }
+        return parser.starts[parser.pos];
+    }
+
+    // =============================================================================================
+    // region [Utilities]
+    // =============================================================================================
+
+    /**
+     * Records that one of the token types in the mask was expected at the current position.
+     */
+    private void expect (long mask)
+    {
+        if (pos > errorPos) {
+            errorPos = pos;
+            expected = mask;
+        } else if (pos == errorPos) {
+            expected |= mask;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If the current token has the given type, skips it and returns true, otherwise records the
+     * failure and returns false.
+     */
+    private boolean accept (int type)
+    {
+        if (types[pos] == type) {
+            ++pos;
+            return true;
+        }
+        expect(1L << type);
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Resets the position to {@code start} (undoing a partial match) and returns null.
+     */
+    private <T> T reset (int start) {
+        pos = start;
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the span from the start of the token at index {@code start} to the end of the last
+     * matched token.
+     */
+    private Span span (int start) {
+        return new Span(starts[start], starts[pos - 1] + lengths[pos - 1]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String text (int index) {
+        return source.substring(starts[index], starts[index] + lengths[index]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String identifier () {
+        return accept(IDENTIFIER) ? text(pos - 1) : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private RuntimeException error ()
+    {
+        StringBuilder message = new StringBuilder("expected ");
+        boolean first = true;
+        for (int type = 0; type < COUNT; ++type) {
+            if ((expected & (1L << type)) == 0) continue;
+            if (!first) message.append(", ");
+            message.append(TokenType.name(type));
+            first = false;
+        }
+        message.append(" but found ").append(TokenType.name(types[errorPos]));
+        return SighLexer.error(source, starts[errorPos], message.toString());
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Statements]
+    // =============================================================================================
+
+    private RootNode root ()
+    {
+        List<StatementNode> statements = new ArrayList<>();
+        StatementNode statement;
+        while ((statement = statement()) != null)
+            statements.add(statement);
+        if (statements.isEmpty() || !accept(EOF))
+            throw error();
+        return new RootNode(new Span(0, source.length()), statements);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses a statement, selected by its first token (cf. {@link
+     * norswap.sigh.SighGrammar#statement}).
+     */
+    private StatementNode statement ()
+    {
+        switch (types[pos]) {
+            case LBRACE: return block();
+            case VAR:    return varDecl();
+            case FUN:    return funDecl();
+            case STRUCT: return structDecl();
+            case IF:     return ifStmt();
+            case WHILE:  return whileStmt();
+            case FOR:    return forStmt();
+            case RETURN: return returnStmt();
+            default:
+                if ((EXPRESSION_START & (1L << types[pos])) == 0) {
+                    expect(STATEMENT_START);
+                    return null;
+                }
+                return expressionStmt();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private List<StatementNode> statements ()
+    {
+        List<StatementNode> statements = new ArrayList<>();
+        StatementNode statement;
+        while ((statement = statement()) != null)
+            statements.add(statement);
+        return statements;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private BlockNode block ()
+    {
+        int start = pos;
+        if (!accept(LBRACE)) return null;
+        List<StatementNode> statements = statements();
+        if (!accept(RBRACE)) return reset(start);
+        return new BlockNode(span(start), statements);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private VarDeclarationNode varDecl ()
+    {
+        int start = pos;
+        if (!accept(VAR)) return null;
+        String name = identifier();
+        if (name == null || !accept(COLON)) return reset(start);
+        TypeNode type = type();
+        if (type == null || !accept(EQUALS)) return reset(start);
+        ExpressionNode initializer = expression();
+        if (initializer == null) return reset(start);
+        return new VarDeclarationNode(span(start), name, type, initializer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParameterNode parameter ()
+    {
+        int start = pos;
+        String name = identifier();
+        if (name == null || !accept(COLON)) return reset(start);
+        TypeNode type = type();
+        if (type == null) return reset(start);
+        return new ParameterNode(span(start), name, type);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private FunDeclarationNode funDecl ()
+    {
+        int start = pos;
+        if (!accept(FUN)) return null;
+        String name = identifier();
+        if (name == null || !accept(LPAREN)) return reset(start);
+
+        List<ParameterNode> parameters = new ArrayList<>();
+        ParameterNode parameter = parameter();
+        if (parameter != null) {
+            parameters.add(parameter);
+            while (types[pos] == COMMA) {
+                int comma = pos++;
+                if ((parameter = parameter()) == null) {
+                    pos = comma;
+                    break;
+                }
+                parameters.add(parameter);
+            }
+        }
+        if (!accept(RPAREN)) return reset(start);
+
+        TypeNode returnType = null;
+        if (types[pos] == COLON) {
+            int colon = pos++;
+            if ((returnType = type()) == null) pos = colon;
+        } else {
+            expect(1L << COLON);
+        }
+
+        BlockNode block = block();
+        if (block == null) return reset(start);
+        return new FunDeclarationNode(span(start), name, parameters, returnType, block);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private StructDeclarationNode structDecl ()
+    {
+        int start = pos;
+        if (!accept(STRUCT)) return null;
+        String name = identifier();
+        if (name == null || !accept(LBRACE)) return reset(start);
+
+        List<DeclarationNode> fields = new ArrayList<>();
+        while (types[pos] == VAR) {
+            int field = pos++;
+            String fieldName = identifier();
+            TypeNode type = fieldName != null && accept(COLON) ? type() : null;
+            if (type == null) {
+                pos = field;
+                break;
+            }
+            fields.add(new FieldDeclarationNode(span(field), fieldName, type));
+        }
+
+        if (!accept(RBRACE)) return reset(start);
+        return new StructDeclarationNode(span(start), name, fields);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private IfNode ifStmt ()
+    {
+        int start = pos;
+        if (!accept(IF)) return null;
+        ExpressionNode condition = expression();
+        if (condition == null) return reset(start);
+        StatementNode trueStatement = statement();
+        if (trueStatement == null) return reset(start);
+
+        StatementNode falseStatement = null;
+        if (types[pos] == ELSE) {
+            int elseStart = pos++;
+            if ((falseStatement = statement()) == null) pos = elseStart;
+        } else {
+            expect(1L << ELSE);
+        }
+
+        return new IfNode(span(start), condition, trueStatement, falseStatement);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private WhileNode whileStmt ()
+    {
+        int start = pos;
+        if (!accept(WHILE)) return null;
+        ExpressionNode condition = expression();
+        if (condition == null) return reset(start);
+        StatementNode body = statement();
+        if (body == null) return reset(start);
+        return new WhileNode(span(start), condition, body);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private StatementNode forStmt ()
+    {
+        int start = pos;
+        if (!accept(FOR)) return null;
+        // like the grammar, the spans of for nodes do not include the "for" keyword
+        StatementNode node = types[pos] == VAR ? forSimple() : forEach();
+        return node != null ? node : reset(start);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ForNode forSimple ()
+    {
+        int start = pos;
+        VarDeclarationNode iterator = varDecl();
+        if (iterator == null || !accept(DO)) return reset(start);
+        ExpressionNode iterationRule = expression();
+        if (iterationRule == null) return reset(start);
+
+        ExpressionNode condition = null;
+        if (types[pos] == UNTIL) {
+            int until = pos++;
+            if ((condition = expression()) == null) pos = until;
+        } else {
+            expect(1L << UNTIL);
+        }
+
+        StatementNode body = statement();
+        if (body == null) return reset(start);
+        return new ForNode(span(start), iterator, iterationRule, condition, body);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ForEachNode forEach ()
+    {
+        int start = pos;
+        String name = identifier();
+        if (name == null || !accept(COLON)) return reset(start);
+        TypeNode type = type();
+        if (type == null) return reset(start);
+        ForEachVarNode iterator = new ForEachVarNode(span(start), name, type);
+        if (!accept(IN)) return reset(start);
+        ExpressionNode iterated = expression();
+        if (iterated == null) return reset(start);
+        StatementNode body = statement();
+        if (body == null) return reset(start);
+        return new ForEachNode(span(start), iterator, iterated, body);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ReturnNode returnStmt ()
+    {
+        int start = pos;
+        if (!accept(RETURN)) return null;
+        ExpressionNode expression = expression(); // optional
+        return new ReturnNode(span(start), expression);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExpressionStatementNode expressionStmt ()
+    {
+        int start = pos;
+        ExpressionNode expression = expression();
+        if (expression == null) return null;
+        if (!(expression instanceof AssignmentNode || expression instanceof FunCallNode))
+            return reset(start);
+        return new ExpressionStatementNode(span(start), expression);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses a type: a simple type followed by any number of array suffixes, with optional length
+     * hints (cf. {@link norswap.sigh.SighGrammar#array_type}).
+     */
+    private TypeNode type ()
+    {
+        int start = pos;
+        String name = identifier();
+        if (name == null) return null;
+        TypeNode type = new SimpleTypeNode(span(start), name);
+        while (types[pos] == LSQUARE) {
+            int suffix = pos++;
+            ExpressionNode lengthHint = expression(); // optional
+            if (!accept(RSQUARE)) {
+                pos = suffix;
+                break;
+            }
+            type = new ArrayTypeNode(span(start), type, lengthHint);
+        }
+        return type;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Expressions]
+    // =============================================================================================
+
+    private ExpressionNode expression ()
+    {
+        int start = pos;
+        ExpressionNode left = binary(OR);
+        if (left == null) return null;
+        if (types[pos] != EQUALS) {
+            expect(1L << EQUALS);
+            return left;
+        }
+        int operator = pos++;
+        // right-associative
+        ExpressionNode right = expression();
+        if (right == null) {
+            pos = operator;
+            return left;
+        }
+        return new AssignmentNode(span(start), left, right);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses a left-associative chain of binary operators of the given precedence level, whose
+     * operands are of the next (higher) level.
+     */
+    private ExpressionNode binary (int level)
+    {
+        if (level == PREFIX) return prefix();
+        int start = pos;
+        ExpressionNode left = binary(level + 1);
+        if (left == null) return null;
+
+        while (true) {
+            int type = types[pos];
+            if (LEVELS[type] != level) {
+                expect(LEVEL_MASKS[level]);
+                return left;
+            }
+            int operator = pos++;
+            ExpressionNode right = binary(level + 1);
+            if (right == null) {
+                pos = operator;
+                return left;
+            }
+            left = level == RANGE
+                ? new RangeExpressionNode(span(start), left, right)
+                : new BinaryExpressionNode(span(start), left, OPERATORS[type], right);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExpressionNode prefix ()
+    {
+        if (types[pos] != BANG) return suffix();
+        int start = pos++;
+        ExpressionNode operand = prefix();
+        if (operand == null) return reset(start);
+        return new UnaryExpressionNode(span(start), NOT, operand);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExpressionNode suffix ()
+    {
+        int start = pos;
+        ExpressionNode expression = basic();
+        if (expression == null) return null;
+
+        while (true) {
+            int suffix = pos;
+            switch (types[pos]) {
+                case DOT:
+                    ++pos;
+                    String name = identifier();
+                    if (name == null) {
+                        pos = suffix;
+                        return expression;
+                    }
+                    expression = new FieldAccessNode(span(start), expression, name);
+                    break;
+                case LSQUARE:
+                    ++pos;
+                    ExpressionNode index = expression();
+                    if (index == null || !accept(RSQUARE)) {
+                        pos = suffix;
+                        return expression;
+                    }
+                    expression = new ArrayAccessNode(span(start), expression, index);
+                    break;
+                case LPAREN:
+                    ++pos;
+                    List<ExpressionNode> arguments = expressions();
+                    if (!accept(RPAREN)) {
+                        pos = suffix;
+                        return expression;
+                    }
+                    expression = new FunCallNode(span(start), expression, arguments);
+                    break;
+                default:
+                    expect(mask(DOT, LSQUARE, LPAREN));
+                    return expression;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses a possibly empty list of comma-separated expressions.
+     */
+    private List<ExpressionNode> expressions ()
+    {
+        ExpressionNode expression = expression();
+        if (expression == null) return Collections.emptyList();
+        List<ExpressionNode> expressions = new ArrayList<>();
+        expressions.add(expression);
+        while (types[pos] == COMMA) {
+            int comma = pos++;
+            if ((expression = expression()) == null) {
+                pos = comma;
+                break;
+            }
+            expressions.add(expression);
+        }
+        return expressions;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExpressionNode basic ()
+    {
+        int start = pos;
+        switch (types[pos]) {
+            case IDENTIFIER:
+                ++pos;
+                return new ReferenceNode(span(start), text(start));
+            case DOLLAR:
+                ++pos;
+                String name = identifier();
+                if (name == null) return reset(start);
+                ReferenceNode reference = new ReferenceNode(span(pos - 1), name);
+                return new ConstructorNode(span(start), reference);
+            case INTEGER:
+            case FLOAT:
+                return number(start);
+            case MINUS:
+                // negative literal: the sign must immediately precede the number
+                int next = types[pos + 1];
+                if ((next == INTEGER || next == FLOAT) && starts[pos] + 1 == starts[pos + 1]) {
+                    ++pos;
+                    return number(start);
+                }
+                expect(EXPRESSION_START);
+                return null;
+            case STRING:
+                ++pos;
+                return new StringLiteralNode(span(start),
+                    source.substring(starts[start] + 1, starts[start] + lengths[start] - 1));
+            case LPAREN:
+                ++pos;
+                ExpressionNode expression = expression();
+                if (expression == null || !accept(RPAREN)) return reset(start);
+                return new ParenthesizedNode(span(start), expression);
+            case LSQUARE:
+                ++pos;
+                List<ExpressionNode> components = expressions();
+                if (!accept(RSQUARE)) return reset(start);
+                return new ArrayLiteralNode(span(start), components);
+            default:
+                expect(EXPRESSION_START);
+                return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the number literal at the current position, whose text starts at token {@code start}
+     * (which may be a minus sign).
+     */
+    private ExpressionNode number (int start)
+    {
+        int type = types[pos++];
+        Span span = span(start);
+        String text = source.substring(span.start, span.end);
+        return type == INTEGER
+            ? new IntLiteralNode(span, Long.parseLong(text))
+            : new FloatLiteralNode(span, Double.parseDouble(text));
+    }
+
+    // endregion
+    // =============================================================================================
+}
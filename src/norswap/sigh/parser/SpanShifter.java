@@ -0,0 +1,200 @@
+package norswap.sigh.parser;
+
+import norswap.autumn.positions.Span;
+import norswap.sigh.ast.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies trees, shifting all their spans by a fixed offset. Used by the {@link IncrementalParser}
+ * to reuse the statements that follow an edit: spans are immutable, so the statements must be
+ * copied, but this is much cheaper than lexing and parsing them again. The copies are made
+ * lazily, cf. {@link ShiftedStatements}.
+ */
+final class SpanShifter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final int delta;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private SpanShifter (int delta) {
+        this.delta = delta;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of the node whose spans are shifted by {@code delta}, or the node itself if
+     * {@code delta} is 0.
+     */
+    static StatementNode shift (StatementNode node, int delta) {
+        return delta == 0 ? node : new SpanShifter(delta).statement(node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Span span (SighNode node)
+    {
+        return node.span == null // e.g. the implicit condition of a for loop
+            ? null
+            : new Span(node.span.start + delta, node.span.end + delta);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private StatementNode statement (StatementNode node)
+    {
+        if (node == null)
+            return null;
+        if (node instanceof ExpressionStatementNode)
+            return new ExpressionStatementNode(span(node),
+                expression(((ExpressionStatementNode) node).expression));
+        if (node instanceof VarDeclarationNode)
+            return varDecl((VarDeclarationNode) node);
+        if (node instanceof BlockNode)
+            return block((BlockNode) node);
+        if (node instanceof IfNode) {
+            IfNode n = (IfNode) node;
+            return new IfNode(span(n),
+                expression(n.condition), statement(n.trueStatement), statement(n.falseStatement));
+        }
+        if (node instanceof WhileNode) {
+            WhileNode n = (WhileNode) node;
+            return new WhileNode(span(n), expression(n.condition), statement(n.body));
+        }
+        if (node instanceof ForNode) {
+            ForNode n = (ForNode) node;
+            return new ForNode(span(n), varDecl(n.iterator),
+                expression(n.iterationRule), expression(n.condition), statement(n.body));
+        }
+        if (node instanceof ForEachNode) {
+            ForEachNode n = (ForEachNode) node;
+            ForEachVarNode iterator =
+                new ForEachVarNode(span(n.iterator), n.iterator.name, type(n.iterator.type));
+            return new ForEachNode(span(n), iterator, expression(n.iterated), statement(n.body));
+        }
+        if (node instanceof ReturnNode)
+            return new ReturnNode(span(node), expression(((ReturnNode) node).expression));
+        if (node instanceof FunDeclarationNode) {
+            FunDeclarationNode n = (FunDeclarationNode) node;
+            List<ParameterNode> parameters = new ArrayList<>(n.parameters.size());
+            for (ParameterNode parameter: n.parameters)
+                parameters.add(
+                    new ParameterNode(span(parameter), parameter.name, type(parameter.type)));
+            return new FunDeclarationNode(span(n),
+                n.name, parameters, type(n.returnType), block(n.block));
+        }
+        if (node instanceof StructDeclarationNode) {
+            StructDeclarationNode n = (StructDeclarationNode) node;
+            List<DeclarationNode> fields = new ArrayList<>(n.fields.size());
+            for (FieldDeclarationNode field: n.fields)
+                fields.add(new FieldDeclarationNode(span(field), field.name, type(field.type)));
+            return new StructDeclarationNode(span(n), n.name, fields);
+        }
+        throw new Error("unknown statement node: " + node.getClass().getName());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private BlockNode block (BlockNode node)
+    {
+        List<StatementNode> statements = new ArrayList<>(node.statements.size());
+        for (StatementNode statement: node.statements)
+            statements.add(statement(statement));
+        return new BlockNode(span(node), statements);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private VarDeclarationNode varDecl (VarDeclarationNode node) {
+        return new VarDeclarationNode(span(node),
+            node.name, type(node.type), expression(node.initializer));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private TypeNode type (TypeNode node)
+    {
+        if (node instanceof SimpleTypeNode)
+            return new SimpleTypeNode(span(node), ((SimpleTypeNode) node).name);
+        if (node instanceof ArrayTypeNode) {
+            ArrayTypeNode n = (ArrayTypeNode) node;
+            return new ArrayTypeNode(span(n), type(n.componentType), expression(n.lengthHint));
+        }
+        throw new Error("unknown type node: " + node.getClass().getName());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private List<ExpressionNode> expressions (List<ExpressionNode> nodes)
+    {
+        List<ExpressionNode> copies = new ArrayList<>(nodes.size());
+        for (ExpressionNode node: nodes)
+            copies.add(expression(node));
+        return copies;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ExpressionNode expression (ExpressionNode node)
+    {
+        if (node == null)
+            return null;
+        if (node instanceof ReferenceNode)
+            return reference((ReferenceNode) node);
+        if (node instanceof IntLiteralNode)
+            return new IntLiteralNode(span(node), ((IntLiteralNode) node).value);
+        if (node instanceof FloatLiteralNode)
+            return new FloatLiteralNode(span(node), ((FloatLiteralNode) node).value);
+        if (node instanceof StringLiteralNode)
+            return new StringLiteralNode(span(node), ((StringLiteralNode) node).value);
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode n = (BinaryExpressionNode) node;
+            return new BinaryExpressionNode(span(n),
+                expression(n.left), n.operator, expression(n.right));
+        }
+        if (node instanceof UnaryExpressionNode) {
+            UnaryExpressionNode n = (UnaryExpressionNode) node;
+            return new UnaryExpressionNode(span(n), n.operator, expression(n.operand));
+        }
+        if (node instanceof FunCallNode) {
+            FunCallNode n = (FunCallNode) node;
+            return new FunCallNode(span(n), expression(n.function), expressions(n.arguments));
+        }
+        if (node instanceof AssignmentNode) {
+            AssignmentNode n = (AssignmentNode) node;
+            return new AssignmentNode(span(n), expression(n.left), expression(n.right));
+        }
+        if (node instanceof FieldAccessNode) {
+            FieldAccessNode n = (FieldAccessNode) node;
+            return new FieldAccessNode(span(n), expression(n.stem), n.fieldName);
+        }
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode n = (ArrayAccessNode) node;
+            return new ArrayAccessNode(span(n), expression(n.array), expression(n.index));
+        }
+        if (node instanceof ArrayLiteralNode)
+            return new ArrayLiteralNode(span(node),
+                expressions(((ArrayLiteralNode) node).components));
+        if (node instanceof ParenthesizedNode)
+            return new ParenthesizedNode(span(node),
+                expression(((ParenthesizedNode) node).expression));
+        if (node instanceof ConstructorNode)
+            return new ConstructorNode(span(node), reference(((ConstructorNode) node).ref));
+        if (node instanceof RangeExpressionNode) {
+            RangeExpressionNode n = (RangeExpressionNode) node;
+            return new RangeExpressionNode(span(n), expression(n.left), expression(n.right));
+        }
+        throw new Error("unknown expression node: " + node.getClass().getName());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ReferenceNode reference (ReferenceNode node) {
+        return new ReferenceNode(span(node), node.name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
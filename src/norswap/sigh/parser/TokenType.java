@@ -0,0 +1,101 @@
+package norswap.sigh.parser;
+
+/**
+ * The types of the tokens produced by the {@link SighLexer}, as small integer constants, so that
+ * {@link Tokens} can store them in a primitive array (and parsers can test sets of types with bit
+ * masks, see {@link #mask}).
+ *
+ * <p>The token types correspond to the lexical rules of {@link norswap.sigh.SighGrammar}.
+ */
+public final class TokenType
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private TokenType () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Marks the end of the input: the last token is always of this type. */
+    public static final int EOF             = 0;
+
+    public static final int IDENTIFIER      = 1;
+    public static final int INTEGER         = 2;
+    public static final int FLOAT           = 3;
+    public static final int STRING          = 4;
+
+    public static final int VAR             = 5;
+    public static final int FUN             = 6;
+    public static final int STRUCT          = 7;
+    public static final int IF              = 8;
+    public static final int ELSE            = 9;
+    public static final int WHILE           = 10;
+    public static final int FOR             = 11;
+    public static final int IN              = 12;
+    public static final int DO              = 13;
+    public static final int UNTIL           = 14;
+    public static final int RETURN          = 15;
+
+    public static final int STAR            = 16;
+    public static final int SLASH           = 17;
+    public static final int PERCENT         = 18;
+    public static final int PLUS            = 19;
+    public static final int MINUS           = 20;
+    public static final int LBRACE          = 21;
+    public static final int RBRACE          = 22;
+    public static final int LPAREN          = 23;
+    public static final int RPAREN          = 24;
+    public static final int LSQUARE         = 25;
+    public static final int RSQUARE         = 26;
+    public static final int COLON           = 27;
+    public static final int EQUALS_EQUALS   = 28;
+    public static final int EQUALS          = 29;
+    public static final int BANG_EQUAL      = 30;
+    public static final int LANGLE_EQUAL    = 31;
+    public static final int RANGLE_EQUAL    = 32;
+    public static final int LANGLE          = 33;
+    public static final int RANGLE          = 34;
+    public static final int AMP_AMP         = 35;
+    public static final int BAR_BAR         = 36;
+    public static final int BANG            = 37;
+    public static final int DOT             = 38;
+    public static final int DOLLAR          = 39;
+    public static final int COMMA           = 40;
+
+    /** Number of token types. */
+    public static final int COUNT           = 41;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] NAMES = {
+        "end of input", "identifier", "integer", "float", "string",
+        "var", "fun", "struct", "if", "else", "while", "for", "in", "do", "until", "return",
+        "*", "/", "%", "+", "-", "{", "}", "(", ")", "[", "]", ":",
+        "==", "=", "!=", "<=", ">=", "<", ">", "&&", "||", "!", ".", "$", ","
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a description of the token type, for use in error messages: the text of the token
+     * (in quotes) for keywords and operators, a description (e.g. "identifier") otherwise.
+     */
+    public static String name (int type) {
+        return type < VAR
+            ? NAMES[type]
+            : "\"" + NAMES[type] + "\"";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a bit mask representing the set of the given token types.
+     */
+    public static long mask (int... types) {
+        long mask = 0;
+        for (int type: types)
+            mask |= 1L << type;
+        return mask;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
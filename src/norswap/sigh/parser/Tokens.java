@@ -0,0 +1,84 @@
+package norswap.sigh.parser;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of a source text, produced by the {@link SighLexer}.
+ *
+ * <p>The tokens are stored compactly, in three primitive arrays holding their {@link TokenType
+ * type}, start offset and length. The last token is always an {@link TokenType#EOF} token of
+ * length 0, positioned at the end of the source (or at the end of the tokenized part of the source,
+ * cf. {@link SighLexer#tokenize(String, int, int)}).
+ */
+public final class Tokens
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** The tokenized text. */
+    public final String source;
+
+    // package-private for fast access by the parser
+    int[] types;
+    int[] starts;
+    int[] lengths;
+    int count;
+
+    // ---------------------------------------------------------------------------------------------
+
+    Tokens (String source, int capacity) {
+        this.source = source;
+        this.types = new int[capacity];
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    void add (int type, int start, int length)
+    {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        types[count] = type;
+        starts[count] = start;
+        lengths[count] = length;
+        ++count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the number of tokens, including the final {@link TokenType#EOF} token. */
+    public int count () {
+        return count;
+    }
+
+    /** Returns the {@link TokenType type} of the token at the given index. */
+    public int type (int index) {
+        return types[index];
+    }
+
+    /** Returns the offset of the first character of the token at the given index. */
+    public int start (int index) {
+        return starts[index];
+    }
+
+    /** Returns the length of the token at the given index. */
+    public int length (int index) {
+        return lengths[index];
+    }
+
+    /** Returns the offset past the last character of the token at the given index. */
+    public int end (int index) {
+        return starts[index] + lengths[index];
+    }
+
+    /** Returns the text of the token at the given index. */
+    public String text (int index) {
+        return source.substring(starts[index], starts[index] + lengths[index]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,207 @@
+package norswap.sigh.profile;
+
+import norswap.autumn.positions.LineMap;
+import norswap.sigh.ast.SighNode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Counts the Sigh values allocated by the {@link norswap.sigh.interpreter.Interpreter} and their
+ * (estimated) size, attributed to the node whose evaluation allocated them, when enabled in {@link
+ * norswap.sigh.interpreter.InterpreterOptions#allocationProfile}.
+ *
+ * <p>Sizes are estimated for a 64-bit JVM with compressed references and compact strings: they
+ * are meant to compare the allocation sites of a program, not to match a heap dump exactly.
+ * Boxed longs in the range cached by {@link Long#valueOf(long)} are not counted, as they are not
+ * allocated. Allocations made by functions compiled by tiered execution are not recorded. A
+ * concatenation that yields a rope is charged for the rope node, and again for the string the
+ * rope is flattened into, if it is.
+ *
+ * <p>Like {@link NodeProfile}, each execution records into a private {@link Recorder}, which is
+ * merged into the profile at the end of the execution.
+ */
+public final class AllocationProfile
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The kinds of allocated values.
+     */
+    public enum Kind {
+        /** Sigh arrays ({@code Object[]}). */
+        ARRAY,
+        /** Struct instances ({@code HashMap}). */
+        STRUCT,
+        /** Boxed numbers ({@code Long} and {@code Double}). */
+        BOXED,
+        /** Strings, and ropes for long concatenations. */
+        STRING
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    /** Size of a boxed {@code Long} or {@code Double}. */
+    public static final long BOXED_BYTES = 16;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Node → [count per kind..., bytes per kind...], guarded by {@code this}. */
+    private final IdentityHashMap<SighNode, long[]> counters = new IdentityHashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The allocations of a given kind performed by a node.
+     */
+    public static final class Entry
+    {
+        public final SighNode node;
+        public final Kind kind;
+        public final long count;
+        public final long bytes;
+
+        private Entry (SighNode node, Kind kind, long count, long bytes) {
+            this.node = node;
+            this.kind = kind;
+            this.count = count;
+            this.bytes = bytes;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the allocations of a single execution (not thread-safe).
+     */
+    public final class Recorder
+    {
+        private final IdentityHashMap<SighNode, long[]> counters = new IdentityHashMap<>();
+
+        private Recorder() {}
+
+        /** Records that the node allocated a value of the given kind and size. */
+        public void record (SighNode node, Kind kind, long bytes)
+        {
+            long[] counters = this.counters.get(node);
+            if (counters == null)
+                this.counters.put(node, counters = new long[2 * KINDS.length]);
+            counters[kind.ordinal()] += 1;
+            counters[KINDS.length + kind.ordinal()] += bytes;
+        }
+
+        /** Records the boxing of the value, if it is a number that had to be allocated. */
+        public void recordBoxed (SighNode node, Object value)
+        {
+            if (value instanceof Double
+                    || value instanceof Long && ((long) value < -128 || (long) value > 127))
+                record(node, Kind.BOXED, BOXED_BYTES);
+        }
+
+        /** Merges the recorded allocations into the profile, and resets them. */
+        public void flush() {
+            merge(counters);
+            counters.clear();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new recorder for an execution.
+     */
+    public Recorder recorder() {
+        return new Recorder();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private synchronized void merge (IdentityHashMap<SighNode, long[]> recorded)
+    {
+        recorded.forEach((node, counts) -> {
+            long[] counters = this.counters.computeIfAbsent(node, k -> new long[counts.length]);
+            for (int i = 0; i < counts.length; ++i) counters[i] += counts[i];
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long align (long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Estimated size of an {@code Object[]} of the given length. */
+    public static long arrayBytes (long length) {
+        return align(16 + 4 * length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Estimated size of a {@code HashMap} with the given number of entries, including them. */
+    public static long structBytes (int fields)
+    {
+        int capacity = 16;
+        while (capacity * 3 / 4 < fields) capacity *= 2;
+        return 48 + arrayBytes(capacity) + 32L * fields;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Estimated size of a string, or of a rope node (excluding its characters) when it isn't a
+     * string.
+     */
+    public static long stringBytes (CharSequence string) {
+        return string instanceof String
+            ? 24 + align(16 + string.length())
+            : 40;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the recorded allocations, one entry per node and kind of allocated values, in
+     * decreasing order of allocated bytes.
+     */
+    public List<Entry> entries()
+    {
+        List<Entry> entries = new ArrayList<>();
+        synchronized (this) {
+            counters.forEach((node, counters) -> {
+                for (Kind kind: KINDS)
+                    if (counters[kind.ordinal()] > 0)
+                        entries.add(new Entry(node, kind, counters[kind.ordinal()],
+                            counters[KINDS.length + kind.ordinal()]));
+            });
+        }
+        entries.sort(Comparator.comparingLong((Entry it) -> it.bytes).reversed());
+        return entries;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a table of the {@code n} entries with the most allocated bytes (cf. {@link
+     * #entries}), using the line map to locate the nodes in the source.
+     */
+    public String report (LineMap lineMap, int n)
+    {
+        StringBuilder b = new StringBuilder(String.format(
+            "%4s  %-9s %-7s %10s %14s  %s%n", "#", "location", "kind", "count", "bytes", "node"));
+        int rank = 0;
+        for (Entry entry: entries()) {
+            if (rank == n) break;
+            int offset = entry.node.span.start;
+            String location =
+                lineMap.lineFromOffset(offset) + ":" + lineMap.columnFromOffset(offset);
+            b.append(String.format("%4d  %-9s %-7s %10d %14d  %s%n",
+                ++rank, location, entry.kind, entry.count, entry.bytes, entry.node));
+        }
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,342 @@
+package norswap.sigh.profile;
+
+import norswap.sigh.ast.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A profile recorded by the {@link norswap.sigh.interpreter.Interpreter} (when enabled in {@link
+ * norswap.sigh.interpreter.InterpreterOptions}), to be used by the {@link
+ * norswap.sigh.bytecode.BytecodeCompiler} to guide its optimizations.
+ *
+ * <p>The profile records:
+ * <ul>
+ *     <li>For every {@link IfNode}, how many times each branch was taken.</li>
+ *     <li>For every loop ({@link WhileNode}, {@link ForNode}, {@link ForEachNode}), how many times
+ *     the loop was entered, and how many iterations it ran in total and at most.</li>
+ *     <li>For every {@link FunDeclarationNode}, how many times the function was called.</li>
+ * </ul>
+ *
+ * <p>Nodes are identified by their kind and their span, so that a profile saved to a
+ * file (see {@link #save} and {@link #load}) can be applied to a new parse of the same source,
+ * by the same parser (span ends differ between parsers, cf. {@link
+ * norswap.sigh.parser.SighParser}). Applying a profile to a different source is harmless but
+ * pointless.
+ *
+ * <p>Only what the compiler uses is recorded.
+ *
+ * <p>The file format is a small header followed by one entry per profiled node, using
+ * variable-length integers. Files in version 1 of the format, which also held the lengths of the
+ * arrays accessed by {@link ArrayAccessNode}s, can still be read (the lengths are ignored).
+ *
+ * <p>Like {@link NodeProfile}, each execution records into a private {@link Recorder}, which is
+ * merged into the profile at the end of the execution, so that concurrent executions can share
+ * the same profile.
+ */
+public final class ExecutionProfile
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int MAGIC = 0x53494750; // "SIGP"
+    private static final int VERSION = 2;
+
+    private static final int BRANCH = 0; // [taken, not taken]
+    private static final int LOOP   = 1; // [entries, iterations, max iterations]
+    private static final int ARRAY  = 2; // no longer recorded, only in version 1 files
+    private static final int CALL   = 3; // [count]
+
+    private static final int[] SIZES = { 2, 3, 0, 1 };
+
+    /** Span offsets are stored on 30 bits in keys. */
+    private static final long OFFSET_MASK = (1L << 30) - 1;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps (kind, start, end) keys to counters whose layout depends on the kind, guarded by {@code
+     * this}.
+     */
+    private final HashMap<Long, long[]> entries = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long key (int kind, SighNode node) {
+        return key(kind, node.span.start, node.span.end);
+    }
+
+    private static long key (int kind, long start, long end) {
+        return (long) kind << 60 | (start & OFFSET_MASK) << 30 | end & OFFSET_MASK;
+    }
+
+    // =============================================================================================
+    // region [Recording]
+    // =============================================================================================
+
+    /**
+     * Records the profile of a single execution (not thread-safe).
+     */
+    public final class Recorder
+    {
+        /** Node → counters, one map per kind. */
+        private final IdentityHashMap<SighNode, long[]> branches = new IdentityHashMap<>();
+        private final IdentityHashMap<SighNode, long[]> loops    = new IdentityHashMap<>();
+        private final IdentityHashMap<SighNode, long[]> calls    = new IdentityHashMap<>();
+
+        private Recorder() {}
+
+        private long[] counters (IdentityHashMap<SighNode, long[]> map, int kind, SighNode node)
+        {
+            long[] counters = map.get(node);
+            if (counters == null)
+                map.put(node, counters = new long[SIZES[kind]]);
+            return counters;
+        }
+
+        public void recordBranch (IfNode node, boolean taken) {
+            ++counters(branches, BRANCH, node)[taken ? 0 : 1];
+        }
+
+        /** Records a complete execution of the given loop, which ran {@code iterations} times. */
+        public void recordLoop (StatementNode node, long iterations)
+        {
+            long[] counters = counters(loops, LOOP, node);
+            ++counters[0];
+            counters[1] += iterations;
+            counters[2] = Math.max(counters[2], iterations);
+        }
+
+        public void recordCall (FunDeclarationNode node) {
+            ++counters(calls, CALL, node)[0];
+        }
+
+        /** Merges the recorded profile into the profile, and resets it. */
+        public void flush()
+        {
+            synchronized (ExecutionProfile.this) {
+                merge(BRANCH, branches);
+                merge(LOOP,   loops);
+                merge(CALL,   calls);
+            }
+            branches.clear();
+            loops.clear();
+            calls.clear();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new recorder for an execution.
+     */
+    public Recorder recorder() {
+        return new Recorder();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Must be called while holding the lock on {@code this}. */
+    private void merge (int kind, IdentityHashMap<SighNode, long[]> recorded)
+    {
+        recorded.forEach((node, counts) -> {
+            long[] counters = entries.computeIfAbsent(key(kind, node), k -> new long[SIZES[kind]]);
+            switch (kind) {
+                case LOOP:
+                    counters[0] += counts[0];
+                    counters[1] += counts[1];
+                    counters[2] = Math.max(counters[2], counts[2]);
+                    break;
+                default: // BRANCH, CALL
+                    for (int i = 0; i < counts.length; ++i) counters[i] += counts[i];
+            }
+        });
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Queries]
+    // =============================================================================================
+
+    private synchronized long[] get (int kind, SighNode node) {
+        return entries.get(key(kind, node));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns how many times the condition of the if statement was evaluated.
+     */
+    public long branchCount (IfNode node) {
+        long[] counters = get(BRANCH, node);
+        return counters == null ? 0 : counters[0] + counters[1];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the probability that the true branch of the if statement is taken, or {@code NaN}
+     * if the statement was never executed.
+     */
+    public double takenProbability (IfNode node) {
+        long[] counters = get(BRANCH, node);
+        return counters == null ? Double.NaN : (double) counters[0] / (counters[0] + counters[1]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns how many times the loop was entered.
+     */
+    public long loopEntries (StatementNode node) {
+        long[] counters = get(LOOP, node);
+        return counters == null ? 0 : counters[0];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the average number of iterations of the loop, or {@code NaN} if it was never
+     * executed.
+     */
+    public double averageTripCount (StatementNode node) {
+        long[] counters = get(LOOP, node);
+        return counters == null ? Double.NaN : (double) counters[1] / counters[0];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the maximum number of iterations of the loop (0 if it was never executed).
+     */
+    public long maxTripCount (StatementNode node) {
+        long[] counters = get(LOOP, node);
+        return counters == null ? 0 : counters[2];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns how many times the function was called.
+     */
+    public long callCount (FunDeclarationNode node) {
+        long[] counters = get(CALL, node);
+        return counters == null ? 0 : counters[0];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns true if no data was recorded.
+     */
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Serialization]
+    // =============================================================================================
+
+    /**
+     * Writes the profile to the given file.
+     */
+    public void save (Path path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            write(out);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads a profile from the given file.
+     */
+    public static ExecutionProfile load (Path path) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            return read(in);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public synchronized void write (OutputStream stream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeVarLong(out, entries.size());
+        for (Map.Entry<Long, long[]> entry: entries.entrySet()) {
+            long key = entry.getKey();
+            int kind = (int) (key >>> 60);
+            out.writeByte(kind);
+            writeVarLong(out, key >>> 30 & OFFSET_MASK);
+            writeVarLong(out, key & OFFSET_MASK);
+            for (long counter: entry.getValue()) writeVarLong(out, counter);
+        }
+        out.flush();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static ExecutionProfile read (InputStream stream) throws IOException
+    {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a Sigh execution profile");
+        int version = in.readUnsignedByte();
+        if (version != 1 && version != VERSION)
+            throw new IOException("unsupported profile version: " + version);
+
+        ExecutionProfile profile = new ExecutionProfile();
+        long size = readVarLong(in);
+        for (long i = 0; i < size; ++i) {
+            int kind = in.readUnsignedByte();
+            if (kind >= SIZES.length)
+                throw new IOException("invalid profile entry kind: " + kind);
+            long start = readVarLong(in);
+            long end = readVarLong(in);
+            if (kind == ARRAY) { // version 1 only: skip the array lengths
+                if (version != 1)
+                    throw new IOException("invalid profile entry kind: " + kind);
+                for (long j = readVarLong(in); j > 0; --j)
+                    readVarLong(in);
+                continue;
+            }
+            long[] counters = new long[SIZES[kind]];
+            for (int j = 0; j < counters.length; ++j)
+                counters[j] = readVarLong(in);
+            profile.entries.put(key(kind, start, end), counters);
+        }
+        return profile;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Writes an unsigned LEB128 integer. */
+    private static void writeVarLong (DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Reads an unsigned LEB128 integer. */
+    private static long readVarLong (DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("malformed variable-length integer");
+    }
+
+    // endregion
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,151 @@
+package norswap.sigh.profile;
+
+import norswap.autumn.positions.LineMap;
+import norswap.sigh.ast.SighNode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Counts how many times each node of a tree is executed by the {@link
+ * norswap.sigh.interpreter.Interpreter}, and the time spent executing it, when enabled in {@link
+ * norswap.sigh.interpreter.InterpreterOptions#nodeProfile}.
+ *
+ * <p>For each node, the profile records its total time (including the time spent executing its
+ * children) and its self time (excluding it). The self time of function calls includes the
+ * execution of functions compiled by tiered execution, whose nodes are not executed by the
+ * interpreter.
+ *
+ * <p>The interpreter only instruments the execution of nodes when the profile is enabled, so
+ * that it has no overhead otherwise. Each execution records into a private {@link Recorder},
+ * which is merged into the profile at the end of the execution, so that concurrent executions can
+ * share the same profile.
+ */
+public final class NodeProfile
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Node → [count, total nanos, self nanos], guarded by {@code this}. */
+    private final IdentityHashMap<SighNode, long[]> counters = new IdentityHashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The counters of a node.
+     */
+    public static final class Entry
+    {
+        public final SighNode node;
+        public final long count;
+        public final long totalNanos;
+        public final long selfNanos;
+
+        private Entry (SighNode node, long[] counters) {
+            this.node = node;
+            this.count = counters[0];
+            this.totalNanos = counters[1];
+            this.selfNanos = counters[2];
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the counters of a single execution (not thread-safe).
+     */
+    public final class Recorder
+    {
+        private final IdentityHashMap<SighNode, long[]> counters = new IdentityHashMap<>();
+
+        private Recorder() {}
+
+        /** Records an execution of the node. */
+        public void record (SighNode node, long totalNanos, long selfNanos)
+        {
+            long[] counters = this.counters.get(node);
+            if (counters == null)
+                this.counters.put(node, counters = new long[3]);
+            counters[0] += 1;
+            counters[1] += totalNanos;
+            counters[2] += selfNanos;
+        }
+
+        /** Merges the recorded counters into the profile, and resets them. */
+        public void flush() {
+            merge(counters);
+            counters.clear();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new recorder for an execution.
+     */
+    public Recorder recorder() {
+        return new Recorder();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private synchronized void merge (IdentityHashMap<SighNode, long[]> recorded)
+    {
+        recorded.forEach((node, counts) -> {
+            long[] counters = this.counters.computeIfAbsent(node, k -> new long[3]);
+            for (int i = 0; i < 3; ++i) counters[i] += counts[i];
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the counters of the node, or null if it wasn't executed.
+     */
+    public synchronized Entry get (SighNode node) {
+        long[] counters = this.counters.get(node);
+        return counters == null ? null : new Entry(node, counters);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the counters of the {@code n} nodes with the highest self time, in decreasing order
+     * of self time.
+     */
+    public List<Entry> top (int n)
+    {
+        List<Entry> entries = new ArrayList<>();
+        synchronized (this) {
+            counters.forEach((node, counters) -> entries.add(new Entry(node, counters)));
+        }
+        entries.sort(Comparator.comparingLong((Entry it) -> it.selfNanos).reversed());
+        return entries.subList(0, Math.min(n, entries.size()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a table of the {@code n} nodes with the highest self time (cf. {@link #top}), using
+     * the line map to locate the nodes in the source.
+     */
+    public String report (LineMap lineMap, int n)
+    {
+        StringBuilder b = new StringBuilder(String.format(
+            "%4s  %-9s %-22s %10s %12s %12s  %s%n",
+            "#", "location", "kind", "count", "total (ms)", "self (ms)", "node"));
+        int rank = 0;
+        for (Entry entry: top(n)) {
+            int offset = entry.node.span.start;
+            String location =
+                lineMap.lineFromOffset(offset) + ":" + lineMap.columnFromOffset(offset);
+            String kind = entry.node.getClass().getSimpleName().replace("Node", "");
+            b.append(String.format("%4d  %-9s %-22s %10d %12.3f %12.3f  %s%n",
+                ++rank, location, kind, entry.count,
+                entry.totalNanos / 1e6, entry.selfNanos / 1e6, entry.node.contents()));
+        }
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,218 @@
+package norswap.sigh.profile;
+
+import norswap.autumn.positions.LineMap;
+import norswap.sigh.ast.FunDeclarationNode;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for Sigh programs, which reports where time is spent in terms of Sigh
+ * functions and source lines, rather than interpreter internals.
+ *
+ * <p>Pass the profiler to the interpreter via {@link
+ * norswap.sigh.interpreter.InterpreterOptions#sampler}: executions then maintain a {@link
+ * ShadowStack} that a background thread samples at a fixed interval between {@link #start()} and
+ * {@link #stop()}. The samples are aggregated into collapsed stacks (cf. {@link #writeCollapsed}),
+ * the input format of flame graph tools such as Brendan Gregg's {@code flamegraph.pl} or
+ * speedscope.
+ *
+ * <p>Each frame is named after its function ({@code main} for top-level code) and the line of the
+ * statement it is executing, e.g. {@code main:12;fib:3;fib:4 57}. Functions compiled by tiered
+ * execution appear as a single frame at the line of their declaration, as the shadow stack isn't
+ * maintained in compiled code.
+ *
+ * <p>A profiler maps positions to lines using the {@link LineMap} of a single source, and should
+ * only be used with executions of that source. It may however sample multiple concurrent
+ * executions, whose samples are aggregated together.
+ */
+public final class SamplingProfiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static final long DEFAULT_INTERVAL_MICROS = 1000;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final LineMap lineMap;
+    private final long intervalNanos;
+
+    /** The stacks of the executions in progress. */
+    private final Set<ShadowStack> stacks = ConcurrentHashMap.newKeySet();
+
+    /** Collapsed stack → sample count, guarded by {@code this}. */
+    private final HashMap<String, long[]> counts = new HashMap<>();
+    private long samples;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a profiler that samples every {@link #DEFAULT_INTERVAL_MICROS} microseconds.
+     */
+    public SamplingProfiler (LineMap lineMap) {
+        this(lineMap, DEFAULT_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public SamplingProfiler (LineMap lineMap, long interval, TimeUnit unit)
+    {
+        if (interval <= 0)
+            throw new IllegalArgumentException("non-positive interval: " + interval);
+        this.lineMap = lineMap;
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Starts the sampling thread.
+     */
+    public synchronized void start()
+    {
+        if (thread != null)
+            throw new IllegalStateException("profiler already started");
+        running = true;
+        thread = new Thread(this::loop, "sigh-sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stops the sampling thread and waits for it to terminate. The profiler can be restarted
+     * afterwards, and keeps accumulating samples.
+     */
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+            this.thread = null;
+        }
+        if (thread == null) return;
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes the profiler sample the given stack, until {@link #detach} is called. Called by the
+     * interpreter at the start of each execution.
+     */
+    public void attach (ShadowStack stack) {
+        stacks.add(stack);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stops sampling the given stack. Called by the interpreter at the end of each execution.
+     */
+    public void detach (ShadowStack stack) {
+        stacks.remove(stack);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void loop()
+    {
+        StringBuilder key = new StringBuilder();
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+            for (ShadowStack stack: stacks)
+                sample(stack, key);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void sample (ShadowStack stack, StringBuilder key)
+    {
+        key.setLength(0);
+        int depth = stack.depth();
+        for (int i = 0; i < depth; ++i) {
+            FunDeclarationNode function = stack.function(i);
+            if (i > 0 && function == null) break; // popped since we read the depth
+            if (i > 0) key.append(';');
+            key.append(function == null ? "main" : function.name)
+               .append(':')
+               .append(lineMap.lineFromOffset(stack.position(i)));
+        }
+
+        synchronized (this) {
+            ++samples;
+            counts.computeIfAbsent(key.toString(), k -> new long[1])[0]++;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the total number of samples taken.
+     */
+    public synchronized long samples() {
+        return samples;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a map from collapsed stacks (frames separated by semicolons, bottom frame first) to
+     * the number of samples in which they were observed, sorted by stack.
+     */
+    public synchronized Map<String, Long> collapsedStacks()
+    {
+        TreeMap<String, Long> stacks = new TreeMap<>();
+        counts.forEach((stack, count) -> stacks.put(stack, count[0]));
+        return stacks;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the samples in the collapsed stack format: one line per distinct stack, made of the
+     * frames separated by semicolons, a space, and the number of samples.
+     */
+    public void writeCollapsed (Writer out) throws IOException
+    {
+        for (Map.Entry<String, Long> entry: collapsedStacks().entrySet())
+            out.append(entry.getKey()).append(' ').append(entry.getValue().toString()).append('\n');
+        out.flush();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the samples in the collapsed stack format (cf. {@link #writeCollapsed(Writer)}) to the
+     * given file.
+     */
+    public void writeCollapsed (Path path) throws IOException
+    {
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writeCollapsed(out);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,97 @@
+package norswap.sigh.profile;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import java.util.Arrays;
+
+/**
+ * The Sigh-level call stack of an interpreter thread, maintained by the {@link
+ * norswap.sigh.interpreter.Interpreter} when a {@link SamplingProfiler} is attached to it, and
+ * read by the profiler's sampling thread.
+ *
+ * <p>Each frame holds the function being executed ({@code null} for top-level code), and the start
+ * offset of the statement being executed in that function.
+ *
+ * <p>Only the interpreter thread writes to the stack. The sampling thread reads it without
+ * synchronization: a sample may be slightly out of date, or mix two consecutive states of the
+ * stack, which is harmless for statistical profiling. In exchange, maintaining the stack only
+ * costs a few array writes per call and per statement.
+ */
+public final class ShadowStack
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private FunDeclarationNode[] functions = new FunDeclarationNode[32];
+    private int[] positions = new int[32];
+
+    /** Index of the top frame. The bottom frame (index 0) is the top-level code. */
+    private volatile int top = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Pushes a frame for a call to the given function.
+     */
+    public void push (FunDeclarationNode function)
+    {
+        int index = top + 1;
+        if (index == functions.length) {
+            functions = Arrays.copyOf(functions, index * 2);
+            positions = Arrays.copyOf(positions, index * 2);
+        }
+        functions[index] = function;
+        positions[index] = function.span.start;
+        top = index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Pops the frame pushed by the last call to {@link #push}.
+     */
+    public void pop () {
+        functions[top] = null;
+        top = top - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records that the top frame is executing the statement that starts at the given offset.
+     */
+    public void at (int position) {
+        positions[top] = position;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of frames on the stack. Read it first when sampling the stack, so that
+     * the frames it covers are visible.
+     */
+    int depth() {
+        return top + 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the function of the i-th frame (from the bottom), or null for top-level code or if
+     * the frame was popped concurrently.
+     */
+    FunDeclarationNode function (int i) {
+        FunDeclarationNode[] functions = this.functions;
+        return i < functions.length ? functions[i] : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the start offset of the statement executed by the i-th frame (from the bottom).
+     */
+    int position (int i) {
+        int[] positions = this.positions;
+        return i < positions.length ? positions[i] : 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,53 @@
+package norswap.sigh.vm;
+
+import norswap.sigh.ast.BinaryOperator;
+
+/**
+ * Describes a binary operation broadcast over arrays (the {@link Instructions#BCAST} instruction),
+ * mirroring the way {@link norswap.sigh.interpreter.Interpreter} handles array operands.
+ */
+final class BroadcastSpec
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Only the left operand is an array. */
+    static final int ARRAY_PRIMITIVE = 0;
+    /** Only the right operand is an array. */
+    static final int PRIMITIVE_ARRAY = 1;
+    /** Both operands are arrays, and the left one has at least as many dimensions. */
+    static final int ARRAY_ARRAY = 2;
+    /** Both operands are arrays, and the right one has more dimensions. */
+    static final int ARRAY_ARRAY_MIRROR = 3;
+
+    // ---------------------------------------------------------------------------------------------
+
+    final BinaryOperator operator;
+    final boolean floating;
+    final int shape;
+
+    /** Number of dimensions where both operands are arrays. */
+    final int pairedDepth;
+
+    /** Number of dimensions where only one operand is an array. */
+    final int singleDepth;
+
+    // ---------------------------------------------------------------------------------------------
+
+    BroadcastSpec (
+            BinaryOperator operator, boolean floating, int shape, int pairedDepth, int singleDepth)
+    {
+        this.operator = operator;
+        this.floating = floating;
+        this.shape = shape;
+        this.pairedDepth = pairedDepth;
+        this.singleDepth = singleDepth;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        return "BroadcastSpec(" + operator.string + ")";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
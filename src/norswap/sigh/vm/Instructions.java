@@ -0,0 +1,176 @@
+package norswap.sigh.vm;
+
+/**
+ * The instruction set of the Sigh virtual machine.
+ *
+ * <p>Every instruction is an opcode followed by a fixed number of integer operands (given by
+ * {@link #OPERANDS}), excepted the call instructions ({@link #CALL}, {@link #CALLV} and {@link
+ * #NEWSTRUCT}) whose last fixed operand is an argument count followed by that many register
+ * operands (or register/bank pairs for {@link #CALLV}). Use {@link #length(int[], int)} to get the
+ * size of an instruction.
+ *
+ * <p>Operands are register indices (in the bank indicated by the instruction), indices in one of
+ * the constant pools of the {@link VmProgram}, jump targets (absolute code offsets) or immediate
+ * values. In the comments below, the bank of registers is indicated by a prefix: {@code l} for the
+ * long bank (also used for booleans, as 0 or 1), {@code d} for the double bank, {@code r} for the
+ * reference bank. {@code g} denotes a global register.
+ */
+public final class Instructions
+{
+    private Instructions () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Register bank holding {@code Int} and {@code Bool} values as {@code long}. */
+    public static final int BANK_LONG   = 0;
+    /** Register bank holding {@code Float} values as {@code double}. */
+    public static final int BANK_DOUBLE = 1;
+    /** Register bank holding every other value as an {@code Object}. */
+    public static final int BANK_REF    = 2;
+    /** Pseudo-bank for the absence of value (void functions). */
+    public static final int BANK_VOID   = 3;
+    /**
+     * Pseudo-bank used for the arguments of {@link #CALLV}, denoting a {@code Bool} held in a long
+     * register (the callee might need to box it).
+     */
+    public static final int BANK_BOOL   = 4;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static final int NOP         =  0; // -
+    public static final int LCONST      =  1; // ldst, long-pool index
+    public static final int DCONST      =  2; // ddst, double-pool index
+    public static final int RCONST      =  3; // rdst, ref-pool index
+    public static final int LMOV        =  4; // ldst, lsrc
+    public static final int DMOV        =  5; // ddst, dsrc
+    public static final int RMOV        =  6; // rdst, rsrc
+    public static final int LGLOAD      =  7; // ldst, gsrc
+    public static final int DGLOAD      =  8; // ddst, gsrc
+    public static final int RGLOAD      =  9; // rdst, gsrc
+    public static final int LGSTORE     = 10; // gdst, lsrc
+    public static final int DGSTORE     = 11; // gdst, dsrc
+    public static final int RGSTORE     = 12; // gdst, rsrc
+    public static final int LADD        = 13; // ldst, la, lb
+    public static final int LSUB        = 14;
+    public static final int LMUL        = 15;
+    public static final int LDIV        = 16;
+    public static final int LREM        = 17;
+    public static final int DADD        = 18; // ddst, da, db
+    public static final int DSUB        = 19;
+    public static final int DMUL        = 20;
+    public static final int DDIV        = 21;
+    public static final int DREM        = 22;
+    public static final int L2D         = 23; // ddst, lsrc
+    public static final int LEQ         = 24; // ldst, la, lb
+    public static final int LNE         = 25;
+    public static final int LLT         = 26;
+    public static final int LLE         = 27;
+    public static final int LGT         = 28;
+    public static final int LGE         = 29;
+    public static final int DEQ         = 30; // ldst, da, db
+    public static final int DNE         = 31;
+    public static final int DLT         = 32;
+    public static final int DLE         = 33;
+    public static final int DGT         = 34;
+    public static final int DGE         = 35;
+    public static final int REQ         = 36; // ldst, ra, rb (identity)
+    public static final int RNE         = 37;
+    public static final int VEQ         = 38; // ldst, ra, rb (equals)
+    public static final int VNE         = 39;
+    public static final int AEQ         = 40; // ldst, ra, rb (array contents)
+    public static final int ANE         = 41;
+    public static final int NOT         = 42; // ldst, lsrc
+    public static final int JMP         = 43; // target
+    public static final int JZ          = 44; // lsrc, target
+    public static final int JNZ         = 45; // lsrc, target
+    public static final int LTOSTR      = 46; // rdst, lsrc
+    public static final int DTOSTR      = 47; // rdst, dsrc
+    public static final int BTOSTR      = 48; // rdst, lsrc
+    public static final int CONCAT      = 49; // rdst, ra, rb
+    public static final int LBOX        = 50; // rdst, lsrc
+    public static final int DBOX        = 51; // rdst, dsrc
+    public static final int BBOX        = 52; // rdst, lsrc
+    public static final int LUNBOX      = 53; // ldst, rsrc
+    public static final int DUNBOX      = 54; // ddst, rsrc
+    public static final int BUNBOX      = 55; // ldst, rsrc
+    public static final int NEWARRAY    = 56; // rdst, immediate size
+    public static final int ASETK       = 57; // rarray, immediate index, rsrc
+    public static final int ALOAD       = 58; // rdst, rarray, lindex
+    public static final int ALOADS      = 59; // rdst, rarray, rindices
+    public static final int ASTORE      = 60; // rarray, lindex, rsrc
+    public static final int ASTORES     = 61; // rarray, rindices, rsrc
+    public static final int LENGTH      = 62; // ldst, rarray
+    public static final int RANGE       = 63; // rdst, la, lb
+    public static final int BCAST       = 64; // rdst, ra, rb, ref-pool index (BroadcastSpec)
+    public static final int GETFIELD    = 65; // rdst, robject, ref-pool index (name)
+    public static final int PUTFIELD    = 66; // robject, ref-pool index (name), rsrc
+    public static final int NEWSTRUCT   = 67; // rdst, ref-pool index (declaration), argc, rargs...
+    public static final int CALL        = 68; // dst, function index, argc, args...
+    public static final int CALLV       = 69; // dst, return bank, rfunction, argc, (bank, arg)...
+    public static final int PRINT       = 70; // rdst, rsrc
+    public static final int CHECKLEN    = 71; // rvalue, lhint, immediate depth
+    public static final int ITERCHK     = 72; // rarray
+    public static final int RETL        = 73; // lsrc
+    public static final int RETD        = 74; // dsrc
+    public static final int RETR        = 75; // rsrc
+    public static final int RETV        = 76; // -
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of fixed operands for each opcode.
+     */
+    public static final int[] OPERANDS = {
+        0, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2,  // NOP .. RGSTORE
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 3,           // LADD .. DREM
+        2,                                      // L2D
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3,     // LEQ .. DGE
+        3, 3, 3, 3, 3, 3,                       // REQ .. ANE
+        2, 1, 2, 2,                             // NOT, JMP, JZ, JNZ
+        2, 2, 2, 3,                             // LTOSTR .. CONCAT
+        2, 2, 2, 2, 2, 2,                       // LBOX .. BUNBOX
+        2, 3, 3, 3, 3, 3, 2, 3, 4,              // NEWARRAY .. BCAST
+        3, 3, 3, 3, 4,                          // GETFIELD .. CALLV
+        2, 3, 1,                                // PRINT, CHECKLEN, ITERCHK
+        1, 1, 1, 0                              // RETL .. RETV
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Opcode names, for disassembly.
+     */
+    public static final String[] NAMES = {
+        "nop", "lconst", "dconst", "rconst", "lmov", "dmov", "rmov",
+        "lgload", "dgload", "rgload", "lgstore", "dgstore", "rgstore",
+        "ladd", "lsub", "lmul", "ldiv", "lrem", "dadd", "dsub", "dmul", "ddiv", "drem", "l2d",
+        "leq", "lne", "llt", "lle", "lgt", "lge", "deq", "dne", "dlt", "dle", "dgt", "dge",
+        "req", "rne", "veq", "vne", "aeq", "ane", "not", "jmp", "jz", "jnz",
+        "ltostr", "dtostr", "btostr", "concat", "lbox", "dbox", "bbox", "lunbox", "dunbox", "bunbox",
+        "newarray", "asetk", "aload", "aloads", "astore", "astores", "length", "range", "bcast",
+        "getfield", "putfield", "newstruct", "call", "callv", "print", "checklen", "iterchk",
+        "retl", "retd", "retr", "retv"
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the size (opcode included) of the instruction starting at {@code pc} in {@code code}.
+     */
+    public static int length (int[] code, int pc)
+    {
+        int opcode = code[pc];
+        int fixed = 1 + OPERANDS[opcode];
+        switch (opcode) {
+            case NEWSTRUCT:
+            case CALL:
+                return fixed + code[pc + 3];
+            case CALLV:
+                return fixed + 2 * code[pc + 4];
+            default:
+                return fixed;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,611 @@
+package norswap.sigh.vm;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.StructDeclarationNode;
+import norswap.sigh.interpreter.Constructor;
+import norswap.sigh.interpreter.LengthException;
+import norswap.sigh.interpreter.Null;
+import norswap.sigh.output.Output;
+import norswap.sigh.output.OutputSink;
+import norswap.sigh.output.ValueFormatter;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.utils.Util;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static norswap.sigh.vm.Instructions.*;
+
+/**
+ * Runs a {@link VmProgram}.
+ *
+ * <p>Execution happens in a single dispatch loop ({@link #execute}) that switches on the opcodes
+ * of {@link Instructions}. Each function invocation gets fresh register banks, sized according to
+ * the counts computed by {@link VmCompiler}.
+ *
+ * <p>The runtime errors raised by the program are the same as those of {@link
+ * norswap.sigh.interpreter.Interpreter}, and are thrown directly.
+ *
+ * <p>A virtual machine holds the global registers of a single execution: create a new one for each
+ * run of the program.
+ */
+public final class VirtualMachine
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final VmProgram program;
+    private final long[] longGlobals;
+    private final double[] doubleGlobals;
+    private final Object[] refGlobals;
+
+    /** Holds the value returned by the last function call, depending on its bank. */
+    private long retL;
+    private double retD;
+    private Object retR;
+
+    /** The sink used by {@code print} in the ongoing run (cf. {@link Output}). */
+    private OutputSink output;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public VirtualMachine (VmProgram program)
+    {
+        this.program = program;
+        this.longGlobals = new long[program.longGlobals];
+        this.doubleGlobals = new double[program.doubleGlobals];
+        this.refGlobals = new Object[program.refGlobals];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program, returning the value returned by its top-level code (if any).
+     */
+    public Object run ()
+    {
+        VmFunction main = program.main;
+        retR = null;
+        output = Output.current();
+        try {
+            execute(main,
+                new long[main.longRegisters],
+                new double[main.doubleRegisters],
+                new Object[main.refRegisters]);
+        } finally {
+            output.flush();
+        }
+        return retR;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void execute (VmFunction function, long[] l, double[] d, Object[] r)
+    {
+        final int[] code = function.code;
+        final long[] longs = program.longs;
+        final double[] doubles = program.doubles;
+        final Object[] refs = program.refs;
+        int pc = 0;
+
+        while (true) {
+            final int op = code[pc];
+            final int a = op == RETV || op == NOP ? 0 : code[pc + 1];
+            switch (op) {
+                case NOP:
+                    pc += 1; break;
+                case LCONST:
+                    l[a] = longs[code[pc + 2]]; pc += 3; break;
+                case DCONST:
+                    d[a] = doubles[code[pc + 2]]; pc += 3; break;
+                case RCONST:
+                    r[a] = refs[code[pc + 2]]; pc += 3; break;
+                case LMOV:
+                    l[a] = l[code[pc + 2]]; pc += 3; break;
+                case DMOV:
+                    d[a] = d[code[pc + 2]]; pc += 3; break;
+                case RMOV:
+                    r[a] = r[code[pc + 2]]; pc += 3; break;
+                case LGLOAD:
+                    l[a] = longGlobals[code[pc + 2]]; pc += 3; break;
+                case DGLOAD:
+                    d[a] = doubleGlobals[code[pc + 2]]; pc += 3; break;
+                case RGLOAD:
+                    r[a] = refGlobals[code[pc + 2]]; pc += 3; break;
+                case LGSTORE:
+                    longGlobals[a] = l[code[pc + 2]]; pc += 3; break;
+                case DGSTORE:
+                    doubleGlobals[a] = d[code[pc + 2]]; pc += 3; break;
+                case RGSTORE:
+                    refGlobals[a] = r[code[pc + 2]]; pc += 3; break;
+
+                case LADD: l[a] = l[code[pc + 2]] + l[code[pc + 3]]; pc += 4; break;
+                case LSUB: l[a] = l[code[pc + 2]] - l[code[pc + 3]]; pc += 4; break;
+                case LMUL: l[a] = l[code[pc + 2]] * l[code[pc + 3]]; pc += 4; break;
+                case LDIV: l[a] = l[code[pc + 2]] / l[code[pc + 3]]; pc += 4; break;
+                case LREM: l[a] = l[code[pc + 2]] % l[code[pc + 3]]; pc += 4; break;
+                case DADD: d[a] = d[code[pc + 2]] + d[code[pc + 3]]; pc += 4; break;
+                case DSUB: d[a] = d[code[pc + 2]] - d[code[pc + 3]]; pc += 4; break;
+                case DMUL: d[a] = d[code[pc + 2]] * d[code[pc + 3]]; pc += 4; break;
+                case DDIV: d[a] = d[code[pc + 2]] / d[code[pc + 3]]; pc += 4; break;
+                case DREM: d[a] = d[code[pc + 2]] % d[code[pc + 3]]; pc += 4; break;
+                case L2D:  d[a] = l[code[pc + 2]]; pc += 3; break;
+
+                case LEQ: l[a] = l[code[pc + 2]] == l[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case LNE: l[a] = l[code[pc + 2]] != l[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case LLT: l[a] = l[code[pc + 2]] <  l[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case LLE: l[a] = l[code[pc + 2]] <= l[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case LGT: l[a] = l[code[pc + 2]] >  l[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case LGE: l[a] = l[code[pc + 2]] >= l[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case DEQ: l[a] = d[code[pc + 2]] == d[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case DNE: l[a] = d[code[pc + 2]] != d[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case DLT: l[a] = d[code[pc + 2]] <  d[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case DLE: l[a] = d[code[pc + 2]] <= d[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case DGT: l[a] = d[code[pc + 2]] >  d[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case DGE: l[a] = d[code[pc + 2]] >= d[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case REQ: l[a] = r[code[pc + 2]] == r[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case RNE: l[a] = r[code[pc + 2]] != r[code[pc + 3]] ? 1 : 0; pc += 4; break;
+                case VEQ: l[a] =  r[code[pc + 2]].equals(r[code[pc + 3]]) ? 1 : 0; pc += 4; break;
+                case VNE: l[a] = !r[code[pc + 2]].equals(r[code[pc + 3]]) ? 1 : 0; pc += 4; break;
+                case AEQ:
+                    l[a] = Arrays.equals((Object[]) r[code[pc + 2]], (Object[]) r[code[pc + 3]])
+                        ? 1 : 0;
+                    pc += 4; break;
+                case ANE:
+                    l[a] = Arrays.equals((Object[]) r[code[pc + 2]], (Object[]) r[code[pc + 3]])
+                        ? 0 : 1;
+                    pc += 4; break;
+                case NOT:
+                    l[a] = l[code[pc + 2]] == 0 ? 1 : 0; pc += 3; break;
+
+                case JMP:
+                    pc = a; break;
+                case JZ:
+                    pc = l[a] == 0 ? code[pc + 2] : pc + 3; break;
+                case JNZ:
+                    pc = l[a] != 0 ? code[pc + 2] : pc + 3; break;
+
+                case LTOSTR:
+                    r[a] = Long.toString(l[code[pc + 2]]); pc += 3; break;
+                case DTOSTR:
+                    r[a] = Double.toString(d[code[pc + 2]]); pc += 3; break;
+                case BTOSTR:
+                    r[a] = l[code[pc + 2]] != 0 ? "true" : "false"; pc += 3; break;
+                case CONCAT:
+                    r[a] = str(r[code[pc + 2]]) + str(r[code[pc + 3]]); pc += 4; break;
+
+                case LBOX:
+                    r[a] = l[code[pc + 2]]; pc += 3; break;
+                case DBOX:
+                    r[a] = d[code[pc + 2]]; pc += 3; break;
+                case BBOX:
+                    r[a] = l[code[pc + 2]] != 0; pc += 3; break;
+                case LUNBOX:
+                    l[a] = (Long) r[code[pc + 2]]; pc += 3; break;
+                case DUNBOX:
+                    // arrays and structs may hold integers where floats are expected
+                    d[a] = ((Number) r[code[pc + 2]]).doubleValue(); pc += 3; break;
+                case BUNBOX:
+                    l[a] = (Boolean) r[code[pc + 2]] ? 1 : 0; pc += 3; break;
+
+                case NEWARRAY:
+                    r[a] = new Object[code[pc + 2]]; pc += 3; break;
+                case ASETK:
+                    ((Object[]) r[a])[code[pc + 2]] = r[code[pc + 3]]; pc += 4; break;
+                case ALOAD:
+                    r[a] = nonNullArray(r[code[pc + 2]])[checkIndex(l[code[pc + 3]])];
+                    pc += 4; break;
+                case ALOADS:
+                    r[a] = loadMany(nonNullArray(r[code[pc + 2]]), (Object[]) r[code[pc + 3]]);
+                    pc += 4; break;
+                case ASTORE:
+                    nonNullArray(r[a])[checkIndex(l[code[pc + 2]])] = r[code[pc + 3]];
+                    pc += 4; break;
+                case ASTORES:
+                    storeMany(nonNullArray(r[a]), (Object[]) r[code[pc + 2]],
+                        (Object[]) r[code[pc + 3]]);
+                    pc += 4; break;
+                case LENGTH: {
+                    Object array = r[code[pc + 2]];
+                    if (array == Null.INSTANCE)
+                        throw new NullPointerException("accessing field of null object");
+                    l[a] = ((Object[]) array).length;
+                    pc += 3; break;
+                }
+                case RANGE:
+                    r[a] = range(l[code[pc + 2]], l[code[pc + 3]]); pc += 4; break;
+                case BCAST:
+                    r[a] = broadcast((BroadcastSpec) refs[code[pc + 4]],
+                        r[code[pc + 2]], r[code[pc + 3]]);
+                    pc += 5; break;
+
+                case GETFIELD:
+                    r[a] = struct(r[code[pc + 2]]).get((String) refs[code[pc + 3]]);
+                    pc += 4; break;
+                case PUTFIELD:
+                    struct(r[a]).put((String) refs[code[pc + 2]], r[code[pc + 3]]);
+                    pc += 4; break;
+                case NEWSTRUCT: {
+                    StructDeclarationNode decl = (StructDeclarationNode) refs[code[pc + 2]];
+                    int argc = code[pc + 3];
+                    Object[] args = new Object[argc];
+                    for (int i = 0; i < argc; ++i)
+                        args[i] = r[code[pc + 4 + i]];
+                    r[a] = buildStruct(decl, args);
+                    pc += 4 + argc; break;
+                }
+
+                case CALL: {
+                    VmFunction callee = program.functions[code[pc + 2]];
+                    int argc = code[pc + 3];
+                    long[] cl = new long[callee.longRegisters];
+                    double[] cd = new double[callee.doubleRegisters];
+                    Object[] cr = new Object[callee.refRegisters];
+                    for (int i = 0; i < argc; ++i) {
+                        int src = code[pc + 4 + i];
+                        int dst = callee.paramRegisters[i];
+                        switch (callee.paramBanks[i]) {
+                            case BANK_LONG:   cl[dst] = l[src]; break;
+                            case BANK_DOUBLE: cd[dst] = d[src]; break;
+                            default:          cr[dst] = r[src]; break;
+                        }
+                    }
+                    execute(callee, cl, cd, cr);
+                    storeReturn(callee.returnBank, a, l, d, r);
+                    pc += 4 + argc; break;
+                }
+                case CALLV:
+                    callValue(code, pc, l, d, r);
+                    pc += 5 + 2 * code[pc + 4]; break;
+
+                case PRINT: {
+                    String out = str(r[code[pc + 2]]);
+                    output.println(out);
+                    r[a] = out;
+                    pc += 3; break;
+                }
+                case CHECKLEN:
+                    checkLength(r[a], l[code[pc + 2]], code[pc + 3]);
+                    pc += 4; break;
+                case ITERCHK: {
+                    Object[] array = nonNullArray(r[a]);
+                    if (array.length == 0)
+                        throw new IndexOutOfBoundsException("Cannot iterate over empty array");
+                    pc += 2; break;
+                }
+
+                case RETL:
+                    retL = l[a]; return;
+                case RETD:
+                    retD = d[a]; return;
+                case RETR:
+                    retR = r[a]; return;
+                case RETV:
+                    return;
+
+                default:
+                    throw new Error("unknown opcode " + op + " at " + pc + " in " + function);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void storeReturn (int bank, int dst, long[] l, double[] d, Object[] r)
+    {
+        switch (bank) {
+            case BANK_LONG:   l[dst] = retL; break;
+            case BANK_DOUBLE: d[dst] = retD; break;
+            case BANK_REF:    r[dst] = retR; break;
+            default: // void
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements {@link Instructions#CALLV}: calls a function value, which can be a function,
+     * a struct constructor or a builtin.
+     */
+    private void callValue (int[] code, int pc, long[] l, double[] d, Object[] r)
+    {
+        int dst = code[pc + 1];
+        int returnBank = code[pc + 2];
+        Object target = r[code[pc + 3]];
+        int argc = code[pc + 4];
+
+        if (target == Null.INSTANCE)
+            throw new NullPointerException("calling a null function");
+
+        if (target instanceof FunDeclarationNode) {
+            VmFunction callee = program.function((FunDeclarationNode) target);
+            long[] cl = new long[callee.longRegisters];
+            double[] cd = new double[callee.doubleRegisters];
+            Object[] cr = new Object[callee.refRegisters];
+            for (int i = 0; i < argc; ++i) {
+                int bank = code[pc + 5 + 2 * i];
+                int src = code[pc + 6 + 2 * i];
+                int reg = callee.paramRegisters[i];
+                switch (bank) {
+                    case BANK_LONG:
+                    case BANK_BOOL:   cl[reg] = l[src]; break;
+                    case BANK_DOUBLE: cd[reg] = d[src]; break;
+                    default:          cr[reg] = r[src]; break;
+                }
+            }
+            execute(callee, cl, cd, cr);
+            storeReturn(returnBank, dst, l, d, r);
+            return;
+        }
+
+        Object[] args = new Object[argc];
+        for (int i = 0; i < argc; ++i) {
+            int src = code[pc + 6 + 2 * i];
+            switch (code[pc + 5 + 2 * i]) {
+                case BANK_LONG:   args[i] = l[src];      break;
+                case BANK_BOOL:   args[i] = l[src] != 0; break;
+                case BANK_DOUBLE: args[i] = d[src];      break;
+                default:          args[i] = r[src];      break;
+            }
+        }
+
+        if (target instanceof SyntheticDeclarationNode) {
+            assert ((SyntheticDeclarationNode) target).name().equals("print");
+            String out = str(args[0]);
+            output.println(out);
+            retR = out;
+        }
+        else
+            retR = buildStruct(((Constructor) target).declaration, args);
+
+        storeReturn(returnBank, dst, l, d, r);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String str (Object arg)
+    {
+        if (arg == Null.INSTANCE)
+            return "null";
+        else if (arg instanceof Object[]) {
+            StringBuilder builder = new StringBuilder();
+            ValueFormatter.append(builder, arg);
+            return builder.toString();
+        }
+        else if (arg instanceof FunDeclarationNode)
+            return ((FunDeclarationNode) arg).name;
+        else if (arg instanceof StructDeclarationNode)
+            return ((StructDeclarationNode) arg).name;
+        else if (arg instanceof Constructor)
+            return "$" + ((Constructor) arg).declaration.name;
+        else
+            return arg.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static HashMap<String, Object> buildStruct (StructDeclarationNode node, Object[] args)
+    {
+        HashMap<String, Object> struct = new HashMap<>();
+        for (int i = 0; i < node.fields.size(); ++i)
+            struct.put(node.fields.get(i).name, args[i]);
+        return struct;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Map<String, Object> struct (Object object)
+    {
+        if (object == Null.INSTANCE)
+            throw new NullPointerException("accessing field of null object");
+        return Util.cast(object);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object[] nonNullArray (Object object)
+    {
+        if (object == Null.INSTANCE)
+            throw new NullPointerException("indexing null array");
+        return (Object[]) object;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int checkIndex (long value)
+    {
+        if (value < 0)
+            throw new ArrayIndexOutOfBoundsException("Negative index: " + value);
+        if (value >= Integer.MAX_VALUE - 1)
+            throw new ArrayIndexOutOfBoundsException("Index exceeds max array index (2ˆ31 - 2): " + value);
+        return (int) value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object[] loadMany (Object[] array, Object[] indices)
+    {
+        Object[] res = new Object[indices.length];
+        for (int i = 0; i < indices.length; ++i)
+            res[i] = array[checkIndex((Long) indices[i])];
+        return res;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void storeMany (Object[] array, Object[] indices, Object[] values)
+    {
+        if (indices.length == 0)
+            throw new NullPointerException("empty array access cannot be assigned");
+        if (indices.length != values.length)
+            throw new LengthException(
+                format("Trying to assign an array of size %d to an array access of size %d",
+                    indices.length, values.length));
+        for (int i = 0; i < indices.length; ++i)
+            array[checkIndex((Long) indices[i])] = values[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object[] range (long left, long right)
+    {
+        int size = (int) (right - left);
+        if (size <= 0)
+            return new Object[0]; // empty selection
+
+        Object[] range = new Object[size];
+        for (int i = 0; i < size; ++i)
+            range[i] = left + i;
+        return range;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implements {@link Instructions#CHECKLEN}: checks that the array nested {@code depth} levels
+     * within {@code value} (following the first element of each level) has length {@code hint}.
+     *
+     * <p>If an intermediate level is null, the check is skipped: it is the check for that level
+     * that must report the missing array (if there is one).
+     */
+    private static void checkLength (Object value, long hint, int depth)
+    {
+        for (int i = 0; i < depth; ++i) {
+            if (value == null || value == Null.INSTANCE)
+                return;
+            Object[] array = (Object[]) value;
+            value = array.length > 0 && array[0] instanceof Object[] ? array[0] : null;
+        }
+
+        if (value == null || value == Null.INSTANCE)
+            throw new NullPointerException("No target array found for length check");
+        if (hint <= 0)
+            throw new AssertionError("Length hinting cannot be expresses with zero or negatif value, got " + hint);
+        long length = ((Object[]) value).length;
+        if (hint != length)
+            throw new AssertionError(format("Incorrect array length provided, expected size %d but got size %d", hint, length));
+    }
+
+    // =============================================================================================
+    // region [Broadcasting]
+    // =============================================================================================
+
+    private static Object broadcast (BroadcastSpec spec, Object left, Object right)
+    {
+        switch (spec.shape) {
+            case BroadcastSpec.ARRAY_PRIMITIVE:
+                return arrayPrimitive(spec, spec.singleDepth, left, (Number) right);
+            case BroadcastSpec.PRIMITIVE_ARRAY:
+                return primitiveArray(spec, spec.singleDepth, (Number) left, right);
+            case BroadcastSpec.ARRAY_ARRAY:
+                return arrayArray(spec, spec.pairedDepth, left, right, false);
+            default:
+                return arrayArray(spec, spec.pairedDepth, left, right, true);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object arrayArray
+            (BroadcastSpec spec, int pairedDepth, Object left, Object right, boolean mirror)
+    {
+        if (pairedDepth == 0)
+            return mirror
+                ? primitiveArray(spec, spec.singleDepth, (Number) left, right)
+                : arrayPrimitive(spec, spec.singleDepth, left, (Number) right);
+
+        Object[] l = (Object[]) left;
+        Object[] r = (Object[]) right;
+        if (l.length != r.length) {
+            String message = format("Attempt to perform operation between incompatible arrays "
+                + "respectively of size %d and %d", l.length, r.length);
+            if (mirror) throw new AssertionError(message);
+            else        throw new LengthException(message);
+        }
+        if (l.length == 0)
+            throw new ArithmeticException("Attempting to perform an operation using empty arrays");
+
+        Object[] res = new Object[l.length];
+        for (int i = 0; i < res.length; ++i)
+            res[i] = arrayArray(spec, pairedDepth - 1, l[i], r[i], mirror);
+        return res;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object arrayPrimitive (BroadcastSpec spec, int depth, Object left, Number right)
+    {
+        if (depth == 0)
+            return numericOp(spec, (Number) left, right);
+
+        Object[] l = (Object[]) left;
+        if (l.length == 0)
+            throw new ArithmeticException("Attempting to perform an operation using an empty array");
+        Object[] res = new Object[l.length];
+        for (int i = 0; i < res.length; ++i)
+            res[i] = arrayPrimitive(spec, depth - 1, l[i], right);
+        return res;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object primitiveArray (BroadcastSpec spec, int depth, Number left, Object right)
+    {
+        if (depth == 0)
+            return numericOp(spec, left, (Number) right);
+
+        Object[] r = (Object[]) right;
+        if (r.length == 0)
+            throw new ArithmeticException("Attempting to perform an operation using an empty array");
+        Object[] res = new Object[r.length];
+        for (int i = 0; i < res.length; ++i)
+            res[i] = primitiveArray(spec, depth - 1, left, r[i]);
+        return res;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object numericOp (BroadcastSpec spec, Number left, Number right)
+    {
+        if (spec.floating) {
+            double fleft  = left.doubleValue();
+            double fright = right.doubleValue();
+            switch (spec.operator) {
+                case MULTIPLY:      return fleft *  fright;
+                case DIVIDE:        return fleft /  fright;
+                case REMAINDER:     return fleft %  fright;
+                case ADD:           return fleft +  fright;
+                case SUBTRACT:      return fleft -  fright;
+                case GREATER:       return fleft >  fright;
+                case LOWER:         return fleft <  fright;
+                case GREATER_EQUAL: return fleft >= fright;
+                case LOWER_EQUAL:   return fleft <= fright;
+                case EQUALITY:      return fleft == fright;
+                case NOT_EQUALS:    return fleft != fright;
+                default:
+                    throw new Error("should not reach here");
+            }
+        }
+
+        long ileft  = left.longValue();
+        long iright = right.longValue();
+        switch (spec.operator) {
+            case MULTIPLY:      return ileft *  iright;
+            case DIVIDE:        return ileft /  iright;
+            case REMAINDER:     return ileft %  iright;
+            case ADD:           return ileft +  iright;
+            case SUBTRACT:      return ileft -  iright;
+            case GREATER:       return ileft >  iright;
+            case LOWER:         return ileft <  iright;
+            case GREATER_EQUAL: return ileft >= iright;
+            case LOWER_EQUAL:   return ileft <= iright;
+            case EQUALITY:      return ileft == iright;
+            case NOT_EQUALS:    return ileft != iright;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // endregion
+    // ---------------------------------------------------------------------------------------------
+}
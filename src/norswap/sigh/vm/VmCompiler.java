@@ -0,0 +1,1111 @@
+package norswap.sigh.vm;
+
+import norswap.sigh.ast.*;
+import norswap.sigh.interpreter.Constructor;
+import norswap.sigh.interpreter.Null;
+import norswap.sigh.scopes.DeclarationKind;
+import norswap.sigh.scopes.RootScope;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.sigh.types.*;
+import norswap.uranium.Reactor;
+import norswap.utils.visitors.ValuedVisitor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import static norswap.sigh.vm.Instructions.*;
+
+/**
+ * Lowers a semantically analyzed Sigh AST to a {@link VmProgram}, to be run by a {@link
+ * VirtualMachine}.
+ *
+ * <p>Each function is lowered to a flat instruction stream operating on three register banks
+ * (longs, doubles and references, cf. {@link Instructions}). Variables are assigned a fixed
+ * register for the whole function, while intermediate values use temporary registers that are
+ * recycled after each statement. Variables of the root scope live in global registers shared by
+ * all functions.
+ *
+ * <p>Runtime values use the same representation as {@link norswap.sigh.interpreter.Interpreter}
+ * whenever they are not held in a long or double register: {@code Object[]} for arrays, {@code
+ * HashMap<String, Object>} for structs, {@link Null#INSTANCE} for null, etc.
+ *
+ * <h2>Limitations</h2>
+ * <ul>
+ *     <li>Like the interpreter, closures are not supported: functions can only use their own
+ *     variables and the variables of the root scope. Other uses are rejected at lowering time
+ *     with an {@link UnsupportedOperationException}.</li>
+ *     <li>Unlike the interpreter, integer arguments passed to {@code Float} parameters and struct
+ *     fields are converted to floats (like in {@link norswap.sigh.bytecode.BytecodeCompiler}).</li>
+ * </ul>
+ */
+public final class VmCompiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
+    private final Reactor reactor;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ArrayList<Long> longs = new ArrayList<>();
+    private final HashMap<Long, Integer> longIndices = new HashMap<>();
+    private final ArrayList<Double> doubles = new ArrayList<>();
+    private final HashMap<Double, Integer> doubleIndices = new HashMap<>();
+    private final ArrayList<Object> refs = new ArrayList<>();
+    private final IdentityHashMap<Object, Integer> refIndices = new IdentityHashMap<>();
+
+    /** Maps root scope variables to their global register. */
+    private final IdentityHashMap<DeclarationNode, Integer> globals = new IdentityHashMap<>();
+    private final int[] globalCounts = new int[3];
+
+    /** Function declarations, in the order of their index in {@link VmProgram#functions}. */
+    private final ArrayList<FunDeclarationNode> declarations = new ArrayList<>();
+    private final IdentityHashMap<FunDeclarationNode, Integer> functionIndices
+        = new IdentityHashMap<>();
+    private final ArrayDeque<FunDeclarationNode> pending = new ArrayDeque<>();
+
+    /** The function being lowered. */
+    private FunctionBuilder fn;
+
+    private RootScope rootScope;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public VmCompiler (Reactor reactor)
+    {
+        this.reactor = reactor;
+
+        // expressions
+        visitor.register(IntLiteralNode.class,           this::intLiteral);
+        visitor.register(FloatLiteralNode.class,         this::floatLiteral);
+        visitor.register(StringLiteralNode.class,        this::stringLiteral);
+        visitor.register(ReferenceNode.class,            this::reference);
+        visitor.register(ConstructorNode.class,          this::constructor);
+        visitor.register(ArrayLiteralNode.class,         this::arrayLiteral);
+        visitor.register(ParenthesizedNode.class,        this::parenthesized);
+        visitor.register(FieldAccessNode.class,          this::fieldAccess);
+        visitor.register(ArrayAccessNode.class,          this::arrayAccess);
+        visitor.register(FunCallNode.class,              this::funCall);
+        visitor.register(UnaryExpressionNode.class,      this::unaryExpression);
+        visitor.register(BinaryExpressionNode.class,     this::binaryExpression);
+        visitor.register(RangeExpressionNode.class,      this::rangeExpression);
+        visitor.register(AssignmentNode.class,           this::assignment);
+
+        // statement groups & declarations
+        visitor.register(BlockNode.class,                this::block);
+        visitor.register(VarDeclarationNode.class,       this::varDecl);
+        visitor.register(FunDeclarationNode.class,       this::funDecl);
+
+        // statements
+        visitor.register(ExpressionStatementNode.class,  this::expressionStmt);
+        visitor.register(IfNode.class,                   this::ifStmt);
+        visitor.register(WhileNode.class,                this::whileStmt);
+        visitor.register(ForNode.class,                  this::forStmt);
+        visitor.register(ForEachNode.class,              this::forEachStmt);
+        visitor.register(ReturnNode.class,               this::returnStmt);
+
+        // struct declarations, etc
+        visitor.registerFallback(node -> null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lowers the given source unit (given as its root AST node).
+     */
+    public VmProgram compile (RootNode root)
+    {
+        rootScope = reactor.get(root, "scope");
+
+        fn = new FunctionBuilder(null, "<main>");
+        declareVariables(root.statements);
+        root.statements.forEach(this::statement);
+        fn.emit(RETV);
+        VmFunction main = fn.build();
+
+        while (!pending.isEmpty())
+            lowerFunction(pending.poll());
+
+        VmFunction[] functions = new VmFunction[declarations.size()];
+        for (int i = 0; i < functions.length; ++i)
+            functions[i] = built.get(declarations.get(i));
+
+        return new VmProgram(main, functions,
+            longs.stream().mapToLong(Long::longValue).toArray(),
+            doubles.stream().mapToDouble(Double::doubleValue).toArray(),
+            refs.toArray(),
+            globalCounts[BANK_LONG], globalCounts[BANK_DOUBLE], globalCounts[BANK_REF]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final IdentityHashMap<FunDeclarationNode, VmFunction> built = new IdentityHashMap<>();
+
+    private void lowerFunction (FunDeclarationNode node)
+    {
+        fn = new FunctionBuilder(node, node.name);
+        FunType type = reactor.get(node, "type");
+
+        int[] paramBanks = new int[node.parameters.size()];
+        int[] paramRegisters = new int[node.parameters.size()];
+        for (int i = 0; i < paramBanks.length; ++i) {
+            ParameterNode param = node.parameters.get(i);
+            paramBanks[i] = bank(type.paramTypes[i]);
+            paramRegisters[i] = fn.declare(param, paramBanks[i]);
+        }
+        declareVariables(node.block.statements);
+
+        for (int i = 0; i < paramBanks.length; ++i) {
+            ParameterNode param = node.parameters.get(i);
+            if (param.type instanceof ArrayTypeNode)
+                lengthChecks((ArrayTypeNode) param.type, paramRegisters[i]);
+        }
+
+        node.block.statements.forEach(this::statement);
+        fn.emit(RETV); // void functions (others return unconditionally)
+        fn.paramBanks = paramBanks;
+        fn.paramRegisters = paramRegisters;
+        fn.returnBank = bank(type.returnType);
+        built.put(node, fn.build());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the given function in {@link VmProgram#functions}, scheduling it for
+     * lowering if it wasn't already.
+     */
+    private int functionIndex (FunDeclarationNode node)
+    {
+        Integer index = functionIndices.get(node);
+        if (index != null) return index;
+        functionIndices.put(node, declarations.size());
+        declarations.add(node);
+        pending.add(node);
+        return declarations.size() - 1;
+    }
+
+    // =============================================================================================
+    // region [Registers & Variables]
+    // =============================================================================================
+
+    /**
+     * Assigns a register to every variable declared by the given statements (without descending
+     * into nested functions), so that temporaries can be allocated above them.
+     */
+    private void declareVariables (List<? extends StatementNode> statements) {
+        for (StatementNode statement: statements)
+            declareVariables(statement);
+    }
+
+    private void declareVariables (StatementNode node)
+    {
+        if (node instanceof VarDeclarationNode)
+            declareVariable((DeclarationNode) node);
+        else if (node instanceof BlockNode)
+            declareVariables(((BlockNode) node).statements);
+        else if (node instanceof IfNode) {
+            IfNode ifNode = (IfNode) node;
+            declareVariables(ifNode.trueStatement);
+            if (ifNode.falseStatement != null)
+                declareVariables(ifNode.falseStatement);
+        }
+        else if (node instanceof WhileNode)
+            declareVariables(((WhileNode) node).body);
+        else if (node instanceof ForNode) {
+            declareVariable(((ForNode) node).iterator);
+            declareVariables(((ForNode) node).body);
+        }
+        else if (node instanceof ForEachNode) {
+            declareVariable(((ForEachNode) node).iterator);
+            declareVariables(((ForEachNode) node).body);
+        }
+    }
+
+    private void declareVariable (DeclarationNode node)
+    {
+        int bank = bank(reactor.get(node, "type"));
+        if (reactor.get(node, "scope") == rootScope)
+            globals.put(node, globalCounts[bank]++);
+        else
+            fn.declare(node, bank);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isVariable (DeclarationNode decl) {
+        return decl instanceof VarDeclarationNode
+            || decl instanceof ParameterNode
+            || decl instanceof ForEachVarNode;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a register holding the value of the given variable: its own register for local
+     * variables, a temporary for globals.
+     */
+    private int loadVariable (DeclarationNode decl)
+    {
+        int bank = bank(reactor.get(decl, "type"));
+        Integer global = globals.get(decl);
+        if (global != null) {
+            int dst = fn.temp(bank);
+            fn.emit(LGLOAD + bank, dst, global);
+            return dst;
+        }
+        return local(decl);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void storeVariable (DeclarationNode decl, int src)
+    {
+        int bank = bank(reactor.get(decl, "type"));
+        Integer global = globals.get(decl);
+        if (global != null)
+            fn.emit(LGSTORE + bank, global, src);
+        else {
+            int dst = local(decl);
+            if (dst != src) fn.emit(LMOV + bank, dst, src);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int local (DeclarationNode decl)
+    {
+        Integer local = fn.locals.get(decl);
+        if (local == null)
+            throw new UnsupportedOperationException(
+                "closures are not supported: variable " + decl.name() + " is used in "
+                + fn.name + " but declared in an enclosing function");
+        return local;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If {@code reg} is a variable's register, copies it to a temporary so that its value
+     * survives the evaluation of following operands.
+     */
+    private int stable (int reg, int bank)
+    {
+        if (bank == BANK_VOID || reg >= fn.variables[bank])
+            return reg;
+        int dst = fn.temp(bank);
+        fn.emit(LMOV + bank, dst, reg);
+        return dst;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Utilities]
+    // =============================================================================================
+
+    private Type type (SighNode node) {
+        return reactor.get(node, "type");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int bank (Type type)
+    {
+        if (type instanceof IntType || type instanceof BoolType)
+            return BANK_LONG;
+        else if (type instanceof FloatType)
+            return BANK_DOUBLE;
+        else if (type instanceof VoidType)
+            return BANK_VOID;
+        else
+            return BANK_REF;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int expr (ExpressionNode node) {
+        return (Integer) visitor.apply(node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void statement (StatementNode node)
+    {
+        int[] mark = fn.mark();
+        visitor.apply(node);
+        fn.release(mark);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether evaluating the expression could modify a variable.
+     */
+    private static boolean hasSideEffects (ExpressionNode node)
+    {
+        if (node instanceof AssignmentNode || node instanceof FunCallNode)
+            return true;
+        if (node instanceof ParenthesizedNode)
+            return hasSideEffects(((ParenthesizedNode) node).expression);
+        if (node instanceof UnaryExpressionNode)
+            return hasSideEffects(((UnaryExpressionNode) node).operand);
+        if (node instanceof BinaryExpressionNode) {
+            BinaryExpressionNode binary = (BinaryExpressionNode) node;
+            return hasSideEffects(binary.left) || hasSideEffects(binary.right);
+        }
+        if (node instanceof RangeExpressionNode) {
+            RangeExpressionNode range = (RangeExpressionNode) node;
+            return hasSideEffects(range.left) || hasSideEffects(range.right);
+        }
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            return hasSideEffects(access.array) || hasSideEffects(access.index);
+        }
+        if (node instanceof FieldAccessNode)
+            return hasSideEffects(((FieldAccessNode) node).stem);
+        if (node instanceof ArrayLiteralNode)
+            return ((ArrayLiteralNode) node).components.stream().anyMatch(VmCompiler::hasSideEffects);
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int longConstant (long value) {
+        return longIndices.computeIfAbsent(value, k -> { longs.add(k); return longs.size() - 1; });
+    }
+
+    private int doubleConstant (double value) {
+        return doubleIndices.computeIfAbsent(value, k -> { doubles.add(k); return doubles.size() - 1; });
+    }
+
+    private int refConstant (Object value) {
+        return refIndices.computeIfAbsent(value, k -> { refs.add(k); return refs.size() - 1; });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int loadLong (long value) {
+        int dst = fn.temp(BANK_LONG);
+        fn.emit(LCONST, dst, longConstant(value));
+        return dst;
+    }
+
+    private int loadRef (Object value) {
+        int dst = fn.temp(BANK_REF);
+        fn.emit(RCONST, dst, refConstant(value));
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Converts the value in {@code reg} (of type {@code from}) to type {@code to} if required
+     * (Int to Float), returning the register holding the converted value.
+     */
+    private int convert (int reg, Type from, Type to)
+    {
+        if (!(to instanceof FloatType && from instanceof IntType))
+            return reg;
+        int dst = fn.temp(BANK_DOUBLE);
+        fn.emit(L2D, dst, reg);
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a reference register holding the (boxed if needed) value of {@code reg}.
+     */
+    private int box (int reg, Type type)
+    {
+        int opcode;
+        if (type instanceof IntType)        opcode = LBOX;
+        else if (type instanceof BoolType)  opcode = BBOX;
+        else if (type instanceof FloatType) opcode = DBOX;
+        else return reg;
+        int dst = fn.temp(BANK_REF);
+        fn.emit(opcode, dst, reg);
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Unboxes the value in the reference register {@code reg} to the bank for {@code type}.
+     */
+    private int unbox (int reg, Type type)
+    {
+        int opcode;
+        if (type instanceof IntType)        opcode = LUNBOX;
+        else if (type instanceof BoolType)  opcode = BUNBOX;
+        else if (type instanceof FloatType) opcode = DUNBOX;
+        else return reg;
+        int dst = fn.temp(bank(type));
+        fn.emit(opcode, dst, reg);
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a reference register holding a string representation of the value in {@code
+     * reg}. Reference values are converted by {@link Instructions#CONCAT} itself.
+     */
+    private int toStr (int reg, Type type)
+    {
+        int opcode;
+        if (type instanceof IntType)        opcode = LTOSTR;
+        else if (type instanceof BoolType)  opcode = BTOSTR;
+        else if (type instanceof FloatType) opcode = DTOSTR;
+        else return reg;
+        int dst = fn.temp(BANK_REF);
+        fn.emit(opcode, dst, reg);
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the checks for the length hints in {@code type}, for the array in register {@code
+     * value}.
+     */
+    private void lengthChecks (ArrayTypeNode type, int value)
+    {
+        int depth = 0;
+        for (TypeNode it = type; it instanceof ArrayTypeNode; ++depth) {
+            ArrayTypeNode array = (ArrayTypeNode) it;
+            if (array.lengthHint != null)
+                fn.emit(CHECKLEN, value, expr(array.lengthHint), depth);
+            it = array.componentType;
+        }
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Expressions]
+    // =============================================================================================
+
+    private Integer intLiteral (IntLiteralNode node) {
+        return loadLong(node.value);
+    }
+
+    private Integer floatLiteral (FloatLiteralNode node) {
+        int dst = fn.temp(BANK_DOUBLE);
+        fn.emit(DCONST, dst, doubleConstant(node.value));
+        return dst;
+    }
+
+    private Integer stringLiteral (StringLiteralNode node) {
+        return loadRef(node.value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer reference (ReferenceNode node)
+    {
+        DeclarationNode decl = reactor.get(node, "decl");
+
+        if (isVariable(decl))
+            return loadVariable(decl);
+
+        if (decl instanceof SyntheticDeclarationNode
+                && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.VARIABLE) {
+            switch (decl.name()) {
+                case "true":  return loadLong(1);
+                case "false": return loadLong(0);
+                case "null":  return loadRef(Null.INSTANCE);
+                default: throw new Error("unreachable");
+            }
+        }
+
+        return loadRef(decl); // structure, function or type
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer constructor (ConstructorNode node) {
+        return loadRef(new Constructor(reactor.get(node.ref, "decl")));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer parenthesized (ParenthesizedNode node) {
+        return expr(node.expression);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer arrayLiteral (ArrayLiteralNode node)
+    {
+        int dst = fn.temp(BANK_REF);
+        fn.emit(NEWARRAY, dst, node.components.size());
+        int i = 0;
+        for (ExpressionNode component: node.components) {
+            int[] mark = fn.mark();
+            fn.emit(ASETK, dst, i++, box(expr(component), type(component)));
+            fn.release(mark);
+        }
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer fieldAccess (FieldAccessNode node)
+    {
+        int stem = expr(node.stem);
+
+        if (type(node.stem) instanceof ArrayType) { // only field on arrays
+            int dst = fn.temp(BANK_LONG);
+            fn.emit(LENGTH, dst, stem);
+            return dst;
+        }
+
+        int dst = fn.temp(BANK_REF);
+        fn.emit(GETFIELD, dst, stem, refConstant(node.fieldName));
+        return unbox(dst, type(node));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer arrayAccess (ArrayAccessNode node)
+    {
+        int array = expr(node.array);
+        if (hasSideEffects(node.index))
+            array = stable(array, BANK_REF);
+        int index = expr(node.index);
+        int dst = fn.temp(BANK_REF);
+
+        if (type(node.index) instanceof ArrayType) {
+            fn.emit(ALOADS, dst, array, index);
+            return dst;
+        }
+
+        fn.emit(ALOAD, dst, array, index);
+        return unbox(dst, type(node));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer funCall (FunCallNode node)
+    {
+        FunType funType = reactor.get(node.function, "type");
+        int returnBank = bank(funType.returnType);
+
+        if (node.function instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node.function, "decl");
+
+            if (decl instanceof SyntheticDeclarationNode) {
+                assert decl.name().equals("print"); // only one at the moment
+                int dst = fn.temp(BANK_REF);
+                ExpressionNode arg = node.arguments.get(0);
+                fn.emit(PRINT, dst, box(expr(arg), type(arg)));
+                return dst;
+            }
+
+            if (decl instanceof FunDeclarationNode) {
+                int[] args = arguments(funType, node.arguments, false);
+                int dst = returnBank == BANK_VOID ? -1 : fn.temp(returnBank);
+                fn.emit(CALL, dst, functionIndex((FunDeclarationNode) decl), args.length);
+                fn.emit(args);
+                return dst;
+            }
+        }
+
+        if (node.function instanceof ConstructorNode) {
+            StructDeclarationNode decl = reactor.get(((ConstructorNode) node.function).ref, "decl");
+            int[] args = arguments(funType, node.arguments, true);
+            int dst = fn.temp(BANK_REF);
+            fn.emit(NEWSTRUCT, dst, refConstant(decl), args.length);
+            fn.emit(args);
+            return dst;
+        }
+
+        // function value
+        int function = expr(node.function);
+        if (node.arguments.stream().anyMatch(VmCompiler::hasSideEffects))
+            function = stable(function, BANK_REF);
+        int[] args = arguments(funType, node.arguments, false);
+        int dst = returnBank == BANK_VOID ? -1 : fn.temp(returnBank);
+        fn.emit(CALLV, dst, returnBank, function, args.length);
+        for (int i = 0; i < args.length; ++i) {
+            Type paramType = funType.paramTypes[i];
+            fn.emit(paramType instanceof BoolType ? BANK_BOOL : bank(paramType), args[i]);
+        }
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Evaluates the arguments and returns the registers holding them. If {@code boxed} is true,
+     * the arguments are boxed as-is, otherwise they are converted to the parameter types.
+     */
+    private int[] arguments (FunType funType, List<ExpressionNode> arguments, boolean boxed)
+    {
+        int[] registers = new int[arguments.size()];
+        for (int i = 0; i < registers.length; ++i) {
+            ExpressionNode arg = arguments.get(i);
+            Type paramType = funType.paramTypes[i];
+            int reg = boxed || bank(paramType) == BANK_REF
+                ? box(expr(arg), type(arg))
+                : convert(expr(arg), type(arg), paramType);
+            boolean later = arguments.subList(i + 1, registers.length).stream()
+                .anyMatch(VmCompiler::hasSideEffects);
+            registers[i] = later
+                ? stable(reg, boxed ? BANK_REF : bank(paramType))
+                : reg;
+        }
+        return registers;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer unaryExpression (UnaryExpressionNode node)
+    {
+        // there is only NOT
+        assert node.operator == UnaryOperator.NOT;
+        int dst = fn.temp(BANK_LONG);
+        fn.emit(NOT, dst, expr(node.operand));
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer binaryExpression (BinaryExpressionNode node)
+    {
+        Type leftType  = type(node.left);
+        Type rightType = type(node.right);
+
+        switch (node.operator) {
+            case OR:  return booleanOp(node, JNZ);
+            case AND: return booleanOp(node, JZ);
+        }
+
+        boolean sideEffects = hasSideEffects(node.right);
+
+        if (node.operator == BinaryOperator.ADD
+                && (leftType instanceof StringType || rightType instanceof StringType)) {
+            int left = toStr(expr(node.left), leftType);
+            if (sideEffects) left = stable(left, BANK_REF);
+            int right = toStr(expr(node.right), rightType);
+            int dst = fn.temp(BANK_REF);
+            fn.emit(CONCAT, dst, left, right);
+            return dst;
+        }
+
+        if (type(node) instanceof ArrayType)
+            return broadcast(node, leftType, rightType, sideEffects);
+
+        boolean floating = leftType instanceof FloatType || rightType instanceof FloatType;
+        boolean numeric  = floating || leftType instanceof IntType;
+
+        if (numeric) {
+            Type target = floating ? FloatType.INSTANCE : IntType.INSTANCE;
+            int bank = floating ? BANK_DOUBLE : BANK_LONG;
+            int left = convert(expr(node.left), leftType, target);
+            if (sideEffects) left = stable(left, bank);
+            int right = convert(expr(node.right), rightType, target);
+            int resultBank = type(node) instanceof BoolType ? BANK_LONG : bank;
+            int dst = fn.temp(resultBank);
+            fn.emit(numericOpcode(node.operator, floating), dst, left, right);
+            return dst;
+        }
+
+        boolean equals = node.operator == BinaryOperator.EQUALITY;
+        int dst = fn.temp(BANK_LONG);
+
+        if (bank(leftType) == BANK_LONG && bank(rightType) == BANK_LONG) { // booleans
+            int left = expr(node.left);
+            if (sideEffects) left = stable(left, BANK_LONG);
+            fn.emit(equals ? LEQ : LNE, dst, left, expr(node.right));
+            return dst;
+        }
+
+        int left = box(expr(node.left), leftType);
+        if (sideEffects) left = stable(left, BANK_REF);
+        int right = box(expr(node.right), rightType);
+
+        int opcode;
+        if (leftType instanceof ArrayType && rightType instanceof ArrayType)
+            opcode = equals ? AEQ : ANE;
+        else if (leftType.isPrimitive())
+            opcode = equals ? VEQ : VNE;
+        else
+            opcode = equals ? REQ : RNE;
+
+        fn.emit(opcode, dst, left, right);
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer booleanOp (BinaryExpressionNode node, int shortCircuitJump)
+    {
+        int dst = fn.temp(BANK_LONG);
+        fn.emit(LMOV, dst, expr(node.left));
+        int jump = fn.jump(shortCircuitJump, dst);
+        fn.emit(LMOV, dst, expr(node.right));
+        fn.patch(jump);
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int numericOpcode (BinaryOperator operator, boolean floating)
+    {
+        int base = floating ? DADD : LADD;
+        int compare = floating ? DEQ : LEQ;
+        switch (operator) {
+            case ADD:           return base;
+            case SUBTRACT:      return base + 1;
+            case MULTIPLY:      return base + 2;
+            case DIVIDE:        return base + 3;
+            case REMAINDER:     return base + 4;
+            case EQUALITY:      return compare;
+            case NOT_EQUALS:    return compare + 1;
+            case LOWER:         return compare + 2;
+            case LOWER_EQUAL:   return compare + 3;
+            case GREATER:       return compare + 4;
+            case GREATER_EQUAL: return compare + 5;
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer broadcast
+            (BinaryExpressionNode node, Type leftType, Type rightType, boolean sideEffects)
+    {
+        BroadcastSpec spec;
+
+        if (!(leftType instanceof ArrayType)) {
+            ArrayType r = (ArrayType) rightType; // ensured by semantic
+            boolean floating = leftType instanceof FloatType || r.innerMostType instanceof FloatType;
+            spec = new BroadcastSpec(node.operator, floating,
+                BroadcastSpec.PRIMITIVE_ARRAY, 0, r.dimension);
+        }
+        else if (!(rightType instanceof ArrayType)) {
+            ArrayType l = (ArrayType) leftType; // ensured by semantic
+            boolean floating = l.innerMostType instanceof FloatType || rightType instanceof FloatType;
+            spec = new BroadcastSpec(node.operator, floating,
+                BroadcastSpec.ARRAY_PRIMITIVE, 0, l.dimension);
+        }
+        else {
+            ArrayType l = (ArrayType) leftType;
+            ArrayType r = (ArrayType) rightType;
+            boolean floating = l.innerMostType instanceof FloatType || r.innerMostType instanceof FloatType;
+            spec = l.dimension >= r.dimension
+                ? new BroadcastSpec(node.operator, floating, BroadcastSpec.ARRAY_ARRAY,
+                    r.dimension, l.dimension - r.dimension)
+                : new BroadcastSpec(node.operator, floating, BroadcastSpec.ARRAY_ARRAY_MIRROR,
+                    l.dimension, r.dimension - l.dimension);
+        }
+
+        int left = box(expr(node.left), leftType);
+        if (sideEffects) left = stable(left, BANK_REF);
+        int right = box(expr(node.right), rightType);
+        int dst = fn.temp(BANK_REF);
+        fn.emit(BCAST, dst, left, right, refConstant(spec));
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer rangeExpression (RangeExpressionNode node)
+    {
+        int left = expr(node.left);
+        if (hasSideEffects(node.right))
+            left = stable(left, BANK_LONG);
+        int dst = fn.temp(BANK_REF);
+        fn.emit(RANGE, dst, left, expr(node.right));
+        return dst;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Integer assignment (AssignmentNode node)
+    {
+        Type type = type(node);
+
+        if (node.left instanceof ReferenceNode) {
+            DeclarationNode decl = reactor.get(node.left, "decl");
+            int value = convert(expr(node.right), type(node.right), type);
+            storeVariable(decl, value);
+            return value;
+        }
+
+        if (node.left instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node.left;
+            boolean sideEffects = hasSideEffects(node.right);
+            int array = expr(access.array);
+            if (sideEffects || hasSideEffects(access.index))
+                array = stable(array, BANK_REF);
+
+            if (type(access.index) instanceof ArrayType) {
+                int indices = expr(access.index);
+                if (sideEffects) indices = stable(indices, BANK_REF);
+                fn.emit(ASTORES, array, indices, expr(node.right));
+                return array;
+            }
+
+            int index = expr(access.index);
+            if (sideEffects) index = stable(index, BANK_LONG);
+            int value = expr(node.right);
+            fn.emit(ASTORE, array, index, box(value, type(node.right)));
+            return convert(value, type(node.right), type);
+        }
+
+        if (node.left instanceof FieldAccessNode) {
+            FieldAccessNode access = (FieldAccessNode) node.left;
+            int stem = expr(access.stem);
+            if (hasSideEffects(node.right))
+                stem = stable(stem, BANK_REF);
+            int value = expr(node.right);
+            fn.emit(PUTFIELD, stem, refConstant(access.fieldName), box(value, type(node.right)));
+            return convert(value, type(node.right), type);
+        }
+
+        throw new Error("should not reach here");
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Statements]
+    // =============================================================================================
+
+    private Void block (BlockNode node) {
+        node.statements.forEach(this::statement);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void varDecl (VarDeclarationNode node)
+    {
+        Type type = reactor.get(node, "type");
+        int value = convert(expr(node.initializer), type(node.initializer), type);
+        if (node.type instanceof ArrayTypeNode)
+            lengthChecks((ArrayTypeNode) node.type, value);
+        storeVariable(node, value);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void funDecl (FunDeclarationNode node) {
+        functionIndex(node);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void expressionStmt (ExpressionStatementNode node) {
+        expr(node.expression);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void ifStmt (IfNode node)
+    {
+        int toElse = fn.jump(JZ, expr(node.condition));
+        statement(node.trueStatement);
+        if (node.falseStatement == null) {
+            fn.patch(toElse);
+            return null;
+        }
+        int toEnd = fn.jump(JMP, -1);
+        fn.patch(toElse);
+        statement(node.falseStatement);
+        fn.patch(toEnd);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void whileStmt (WhileNode node)
+    {
+        int start = fn.size;
+        int[] mark = fn.mark();
+        int toEnd = fn.jump(JZ, expr(node.condition));
+        fn.release(mark);
+        statement(node.body);
+        fn.emit(JMP, start);
+        fn.patch(toEnd);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void forStmt (ForNode node)
+    {
+        Type type = reactor.get(node.iterator, "type");
+        visitor.apply(node.iterator);
+
+        int start = fn.size;
+        int[] mark = fn.mark();
+        int toEnd = fn.jump(JNZ, expr(node.condition));
+        fn.release(mark);
+        statement(node.body);
+        mark = fn.mark();
+        storeVariable(node.iterator,
+            convert(expr(node.iterationRule), type(node.iterationRule), type));
+        fn.release(mark);
+        fn.emit(JMP, start);
+        fn.patch(toEnd);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void forEachStmt (ForEachNode node)
+    {
+        Type type = reactor.get(node.iterator, "type");
+        int array = stable(expr(node.iterated), BANK_REF);
+        fn.emit(ITERCHK, array);
+
+        int index = fn.temp(BANK_LONG);
+        fn.emit(LCONST, index, longConstant(0));
+
+        if (node.iterator.type instanceof ArrayTypeNode) {
+            int[] mark = fn.mark();
+            int first = fn.temp(BANK_REF);
+            fn.emit(ALOAD, first, array, index);
+            lengthChecks((ArrayTypeNode) node.iterator.type, first);
+            fn.release(mark);
+        }
+
+        int length = fn.temp(BANK_LONG);
+        fn.emit(LENGTH, length, array);
+        int one = loadLong(1);
+        int condition = fn.temp(BANK_LONG);
+
+        int start = fn.size;
+        fn.emit(LLT, condition, index, length);
+        int toEnd = fn.jump(JZ, condition);
+        int[] mark = fn.mark();
+        int element = fn.temp(BANK_REF);
+        fn.emit(ALOAD, element, array, index);
+        storeVariable(node.iterator, unbox(element, type));
+        fn.release(mark);
+        statement(node.body);
+        fn.emit(LADD, index, index, one);
+        fn.emit(JMP, start);
+        fn.patch(toEnd);
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Void returnStmt (ReturnNode node)
+    {
+        if (node.expression == null) {
+            fn.emit(RETV);
+            return null;
+        }
+
+        Type type = type(node.expression);
+        int value = expr(node.expression);
+
+        if (fn.declaration == null) { // top-level
+            fn.emit(RETR, box(value, type));
+            return null;
+        }
+
+        Type returnType = ((FunType) reactor.get(fn.declaration, "type")).returnType;
+        value = convert(value, type, returnType);
+        TypeNode typeNode = reactor.get(node, "type");
+        if (typeNode instanceof ArrayTypeNode)
+            lengthChecks((ArrayTypeNode) typeNode, value);
+        fn.emit(RETL + bank(returnType), value);
+        return null;
+    }
+
+    // endregion
+    // =============================================================================================
+    // region [Function Builder]
+    // =============================================================================================
+
+    /**
+     * Accumulates the instructions and register allocation state for the function being lowered.
+     */
+    private final class FunctionBuilder
+    {
+        final FunDeclarationNode declaration;
+        final String name;
+        final IdentityHashMap<DeclarationNode, Integer> locals = new IdentityHashMap<>();
+
+        int[] code = new int[64];
+        int size = 0;
+
+        /** Number of registers reserved for variables, per bank. */
+        final int[] variables = new int[3];
+        /** Next free register, per bank. */
+        final int[] next = new int[3];
+        /** Maximum number of registers used, per bank. */
+        final int[] max = new int[3];
+
+        int[] paramBanks = new int[0];
+        int[] paramRegisters = new int[0];
+        int returnBank = BANK_REF;
+
+        FunctionBuilder (FunDeclarationNode declaration, String name) {
+            this.declaration = declaration;
+            this.name = name;
+        }
+
+        void emit (int... words) {
+            if (size + words.length > code.length)
+                code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+            System.arraycopy(words, 0, code, size, words.length);
+            size += words.length;
+        }
+
+        int declare (DeclarationNode node, int bank) {
+            int reg = temp(bank);
+            variables[bank] = next[bank];
+            locals.put(node, reg);
+            return reg;
+        }
+
+        int temp (int bank) {
+            int reg = next[bank]++;
+            if (next[bank] > max[bank]) max[bank] = next[bank];
+            return reg;
+        }
+
+        int[] mark() {
+            return next.clone();
+        }
+
+        void release (int[] mark) {
+            System.arraycopy(mark, 0, next, 0, next.length);
+        }
+
+        /** Emits a jump whose target must later be set with {@link #patch}. Returns its offset. */
+        int jump (int opcode, int condition) {
+            int at = size;
+            if (opcode == JMP) emit(JMP, -1);
+            else emit(opcode, condition, -1);
+            return at;
+        }
+
+        /** Makes the jump at the given offset target the current end of the code. */
+        void patch (int jump) {
+            code[jump + OPERANDS[code[jump]]] = size;
+        }
+
+        VmFunction build() {
+            return new VmFunction(declaration, name, Arrays.copyOf(code, size),
+                max[BANK_LONG], max[BANK_DOUBLE], max[BANK_REF],
+                paramBanks, paramRegisters, returnBank);
+        }
+    }
+
+    // endregion
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,66 @@
+package norswap.sigh.vm;
+
+import norswap.sigh.ast.FunDeclarationNode;
+
+/**
+ * A function lowered to the instruction stream of the Sigh virtual machine (see {@link
+ * Instructions}).
+ *
+ * <p>Each invocation of the function gets its own frame made of three register banks, whose sizes
+ * are given by {@link #longRegisters}, {@link #doubleRegisters} and {@link #refRegisters}. The
+ * parameters are passed in the registers given by {@link #paramBanks} and {@link #paramRegisters}.
+ */
+public final class VmFunction
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The declaration this function was lowered from, or {@code null} for the top-level code.
+     */
+    public final FunDeclarationNode declaration;
+
+    /** Name of the function, used for diagnostics. */
+    public final String name;
+
+    /** The instruction stream. */
+    public final int[] code;
+
+    public final int longRegisters;
+    public final int doubleRegisters;
+    public final int refRegisters;
+
+    /** Bank of each parameter (see {@link Instructions#BANK_LONG} and friends). */
+    public final int[] paramBanks;
+
+    /** Register of each parameter, within its bank. */
+    public final int[] paramRegisters;
+
+    /** Bank of the return value ({@link Instructions#BANK_VOID} if none). */
+    public final int returnBank;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public VmFunction (
+            FunDeclarationNode declaration, String name, int[] code,
+            int longRegisters, int doubleRegisters, int refRegisters,
+            int[] paramBanks, int[] paramRegisters, int returnBank)
+    {
+        this.declaration = declaration;
+        this.name = name;
+        this.code = code;
+        this.longRegisters = longRegisters;
+        this.doubleRegisters = doubleRegisters;
+        this.refRegisters = refRegisters;
+        this.paramBanks = paramBanks;
+        this.paramRegisters = paramRegisters;
+        this.returnBank = returnBank;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        return "VmFunction(" + name + ")";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,105 @@
+package norswap.sigh.vm;
+
+import norswap.sigh.ast.FunDeclarationNode;
+import java.util.IdentityHashMap;
+
+import static norswap.sigh.vm.Instructions.*;
+
+/**
+ * The result of lowering a Sigh source unit with {@link VmCompiler}, to be run by a {@link
+ * VirtualMachine}.
+ *
+ * <p>A program is immutable once built and can be executed by many virtual machines.
+ */
+public final class VmProgram
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** The function holding the top-level code. */
+    public final VmFunction main;
+
+    /** All the functions in the program, indexed by the operand of {@link Instructions#CALL}. */
+    public final VmFunction[] functions;
+
+    /** Constant pool for {@link Instructions#LCONST}. */
+    public final long[] longs;
+
+    /** Constant pool for {@link Instructions#DCONST}. */
+    public final double[] doubles;
+
+    /** Constant pool for {@link Instructions#RCONST} and the other instructions taking objects. */
+    public final Object[] refs;
+
+    /** Size of the global register banks, which hold the variables of the root scope. */
+    public final int longGlobals, doubleGlobals, refGlobals;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final IdentityHashMap<FunDeclarationNode, VmFunction> byDeclaration
+        = new IdentityHashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    VmProgram (
+            VmFunction main, VmFunction[] functions,
+            long[] longs, double[] doubles, Object[] refs,
+            int longGlobals, int doubleGlobals, int refGlobals)
+    {
+        this.main = main;
+        this.functions = functions;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.refs = refs;
+        this.longGlobals = longGlobals;
+        this.doubleGlobals = doubleGlobals;
+        this.refGlobals = refGlobals;
+
+        for (VmFunction function: functions)
+            byDeclaration.put(function.declaration, function);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the lowered function for the given declaration, used when calling function values.
+     */
+    public VmFunction function (FunDeclarationNode declaration) {
+        return byDeclaration.get(declaration);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a human-readable listing of the program's instructions.
+     */
+    public String disassemble()
+    {
+        StringBuilder b = new StringBuilder();
+        disassemble(b, main);
+        for (VmFunction function: functions)
+            disassemble(b, function);
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void disassemble (StringBuilder b, VmFunction function)
+    {
+        b.append(function.name)
+            .append(" [l").append(function.longRegisters)
+            .append(" d").append(function.doubleRegisters)
+            .append(" r").append(function.refRegisters)
+            .append("]\n");
+
+        int[] code = function.code;
+        for (int pc = 0; pc < code.length; pc += length(code, pc)) {
+            b.append(String.format("%5d  %-9s", pc, NAMES[code[pc]]));
+            int end = pc + length(code, pc);
+            for (int i = pc + 1; i < end; ++i)
+                b.append(' ').append(code[i]);
+            b.append('\n');
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,108 @@
+import norswap.autumn.positions.LineMapString;
+import norswap.sigh.SighRunner;
+import norswap.sigh.ast.BinaryExpressionNode;
+import norswap.sigh.ast.ParenthesizedNode;
+import norswap.sigh.ast.ReturnNode;
+import norswap.sigh.ast.VarDeclarationNode;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.profile.AllocationProfile;
+import norswap.sigh.profile.AllocationProfile.Entry;
+import norswap.sigh.profile.AllocationProfile.Kind;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.util.List;
+
+import static org.testng.Assert.assertTrue;
+
+public final class AllocationProfileTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String PROGRAM =
+        "struct Point { var x: Int; var y: Int }\n" +
+        "var range: Int[] = (0:1000)\n" +
+        "var p: Point = $Point(1, 2)\n" +
+        "var s: String = \"n = \" + 1000\n" +
+        "return 1000 * 1000\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long bytes (AllocationProfile profile, Object node, Kind kind)
+    {
+        return profile.entries().stream()
+            .filter(it -> it.node == node && it.kind == kind)
+            .mapToLong(it -> it.bytes)
+            .sum();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testAllocations ()
+    {
+        AllocationProfile profile = new AllocationProfile();
+        InterpreterOptions options = InterpreterOptions.builder().allocationProfile(profile).get();
+        CompiledProgram program = new SighRunner(options).compile(PROGRAM);
+        assertEquals(program.execute(), 1000000L);
+
+        Object range  = ((ParenthesizedNode)
+            ((VarDeclarationNode) program.root.statements.get(1)).initializer).expression;
+        Object point  = ((VarDeclarationNode) program.root.statements.get(2)).initializer;
+        Object string = ((VarDeclarationNode) program.root.statements.get(3)).initializer;
+        Object product = ((ReturnNode) program.root.statements.get(4)).expression;
+
+        assertEquals(bytes(profile, range, Kind.ARRAY), AllocationProfile.arrayBytes(1000));
+        // 0 to 127 are cached
+        assertEquals(bytes(profile, range, Kind.BOXED),
+            (1000 - 128) * AllocationProfile.BOXED_BYTES);
+        assertEquals(bytes(profile, point, Kind.STRUCT), AllocationProfile.structBytes(2));
+        assertEquals(bytes(profile, string, Kind.STRING),
+            AllocationProfile.stringBytes("n = 1000"));
+        assertEquals(bytes(profile, product, Kind.BOXED), AllocationProfile.BOXED_BYTES);
+
+        // sorted by bytes
+        List<Entry> entries = profile.entries();
+        assertTrue(entries.get(0).node == range);
+        for (int i = 1; i < entries.size(); ++i)
+            assertTrue(entries.get(i - 1).bytes >= entries.get(i).bytes);
+
+        String report = profile.report(new LineMapString("<test>", PROGRAM), 3);
+        assertEquals(report.split("\n").length, 4); // header + 3 rows
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testRopes ()
+    {
+        AllocationProfile profile = new AllocationProfile();
+        InterpreterOptions options = InterpreterOptions.builder().allocationProfile(profile).get();
+        CompiledProgram program = new SighRunner(options).compile(
+            "var s: String = \"\"\n" +
+            "var i: Int = 0\n" +
+            "while i < 100 { s = s + \"0123456789\"; i = i + 1 }\n" +
+            "return s");
+        assertEquals(((String) program.execute()).length(), 1000);
+
+        // Concatenations to a string of at least 256 characters yield ropes, which are only
+        // charged for their characters when the result is flattened.
+        long expected = AllocationProfile.stringBytes(new String(new char[1000]));
+        for (int i = 1; i <= 100; ++i)
+            expected += 10 * (i - 1) >= 256
+                ? AllocationProfile.stringBytes(new StringBuilder())
+                : AllocationProfile.stringBytes(new String(new char[10 * i]));
+
+        long bytes = 0, count = 0;
+        for (Entry entry: profile.entries()) {
+            if (entry.kind != Kind.STRING || !(entry.node instanceof BinaryExpressionNode))
+                continue;
+            bytes += entry.bytes;
+            count += entry.count;
+        }
+        assertEquals(bytes, expected);
+        assertEquals(count, 101L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
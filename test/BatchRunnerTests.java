@@ -0,0 +1,82 @@
+import norswap.sigh.SemanticErrorsException;
+import norswap.sigh.batch.BatchRunner;
+import norswap.sigh.batch.ScriptResult;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public final class BatchRunnerTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void write (Path path, String source) throws IOException {
+        Files.write(path, source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBatch () throws Exception
+    {
+        Path directory = Files.createTempDirectory("sigh-batch");
+        Path nested = Files.createDirectory(directory.resolve("nested"));
+        for (int i = 0; i < 20; ++i)
+            write(nested.resolve(String.format("ok%02d.si", i)),
+                "var i: Int = " + i + "; print(\"i = \" + i); return i * 2");
+        write(directory.resolve("a_parse.si"), "var x: Int = ");
+        write(directory.resolve("b_semantic.si"), "var x: Int = \"a\"");
+        write(directory.resolve("c_runtime.si"), "print(\"before\"); var a: Int[] = [1]; return a[3]");
+        write(directory.resolve("d_error.si"), "var a: Int[2] = [1, 2, 3]"); // AssertionError
+        write(directory.resolve("ignored.txt"), "not a script");
+
+        List<Path> scripts = BatchRunner.collect(Collections.singletonList(directory));
+        assertEquals(scripts.size(), 24);
+
+        AtomicInteger notified = new AtomicInteger();
+        List<ScriptResult> results = new BatchRunner(InterpreterOptions.DEFAULT, 4)
+            .run(scripts, result -> notified.incrementAndGet());
+        assertEquals(notified.get(), 24);
+
+        ScriptResult parse = results.get(0);
+        assertFalse(parse.succeeded());
+        assertTrue(parse.error.getCause() instanceof ParseException);
+        assertEquals(parse.analysisNanos, 0L);
+
+        ScriptResult semantic = results.get(1);
+        assertTrue(semantic.error instanceof SemanticErrorsException);
+        assertTrue(semantic.parseNanos > 0);
+        assertEquals(semantic.executionNanos, 0L);
+
+        ScriptResult runtime = results.get(2);
+        assertFalse(runtime.succeeded());
+        assertEquals(runtime.output, "before\n");
+
+        // errors (not only exceptions) fail the script, not the batch
+        ScriptResult error = results.get(3);
+        assertFalse(error.succeeded());
+        assertTrue(error.error instanceof AssertionError
+            || error.error.getCause() instanceof AssertionError, String.valueOf(error.error));
+
+        for (int i = 0; i < 20; ++i) {
+            ScriptResult ok = results.get(4 + i);
+            assertTrue(ok.succeeded(), String.valueOf(ok.error));
+            assertEquals(ok.path.getFileName().toString(), String.format("ok%02d.si", i));
+            assertEquals(ok.output, "i = " + i + "\n");
+            assertEquals(ok.result, 2L * i);
+            assertTrue(ok.executionNanos > 0);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
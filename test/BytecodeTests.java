@@ -252,12 +252,41 @@ public class BytecodeTests
         check("var x: Int = 1 ; while x <= 3 { " + printx + " ; x = x + 1 }", "1\n2\n3");
     }
 
+    @Test public void testConcatenation() {
+        checkExpr("\"a\" + \"b\" + \"c\"", "abc");
+        checkExpr("\"a\" + 1 + \"b\" + 2.5 + true + null", "a1b2.5truenull");
+        checkExpr("1 + 2 + \"a\" + (1 + 2)", "3a3");
+        checkExpr("\"a\" + (\"b\" + 1) + [1, 2]", "ab1[1, 2]");
+        checkExpr("\"a\" + [[1.0, 2.5], [3.0]] + [true]", "a[[1.0, 2.5], [3.0]][true]");
+        check("var s: String = \"x\" ; var i: Int = 0 ;" +
+            "while i < 3 { s = \"<\" + s + i + \">\" ; i = i + 1 } print(s)", "<<<x0>1>2>");
+    }
+
     @Test public void testMethod() {
         check("fun test (x: String):String { return x } print(test(\"a\"))", "a");
         check("fun test (x: String) { print(x) } ; test(\"a\")", "a");
         check("fun test () { fun foo() { print(\"a\") } foo() foo() } test()", "a\na");
     }
 
+    @Test public void testInlining() {
+        // implicit conversions of arguments and return values
+        check("fun half (x: Float): Float { return x / 2 } print(\"\" + half(3))", "1.5");
+        check("fun one (): Float { return 1 } print(\"\" + (one() + 1))", "2.0");
+        // early returns, with operands of the surrounding expression on the stack
+        check("fun sign (x: Int): Int { if (x < 0) return 0 - 1 if (x == 0) return 0 return 1 }" +
+            "print(\"\" + (10 + sign(0 - 5)) + sign(0) + sign(7))", "901");
+        // loops and local variables, shadowing the caller's
+        check("fun sum (n: Int): Int { var s: Int = 0 var i: Int = 0 while (i < n) { s = s + i ; i = i + 1 } return s }" +
+            "var s: Int = 1 ; print(\"\" + sum(5) + s)", "101");
+        // nested inlining and void functions
+        check("fun show (x: Int) { print(\"\" + x) ; return }" +
+            "fun twice (x: Int) { show(x) ; show(x) }" +
+            "twice(3)", "3\n3");
+        // recursive functions are called
+        check("fun fact (n: Int): Int { if (n <= 1) return 1 else return n * fact(n - 1) }" +
+            "print(\"\" + fact(5))", "120");
+    }
+
     private final String makePair =
         "struct Pair { var x: Int ; var y: Float }" +
         "var x: Pair = $Pair(1, 2.0) ;";
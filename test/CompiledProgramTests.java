@@ -0,0 +1,77 @@
+import norswap.sigh.SighRunner;
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.output.ChannelOutputSink;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertTrue;
+
+public final class CompiledProgramTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String PROGRAM =
+        "fun add (a: Int, b: Int): Int { return a + b }" +
+        "var sum: Int = 0;" +
+        "var i: Int = 0;" +
+        "while (i < 100) { sum = add(sum, i); i = i + 1 }" +
+        "print(\"sum: \" + sum)" +
+        "return sum";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String execute (CompiledProgram program)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Object result = program.execute(new ChannelOutputSink(Channels.newChannel(bytes)));
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8) + result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testRepeatedExecution ()
+    {
+        CompiledProgram program = new SighRunner().compile(PROGRAM);
+        for (int i = 0; i < 3; ++i)
+            assertEquals(execute(program), "sum: 4950\n4950");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testConcurrentExecution () throws Exception
+    {
+        InterpreterOptions options = InterpreterOptions.builder()
+            .tieringThreshold(10)
+            .backgroundCompilation(false)
+            .get();
+        CompiledProgram program = new SighRunner(options).compile(PROGRAM);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 32; ++i)
+                results.add(executor.submit(() -> execute(program)));
+            for (Future<String> result: results)
+                assertEquals(result.get(), "sum: 4950\n4950");
+        } finally {
+            executor.shutdown();
+        }
+
+        // the compiled code is shared by all executions
+        assertTrue(program.tiering().isCompiled((FunDeclarationNode) program.root.statements.get(0)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
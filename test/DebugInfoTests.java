@@ -0,0 +1,134 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.positions.LineMapString;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.uranium.Reactor;
+import norswap.utils.TestFixture;
+import norswap.utils.visitors.Walker;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.testng.annotations.Test;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static norswap.utils.Util.cast;
+import static org.testng.Assert.assertTrue;
+
+public final class DebugInfoTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String PROGRAM =
+        "fun inverse (x: Int): Int {\n" +
+        "    var y: Int = 100\n" +
+        "    return y / x\n" +
+        "}\n" +
+        "var a: Int = 4\n" +
+        "print(\"\" + inverse(a))\n" +
+        "return inverse(a - 4)\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static CompilationResult compile (String input, boolean debug)
+    {
+        ParseOptions options = ParseOptions.builder().get();
+        ParseResult parseResult = Autumn.parse(new SighGrammar().root, input, options);
+        if (!parseResult.fullMatch) throw new AssertionError(parseResult.toString());
+        SighNode tree = cast(parseResult.topValue());
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(tree);
+        reactor.run();
+
+        BytecodeCompiler compiler = new BytecodeCompiler(reactor);
+        if (debug) compiler.sourceInfo("test.si", new LineMapString("test.si", input));
+        return compiler.compile("DebugInfoTestsRun", tree);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static MethodNode method (ClassNode node, String name) {
+        return node.methods.stream().filter(m -> m.name.equals(name)).findFirst().get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Set<Integer> lines (MethodNode method)
+    {
+        Set<Integer> lines = new HashSet<>();
+        for (AbstractInsnNode insn: method.instructions.toArray())
+            if (insn instanceof LineNumberNode)
+                lines.add(((LineNumberNode) insn).line);
+        return lines;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Set<String> locals (MethodNode method)
+    {
+        Set<String> locals = new HashSet<>();
+        for (LocalVariableNode local: method.localVariables)
+            locals.add(local.name + ":" + local.desc);
+        return locals;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testTables ()
+    {
+        ClassNode node = new ClassNode();
+        new ClassReader(compile(PROGRAM, true).mainClass.bytes()).accept(node, 0);
+        assertEquals(node.sourceFile, "test.si");
+
+        MethodNode inverse = method(node, "inverse");
+        assertTrue(lines(inverse).containsAll(asList(1, 2, 3)), "" + lines(inverse));
+        assertTrue(locals(inverse).containsAll(asList("x:J", "y:J")));
+
+        MethodNode run = method(node, "run");
+        assertTrue(lines(run).containsAll(asList(5, 6, 7)), "" + lines(run));
+        assertTrue(locals(run).contains("a:J"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testDisabledByDefault ()
+    {
+        ClassNode node = new ClassNode();
+        new ClassReader(compile(PROGRAM, false).mainClass.bytes()).accept(node, 0);
+        assertEquals(node.sourceFile, null);
+        assertTrue(lines(method(node, "inverse")).isEmpty());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testStackTrace () throws Exception
+    {
+        Class<?> main = compile(PROGRAM, true).load(new ByteArrayClassLoader());
+        try {
+            main.getMethod("run", String[].class).invoke(null, (Object) new String[0]);
+            throw new AssertionError("expected a division by zero");
+        } catch (InvocationTargetException e) {
+            StackTraceElement top = e.getCause().getStackTrace()[0];
+            // the call may be inlined, but the line is that of the division
+            assertEquals(top.getFileName(), "test.si");
+            assertEquals(top.getLineNumber(), 3);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
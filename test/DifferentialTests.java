@@ -0,0 +1,129 @@
+import norswap.sigh.differential.Comparison;
+import norswap.sigh.differential.Comparison.Status;
+import norswap.sigh.differential.DifferentialHarness;
+import norswap.sigh.differential.DifferentialReport;
+import norswap.sigh.generator.ProgramGenerator;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertTrue;
+
+public final class DifferentialTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Programs exercising the features supported by both backends. */
+    private static final String[] PROGRAMS = {
+        "print(\"\" + (1 + 2 * 3 - 4 / 2 % 3))",
+        "print(\"\" + (1.5 * 2 + 1) + \" \" + (7 / 2.0))",
+        "print(\"\" + (1 < 2 && 2 <= 2 || false) + (\"a\" == \"a\") + (3 != 3))",
+        "var x: Int[] = [1, 2, 3] ; x[1] = 5 ; return x",
+        "var i: Int = 0 ; var s: String = \"\" ;" +
+            "while (i < 5) { s = s + i ; i = i + 1 } ; return s",
+        "fun fact (n: Int): Int { if (n <= 1) return 1 else return n * fact(n - 1) }" +
+            "return fact(10)",
+        "fun half (x: Float): Float { return x / 2 } print(\"\" + half(3)) return half(5)",
+        "struct Pair { var x: Int ; var y: Float } var p: Pair = $Pair(1, 2.0) ; p.x = 3 ;" +
+            "print(\"\" + p.x + \":\" + p.y)",
+        "var x: Int[] = [1] ; return x[3]",
+        "return 1 / 0",
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final DifferentialHarness harness = new DifferentialHarness(0, 1);
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBackendsAgree ()
+    {
+        List<Comparison> comparisons = new ArrayList<>();
+        for (int i = 0; i < PROGRAMS.length; ++i)
+            comparisons.add(harness.compare("program" + i, PROGRAMS[i]));
+        comparisons.add(harness.compare("generated",
+            new ProgramGenerator().scale(20).generate()));
+
+        DifferentialReport report = new DifferentialReport(comparisons);
+        assertTrue(report.mismatches().isEmpty(), report.toString());
+        for (Comparison comparison: comparisons) {
+            assertTrue(comparison.status == Status.MATCH, comparison.toString());
+            assertTrue(comparison.interpreterNanos >= 0 && comparison.compiledNanos >= 0);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testExamples () throws Exception
+    {
+        List<Path> scripts = new ArrayList<>();
+        try (Stream<Path> files = Files.list(Paths.get("examples"))) {
+            files.filter(it -> it.toString().endsWith(".si")).sorted().forEach(scripts::add);
+        }
+        assertTrue(!scripts.isEmpty());
+
+        // the compiler may not support every example, but must agree with the interpreter on those
+        // it supports
+        List<Comparison> comparisons = harness.compare(scripts);
+        DifferentialReport report = new DifferentialReport(comparisons);
+        assertTrue(report.mismatches().isEmpty(), report.toString());
+        for (Comparison comparison: comparisons)
+            if (comparison.name.endsWith("fizzbuzz.si"))
+                assertEquals(comparison.status, Status.MATCH);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testOutcomes ()
+    {
+        Comparison comparison = harness.compare("print", "print(\"a\") return [1.5, 2.0]");
+        assertEquals(comparison.interpreted.output, "a\n");
+        assertEquals(comparison.interpreted.result, "[1.5, 2.0]");
+        assertEquals(comparison.compiled, comparison.interpreted);
+
+        comparison = harness.compare("throws", "print(\"a\") return 1 / 0");
+        assertEquals(comparison.compiled.error, ArithmeticException.class.getName());
+        assertEquals(comparison.compiled, comparison.interpreted);
+
+        assertEquals(harness.compare("invalid", "return x").status, Status.INVALID);
+        assertEquals(harness.compare("unsupported", "fun f () {} return [f]").status,
+            Status.UNSUPPORTED);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBaseline () throws Exception
+    {
+        List<Comparison> comparisons =
+            Collections.singletonList(harness.compare("fact", PROGRAMS[5]));
+        Path file = Files.createTempFile("timings", ".tsv");
+        try {
+            new DifferentialReport(comparisons).saveTimings(file);
+            Map<String, long[]> timings = DifferentialReport.loadTimings(file);
+            assertEquals(timings.get("fact")[0], comparisons.get(0).interpreterNanos);
+
+            // a baseline 100 times faster
+            for (long[] values: timings.values())
+                for (int i = 0; i < values.length; ++i)
+                    values[i] = Math.max(1, values[i] / 100);
+            DifferentialReport report = new DifferentialReport(comparisons, timings, 0.1);
+            assertTrue(report.regressions().size() == 3, report.toString());
+            assertTrue(report.toString().contains("3 regressions"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
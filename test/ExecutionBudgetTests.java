@@ -0,0 +1,164 @@
+import norswap.autumn.AutumnTestFixture;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.budget.BudgetExceededException;
+import norswap.sigh.budget.BudgetExceededException.Limit;
+import norswap.sigh.budget.ExecutionBudget;
+import norswap.sigh.budget.ExecutionMeter;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.uranium.Reactor;
+import norswap.utils.IO;
+import norswap.utils.TestFixture;
+import norswap.utils.visitors.Walker;
+import org.testng.annotations.Test;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public final class ExecutionBudgetTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighGrammar grammar = new SighGrammar();
+    private final AutumnTestFixture autumnFixture = new AutumnTestFixture();
+
+    {
+        autumnFixture.runTwice = false;
+        autumnFixture.bottomClass = this.getClass();
+        autumnFixture.rule = grammar.root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String LOOP = "var i: Int = 0; while (true) { i = i + 1 }";
+
+    private static final ExecutionBudget STEPS = ExecutionBudget.builder().maxSteps(1000).get();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private RootNode root;
+    private Reactor reactor;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void analyze (String input)
+    {
+        root = autumnFixture.success(input).topValue();
+        reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(root);
+        reactor.run();
+        assertTrue(reactor.errors().isEmpty());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object interpret (String input, ExecutionBudget budget) {
+        analyze(input);
+        InterpreterOptions options = InterpreterOptions.builder().budget(budget).get();
+        return new Interpreter(reactor, options).interpret(root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void checkExceeded (String input, ExecutionBudget budget, Limit limit)
+    {
+        try {
+            interpret(input, budget);
+            fail("budget not enforced");
+        } catch (BudgetExceededException e) {
+            assertEquals(e.limit, limit);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testInterpreter ()
+    {
+        checkExceeded(LOOP, STEPS, Limit.STEPS);
+        checkExceeded("fun f (x: Int): Int { return f(x) } f(1)", STEPS, Limit.STEPS);
+        checkExceeded(LOOP, ExecutionBudget.builder().timeout(20, TimeUnit.MILLISECONDS).get(),
+            Limit.TIME);
+
+        ExecutionBudget arrays = ExecutionBudget.builder()
+            .maxArrayLength(100)
+            .maxAllocatedElements(1000)
+            .get();
+        checkExceeded("var a: Int[] = 0:1000000000", arrays, Limit.ARRAY_LENGTH);
+        checkExceeded("var a: Int[] = 0:100; while (true) { a = a + 1 }", arrays, Limit.ALLOCATION);
+
+        // within the budget
+        assertEquals(interpret(
+            "var a: Int[] = 0:10; var i: Int = 0; while (i < 10) { a = a + 1; i = i + 1 } return a[9]",
+            ExecutionBudget.builder().maxSteps(10).maxArrayLength(10).get()),
+            19L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testTiered ()
+    {
+        // the compiled function enforces the budget of the interpreter
+        analyze("fun spin (n: Int): Int { var i: Int = 0; while (i < n) { i = i + 1 } return i }" +
+            "var j: Int = 0; while (j < 100) { spin(100) ; j = j + 1 }");
+        InterpreterOptions options = InterpreterOptions.builder()
+            .tieringThreshold(10)
+            .backgroundCompilation(false)
+            .budget(ExecutionBudget.builder().maxSteps(5000).get())
+            .get();
+        Interpreter interpreter = new Interpreter(reactor, options);
+        try {
+            interpreter.interpret(root);
+            fail("budget not enforced");
+        } catch (BudgetExceededException e) {
+            assertEquals(e.limit, Limit.STEPS);
+        }
+        assertTrue(interpreter.tiering().isCompiled((FunDeclarationNode) root.statements.get(0)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBytecode ()
+    {
+        analyze(LOOP);
+        BytecodeCompiler compiler = new BytecodeCompiler(reactor, null, STEPS);
+        Class<?> mainClass = compiler.compile("ExecutionBudgetTestsRun", root)
+            .load(new ByteArrayClassLoader());
+
+        // both entry points enforce the budget, and restore the previous meter
+        Runnable[] entryPoints = {
+            () -> CompilationResult.callMain(mainClass),
+            () -> CompilationResult.callRun(mainClass) };
+        for (Runnable entryPoint: entryPoints) {
+            try {
+                entryPoint.run();
+                fail("budget not enforced");
+            } catch (RuntimeException e) {
+                Throwable cause = e.getCause().getCause(); // InvocationTargetException
+                assertTrue(cause instanceof BudgetExceededException, String.valueOf(cause));
+                assertEquals(((BudgetExceededException) cause).limit, Limit.STEPS);
+            }
+            assertEquals(ExecutionMeter.current(), null);
+        }
+
+        analyze("fun f (x: Int): Int { return x + 1 } var i: Int = 0; while (i < 10) { i = f(i) } print(\"\" + i)");
+        Class<?> klass = new BytecodeCompiler(reactor, null, STEPS)
+            .compile("ExecutionBudgetTestsRun", root)
+            .load(new ByteArrayClassLoader());
+        assertEquals(IO.captureStdout(() -> { CompilationResult.callMain(klass); return null; }).a,
+            "10\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
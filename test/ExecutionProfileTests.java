@@ -0,0 +1,192 @@
+import norswap.autumn.AutumnTestFixture;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.*;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.profile.ExecutionProfile;
+import norswap.uranium.Reactor;
+import norswap.utils.IO;
+import norswap.utils.TestFixture;
+import norswap.utils.visitors.Walker;
+import org.testng.annotations.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.testng.Assert.assertTrue;
+
+public final class ExecutionProfileTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighGrammar grammar = new SighGrammar();
+    private final AutumnTestFixture autumnFixture = new AutumnTestFixture();
+
+    {
+        autumnFixture.runTwice = false;
+        autumnFixture.bottomClass = this.getClass();
+        autumnFixture.rule = grammar.root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String PROGRAM =
+        "fun classify (x: Int): Int { if (x % 4 == 0) return 1 else return 0 }" +
+        "var count: Int = 0;" +
+        "var i: Int = 0;" +
+        "while (i < 100) { count = count + classify(i); i = i + 1 }" +
+        "var a: Int[] = [1, 2, 3];" +
+        "print(\"\" + count + a[2])";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private RootNode root;
+    private Reactor reactor;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void analyze (String input)
+    {
+        root = autumnFixture.success(input).topValue();
+        reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(root);
+        reactor.run();
+        assertTrue(reactor.errors().isEmpty());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String interpret (ExecutionProfile profile) {
+        InterpreterOptions options = InterpreterOptions.builder().profile(profile).get();
+        return IO.captureStdout(() -> new Interpreter(reactor, options).interpret(root)).a;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String compileAndRun (ExecutionProfile profile)
+    {
+        CompilationResult result =
+            new BytecodeCompiler(reactor, profile).compile("ExecutionProfileTestsRun", root);
+        Class<?> mainClass = result.load(new ByteArrayClassLoader());
+        return IO.captureStdout(() -> {
+            CompilationResult.callMain(mainClass);
+            return null;
+        }).a;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testRecording ()
+    {
+        analyze(PROGRAM);
+        ExecutionProfile profile = new ExecutionProfile();
+        assertEquals(interpret(profile), "253\n");
+
+        FunDeclarationNode classify = (FunDeclarationNode) root.statements.get(0);
+        IfNode ifNode = (IfNode) classify.block.statements.get(0);
+        WhileNode loop = (WhileNode) root.statements.get(3);
+
+        assertEquals(profile.callCount(classify), 100L);
+        assertEquals(profile.branchCount(ifNode), 100L);
+        assertEquals(profile.takenProbability(ifNode), 0.25);
+        assertEquals(profile.loopEntries(loop), 1L);
+        assertEquals(profile.averageTripCount(loop), 100.0);
+        assertEquals(profile.maxTripCount(loop), 100L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testAccumulation ()
+    {
+        analyze(PROGRAM);
+        ExecutionProfile profile = new ExecutionProfile();
+        interpret(profile);
+        interpret(profile);
+
+        FunDeclarationNode classify = (FunDeclarationNode) root.statements.get(0);
+        WhileNode loop = (WhileNode) root.statements.get(3);
+
+        assertEquals(profile.callCount(classify), 200L);
+        assertEquals(profile.loopEntries(loop), 2L);
+        assertEquals(profile.maxTripCount(loop), 100L);
+
+        // executions are merged when their recorder is flushed
+        ExecutionProfile.Recorder recorder = profile.recorder();
+        recorder.recordLoop(loop, 150);
+        assertEquals(profile.loopEntries(loop), 2L);
+        recorder.flush();
+        assertEquals(profile.loopEntries(loop), 3L);
+        assertEquals(profile.maxTripCount(loop), 150L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testSerialization () throws IOException
+    {
+        analyze(PROGRAM);
+        ExecutionProfile profile = new ExecutionProfile();
+        interpret(profile);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        profile.write(out);
+        ExecutionProfile copy = ExecutionProfile.read(new ByteArrayInputStream(out.toByteArray()));
+
+        // the profile applies to a new parse of the same source
+        analyze(PROGRAM);
+        WhileNode loop = (WhileNode) root.statements.get(3);
+        FunDeclarationNode classify = (FunDeclarationNode) root.statements.get(0);
+        assertEquals(copy.averageTripCount(loop), 100.0);
+        assertEquals(copy.callCount(classify), 100L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testVersion1 () throws IOException
+    {
+        analyze(PROGRAM);
+        FunDeclarationNode classify = (FunDeclarationNode) root.statements.get(0);
+
+        // an array access entry (no longer recorded) followed by a call entry
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x53494750);
+        out.writeByte(1);
+        out.writeByte(2);
+        out.write(new byte[] { 2, 10, 14, 7, 1, 3, 3, 3, 0, 0, 1 });
+        out.write(new byte[] { 3, (byte) classify.span.start, (byte) classify.span.end, 42 });
+
+        ExecutionProfile profile =
+            ExecutionProfile.read(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(profile.callCount(classify), 42L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testGuidedCompilation ()
+    {
+        String input =
+            "var i: Int = 0; var odd: Int = 0;" +
+            "while (i < 25) { if (i % 5 == 0) print(\"\" + i) else odd = odd + 1; i = i + 1 }" +
+            "print(\"\" + odd)";
+
+        analyze(input);
+        ExecutionProfile profile = new ExecutionProfile();
+        String expected = interpret(profile);
+        assertEquals(expected, "0\n5\n10\n15\n20\n20\n");
+        assertEquals(compileAndRun(profile), expected);
+        assertEquals(compileAndRun(null), expected);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -135,6 +135,21 @@ public class GrammarTests extends AutumnTestFixture {
         successExpect("while 1 < 2 { return } ", new WhileNode(null,
             new BinaryExpressionNode(null, intlit(1), LOWER, intlit(2)),
             new BlockNode(null, asList(new ReturnNode(null, null)))));
+
+        // identifiers that start like keywords
+        successExpect("iffy()", new ExpressionStatementNode(null,
+            new FunCallNode(null, new ReferenceNode(null, "iffy"), asList())));
+        successExpect("returned = 1", new ExpressionStatementNode(null,
+            new AssignmentNode(null, new ReferenceNode(null, "returned"), intlit(1))));
+        successExpect("x = 1.5", new ExpressionStatementNode(null,
+            new AssignmentNode(null, new ReferenceNode(null, "x"), floatlit(1.5))));
+        successExpect("index[0] = 1", new ExpressionStatementNode(null,
+            new AssignmentNode(null, new ArrayAccessNode(null,
+                new ReferenceNode(null, "index"), intlit(0)), intlit(1))));
+        successExpect("var_ = 1", new ExpressionStatementNode(null,
+            new AssignmentNode(null, new ReferenceNode(null, "var_"), intlit(1))));
+        failure("x");
+        failure("1 + 2");
     }
 
     // ---------------------------------------------------------------------------------------------
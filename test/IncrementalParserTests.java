@@ -0,0 +1,156 @@
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.StatementNode;
+import norswap.sigh.generator.ProgramGenerator;
+import norswap.sigh.parser.IncrementalParser;
+import norswap.sigh.parser.SighParser;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.text.ParseException;
+import java.util.Random;
+
+import static org.testng.Assert.assertTrue;
+
+public final class IncrementalParserTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Applies the edit to the source and checks that reparsing yields the same tree as parsing the
+     * new source, with the same statement spans. Returns the reparsed tree.
+     */
+    private RootNode check
+            (RootNode previous, String source, int start, int end, String replacement)
+    {
+        String newSource = source.substring(0, start) + replacement + source.substring(end);
+        RootNode expected = SighParser.parse(newSource);
+        RootNode actual = IncrementalParser.reparse(previous, source, start, end, replacement);
+        assertEquals(actual, expected);
+        assertEquals(actual.statements.size(), expected.statements.size());
+        for (int i = 0; i < actual.statements.size(); ++i) {
+            StatementNode statement = actual.statements.get(i);
+            assertEquals(statement.span.start, expected.statements.get(i).span.start);
+            assertEquals(statement.span.end, expected.statements.get(i).span.end);
+        }
+        return actual;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private RootNode check (String source, String target, String replacement)
+    {
+        int start = source.indexOf(target);
+        return check(SighParser.parse(source), source, start, start + target.length(), replacement);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testReuse ()
+    {
+        String source = "var a: Int = 1\nvar b: Int = 2\nvar c: Int = 3\nvar d: Int = 4";
+        RootNode previous = SighParser.parse(source);
+
+        // same length: all other statements are reused as is
+        int start = source.indexOf("3");
+        RootNode root = check(previous, source, start, start + 1, "7");
+        assertTrue(root.statements.get(0) == previous.statements.get(0));
+        assertTrue(root.statements.get(3) == previous.statements.get(3));
+
+        // different length: the statements after the edit are shifted
+        root = check(previous, source, start, start + 1, "42");
+        assertTrue(root.statements.get(0) == previous.statements.get(0));
+        assertEquals(root.statements.get(3).span.start, previous.statements.get(3).span.start + 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testSuccessiveEdits ()
+    {
+        // the statements after the edits are only shifted when retrieved, once for all edits
+        String source = "var a: Int = 1\nvar b: Int = 2\nvar c: Int = 3\nvar d: Int = 4";
+        RootNode root = SighParser.parse(source);
+        for (int i = 0; i < 3; ++i) {
+            int start = source.indexOf("= 1") + 1;
+            root = IncrementalParser.reparse(root, source, start, start, " ");
+            source = source.substring(0, start) + " " + source.substring(start);
+        }
+        int start = source.indexOf("= 2") + 2;
+        root = check(root, source, start, start + 1, "5");
+        assertTrue(root.statements.get(3) == root.statements.get(3));
+        assertEquals(root.statements.get(3).span.start, source.indexOf("var d"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testStatementBoundaries ()
+    {
+        // edits that change where statements start and end
+        check("return x\nfoo = 1\nbar = 2", "x", "");
+        check("if c f()\ng()\nh()", "\ng()", "\nelse g()");
+        check("f()\ng()\nh()", "\ng()", "\n(g)");
+        check("x = a\ny = 1\nz = 2", "\ny = 1", "\n-1 = y");
+        check("x = 1\ny = 2", "x = 1", "x = 1\nw = 0");
+        check("x = 1\ny = 2", "y = 2", "y = 2 // comment\nz = 3");
+        check("x = 1\n/* c */ y = 2\nz = 3", "/* c */ ", "");
+        check("for x: Int in a f(x)\ny = 1", "f(x)", "g(x)");
+        check("for var i: Int = 0 do i = i + 1 f(i)\ny = 1", "y = 1", "y = 2");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testErrors ()
+    {
+        String source = "fun f () { return 1 }\nx = f()\ny = 2";
+        RootNode previous = SighParser.parse(source);
+        int start = source.indexOf("x = f()");
+        String[] edits = { "{", "x = ", "\"", "/*", "" };
+        for (String edit: edits) {
+            int end = edit.isEmpty() ? source.length() : start;
+            String newSource = source.substring(0, start) + edit + source.substring(end);
+            boolean valid = true;
+            try {
+                SighParser.parse(newSource);
+            } catch (RuntimeException e) {
+                valid = false;
+            }
+            try {
+                IncrementalParser.reparse(previous, source, start, end, edit);
+                assertTrue(valid, "expected a syntax error for: " + newSource);
+            } catch (RuntimeException e) {
+                assertTrue(!valid && e.getCause() instanceof ParseException, e.toString());
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testRandomEdits ()
+    {
+        String[] snippets = {
+            "", " ", "\n", "x", "1", "-", "(", ")", "{", "}", "return", " = ", "+", "else",
+            "\nprint(\"a\")\n", "\nvar q: Int = 3\n", "\nreturn\n", "\n(f)(1)\n", "// c\n" };
+        Random random = new Random(42);
+        String source = new ProgramGenerator().seed(42).scale(10).generate();
+        RootNode root = SighParser.parse(source);
+
+        for (int i = 0; i < 500; ++i) {
+            int start = random.nextInt(source.length() + 1);
+            int end = Math.min(source.length(), start + random.nextInt(3) * random.nextInt(20));
+            String replacement = snippets[random.nextInt(snippets.length)];
+            String newSource = source.substring(0, start) + replacement + source.substring(end);
+            try {
+                SighParser.parse(newSource);
+            } catch (RuntimeException e) {
+                continue; // covered by testErrors
+            }
+            root = check(root, source, start, end, replacement);
+            source = newSource;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
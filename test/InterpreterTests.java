@@ -482,5 +482,32 @@ public final class InterpreterTests extends TestFixture {
 
     // ---------------------------------------------------------------------------------------------
 
+    @Test public void testLongConcatenation()
+    {
+        rule = grammar.root;
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; ++i) expected.append(i).append(',');
+
+        // long concatenation results are ropes, flattened when returned, printed or stringified
+        String loop = "var s: String = \"\"; var i: Int = 0; while (i < 2000) { s = s + i + \",\"; i = i + 1 }";
+        check(loop + "return s", expected.toString());
+        check(loop + "print(s)", null, expected + "\n");
+        check(loop + "return [s]", new Object[]{ expected.toString() });
+        check(loop + "print(\"\" + [s, \"x\"])", null, "[" + expected + ", x]\n");
+
+        // arrays of equal strings are equal, whether these are ropes or not
+        String twice = loop + "var t: String = \"\"; i = 0; while (i < 2000) { t = t + i + \",\"; i = i + 1 }";
+        check(twice + "return [s] == [t]", true);
+        check(twice + "return [s] != [t]", false);
+        check(twice + "return [s] == [\"\" + t + \"x\"]", false);
+
+        // ropes in struct fields are flattened when returned
+        HashMap<String, Object> box = new HashMap<>();
+        box.put("s", expected.toString());
+        check("struct Box { var s: String }" + loop + "return $Box(s)", box);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     // NOTE(norswap): Not incredibly complete, but should cover the basics.
 }
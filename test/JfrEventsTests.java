@@ -0,0 +1,96 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import norswap.sigh.SighRunner;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.jfr.Jfr;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertTrue;
+
+public final class JfrEventsTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] EVENTS = {
+        "norswap.sigh.Parse", "norswap.sigh.Analysis", "norswap.sigh.Compilation",
+        "norswap.sigh.ClassLoad", "norswap.sigh.Execution", "norswap.sigh.FunctionCall" };
+
+    private static final String PROGRAM =
+        "fun add (a: Int, b: Int): Int { return a + b }" +
+        "var sum: Int = 0;" +
+        "var i: Int = 0;" +
+        "while (i < 20) { sum = add(sum, i); i = i + 1 }" +
+        "return sum";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<RecordedEvent> record (Runnable body) throws Exception
+    {
+        Path file = Files.createTempFile("sigh", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String event: EVENTS)
+                recording.enable(event);
+            recording.start();
+            body.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<RecordedEvent> named (List<RecordedEvent> events, String name) {
+        return events.stream()
+            .filter(it -> it.getEventType().getName().equals(name))
+            .collect(Collectors.toList());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testEvents () throws Exception
+    {
+        assertTrue(Jfr.AVAILABLE); // this test uses the jdk.jfr API
+        InterpreterOptions options = InterpreterOptions.builder()
+            .tieringThreshold(10)
+            .backgroundCompilation(false)
+            .callEventSampling(4)
+            .get();
+
+        List<RecordedEvent> events = record(() ->
+            assertEquals(new SighRunner(options).compile(PROGRAM, "add.si").execute(), 190L));
+
+        RecordedEvent parse = named(events, "norswap.sigh.Parse").get(0);
+        assertEquals(parse.getString("script"), "add.si");
+        assertEquals(parse.getInt("sourceLength"), PROGRAM.length());
+        assertTrue(parse.getBoolean("succeeded"));
+
+        assertEquals(named(events, "norswap.sigh.Analysis").get(0).getInt("errors"), 0);
+
+        RecordedEvent compilation = named(events, "norswap.sigh.Compilation").get(0);
+        assertEquals(compilation.getInt("functions"), 1);
+        assertTrue(compilation.getInt("bytecodeSize") > 0);
+        assertTrue(!named(events, "norswap.sigh.ClassLoad").isEmpty());
+
+        RecordedEvent execution = named(events, "norswap.sigh.Execution").get(0);
+        assertEquals(execution.getString("script"), "add.si");
+        assertTrue(execution.getBoolean("succeeded"));
+
+        // one in every 4 of the 20 calls, whether the function is compiled or not
+        List<RecordedEvent> calls = named(events, "norswap.sigh.FunctionCall");
+        assertEquals(calls.size(), 5);
+        assertEquals(calls.get(0).getString("function"), "add");
+        assertEquals(calls.get(0).getInt("spanStart"), 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,58 @@
+import norswap.autumn.positions.LineMapString;
+import norswap.sigh.SighRunner;
+import norswap.sigh.ast.BlockNode;
+import norswap.sigh.ast.WhileNode;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.profile.NodeProfile;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.util.List;
+
+import static org.testng.Assert.assertTrue;
+
+public final class NodeProfileTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String PROGRAM =
+        "var sum: Int = 0\n" +
+        "var i: Int = 0\n" +
+        "while (i < 100) {\n" +
+        "    sum = sum + i * i\n" +
+        "    i = i + 1\n" +
+        "}\n" +
+        "return sum\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testCounters ()
+    {
+        NodeProfile profile = new NodeProfile();
+        InterpreterOptions options = InterpreterOptions.builder().nodeProfile(profile).get();
+        CompiledProgram program = new SighRunner(options).compile(PROGRAM);
+        assertEquals(program.execute(), 328350L);
+        assertEquals(program.execute(), 328350L);
+
+        WhileNode loop = (WhileNode) program.root.statements.get(2);
+        assertEquals(profile.get(loop).count, 2L);
+        assertEquals(profile.get(loop.condition).count, 2 * 101L);
+        BlockNode body = (BlockNode) loop.body;
+        assertEquals(profile.get(body.statements.get(0)).count, 2 * 100L);
+
+        NodeProfile.Entry entry = profile.get(loop);
+        assertTrue(entry.selfNanos <= entry.totalNanos);
+
+        List<NodeProfile.Entry> top = profile.top(3);
+        assertEquals(top.size(), 3);
+        assertTrue(top.get(0).selfNanos >= top.get(1).selfNanos);
+
+        String report = profile.report(new LineMapString("<test>", PROGRAM), 5);
+        assertEquals(report.split("\n").length, 6); // header + 5 rows
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+
+}
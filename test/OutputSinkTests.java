@@ -0,0 +1,123 @@
+import norswap.autumn.AutumnTestFixture;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.output.ChannelOutputSink;
+import norswap.sigh.output.FlushPolicy;
+import norswap.sigh.output.Output;
+import norswap.sigh.output.OutputSink;
+import norswap.uranium.Reactor;
+import norswap.utils.TestFixture;
+import norswap.utils.visitors.Walker;
+import org.testng.annotations.Test;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertTrue;
+
+public final class OutputSinkTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private String written() {
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBuffering ()
+    {
+        bytes.reset();
+        ChannelOutputSink sink = new ChannelOutputSink(Channels.newChannel(bytes));
+        sink.println("hello");
+        sink.println("wörld ✓");
+        assertEquals(written(), "");
+        sink.flush();
+        assertEquals(written(), "hello\nwörld ✓\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testThresholdAndPolicy ()
+    {
+        bytes.reset();
+        ChannelOutputSink sink =
+            new ChannelOutputSink(Channels.newChannel(bytes), 8, FlushPolicy.ON_DEMAND);
+        sink.println("0123456789ééé");
+        assertTrue(written().length() >= 8); // full buffers were written
+        sink.flush();
+        assertEquals(written(), "0123456789ééé\n");
+
+        bytes.reset();
+        sink = new ChannelOutputSink(Channels.newChannel(bytes), 64, FlushPolicy.EVERY_LINE);
+        sink.println("a");
+        assertEquals(written(), "a\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String LOOP =
+        "var i: Int = 0; while (i < 3) { print(\"\" + i); i = i + 1 }";
+
+    private SighNode root;
+
+    private Reactor analyze (String source)
+    {
+        AutumnTestFixture autumnFixture = new AutumnTestFixture();
+        autumnFixture.runTwice = false;
+        autumnFixture.bottomClass = this.getClass();
+        autumnFixture.rule = new SighGrammar().root;
+        root = autumnFixture.success(source).topValue();
+
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(root);
+        reactor.run();
+        return reactor;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testInterpreterSink ()
+    {
+        Reactor reactor = analyze(LOOP);
+        bytes.reset();
+        ChannelOutputSink sink = new ChannelOutputSink(Channels.newChannel(bytes));
+        InterpreterOptions options = InterpreterOptions.builder().output(sink).get();
+        new Interpreter(reactor, options).interpret(root);
+        assertEquals(written(), "0\n1\n2\n"); // flushed at the end of the execution
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testCompiledRunFlushes ()
+    {
+        Reactor reactor = analyze(LOOP + " return i");
+        Class<?> mainClass = new BytecodeCompiler(reactor)
+            .compile("OutputSinkTestsRun", root)
+            .load(new ByteArrayClassLoader());
+
+        bytes.reset();
+        OutputSink previous = Output.install(new ChannelOutputSink(Channels.newChannel(bytes)));
+        try {
+            assertEquals(CompilationResult.callRun(mainClass), 3L);
+            assertEquals(written(), "0\n1\n2\n"); // flushed when run returns
+        } finally {
+            Output.install(previous);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
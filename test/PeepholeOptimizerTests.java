@@ -0,0 +1,100 @@
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.PeepholeOptimizer;
+import norswap.utils.TestFixture;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.testng.annotations.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.*;
+
+public final class PeepholeOptimizerTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Integer> opcodes (MethodNode method)
+    {
+        List<Integer> opcodes = new ArrayList<>();
+        AbstractInsnNode insn = method.instructions.getFirst();
+        for (; insn != null; insn = insn.getNext())
+            if (insn.getOpcode() >= 0)
+                opcodes.add(insn.getOpcode());
+        return opcodes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object call (MethodNode method, Object... args) throws Exception
+    {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        writer.visit(V1_8, ACC_PUBLIC, "PeepholeOptimizerTestsRun", null, "java/lang/Object", null);
+        method.accept(writer);
+        writer.visitEnd();
+        ByteArrayClassLoader loader = new ByteArrayClassLoader();
+        Class<?> klass = loader.defineClass("PeepholeOptimizerTestsRun", writer.toByteArray());
+        for (java.lang.reflect.Method m: klass.getMethods())
+            if (m.getName().equals(method.name))
+                return m.invoke(null, args);
+        throw new AssertionError("method not found");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testLoop () throws Exception
+    {
+        // var x: Float = 3; while (p < 10) { x = x + p; p = p + 1 } return x
+        MethodNode m = new MethodNode(ASM5, ACC_PUBLIC | ACC_STATIC, "f", "(J)D", null, null);
+        Label start = new Label(), end = new Label(), t = new Label(), e = new Label();
+        m.visitCode();
+        m.visitLdcInsn(3L); m.visitInsn(L2D); m.visitVarInsn(DSTORE, 2);
+        m.visitLabel(start);
+        m.visitVarInsn(LLOAD, 0); m.visitLdcInsn(10L); m.visitInsn(LCMP);
+        m.visitJumpInsn(IFLT, t); m.visitInsn(ICONST_0); m.visitJumpInsn(GOTO, e);
+        m.visitLabel(t); m.visitInsn(ICONST_1);
+        m.visitLabel(e); m.visitJumpInsn(IFEQ, end);
+        m.visitVarInsn(DLOAD, 2); m.visitVarInsn(LLOAD, 0); m.visitInsn(L2D); m.visitInsn(DADD);
+        m.visitInsn(DUP2); m.visitVarInsn(DSTORE, 2); m.visitInsn(POP2);
+        m.visitVarInsn(LLOAD, 0); m.visitInsn(LCONST_1); m.visitInsn(LADD);
+        m.visitInsn(DUP2); m.visitVarInsn(LSTORE, 0); m.visitInsn(POP2);
+        m.visitJumpInsn(GOTO, start);
+        m.visitLabel(end);
+        m.visitVarInsn(DLOAD, 2); m.visitInsn(DRETURN);
+        m.visitInsn(ACONST_NULL); m.visitInsn(ARETURN); // unreachable
+        m.visitMaxs(-1, -1);
+        m.visitEnd();
+
+        PeepholeOptimizer.optimize(m);
+        assertEquals(opcodes(m), Arrays.asList(
+            LDC, DSTORE,
+            LLOAD, LDC, LCMP, IFGE,
+            DLOAD, LLOAD, L2D, DADD, DSTORE,
+            LLOAD, LCONST_1, LADD, LSTORE, GOTO,
+            DLOAD, DRETURN));
+        assertEquals(call(m, 0L), 48.0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testStoreLoad () throws Exception
+    {
+        MethodNode m = new MethodNode(ASM5, ACC_PUBLIC | ACC_STATIC, "g",
+            "(Ljava/lang/String;)Ljava/lang/String;", null, null);
+        m.visitCode();
+        m.visitVarInsn(ALOAD, 0); m.visitVarInsn(ASTORE, 1); m.visitVarInsn(ALOAD, 1);
+        m.visitInsn(ARETURN);
+        m.visitMaxs(-1, -1);
+        m.visitEnd();
+
+        PeepholeOptimizer.optimize(m);
+        assertEquals(opcodes(m), Arrays.asList(ALOAD, DUP, ASTORE, ARETURN));
+        assertEquals(call(m, "x"), "x");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,73 @@
+import norswap.sigh.SighRunner;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.generator.ProgramGenerator;
+import norswap.sigh.interpreter.CompiledProgram;
+import norswap.sigh.output.ChannelOutputSink;
+import norswap.sigh.output.Output;
+import norswap.sigh.output.OutputSink;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertTrue;
+
+public final class ProgramGeneratorTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testDeterministic ()
+    {
+        assertEquals(new ProgramGenerator().seed(7).generate(),
+                     new ProgramGenerator().seed(7).generate());
+        assertTrue(!new ProgramGenerator().seed(7).generate()
+            .equals(new ProgramGenerator().seed(8).generate()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testScale ()
+    {
+        int small = new ProgramGenerator().scale(10).generate().length();
+        int large = new ProgramGenerator().scale(100).generate().length();
+        assertTrue(large > 8 * small && large < 12 * small, small + " vs " + large);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBackendsAgree ()
+    {
+        String source = new ProgramGenerator()
+            .functions(50)
+            .structs(5)
+            .nesting(6)
+            .expressionLength(20)
+            .arrayLength(40)
+            .generate();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CompiledProgram program = new SighRunner().compile(source);
+        Object result = program.execute(new ChannelOutputSink(Channels.newChannel(bytes)));
+        String interpreted = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(interpreted, result + "\n");
+
+        bytes.reset();
+        CompilationResult compiled = new BytecodeCompiler(program.reactor)
+            .compile("ProgramGeneratorTestsRun", program.root);
+        OutputSink previous = Output.install(new ChannelOutputSink(Channels.newChannel(bytes)));
+        try {
+            CompilationResult.callMain(compiled.load(new ByteArrayClassLoader()));
+        } finally {
+            Output.install(previous);
+        }
+        assertEquals(new String(bytes.toByteArray(), StandardCharsets.UTF_8), interpreted);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
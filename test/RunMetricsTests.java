@@ -0,0 +1,102 @@
+import norswap.sigh.SemanticErrorsException;
+import norswap.sigh.SighRunner;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.metrics.MetricsListener;
+import norswap.sigh.metrics.Phase;
+import norswap.sigh.metrics.RunMetrics;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public final class RunMetricsTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class RecordingListener implements MetricsListener
+    {
+        final List<Phase> phases = new ArrayList<>();
+        final List<RunMetrics> runs = new ArrayList<>();
+
+        @Override public void phaseCompleted (Phase phase, RunMetrics metrics) {
+            phases.add(phase);
+        }
+
+        @Override public void runCompleted (RunMetrics metrics) {
+            runs.add(metrics);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testMeasure ()
+    {
+        RunMetrics metrics = new SighRunner().measure("var x: Int = 1 + 2; return x * 3");
+        assertEquals(metrics.result(), 9L);
+
+        for (Phase phase: Phase.values()) {
+            assertTrue(metrics.measured(phase), phase.toString());
+            assertTrue(metrics.wallNanos(phase) >= 0);
+        }
+        assertTrue(metrics.allocatedBytes(Phase.PARSE) != 0); // either measured or -1
+
+        // root, var decl, type, binary expression, 2 literals, return, binary, reference, literal
+        assertEquals(metrics.nodes(), 10);
+        assertTrue(metrics.rules() > 0);
+        assertEquals(metrics.errors(), 0);
+        assertTrue(metrics.totalWallNanos() > 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testListener ()
+    {
+        RecordingListener listener = new RecordingListener();
+        SighRunner runner = new SighRunner(InterpreterOptions.DEFAULT, listener);
+
+        assertEquals(runner.run("return 1 + 1"), 2L);
+        assertEquals(listener.phases.size(), 4);
+        assertEquals(listener.phases.get(0), Phase.PARSE);
+        assertEquals(listener.phases.get(3), Phase.EXECUTION);
+        assertEquals(listener.runs.size(), 1);
+
+        // compiling only measures the first phases
+        runner.compile("return 1");
+        assertEquals(listener.runs.size(), 2);
+        assertFalse(listener.runs.get(1).measured(Phase.EXECUTION));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testFailure ()
+    {
+        RecordingListener listener = new RecordingListener();
+        SighRunner runner = new SighRunner(InterpreterOptions.DEFAULT, listener);
+
+        try {
+            runner.measure("return 1 + true");
+            throw new AssertionError("expected semantic errors");
+        } catch (SemanticErrorsException e) {
+            RunMetrics metrics = listener.runs.get(0);
+            assertTrue(metrics.measured(Phase.REACTOR));
+            assertFalse(metrics.measured(Phase.EXECUTION));
+            assertTrue(metrics.errors() > 0);
+        }
+
+        // run reports the errors on the standard error
+        try {
+            runner.run("return 1 + true");
+            throw new IllegalStateException("expected semantic errors");
+        } catch (AssertionError e) {
+            assertTrue(e.getCause() instanceof SemanticErrorsException, e.toString());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,51 @@
+import norswap.autumn.positions.LineMapString;
+import norswap.sigh.SighRunner;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.sigh.profile.SamplingProfiler;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertTrue;
+
+public final class SamplingProfilerTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String PROGRAM =
+        "fun fib (n: Int): Int {\n" +
+        "    if (n <= 1) { return n }\n" +
+        "    return fib(n - 1) + fib(n - 2)\n" +
+        "}\n" +
+        "return fib(22)\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testCollapsedStacks () throws Exception
+    {
+        SamplingProfiler profiler = new SamplingProfiler(
+            new LineMapString("<test>", PROGRAM), 100, TimeUnit.MICROSECONDS);
+        InterpreterOptions options = InterpreterOptions.builder().sampler(profiler).get();
+
+        profiler.start();
+        try {
+            assertEquals(new SighRunner(options).run(PROGRAM), 17711L);
+        } finally {
+            profiler.stop();
+        }
+
+        assertTrue(profiler.samples() > 0);
+        StringWriter out = new StringWriter();
+        profiler.writeCollapsed(out);
+        boolean recursive = false;
+        for (String line: out.toString().split("\n")) {
+            assertTrue(line.matches("main:[15](;fib:[123])* \\d+"), line);
+            recursive |= line.contains(";fib:3;fib:");
+        }
+        assertTrue(recursive, out.toString());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
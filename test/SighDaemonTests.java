@@ -0,0 +1,122 @@
+import norswap.sigh.daemon.SighClient;
+import norswap.sigh.daemon.SighDaemon;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public final class SighDaemonTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testDaemon () throws Exception
+    {
+        Path tokenFile = Files.createTempDirectory("sigh-daemon").resolve("token");
+        SighDaemon daemon = new SighDaemon(InterpreterOptions.DEFAULT, 0, 2, tokenFile);
+        Thread thread = new Thread(daemon::serve);
+        thread.start();
+        SighClient client = new SighClient(daemon.port(), tokenFile);
+
+        try {
+            String source = "var i: Int = 0; while (i < 3) { print(\"line \" + i); i = i + 1 }";
+            for (int i = 0; i < 2; ++i) { // the second run uses the cached program
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertNull(client.runSource(source, out));
+                assertEquals(out.toString("UTF-8"), "line 0\nline 1\nline 2\n");
+            }
+
+            Path script = Files.createTempFile("sigh-daemon", ".si");
+            Files.write(script, "print(\"héllo\")".getBytes(StandardCharsets.UTF_8));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertNull(client.runFile(script, out));
+            assertEquals(out.toString("UTF-8"), "héllo\n");
+
+            // output printed before the error is still streamed
+            out = new ByteArrayOutputStream();
+            String error = client.runSource("print(\"a\"); var x: Int[] = [1]; print(\"\" + x[3])", out);
+            assertNotNull(error);
+            assertEquals(out.toString("UTF-8"), "a\n");
+
+            error = client.runSource("var x: Int = \"a\"", new ByteArrayOutputStream());
+            assertTrue(error.contains("SemanticErrorsException"), error);
+
+            assertNotNull(client.runFile(script.resolveSibling("missing.si"),
+                new ByteArrayOutputStream()));
+        } finally {
+            client.shutdown();
+            thread.join(10_000);
+        }
+        assertFalse(thread.isAlive());
+        assertFalse(Files.exists(tokenFile)); // deleted on shutdown
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testAuthentication () throws Exception
+    {
+        Path directory = Files.createTempDirectory("sigh-daemon");
+        Path tokenFile = directory.resolve("token");
+        SighDaemon daemon = new SighDaemon(InterpreterOptions.DEFAULT, 0, 2, tokenFile);
+        new Thread(daemon::serve).start();
+        try {
+            if (Files.getFileStore(tokenFile).supportsFileAttributeView("posix")) {
+                String permissions =
+                    PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile));
+                assertEquals(permissions, "rw-------");
+            }
+
+            // a client with the wrong token is rejected, and can't stop the daemon
+            Path wrongToken = directory.resolve("wrong");
+            Files.write(wrongToken, "0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+            SighClient intruder = new SighClient(daemon.port(), wrongToken);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            String error = intruder.runSource("print(\"owned\")", out);
+            assertNotNull(error);
+            assertTrue(error.contains("unauthorized"), error);
+            assertEquals(out.size(), 0);
+            intruder.shutdown();
+
+            // the daemon still serves authenticated clients
+            out = new ByteArrayOutputStream();
+            assertNull(new SighClient(daemon.port(), tokenFile).runSource("print(\"ok\")", out));
+            assertEquals(out.toString("UTF-8"), "ok\n");
+        } finally {
+            daemon.close();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testIdleConnection () throws Exception
+    {
+        Path tokenFile = Files.createTempDirectory("sigh-daemon").resolve("token");
+        SighDaemon daemon = new SighDaemon(InterpreterOptions.DEFAULT, 0, 1, tokenFile);
+        new Thread(daemon::serve).start();
+        try (Socket idle = new Socket(InetAddress.getLoopbackAddress(), daemon.port())) {
+            // a connection that never sends its token is closed, and releases the only worker
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertNull(new SighClient(daemon.port(), tokenFile).runSource("print(\"ok\")", out));
+            assertEquals(out.toString("UTF-8"), "ok\n");
+            idle.setSoTimeout(10_000);
+            assertEquals(idle.getInputStream().read(), -1);
+        } finally {
+            daemon.close();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,177 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.positions.Span;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.generator.ProgramGenerator;
+import norswap.sigh.parser.SighLexer;
+import norswap.sigh.parser.SighParser;
+import norswap.sigh.parser.TokenType;
+import norswap.sigh.parser.Tokens;
+import norswap.utils.IO;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.lang.reflect.Field;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.List;
+
+import static org.testng.Assert.assertTrue;
+
+public final class SighParserTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighGrammar grammar = new SighGrammar();
+
+    private final ParseOptions options = ParseOptions.builder().get();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Checks that the token-based parser produces the same tree as the grammar, with the same
+     * spans, up to the whitespace and comments that follow the last token of a node (cf. {@link
+     * SighParser}).
+     */
+    private void check (String source)
+    {
+        ParseResult result = Autumn.parse(grammar.root, source, options);
+        assertTrue(result.fullMatch, source);
+        RootNode expected = (RootNode) result.topValue();
+        RootNode actual = SighParser.parse(source);
+        assertEquals(actual, expected);
+        checkSpans(source, actual, expected);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Checks that the nodes of the two (structurally equal) trees start at the same offset, and
+     * that their ends are only separated by whitespace and comments.
+     */
+    private void checkSpans (String source, Object actual, Object expected)
+    {
+        if (actual instanceof List) {
+            List<?> actualList = (List<?>) actual, expectedList = (List<?>) expected;
+            for (int i = 0; i < actualList.size(); ++i)
+                checkSpans(source, actualList.get(i), expectedList.get(i));
+            return;
+        }
+        if (!(actual instanceof SighNode))
+            return;
+
+        Span a = ((SighNode) actual).span, e = ((SighNode) expected).span;
+        assertTrue((a == null) == (e == null), actual + " / " + expected);
+        if (a != null) {
+            assertEquals(a.start, e.start);
+            String gap = source.substring(Math.min(a.end, e.end), Math.max(a.end, e.end));
+            assertEquals(SighLexer.tokenize(gap).count(), 1); // only EOF
+        }
+
+        try {
+            for (Field field: actual.getClass().getFields())
+                if (!field.getName().equals("span"))
+                    checkSpans(source, field.get(actual), field.get(expected));
+        } catch (IllegalAccessException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void checkError (String source, int offset)
+    {
+        try {
+            SighParser.parse(source);
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof ParseException, e.toString());
+            assertEquals(((ParseException) e.getCause()).getErrorOffset(), offset);
+            return;
+        }
+        throw new AssertionError("expected a syntax error for: " + source);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testLexer ()
+    {
+        Tokens tokens =
+            SighLexer.tokenize("var x: Int = -42 // comment\n /* x */ x >= 1.5; \"a\\n\"");
+        int[] types = {
+            TokenType.VAR, TokenType.IDENTIFIER, TokenType.COLON, TokenType.IDENTIFIER,
+            TokenType.EQUALS, TokenType.MINUS, TokenType.INTEGER, TokenType.IDENTIFIER,
+            TokenType.RANGLE_EQUAL, TokenType.FLOAT, TokenType.STRING, TokenType.EOF };
+        assertEquals(tokens.count(), types.length);
+        for (int i = 0; i < types.length; ++i)
+            assertEquals(tokens.type(i), types[i]);
+        assertEquals(tokens.text(1), "x");
+        assertEquals(tokens.text(9), "1.5");
+        assertEquals(tokens.text(10), "\"a\\n\"");
+        assertEquals(tokens.start(11), tokens.source.length());
+
+        // keywords are only recognized as whole words
+        assertEquals(SighLexer.tokenize("variable").type(0), TokenType.IDENTIFIER);
+        assertEquals(SighLexer.tokenize("_if2").type(0), TokenType.IDENTIFIER);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testExpressions ()
+    {
+        check("print(\"\" + (1 + 2 * 3 - 4 / 5 % 6))");
+        check("x = y = [1, -2, 3.5, -4.0][0]");
+        check("f(a.b.c, a[1][2], g()(1), $P, !!true)");
+        check("print(\"\" + (1 < 2 && 3 <= 4 || 5 > 6 && 7 >= 8 || 9 == 10 && 11 != 12))");
+        check("x = a -1"); // subtraction, not a negative literal
+        check("x = 0:10");
+        check("print(\"a\\\"b\\\\c\")");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testStatements ()
+    {
+        check("var x: Int = 1; var y: Int[][] = [[1]]; var z: Int[2] = [1, 2]");
+        check("fun f (a: Int, b: String[]): Int { return a } fun g () {} fun h () { return }");
+        check("struct P { var x: Int; var y: Float } struct E {}");
+        check("if x f() else if y g() else { h() }");
+        check("while x < 10 { x = x + 1 }");
+        check("for var i: Int = 0 do i = i + 1 until i == 10 print(\"\" + i)");
+        check("for var i: Int = 0 do i = i + 1 { }");
+        check("for x: Int in 0:10 print(\"\" + x)");
+        check("{ { } } return 1");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testPrograms ()
+    {
+        for (String example: new String[] { "fizzbuzz", "kitchensink" })
+            check(IO.slurp(Paths.get("examples", example + ".si").toString()));
+        check(new ProgramGenerator().scale(50).generate());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testErrors ()
+    {
+        checkError("", 0);
+        checkError("var x: Int = ", 13);
+        checkError("x", 1);
+        checkError("var x: Int = 1 +", 16);
+        checkError("x = - 2", 4);
+        checkError("if x { f() ", 11);
+        checkError("a & b", 2);
+        checkError("\"a\\q\"", 2);
+        checkError("/* unterminated", 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,130 @@
+import norswap.autumn.AutumnTestFixture;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.InterpreterOptions;
+import norswap.uranium.Reactor;
+import norswap.utils.IO;
+import norswap.utils.TestFixture;
+import norswap.utils.data.wrappers.Pair;
+import norswap.utils.visitors.Walker;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public final class TieredExecutionTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighGrammar grammar = new SighGrammar();
+    private final AutumnTestFixture autumnFixture = new AutumnTestFixture();
+
+    {
+        autumnFixture.runTwice = false;
+        autumnFixture.bottomClass = this.getClass();
+        autumnFixture.rule = grammar.root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private RootNode root;
+    private Interpreter interpreter;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Pair<String, Object> run (String input)
+    {
+        root = autumnFixture.success(input).topValue();
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(root);
+        reactor.run();
+        assertTrue(reactor.errors().isEmpty());
+
+        InterpreterOptions options = InterpreterOptions.builder()
+            .tieringThreshold(10)
+            .backgroundCompilation(false)
+            .get();
+        interpreter = new Interpreter(reactor, options);
+        return IO.captureStdout(() -> interpreter.interpret(root));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean isCompiled (int statement) {
+        return interpreter.tiering().isCompiled((FunDeclarationNode) root.statements.get(statement));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testHotFunction ()
+    {
+        Pair<String, Object> result = run(
+            "fun add (a: Int, b: Int): Int { return a + b }" +
+            "var sum: Int = 0;" +
+            "var i: Int = 0;" +
+            "while (i < 100) { sum = add(sum, i); i = i + 1 }" +
+            "return sum");
+        assertEquals(result.b, 4950L);
+        assertTrue(isCompiled(0));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testLoopsAndCallees ()
+    {
+        Pair<String, Object> result = run(
+            "fun square (x: Float): Float { return x * x }" +
+            "fun total (n: Int): Float {" +
+            "  var sum: Float = 0; var x: Float = 0; var i: Int = 0;" +
+            "  while (i < n) { sum = sum + square(x); x = x + 1; i = i + 1 }" +
+            "  return sum" +
+            "}" +
+            "print(\"\" + total(20)); print(\"\" + total(3))");
+        assertEquals(result.a, "2470.0\n5.0\n");
+        assertTrue(isCompiled(1));
+        assertTrue(isCompiled(0)); // compiled with its caller
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testFloatsAcrossThreshold ()
+    {
+        // the interpreter keeps integers passed or returned as floats as integers: compiling must
+        // not change what gets printed
+        Pair<String, Object> result = run(
+            "fun id (x: Float): Float { return x }" +
+            "fun one (): Float { return 1 }" +
+            "var i: Int = 0;" +
+            "while (i < 20) { print(\"\" + id(1) + one() + id(0.5)); i = i + 1 }");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; ++i) expected.append("110.5\n");
+        assertEquals(result.a, expected.toString());
+        assertTrue(isCompiled(0)); // but only used for float arguments
+        assertFalse(isCompiled(1));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testIneligible ()
+    {
+        // arrays are represented differently by compiled code
+        Pair<String, Object> result = run(
+            "fun first (a: Int[]): Int { return a[0] }" +
+            "var i: Int = 0; var sum: Int = 0;" +
+            "while (i < 20) { sum = sum + first([i]); i = i + 1 }" +
+            "return sum");
+        assertEquals(result.b, 190L);
+        assertFalse(isCompiled(0));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,67 @@
+import norswap.sigh.output.ValueFormatter;
+import norswap.utils.TestFixture;
+import org.testng.annotations.Test;
+import java.util.Arrays;
+
+public final class ValueFormatterTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ValueFormatter formatter = new ValueFormatter();
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testScalars ()
+    {
+        assertEquals(formatter.format(42L), "42");
+        assertEquals(formatter.format(Long.MIN_VALUE), String.valueOf(Long.MIN_VALUE));
+        assertEquals(formatter.format(true), "true");
+        assertEquals(formatter.format("abc"), "abc");
+
+        double[] doubles = { 0.0, -0.0, 3.0, -3.0, 0.1, 1.5, 9999999.0, 1e7, 1e-5, 1e300,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE };
+        for (double d: doubles)
+            assertEquals(formatter.format(d), Double.toString(d));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testArrays ()
+    {
+        Object[] nested = { 1L, new Object[] { 2.5, "x" }, new Object[0], null, true };
+        assertEquals(formatter.format(nested), Arrays.deepToString(nested));
+
+        Object[] self = { 1L, null };
+        self[1] = self;
+        assertEquals(formatter.format(self), Arrays.deepToString(self));
+
+        Object[] a = { 1L, null }, b = { a, a };
+        a[1] = b;
+        Object[] cycle = { a, b, new Object[] { a } };
+        assertEquals(formatter.format(cycle), Arrays.deepToString(cycle));
+
+        long[] longs = { 1, -2, 3 };
+        double[] doubles = { 1.0, -0.0, 0.25 };
+        boolean[] booleans = { true, false };
+        assertEquals(formatter.format(longs), Arrays.toString(longs));
+        assertEquals(formatter.format(doubles), Arrays.toString(doubles));
+        assertEquals(formatter.format(booleans), Arrays.toString(booleans));
+        assertEquals(formatter.format(new Object[] { longs, doubles }),
+            Arrays.deepToString(new Object[] { longs, doubles }));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testReuse ()
+    {
+        assertEquals(formatter.concat("a", 1L), "a1");
+        assertEquals(formatter.format(2.0), "2.0");
+        assertEquals(formatter.concat(1.5, "b"), "1.5b");
+        assertEquals(formatter.format(new Object[] { "c" }), "[c]");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
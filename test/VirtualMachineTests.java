@@ -0,0 +1,201 @@
+import norswap.autumn.AutumnTestFixture;
+import norswap.autumn.ParseResult;
+import norswap.autumn.positions.LineMapString;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.RootNode;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.interpreter.LengthException;
+import norswap.sigh.interpreter.Null;
+import norswap.sigh.vm.VirtualMachine;
+import norswap.sigh.vm.VmCompiler;
+import norswap.sigh.vm.VmProgram;
+import norswap.uranium.Reactor;
+import norswap.uranium.SemanticError;
+import norswap.utils.IO;
+import norswap.utils.TestFixture;
+import norswap.utils.data.wrappers.Pair;
+import norswap.utils.visitors.Walker;
+import org.testng.annotations.Test;
+import java.util.HashMap;
+import java.util.Set;
+
+import static org.testng.Assert.assertThrows;
+
+public final class VirtualMachineTests extends TestFixture {
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final SighGrammar grammar = new SighGrammar();
+    private final AutumnTestFixture autumnFixture = new AutumnTestFixture();
+
+    {
+        autumnFixture.runTwice = false;
+        autumnFixture.bottomClass = this.getClass();
+        autumnFixture.rule = grammar.root;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private VmProgram compile (String input)
+    {
+        ParseResult parseResult = autumnFixture.success(input);
+        RootNode root = parseResult.topValue();
+
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(root);
+        reactor.run();
+        Set<SemanticError> errors = reactor.errors();
+
+        if (!errors.isEmpty()) {
+            LineMapString map = new LineMapString("<test>", input);
+            String report = reactor.reportErrors(it ->
+                it.toString() + " (" + ((SighNode) it).span.startString(map) + ")");
+            throw new AssertionError(report);
+        }
+
+        return new VmCompiler(reactor).compile(root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void check (String input, Object expectedReturn) {
+        check(input, expectedReturn, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void check (String input, Object expectedReturn, String expectedOutput)
+    {
+        VmProgram program = compile(input);
+        Pair<String, Object> result = IO.captureStdout(() -> new VirtualMachine(program).run());
+        assertEquals(result.b, expectedReturn);
+        if (expectedOutput != null) assertEquals(result.a, expectedOutput);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void checkExpr (String input, Object expectedReturn) {
+        check("return " + input, expectedReturn);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void checkThrows (String input, Class<? extends Throwable> expected) {
+        assertThrows(expected, () -> check(input, null));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testLiteralsAndUnary () {
+        checkExpr("42", 42L);
+        checkExpr("42.0", 42.0d);
+        checkExpr("\"hello\"", "hello");
+        checkExpr("[1, 2, 3]", new Object[]{1L, 2L, 3L});
+        checkExpr("true", true);
+        checkExpr("null", Null.INSTANCE);
+        checkExpr("!!true", true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testBinary () {
+        checkExpr("2 * (4-1) * 4.0 / 6 % (2+1)", 1.0d);
+        checkExpr("3 / 2", 1L);
+        checkExpr("1 == 1.0", true);
+        checkExpr("[1] == [1]", true);
+        checkExpr("\"a\" + 1 + true + 1.5", "a1true1.5");
+        checkExpr("true || print(\"x\") == \"y\"", true);
+        checkExpr("false && print(\"x\") == \"y\"", false);
+        check("var x: Int = 1; return x + (x = 5)", 6L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testVariablesAndBlocks () {
+        check("var x: Float = 1; x = 2; return x", 2.0d);
+        check(
+            "var x: Int = 1;" +
+            "{ print(\"\" + x); var x: Int = 2; print(\"\" + x) }" +
+            "print(\"\" + x)",
+            null, "1\n2\n1\n");
+        // structurally equal declarations are distinct variables
+        check("var x: Int = 1; { var x: Int = 1; x = 2 } return x", 1L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testCalls () {
+        check("fun add (a: Int, b: Int): Int { return a + b } return add(4, 7)", 11L);
+        check("fun fact (n: Int): Int { if (n <= 1) return 1 else return n * fact(n - 1) }" +
+            "return fact(10)", 3628800L);
+        check("fun half (x: Float): Float { return x / 2 } return half(3)", 1.5d);
+        check("var n: Int = 0; fun inc () { n = n + 1 } inc(); inc(); return n", 2L);
+
+        HashMap<String, Object> point = new HashMap<>();
+        point.put("x", 1L);
+        point.put("y", 2L);
+        check("struct Point { var x: Int; var y: Int } return $Point(1, 2)", point);
+        check("struct P { var x: Int; var y: Int } var p: P = $P(1, 2); p.y = 42; return p.y", 42L);
+        check("var str: String = null; return print(str + 1)", "null1", "null1\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testLoops () {
+        check("var i: Int = 0; while (i < 3) { print(\"\" + i); i = i + 1 }", null, "0\n1\n2\n");
+        check("for var i: Int = 1 do i + 1 until i > 3 { print(i + \"\"); }", null, "1\n2\n3\n");
+        check("var sum: Int = 0 ; for i: Int in [1,2,3,4,5] { sum = sum + i; if (i > 3) return sum; }", 10L);
+        checkThrows("var a: Int[] = []; for i: Int in a {}", IndexOutOfBoundsException.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testArrays () {
+        check("var x: Int[] = [0, 1]; x[0] = 3; return x[0]", 3L);
+        check("print((2:6) + \"\")", null, "[2, 3, 4, 5]\n");
+        check("var a: Int[] = [0,0,0,0,0]; a[1:4] = [1,2,3]; print(a+\"\")", null, "[0, 1, 2, 3, 0]\n");
+        check("var a: Int[] = [1,2,3]; var b: Int[] = a[0:2] + a[1:3]; print(b +\"\")", null, "[3, 5]\n");
+        check("var a: Int[][] = [1,0,2] + [[1,2,3],[4,5,6],[7,8,9]]; print(a +\"\")",
+            null, "[[2, 3, 4], [4, 5, 6], [9, 10, 11]]\n");
+        check("var a: Float[] = [1.0,2.0,3.0]; var b: Float[] = a + 1; print(b +\"\")",
+            null, "[2.0, 3.0, 4.0]\n");
+
+        checkThrows("var array: Int[] = null; return array[0]", NullPointerException.class);
+        checkThrows("var x: Int[] = []; x[0] = 3", ArrayIndexOutOfBoundsException.class);
+        checkThrows("var a: Int[] = [1,2,3]; var b: Int[] = [1,2]; var c: Int[] = a + b",
+            LengthException.class);
+        checkThrows("var a: Int[] = [] + 1", ArithmeticException.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testLengthHinting () {
+        check("var a: Int[2][4] = [[1,1],[2,2],[3,3],[4,4]]", null);
+        checkThrows("var a: Int[0] = []", AssertionError.class);
+        checkThrows("var a: Int[1][] = []", NullPointerException.class);
+        check("fun f(i:Int, x:Int[i]): Int { return x[i-1] } ; return f(3,[1,2,3])", 3L);
+        checkThrows("fun f(x:Int[]): Int[2] { return x } ; return f([1,2,3])", AssertionError.class);
+        checkThrows("var ii: Int[][] = [[1],[2]]; for i:Int[12] in ii {}", AssertionError.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testRegisters () {
+        // root variables are globals, and temporaries are reused across statements
+        VmProgram program = compile("var x: Int = 1 + 2 * 3; var y: Int = 4 + 5 * 6; return x + y");
+        assertEquals(program.longGlobals, 2);
+        assertEquals(program.main.longRegisters, 5);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}